@@ -5,14 +5,18 @@ import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
 import jline.SimpleCompletor;
 import simpledb.common.Database;
 import simpledb.common.DbException;
+import simpledb.common.Permissions;
 import simpledb.common.Type;
 import simpledb.execution.*;
+import simpledb.optimizer.LogicalFilterTree;
 import simpledb.optimizer.LogicalPlan;
 import simpledb.optimizer.TableStats;
 import simpledb.storage.IntField;
@@ -24,6 +28,11 @@ import simpledb.transaction.TransactionId;
 
 public class Parser {
     static boolean explain = false;
+    /**
+     * Whether standalone SELECT statements run as read-only transactions,
+     * which take no locks and read committed snapshots instead
+     */
+    static boolean readOnlyQueries = false;
 
     public static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("="))
@@ -60,9 +69,8 @@ public class Parser {
                 processExpression(tid, newWx, lp);
 
             }
-        } else if (wx.getOperator().equals("OR")) {
-            throw new simpledb.ParsingException(
-                    "OR expressions currently unsupported.");
+        } else if (wx.getOperator().equals("OR") || wx.getOperator().equals("NOT")) {
+            lp.addFilter(filterTree(wx, lp));
         } else {
             // this is a binary expression comparing two constants
             @SuppressWarnings("unchecked")
@@ -137,6 +145,50 @@ public class Parser {
 
     }
 
+    /**
+     * Build the tree of filters for an expression combining comparisons of
+     * fields with constants through AND, OR and NOT.
+     */
+    LogicalFilterTree filterTree(ZExpression wx, LogicalPlan lp)
+            throws simpledb.ParsingException {
+        String operator = wx.getOperator();
+        if (operator.equals("AND") || operator.equals("OR") || operator.equals("NOT")) {
+            List<LogicalFilterTree> operands = new ArrayList<>();
+            for (int i = 0; i < wx.nbOperands(); i++) {
+                if (!(wx.getOperand(i) instanceof ZExpression)) {
+                    throw new simpledb.ParsingException(
+                            "Nested queries are currently unsupported.");
+                }
+                operands.add(filterTree((ZExpression) wx.getOperand(i), lp));
+            }
+            if (operator.equals("NOT")) {
+                return LogicalFilterTree.not(operands.get(0));
+            }
+            return operator.equals("AND") ? LogicalFilterTree.and(operands)
+                    : LogicalFilterTree.or(operands);
+        }
+
+        Predicate.Op op = getOp(operator);
+        @SuppressWarnings("unchecked")
+        List<ZExp> ops = wx.getOperands();
+        if (ops.size() != 2 || !(ops.get(0) instanceof ZConstant)
+                || !(ops.get(1) instanceof ZConstant)) {
+            throw new simpledb.ParsingException(
+                    "Only comparisons of the form A op B, where A or B is a field and the other a constant, are supported under OR and NOT.");
+        }
+        ZConstant op1 = (ZConstant) ops.get(0);
+        ZConstant op2 = (ZConstant) ops.get(1);
+        if ((op1.getType() == ZConstant.COLUMNNAME) == (op2.getType() == ZConstant.COLUMNNAME)) {
+            throw new simpledb.ParsingException(
+                    "Only comparisons of a field with a constant are supported under OR and NOT.");
+        }
+        if (op1.getType() == ZConstant.COLUMNNAME) {
+            return lp.comparison(op1.getValue(), op, op2.getValue());
+        } else {
+            return lp.comparison(op2.getValue(), op, op1.getValue());
+        }
+    }
+
     public LogicalPlan parseQueryLogicalPlan(TransactionId tid, ZQuery q)
             throws IOException, Zql.ParseException, simpledb.ParsingException {
         @SuppressWarnings("unchecked")
@@ -258,18 +310,15 @@ public class Parser {
         if (q.getOrderBy() != null) {
             @SuppressWarnings("unchecked")
             List<ZOrderBy> obys = q.getOrderBy();
-            if (obys.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "Multi-attribute ORDER BY is not supported.");
-            }
-            ZOrderBy oby = obys.get(0);
-            if (!(oby.getExpression() instanceof ZConstant)) {
-                throw new simpledb.ParsingException(
-                        "Complex ORDER BY's are not supported");
-            }
-            ZConstant f = (ZConstant) oby.getExpression();
+            for (ZOrderBy oby : obys) {
+                if (!(oby.getExpression() instanceof ZConstant)) {
+                    throw new simpledb.ParsingException(
+                            "Complex ORDER BY's are not supported");
+                }
+                ZConstant f = (ZConstant) oby.getExpression();
 
-            lp.addOrderBy(f.getValue(), oby.getAscOrder());
+                lp.addOrderBy(f.getValue(), oby.getAscOrder());
+            }
 
         }
         return lp;
@@ -277,13 +326,41 @@ public class Parser {
 
     private Transaction curtrans = null;
     private boolean inUserTrans = false;
+    private int parallelism = 1;
+
+    /**
+     * Set the number of threads each following query runs on, which the
+     * "set parallelism n;" console command changes.
+     *
+     * @throws simpledb.ParsingException if parallelism is less than 1
+     */
+    public void setParallelism(int parallelism) throws simpledb.ParsingException {
+        if (parallelism < 1) {
+            throw new simpledb.ParsingException("the degree of parallelism must be at least 1");
+        }
+        this.parallelism = parallelism;
+    }
 
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws IOException,
             simpledb.ParsingException, Zql.ParseException {
+        return handleQueryStatement(s, tId, -1, 0);
+    }
+
+    /**
+     * Plan a query that ends in LIMIT limit OFFSET offset; a negative limit
+     * means there is no LIMIT clause.
+     */
+    public Query handleQueryStatement(ZQuery s, TransactionId tId, int limit, int offset)
+            throws IOException,
+            simpledb.ParsingException, Zql.ParseException {
         Query query = new Query(tId);
 
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        if (limit >= 0) {
+            lp.setLimit(limit, offset);
+        }
+        lp.setParallelism(parallelism);
         OpIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -411,6 +488,7 @@ public class Parser {
         lp.setQuery(s.toString());
 
         lp.addScan(id, name);
+        lp.setScanPermissions(Permissions.UPDATE);
         if (s.getWhere() != null)
             processExpression(tid, (ZExpression) s.getWhere(), lp);
         lp.addProjectField("null.*", null);
@@ -465,12 +543,17 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException, IOException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        LimitClause limit = LimitClause.split(s);
+        ByteArrayInputStream bis = new ByteArrayInputStream(limit.statement.getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
-                return parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                if (limit.limit >= 0) {
+                    lp.setLimit(limit.limit, limit.offset);
+                }
+                return lp;
             }
         } catch (Zql.ParseException e) {
             throw new simpledb.ParsingException(
@@ -495,15 +578,22 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
+            LimitClause limit = LimitClause.split(readAll(is));
+            ZqlParser p = new ZqlParser(new ByteArrayInputStream(
+                    limit.statement.getBytes(StandardCharsets.UTF_8)));
             ZStatement s = p.readStatement();
+            if (limit.limit >= 0 && !(s instanceof ZQuery)) {
+                throw new simpledb.ParsingException("LIMIT is only supported on SELECT statements");
+            }
 
             Query query = null;
             if (s instanceof ZTransactStmt)
                 handleTransactStatement((ZTransactStmt) s);
             else {
                 if (!this.inUserTrans) {
-                    curtrans = new Transaction();
+                    // a standalone SELECT never writes, so if asked to it
+                    // skips locking and logging altogether
+                    curtrans = new Transaction(readOnlyQueries && s instanceof ZQuery);
                     curtrans.start();
                     System.out.println("Started a new transaction tid = "
                             + curtrans.getId().getId());
@@ -517,7 +607,7 @@ public class Parser {
                                 curtrans.getId());
                     else if (s instanceof ZQuery)
                         query = handleQueryStatement((ZQuery) s,
-                                curtrans.getId());
+                                curtrans.getId(), limit.limit, limit.offset);
                     else {
                         System.out
                                 .println("Can't parse "
@@ -564,14 +654,65 @@ public class Parser {
         }
     }
 
+    private static String readAll(InputStream is) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = is.read(buf)) > 0) {
+            out.write(buf, 0, n);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A trailing "LIMIT n [OFFSET m]" split off a statement. Zql does not
+     * know about LIMIT, so the clause is removed from the text of the first
+     * statement before it is parsed and applied to the logical plan instead.
+     */
+    static class LimitClause {
+        private static final Pattern LIMIT = Pattern.compile(
+                "\\s+limit\\s+(\\d+)(?:\\s+offset\\s+(\\d+))?\\s*$",
+                Pattern.CASE_INSENSITIVE);
+
+        /** the statement without its LIMIT clause */
+        final String statement;
+        /** the LIMIT, or -1 if there is none */
+        final int limit;
+        final int offset;
+
+        private LimitClause(String statement, int limit, int offset) {
+            this.statement = statement;
+            this.limit = limit;
+            this.offset = offset;
+        }
+
+        static LimitClause split(String s) throws simpledb.ParsingException {
+            int end = s.indexOf(';');
+            String first = end < 0 ? s : s.substring(0, end);
+            Matcher m = LIMIT.matcher(first);
+            if (!m.find()) {
+                return new LimitClause(s, -1, 0);
+            }
+            try {
+                int limit = Integer.parseInt(m.group(1));
+                int offset = m.group(2) == null ? 0 : Integer.parseInt(m.group(2));
+                return new LimitClause(first.substring(0, m.start()) + s.substring(first.length()),
+                        limit, offset);
+            } catch (NumberFormatException e) {
+                throw new simpledb.ParsingException("LIMIT or OFFSET out of range: " + m.group());
+            }
+        }
+    }
+
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "order by", "limit", "offset",
+            "set parallelism" };
 
     public static void main(String[] argv) throws IOException {
 
-        if (argv.length < 1 || argv.length > 4) {
+        if (argv.length < 1 || argv.length > 5) {
             System.out.println("Invalid number of arguments.\n" + usage);
             System.exit(0);
         }
@@ -581,7 +722,13 @@ public class Parser {
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    private static final Pattern SET_PARALLELISM = Pattern.compile(
+            "set\\s+parallelism\\s+(\\d+);", Pattern.CASE_INSENSITIVE);
+
+    /** Number of contended pages listed by the "show locks;" console command */
+    static final int LOCK_REPORT_PAGES = 10;
+
+    static final String usage = "Usage: parser catalogFile [-explain] [-readonly] [-f queryFile]";
     static final int SLEEP_TIME = 1000;
 
     protected void shutdown() {
@@ -602,6 +749,9 @@ public class Parser {
                 if (argv[i].equals("-explain")) {
                     explain = true;
                     System.out.println("Explain mode enabled.");
+                } else if (argv[i].equals("-readonly")) {
+                    readOnlyQueries = true;
+                    System.out.println("SELECT statements run as read-only transactions.");
                 } else if (argv[i].equals("-f")) {
                     interactive = false;
                     if (i++ == argv.length) {
@@ -667,6 +817,31 @@ public class Parser {
                         quit = true;
                         break;
                     }
+                    if (cmd.equalsIgnoreCase("show locks;")) {
+                        System.out.print(Database.getBufferPool()
+                                .getLockMetrics().report(LOCK_REPORT_PAGES));
+                        line = line.substring(split + 1);
+                        buffer = new StringBuilder();
+                        continue;
+                    }
+                    Matcher setParallelism = SET_PARALLELISM.matcher(cmd);
+                    if (setParallelism.matches()) {
+                        try {
+                            setParallelism(Integer.parseInt(setParallelism.group(1)));
+                            System.out.println("Parallelism set to " + parallelism + ".");
+                        } catch (simpledb.ParsingException | NumberFormatException e) {
+                            System.out.println("Invalid parallelism: " + e.getMessage());
+                        }
+                        line = line.substring(split + 1);
+                        buffer = new StringBuilder();
+                        continue;
+                    }
+                    if (cmd.equalsIgnoreCase("reset locks;")) {
+                        Database.getBufferPool().getLockMetrics().reset();
+                        line = line.substring(split + 1);
+                        buffer = new StringBuilder();
+                        continue;
+                    }
 
                     long startTime = System.currentTimeMillis();
                     processNextStatement(new ByteArrayInputStream(
@@ -2,6 +2,7 @@ package simpledb.common;
 
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
+import simpledb.storage.PaxFile;
 import simpledb.storage.TupleDesc;
 
 import java.io.BufferedReader;
@@ -144,7 +145,7 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(catalogFile));
             
             while ((line = br.readLine()) != null) {
-                //assume line is of the format name (field type, field type, ...)
+                //assume line is of the format name (field type, field type, ...) [pax|compressed|slotted]
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
@@ -175,7 +176,22 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                String format = line.substring(line.indexOf(")") + 1).trim();
+                File tableFile = new File(baseFolder+"/"+name + ".dat");
+                DbFile tabHf;
+                if (format.equalsIgnoreCase("pax"))
+                    tabHf = new PaxFile(tableFile, t);
+                else if (format.equalsIgnoreCase("compressed"))
+                    tabHf = new PaxFile(tableFile, t, true);
+                else if (format.equalsIgnoreCase("slotted"))
+                    tabHf = new HeapFile(tableFile, t, true);
+                else if (format.isEmpty())
+                    tabHf = new HeapFile(tableFile, t);
+                else {
+                    System.out.println("Unknown table format " + format);
+                    System.exit(0);
+                    return;
+                }
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
@@ -2,9 +2,10 @@ package simpledb.common;
 
 /**
  * Class representing requested permissions to a relation/file.
- * Private constructor with two static objects READ_ONLY and READ_WRITE that
- * represent the two levels of permission.
+ * READ_ONLY and READ_WRITE represent the two levels of permission. UPDATE
+ * is a read permission taken by transactions that intend to write the page
+ * later; it can coexist with READ_ONLY but not with another UPDATE.
  */
 public enum Permissions {
-    READ_ONLY, READ_WRITE
+    READ_ONLY, READ_WRITE, UPDATE
 }
@@ -22,7 +22,7 @@ public enum Type implements Serializable {
         @Override
         public Field parse(DataInputStream dis) throws ParseException {
             try {
-                return new IntField(dis.readInt());
+                return IntField.valueOf(dis.readInt());
             }  catch (IOException e) {
                 throw new ParseException("couldn't parse", 0);
             }
@@ -46,6 +46,27 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public int getLen(Field f) {
+            return 2 + ((StringField) f).getValue().length();
+        }
+
+        @Override
+        public int getMinLen() {
+            return 2;
+        }
+
+        @Override
+        public Field parseVariable(DataInputStream dis) throws ParseException {
+            try {
+                byte[] bs = new byte[dis.readUnsignedShort()];
+                dis.readFully(bs);
+                return new StringField(new String(bs));
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -64,4 +85,31 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return the number of bytes f takes in a variable-length record, as
+   *         written by {@link Field#serializeVariable}
+   */
+    public int getLen(Field f) {
+        return getLen();
+    }
+
+  /**
+   * @return the smallest number of bytes a field of this type can take in a
+   *         variable-length record
+   */
+    public int getMinLen() {
+        return getLen();
+    }
+
+  /**
+   * @return a Field object of this type, read from a variable-length
+   *         record written by {@link Field#serializeVariable}
+   * @param dis The input stream to read from
+   * @throws ParseException if the data read from the input stream is not
+   *         of the appropriate type.
+   */
+    public Field parseVariable(DataInputStream dis) throws ParseException {
+        return parse(dis);
+    }
+
 }
@@ -2,10 +2,15 @@ package simpledb.execution;
 
 import simpledb.common.DbException;
 import simpledb.common.Type;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.SpillFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.NoSuchElementException;
 
 import static simpledb.common.Type.INT_TYPE;
@@ -17,6 +22,13 @@ import static simpledb.execution.Aggregator.NO_GROUPING;
  * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
  * min). Note that we only support aggregates over a single column, grouped by a
  * single column.
+ * <p>
+ * Groups are aggregated in memory up to a budget of memoryPages pages worth of
+ * input tuples. Once that many groups exist, tuples of new groups are hash
+ * partitioned into {@link SpillFile}s, and each partition is aggregated the
+ * same way after the in-memory groups have been returned. Partitions are
+ * split again until MAX_SPILL_DEPTH, below which they are aggregated in
+ * memory regardless of the budget.
  */
 public class Aggregate extends Operator {
 
@@ -26,9 +38,33 @@ public class Aggregate extends Operator {
     private int afield;
     private int gfield;
     private Aggregator.Op aop;
-    private final Aggregator aggregator;
+    private final Type aFieldType;
+    private final Type gFieldType;
+    private final int memoryPages;
+    private final TupleDesc td;
     private OpIterator aggIterator;
 
+    /** Default memory budget, in pages of input tuples */
+    public static final int DEFAULT_MEMORY_PAGES = 64;
+    /** Number of partitions a spilling pass splits new groups into */
+    static final int SPILL_FANOUT = 16;
+    /** Number of times a partition may be split again */
+    static final int MAX_SPILL_DEPTH = 4;
+
+    // spilled partitions still to be aggregated
+    private final Deque<Partition> pending = new ArrayDeque<>();
+    private boolean spilled;
+
+    private static class Partition {
+        final SpillFile file;
+        final int depth;
+
+        Partition(SpillFile file, int depth) {
+            this.file = file;
+            this.depth = depth;
+        }
+    }
+
     /**
      * Constructor.
      * <p>
@@ -43,21 +79,39 @@ public class Aggregate extends Operator {
      * @param aop    The aggregation operator to use
      */
     public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
+        this(child, afield, gfield, aop, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param child       The OpIterator that is feeding us tuples.
+     * @param afield      The column over which we are computing an aggregate.
+     * @param gfield      The column over which we are grouping the result, or -1 if
+     *                    there is no grouping
+     * @param aop         The aggregation operator to use
+     * @param memoryPages The number of pages of input tuples worth of groups to
+     *                    keep in memory before spilling
+     */
+    public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop, int memoryPages) {
         // some code goes here
         this.child = child;
         this.afield = afield;
         this.gfield = gfield;
         this.aop = aop;
-        Type type = child.getTupleDesc().getFieldType(afield);
-        Type gFieldType = (gfield == NO_GROUPING) ? null : child.getTupleDesc().getFieldType(gfield);
-        if (INT_TYPE.equals(type)) {
-            aggregator = new IntegerAggregator(gfield, gFieldType, afield, aop);
-        } else if (STRING_TYPE.equals(type)) {
-            aggregator = new StringAggregator(gfield, gFieldType, afield, aop);
-        } else {
-            aggregator = null;
+        this.memoryPages = memoryPages;
+        this.aFieldType = child.getTupleDesc().getFieldType(afield);
+        this.gFieldType = (gfield == NO_GROUPING) ? null : child.getTupleDesc().getFieldType(gfield);
+        this.td = newAggregator().iterator().getTupleDesc();
+    }
+
+    private Aggregator newAggregator() {
+        if (INT_TYPE.equals(aFieldType)) {
+            return new IntegerAggregator(gfield, gFieldType, afield, aop);
+        } else if (STRING_TYPE.equals(aFieldType)) {
+            return new StringAggregator(gfield, gFieldType, afield, aop);
         }
-        aggIterator = aggregator.iterator();
+        throw new IllegalArgumentException("cannot aggregate over " + aFieldType);
     }
 
     /**
@@ -116,13 +170,73 @@ public class Aggregate extends Operator {
             TransactionAbortedException {
         // some code goes here
         child.open();
-        while (child.hasNext()) {
-            aggregator.mergeTupleIntoGroup(child.next());
-        }
-        aggIterator.open();
+        aggIterator = aggregate(child, 0);
         super.open();
     }
 
+    /**
+     * Aggregate the tuples of input, keeping at most the memory budget of
+     * groups and spilling tuples of other groups to new pending partitions.
+     *
+     * @return an open iterator over the groups aggregated in memory
+     */
+    private OpIterator aggregate(OpIterator input, int depth)
+            throws DbException, TransactionAbortedException {
+        Aggregator aggregator = newAggregator();
+        TupleDesc td = input.getTupleDesc();
+        long maxGroups = (long) memoryPages * SpillFile.tuplesPerPage(td);
+        boolean canSpill = gfield != NO_GROUPING && depth < MAX_SPILL_DEPTH;
+        SpillFile[] partitions = new SpillFile[SPILL_FANOUT];
+        try {
+            while (input.hasNext()) {
+                Tuple t = input.next();
+                if (!canSpill || aggregator.numGroups() < maxGroups || aggregator.hasGroup(t)) {
+                    aggregator.mergeTupleIntoGroup(t);
+                    continue;
+                }
+                int p = partition(t, depth);
+                if (partitions[p] == null) {
+                    partitions[p] = new SpillFile(td);
+                    pending.addLast(new Partition(partitions[p], depth + 1));
+                    spilled = true;
+                }
+                partitions[p].add(t);
+            }
+        } catch (IOException e) {
+            throw new DbException("could not spill aggregate input: " + e.getMessage());
+        }
+        OpIterator it = aggregator.iterator();
+        it.open();
+        return it;
+    }
+
+    // pick a partition from the group value, with a different hash per depth
+    // so that a partition is split further when it spills again
+    private int partition(Tuple t, int depth) {
+        int h = t.getField(gfield).hashCode() * (0x9E3779B9 + 2 * depth);
+        h ^= h >>> 16;
+        return Math.floorMod(h, SPILL_FANOUT);
+    }
+
+    private OpIterator aggregatePartition(Partition partition)
+            throws DbException, TransactionAbortedException {
+        DbFileIterator spill = partition.file.iterator();
+        spill.open();
+        try {
+            return aggregate(new SpillScan(spill, partition.file.getTupleDesc()), partition.depth);
+        } finally {
+            spill.close();
+            partition.file.delete();
+        }
+    }
+
+    private void deletePending() {
+        for (Partition partition : pending) {
+            partition.file.delete();
+        }
+        pending.clear();
+    }
+
     /**
      * Returns the next tuple. If there is a group by field, then the first
      * field is the field by which we are grouping, and the second field is the
@@ -132,16 +246,28 @@ public class Aggregate extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        if (aggIterator != null && aggIterator.hasNext()) {
-            return aggIterator.next();
+        while (!aggIterator.hasNext()) {
+            if (pending.isEmpty()) {
+                return null;
+            }
+            aggIterator.close();
+            aggIterator = aggregatePartition(pending.removeFirst());
         }
-        return null;
+        return aggIterator.next();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
-        aggIterator.rewind();
+        if (!spilled) {
+            aggIterator.rewind();
+            return;
+        }
+        // the spilled partitions are consumed as they are returned, so
+        // aggregate the input again
+        deletePending();
+        spilled = false;
         child.rewind();
+        aggIterator = aggregate(child, 0);
     }
 
     /**
@@ -168,12 +294,16 @@ public class Aggregate extends Operator {
 //            return new TupleDesc(new Type[]{child.getTupleDesc().getFieldType(gfield), child.getTupleDesc().getFieldType(afield)},
 //                    new String[]{"", aop.toString() + "(" + aggregateFieldName() + ")"});
 //        }
-        return aggIterator.getTupleDesc();
+        return td;
     }
 
     public void close() {
         // some code goes here
-        aggIterator.close();
+        if (aggIterator != null) {
+            aggIterator.close();
+        }
+        deletePending();
+        spilled = false;
         child.close();
         super.close();
     }
@@ -82,6 +82,17 @@ public interface Aggregator extends Serializable {
      */
     void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * @return the number of distinct groups merged so far
+     */
+    int numGroups();
+
+    /**
+     * @param tup a Tuple with the group-by field of this aggregator
+     * @return true if a tuple of the same group has already been merged
+     */
+    boolean hasGroup(Tuple tup);
+
     /**
      * Create a OpIterator over group aggregate results.
      * @see TupleIterator for a possible helper
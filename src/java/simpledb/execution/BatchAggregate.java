@@ -0,0 +1,129 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import static simpledb.execution.Aggregator.NO_GROUPING;
+
+/**
+ * BatchAggregate is the batch version of {@link Aggregate}. Each input
+ * batch is folded into a {@link GroupTable} column at a time, reading INT
+ * aggregate and group-by values straight from the column vectors. The groups
+ * are kept in memory; unlike Aggregate, BatchAggregate does not spill.
+ */
+public class BatchAggregate implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchOpIterator child;
+    private final int afield;
+    private final int gfield;
+    private final Aggregator.Op aop;
+    private final Type aFieldType;
+    private final Type gFieldType;
+    private final TupleDesc td;
+
+    private transient GroupTable groups;
+    private transient RowToBatchAdapter results;
+
+    /**
+     * @param child the BatchOpIterator that is feeding us tuples
+     * @param afield the column over which we are computing an aggregate
+     * @param gfield the column over which we are grouping the result, or -1
+     *            if there is no grouping
+     * @param aop the aggregation operator to use; only COUNT for a STRING
+     *            aggregate column
+     */
+    public BatchAggregate(BatchOpIterator child, int afield, int gfield, Aggregator.Op aop) {
+        this.aFieldType = child.getTupleDesc().getFieldType(afield);
+        if (aFieldType != Type.INT_TYPE && aop != Aggregator.Op.COUNT) {
+            throw new IllegalArgumentException("only COUNT is supported over " + aFieldType);
+        }
+        this.child = child;
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+        this.gFieldType = gfield == NO_GROUPING ? null : child.getTupleDesc().getFieldType(gfield);
+        this.td = new AggregateIter(new GroupTable(gfield, gFieldType), aop).getTupleDesc();
+    }
+
+    public BatchOpIterator getChild() {
+        return child;
+    }
+
+    /** @return the aggregate field */
+    public int aggregateField() {
+        return afield;
+    }
+
+    /** @return the group by field, or NO_GROUPING */
+    public int groupField() {
+        return gfield;
+    }
+
+    /** @return the aggregation operator */
+    public Aggregator.Op aggregateOp() {
+        return aop;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        groups = new GroupTable(gfield, gFieldType);
+        TupleBatch batch;
+        while ((batch = child.nextBatch()) != null) {
+            fold(batch);
+        }
+        results = new RowToBatchAdapter(new AggregateIter(groups, aop));
+        results.open();
+    }
+
+    private void fold(TupleBatch batch) {
+        int[] sel = batch.selection();
+        int n = batch.numSelected();
+        int[] values = aFieldType == Type.INT_TYPE ? batch.getInts(afield) : null;
+        int[] keys = gFieldType == Type.INT_TYPE ? batch.getInts(gfield) : null;
+        // without grouping every row goes to the one group, which groupOf
+        // creates without looking at the tuple
+        int group = gfield == NO_GROUPING ? groups.groupOf((Tuple) null) : -1;
+        for (int i = 0; i < n; i++) {
+            int row = sel[i];
+            if (keys != null) {
+                group = groups.groupOfInt(keys[row]);
+            } else if (gfield != NO_GROUPING) {
+                group = groups.groupOf(batch.getField(gfield, row));
+            }
+            if (values != null) {
+                groups.add(group, values[row]);
+            } else {
+                groups.add(group);
+            }
+        }
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (results == null) {
+            throw new IllegalStateException("BatchAggregate not yet open");
+        }
+        return results.nextBatch();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        results.rewind();
+    }
+
+    public void close() {
+        child.close();
+        if (results != null) {
+            results.close();
+        }
+        results = null;
+        groups = null;
+    }
+}
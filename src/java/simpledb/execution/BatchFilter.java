@@ -0,0 +1,139 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * BatchFilter is the batch version of {@link Filter}: it narrows the
+ * selection vector of each batch to the rows that satisfy a predicate.
+ * Predicates on INT fields are evaluated by a loop over the column vector
+ * specialized for the comparison operator. If a chain of BatchFilters reads
+ * a {@link BatchSeqScan}, the scan is given the conjunction of their
+ * predicates, to skip pages that cannot match it.
+ */
+public class BatchFilter implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate p;
+    private final BatchOpIterator child;
+
+    public BatchFilter(Predicate p, BatchOpIterator child) {
+        this.p = p;
+        this.child = child;
+    }
+
+    public Predicate getPredicate() {
+        return p;
+    }
+
+    public BatchOpIterator getChild() {
+        return child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        // after opening the child, so that the filter at the top of a chain
+        // sets the condition last
+        List<CompositePredicate> conditions = new ArrayList<>();
+        BatchOpIterator source = this;
+        while (source instanceof BatchFilter) {
+            BatchFilter f = (BatchFilter) source;
+            conditions.add(0, CompositePredicate.of(f.p));
+            source = f.child;
+        }
+        if (source instanceof BatchSeqScan) {
+            ((BatchSeqScan) source).setCondition(CompositePredicate.and(conditions));
+        }
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch batch;
+        while ((batch = child.nextBatch()) != null) {
+            filter(batch);
+            if (batch.numSelected() > 0) {
+                return batch;
+            }
+        }
+        return null;
+    }
+
+    private void filter(TupleBatch batch) {
+        int[] sel = batch.selection();
+        int n = batch.numSelected();
+        int out = 0;
+        if (getTupleDesc().getFieldType(p.getField()) != Type.INT_TYPE) {
+            for (int i = 0; i < n; i++) {
+                int row = sel[i];
+                if (batch.getField(p.getField(), row).compare(p.getOp(), p.getOperand())) {
+                    sel[out++] = row;
+                }
+            }
+            batch.setNumSelected(out);
+            return;
+        }
+        int[] col = batch.getInts(p.getField());
+        int v = ((IntField) p.getOperand()).getValue();
+        switch (p.getOp()) {
+            case EQUALS:
+            case LIKE:
+                for (int i = 0; i < n; i++) {
+                    int row = sel[i];
+                    if (col[row] == v) sel[out++] = row;
+                }
+                break;
+            case NOT_EQUALS:
+                for (int i = 0; i < n; i++) {
+                    int row = sel[i];
+                    if (col[row] != v) sel[out++] = row;
+                }
+                break;
+            case GREATER_THAN:
+                for (int i = 0; i < n; i++) {
+                    int row = sel[i];
+                    if (col[row] > v) sel[out++] = row;
+                }
+                break;
+            case GREATER_THAN_OR_EQ:
+                for (int i = 0; i < n; i++) {
+                    int row = sel[i];
+                    if (col[row] >= v) sel[out++] = row;
+                }
+                break;
+            case LESS_THAN:
+                for (int i = 0; i < n; i++) {
+                    int row = sel[i];
+                    if (col[row] < v) sel[out++] = row;
+                }
+                break;
+            case LESS_THAN_OR_EQ:
+                for (int i = 0; i < n; i++) {
+                    int row = sel[i];
+                    if (col[row] <= v) sel[out++] = row;
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown Op: " + p.getOp());
+        }
+        batch.setNumSelected(out);
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public void close() {
+        child.close();
+    }
+}
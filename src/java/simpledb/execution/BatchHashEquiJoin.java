@@ -0,0 +1,154 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.Iterator;
+
+/**
+ * BatchHashEquiJoin is the batch version of {@link HashEquiJoin}. The tuples
+ * of child1 are loaded into a {@link JoinHashTable}; each batch of child2 is
+ * then probed row by row, reading INT join values straight from the column
+ * vector, and the joined rows are written into an output batch. The whole
+ * build side is held in memory; unlike HashEquiJoin, BatchHashEquiJoin does
+ * not spill.
+ */
+public class BatchHashEquiJoin implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate p;
+    private final BatchOpIterator child1, child2;
+    private final TupleDesc td;
+    private final int width1;
+    private final int batchSize;
+
+    private transient JoinHashTable table;
+    private transient TupleBatch out;
+    // the probe batch being joined, the next selected row of it to probe,
+    // and the matches of the current row not yet returned
+    private transient TupleBatch probe;
+    private transient int probePos;
+    private transient int probeRow;
+    private transient Iterator<Tuple> matches;
+
+    public BatchHashEquiJoin(JoinPredicate p, BatchOpIterator child1, BatchOpIterator child2) {
+        this(p, child1, child2, TupleBatch.DEFAULT_SIZE);
+    }
+
+    /**
+     * @param batchSize the number of rows in each output batch
+     */
+    public BatchHashEquiJoin(JoinPredicate p, BatchOpIterator child1, BatchOpIterator child2,
+                             int batchSize) {
+        if (p.getOperator() != Predicate.Op.EQUALS) {
+            throw new IllegalArgumentException("BatchHashEquiJoin only supports EQUALS");
+        }
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.width1 = child1.getTupleDesc().numFields();
+        this.batchSize = batchSize;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    public BatchOpIterator getChild1() {
+        return child1;
+    }
+
+    public BatchOpIterator getChild2() {
+        return child2;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child1.open();
+        child2.open();
+        table = JoinHashTable.create(child1.getTupleDesc().getFieldType(p.getField1()),
+                child2.getTupleDesc().getFieldType(p.getField2()));
+        TupleBatch batch;
+        while ((batch = child1.nextBatch()) != null) {
+            int[] sel = batch.selection();
+            for (int i = 0; i < batch.numSelected(); i++) {
+                Tuple t = batch.getTuple(sel[i]);
+                table.add(t.getField(p.getField1()), t);
+            }
+        }
+        out = new TupleBatch(td, batchSize);
+        probe = null;
+        matches = null;
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (out == null) {
+            throw new IllegalStateException("BatchHashEquiJoin not yet open");
+        }
+        out.clear();
+        while (!out.isFull()) {
+            if (matches != null && matches.hasNext()) {
+                emit(matches.next());
+                continue;
+            }
+            matches = null;
+            if (probe == null || probePos == probe.numSelected()) {
+                if (table.size() == 0 || (probe = child2.nextBatch()) == null) {
+                    break;
+                }
+                probePos = 0;
+            }
+            probeRow = probe.selection()[probePos++];
+            matches = lookup(probe, probeRow);
+        }
+        return out.numSelected() > 0 ? out : null;
+    }
+
+    private Iterator<Tuple> lookup(TupleBatch batch, int row) {
+        int f2 = p.getField2();
+        if (batch.getTupleDesc().getFieldType(f2) == Type.INT_TYPE) {
+            return table.get(batch.getInts(f2)[row]);
+        }
+        return table.get(batch.getField(f2, row));
+    }
+
+    // write the join of build tuple t and the current probe row
+    private void emit(Tuple t) {
+        int row = out.addRow();
+        for (int i = 0; i < width1; i++) {
+            out.setField(i, row, t.getField(i));
+        }
+        for (int i = width1; i < td.numFields(); i++) {
+            int col = i - width1;
+            int[] ints = probe.getInts(col);
+            if (ints != null) {
+                out.setInt(i, row, ints[probeRow]);
+            } else {
+                out.setField(i, row, probe.getField(col, probeRow));
+            }
+        }
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child2.rewind();
+        probe = null;
+        matches = null;
+    }
+
+    public void close() {
+        child1.close();
+        child2.close();
+        table = null;
+        out = null;
+        probe = null;
+        matches = null;
+    }
+}
@@ -0,0 +1,51 @@
+package simpledb.execution;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.common.DbException;
+import simpledb.storage.TupleDesc;
+
+import java.io.Serializable;
+
+/**
+ * BatchOpIterator is the iterator interface of operators that pass tuples
+ * a {@link TupleBatch} at a time instead of one {@link simpledb.storage.Tuple}
+ * at a time, so that per-tuple work runs in tight loops over column vectors.
+ * {@link RowToBatchAdapter} and {@link BatchToRowAdapter} convert between the
+ * two interfaces.
+ */
+public interface BatchOpIterator extends Serializable {
+  /**
+   * Opens the iterator. This must be called before any of the other methods.
+   * @throws DbException when there are problems opening/accessing the database.
+   */
+  void open()
+      throws DbException, TransactionAbortedException;
+
+  /**
+   * Returns the next batch of tuples. A batch may be reused by the operator
+   * that returned it, so it is only valid until the next call to nextBatch,
+   * rewind or close. Returned batches have at least one selected row.
+   *
+   * @return the next batch, or null if there are no more tuples.
+   * @throws IllegalStateException If the iterator has not been opened
+   */
+  TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+
+  /**
+   * Resets the iterator to the start.
+   * @throws DbException when rewind is unsupported.
+   * @throws IllegalStateException If the iterator has not been opened
+   */
+  void rewind() throws DbException, TransactionAbortedException;
+
+  /**
+   * Returns the TupleDesc of the batches of this BatchOpIterator.
+   * @return the TupleDesc of the batches of this BatchOpIterator.
+   */
+  TupleDesc getTupleDesc();
+
+  /**
+   * Closes the iterator.
+   */
+  void close();
+
+}
@@ -0,0 +1,65 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.List;
+
+/**
+ * BatchProject is the batch version of {@link Project}. Projecting a batch
+ * copies no values: the output batch shares the column vectors and the
+ * selection of its input.
+ */
+public class BatchProject implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchOpIterator child;
+    private final int[] cols;
+    private final TupleDesc td;
+
+    /**
+     * @param fieldList the ids of the fields of child's TupleDesc to project out
+     * @param child the child operator
+     */
+    public BatchProject(List<Integer> fieldList, BatchOpIterator child) {
+        this.child = child;
+        TupleDesc childTd = child.getTupleDesc();
+        cols = new int[fieldList.size()];
+        Type[] types = new Type[cols.length];
+        String[] names = new String[cols.length];
+        for (int i = 0; i < cols.length; i++) {
+            cols[i] = fieldList.get(i);
+            types[i] = childTd.getFieldType(cols[i]);
+            names[i] = childTd.getFieldName(cols[i]);
+        }
+        td = new TupleDesc(types, names);
+    }
+
+    public BatchOpIterator getChild() {
+        return child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch batch = child.nextBatch();
+        return batch == null ? null : batch.project(cols, td);
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public void close() {
+        child.close();
+    }
+}
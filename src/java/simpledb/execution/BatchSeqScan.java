@@ -0,0 +1,157 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * BatchSeqScan is the batch version of {@link SeqScan} over a
+ * {@link HeapFile}, reading pages with READ_ONLY permission. The fields it
+ * returns are copied from the slots of each page straight into the column
+ * vectors of its batch, with {@link HeapPage#fill}, so no tuple is created
+ * per row. Like SeqScan it may be restricted to some columns of the table,
+ * and it has the TupleDesc of the equivalent SeqScan, with field names
+ * prefixed by the table alias.
+ */
+public class BatchSeqScan implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final int tableId;
+    private final String tableAlias;
+    // the fields of the table the scan returns
+    private final int[] columns;
+    // pages the zone map shows cannot match this are skipped
+    private CompositePredicate condition;
+
+    private transient TupleBatch batch;
+    private transient int nextPage;
+    // the page being copied and the slot to continue from, or null
+    private transient HeapPage page;
+    private transient int slot;
+
+    public BatchSeqScan(TransactionId tid, int tableId, String tableAlias) {
+        this(tid, tableId, tableAlias, null);
+    }
+
+    /**
+     * Creates a scan that returns only some columns of the table, in the
+     * given order.
+     *
+     * @param columns the indexes of the fields of the table to return, or
+     *                null for all of them
+     * @throws IllegalArgumentException if the table is not a HeapFile
+     */
+    public BatchSeqScan(TransactionId tid, int tableId, String tableAlias, int[] columns) {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(file instanceof HeapFile)) {
+            throw new IllegalArgumentException("only heap files can be scanned in batches");
+        }
+        this.tid = tid;
+        this.tableId = tableId;
+        this.tableAlias = tableAlias;
+        if (columns == null) {
+            columns = new int[file.getTupleDesc().numFields()];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = i;
+            }
+        }
+        this.columns = columns.clone();
+    }
+
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableId);
+    }
+
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    private HeapFile file() {
+        return (HeapFile) Database.getCatalog().getDatabaseFile(tableId);
+    }
+
+    /**
+     * Let the scan skip pages on which, according to the file's
+     * {@link simpledb.storage.ZoneMap}, no tuple satisfies condition. The
+     * rows of the pages read are all returned.
+     *
+     * @param condition a predicate over the fields of this operator's
+     *                  batches, or null to read every page
+     * @see SeqScan#setCondition
+     */
+    public void setCondition(CompositePredicate condition) {
+        this.condition = condition == null ? null : condition.mapFields(i -> columns[i]);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        batch = new TupleBatch(getTupleDesc());
+        nextPage = 0;
+        page = null;
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null) {
+            throw new IllegalStateException("BatchSeqScan not yet open");
+        }
+        batch.clear();
+        while (!batch.isFull()) {
+            if (page == null) {
+                if (nextPage >= file().numPages()) {
+                    break;
+                }
+                page = readPage(nextPage++);
+                slot = 0;
+                continue;
+            }
+            slot = page.fill(batch, slot, columns);
+            if (slot < 0) {
+                page = null;
+            }
+        }
+        return batch.numSelected() > 0 ? batch : null;
+    }
+
+    // the page pgNo, or null if the zone map shows it cannot match
+    private HeapPage readPage(int pgNo) throws DbException, TransactionAbortedException {
+        HeapPageId pid = new HeapPageId(tableId, pgNo);
+        if (condition != null) {
+            // lock before consulting the zone map, as HeapFile's iterator does
+            Database.getBufferPool().lockPage(tid, pid, Permissions.READ_ONLY);
+            if (!file().getZoneMap().mayMatch(pgNo, condition)) {
+                return null;
+            }
+        }
+        return (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        nextPage = 0;
+        page = null;
+    }
+
+    public TupleDesc getTupleDesc() {
+        TupleDesc tupleDesc = Database.getCatalog().getDatabaseFile(tableId).getTupleDesc();
+        Type[] types = new Type[columns.length];
+        String[] fields = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            types[i] = tupleDesc.getFieldType(columns[i]);
+            fields[i] = tableAlias + "." + tupleDesc.getFieldName(columns[i]);
+        }
+        return new TupleDesc(types, fields);
+    }
+
+    public void close() {
+        batch = null;
+        page = null;
+    }
+}
@@ -0,0 +1,72 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * BatchToRowAdapter presents a BatchOpIterator as a tuple-at-a-time
+ * OpIterator, returning the selected rows of each batch as tuples.
+ */
+public class BatchToRowAdapter extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchOpIterator child;
+    private transient TupleBatch batch;
+    private transient int pos;
+
+    public BatchToRowAdapter(BatchOpIterator child) {
+        this.child = child;
+    }
+
+    public BatchOpIterator getChild() {
+        return child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        batch = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        batch = null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (batch == null || pos == batch.numSelected()) {
+            batch = child.nextBatch();
+            pos = 0;
+            if (batch == null) {
+                return null;
+            }
+        }
+        return batch.getTuple(batch.selection()[pos++]);
+    }
+
+    /** @return no children, since the child is not an OpIterator */
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[0];
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+    }
+}
@@ -0,0 +1,115 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Broadcast sends every tuple of its child to each of several outputs, for
+ * joining a small input against every partition of a large one. The child
+ * is read once, by whichever output is opened first, and its tuples are
+ * held in memory until the last output is closed.
+ */
+public class Broadcast implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final OpIterator child;
+    private final Output[] outputs;
+    private transient List<Tuple> tuples;
+    private int open;
+
+    /**
+     * @param child the input to broadcast
+     * @param numOutputs the number of outputs
+     */
+    public Broadcast(OpIterator child, int numOutputs) {
+        this.child = child;
+        this.outputs = new Output[numOutputs];
+        for (int i = 0; i < numOutputs; i++) {
+            outputs[i] = new Output();
+        }
+    }
+
+    /** @return the outputs, each of which returns all tuples of the child */
+    public OpIterator[] getOutputs() {
+        return outputs.clone();
+    }
+
+    private synchronized List<Tuple> acquire() throws DbException, TransactionAbortedException {
+        if (tuples == null) {
+            List<Tuple> read = new ArrayList<>();
+            child.open();
+            try {
+                while (child.hasNext()) {
+                    read.add(child.next());
+                }
+            } finally {
+                child.close();
+            }
+            tuples = read;
+        }
+        open++;
+        return tuples;
+    }
+
+    private synchronized void release() {
+        if (--open == 0) {
+            tuples = null;
+        }
+    }
+
+    private class Output extends Exchange {
+        private static final long serialVersionUID = 1L;
+
+        private transient List<Tuple> source;
+        private transient Iterator<Tuple> it;
+
+        public String getName() {
+            return "broadcast(" + outputs.length + ")";
+        }
+
+        public TupleDesc getTupleDesc() {
+            return child.getTupleDesc();
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            source = acquire();
+            it = source.iterator();
+            super.open();
+        }
+
+        public void close() {
+            super.close();
+            if (source != null) {
+                source = null;
+                release();
+            }
+            it = null;
+        }
+
+        public void rewind() {
+            it = source.iterator();
+        }
+
+        protected Tuple fetchNext() {
+            return it.hasNext() ? it.next() : null;
+        }
+
+        @Override
+        public OpIterator[] getChildren() {
+            return new OpIterator[] { child };
+        }
+
+        @Override
+        public void setChildren(OpIterator[] children) {
+            throw new UnsupportedOperationException("the child of a broadcast is shared");
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package simpledb.execution;
+
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.IntUnaryOperator;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * CompositePredicate is a tree of {@link Predicate}s combined with AND, OR
+ * and NOT, which a single {@link Filter} evaluates. When compiled, the
+ * operands of AND and OR are reordered as tuples are filtered, so that the
+ * cheapest operand most likely to decide the result is tested first.
+ */
+public class CompositePredicate implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The kinds of node in a predicate tree */
+    public enum Kind {
+        COMPARISON, AND, OR, NOT
+    }
+
+    private final Kind kind;
+    private final Predicate predicate;
+    private final List<CompositePredicate> children;
+
+    private CompositePredicate(Kind kind, Predicate predicate, List<CompositePredicate> children) {
+        this.kind = kind;
+        this.predicate = predicate;
+        this.children = Collections.unmodifiableList(children);
+    }
+
+    /** @return a tree of the single comparison p */
+    public static CompositePredicate of(Predicate p) {
+        return new CompositePredicate(Kind.COMPARISON, p, Collections.<CompositePredicate>emptyList());
+    }
+
+    /** @return the conjunction of operands, which are flattened into it if they are conjunctions */
+    public static CompositePredicate and(List<CompositePredicate> operands) {
+        return combine(Kind.AND, operands);
+    }
+
+    /** @return the disjunction of operands, which are flattened into it if they are disjunctions */
+    public static CompositePredicate or(List<CompositePredicate> operands) {
+        return combine(Kind.OR, operands);
+    }
+
+    /** @return the negation of operand */
+    public static CompositePredicate not(CompositePredicate operand) {
+        if (operand.kind == Kind.NOT) {
+            return operand.children.get(0);
+        }
+        return new CompositePredicate(Kind.NOT, null, Collections.singletonList(operand));
+    }
+
+    private static CompositePredicate combine(Kind kind, List<CompositePredicate> operands) {
+        if (operands.isEmpty()) {
+            throw new IllegalArgumentException(kind + " of no operands");
+        }
+        if (operands.size() == 1) {
+            return operands.get(0);
+        }
+        List<CompositePredicate> flat = new ArrayList<>();
+        for (CompositePredicate operand : operands) {
+            if (operand.kind == kind) {
+                flat.addAll(operand.children);
+            } else {
+                flat.add(operand);
+            }
+        }
+        return new CompositePredicate(kind, null, flat);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /** @return the comparison of a COMPARISON node, or null for other nodes */
+    public Predicate getPredicate() {
+        return predicate;
+    }
+
+    /** @return the operands of an AND, OR or NOT node */
+    public List<CompositePredicate> getChildren() {
+        return children;
+    }
+
+    /**
+     * @return true if t satisfies this predicate, evaluating operands in the
+     *         order they were given
+     */
+    public boolean filter(Tuple t) {
+        switch (kind) {
+            case COMPARISON:
+                return predicate.filter(t);
+            case NOT:
+                return !children.get(0).filter(t);
+            case AND:
+                for (CompositePredicate c : children) {
+                    if (!c.filter(t)) {
+                        return false;
+                    }
+                }
+                return true;
+            default:
+                for (CompositePredicate c : children) {
+                    if (c.filter(t)) {
+                        return true;
+                    }
+                }
+                return false;
+        }
+    }
+
+    /**
+     * @return a compiled test equivalent to {@link #filter}. The AND and OR
+     *         nodes of the test keep statistics about their operands, so
+     *         every caller should compile its own.
+     */
+    public PredicateCompiler.Test compile() {
+        switch (kind) {
+            case COMPARISON:
+                return predicate.compile();
+            case NOT:
+                PredicateCompiler.Test operand = children.get(0).compile();
+                return t -> !operand.test(t);
+            default:
+                PredicateCompiler.Test[] tests = new PredicateCompiler.Test[children.size()];
+                double[] costs = new double[children.size()];
+                for (int i = 0; i < tests.length; i++) {
+                    tests[i] = children.get(i).compile();
+                    costs[i] = children.get(i).cost();
+                }
+                return PredicateCompiler.adaptive(tests, costs, kind == Kind.AND);
+        }
+    }
+
+    /**
+     * @return the relative cost of evaluating this predicate on a tuple:
+     *         one per comparison, more for comparing strings
+     */
+    public double cost() {
+        if (kind == Kind.COMPARISON) {
+            return predicate.getOperand() instanceof StringField ? 4 : 1;
+        }
+        double cost = 0;
+        for (CompositePredicate c : children) {
+            cost += c.cost();
+        }
+        return cost;
+    }
+
+    /**
+     * @return the estimated fraction of tuples that satisfy this predicate,
+     *         given the selectivity of each comparison and assuming the
+     *         comparisons are independent
+     */
+    public double estimateSelectivity(ToDoubleFunction<Predicate> comparison) {
+        switch (kind) {
+            case COMPARISON:
+                return comparison.applyAsDouble(predicate);
+            case NOT:
+                return 1.0 - children.get(0).estimateSelectivity(comparison);
+            case AND: {
+                double sel = 1.0;
+                for (CompositePredicate c : children) {
+                    sel *= c.estimateSelectivity(comparison);
+                }
+                return sel;
+            }
+            default: {
+                double none = 1.0;
+                for (CompositePredicate c : children) {
+                    none *= 1.0 - c.estimateSelectivity(comparison);
+                }
+                return 1.0 - none;
+            }
+        }
+    }
+
+    /**
+     * @return this predicate over tuples whose fields are offset positions
+     *         further right, e.g. after a join puts other fields before them
+     */
+    public CompositePredicate shift(int offset) {
+        return mapFields(f -> f + offset);
+    }
+
+    /**
+     * @return this predicate over tuples in which each field f of the tuples
+     *         it was over is at position fields(f)
+     */
+    public CompositePredicate mapFields(IntUnaryOperator fields) {
+        if (kind == Kind.COMPARISON) {
+            return of(new Predicate(fields.applyAsInt(predicate.getField()), predicate.getOp(), predicate.getOperand()));
+        }
+        List<CompositePredicate> mapped = new ArrayList<>();
+        for (CompositePredicate c : children) {
+            mapped.add(c.mapFields(fields));
+        }
+        return new CompositePredicate(kind, null, mapped);
+    }
+
+    /** @return this predicate as text, naming fields from td */
+    public String toString(TupleDesc td) {
+        switch (kind) {
+            case COMPARISON:
+                return td.getFieldName(predicate.getField()) + predicate.getOp() + predicate.getOperand();
+            case NOT:
+                return "NOT(" + children.get(0).toString(td) + ")";
+            default:
+                StringBuilder text = new StringBuilder("(");
+                for (int i = 0; i < children.size(); i++) {
+                    if (i > 0) {
+                        text.append(" ").append(kind).append(" ");
+                    }
+                    text.append(children.get(i).toString(td));
+                }
+                return text.append(")").toString();
+        }
+    }
+
+    public String toString() {
+        if (kind == Kind.COMPARISON) {
+            return predicate.toString();
+        }
+        return kind + children.toString();
+    }
+}
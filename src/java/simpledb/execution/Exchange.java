@@ -0,0 +1,21 @@
+package simpledb.execution;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Exchange is the base class of the operators that move tuples between the
+ * threads of a parallel plan: {@link Gather}, and the outputs of
+ * {@link Repartition} and {@link Broadcast}. Their producers run as tasks of
+ * a shared fork-join pool.
+ */
+public abstract class Exchange extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The pool the producers of every exchange run in */
+    static final ForkJoinPool POOL =
+            new ForkJoinPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+    /** @return a short description of this exchange for query plans */
+    public abstract String getName();
+}
@@ -0,0 +1,225 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+
+/**
+ * The queues between the producers and the consumers of an exchange. Each
+ * producer is an OpIterator drained by its own task in {@link Exchange#POOL},
+ * which sends every tuple to the consumer chosen by a routing function.
+ * Tuples travel in chunks, and the queues are bounded, so a slow consumer
+ * holds its producers back.
+ * <p>
+ * Waiting on a queue goes through {@link ForkJoinPool#managedBlock}, so that
+ * the pool adds workers while its tasks wait on each other rather than
+ * running out of threads. Waits poll, so that they end when the exchange
+ * they are for is cancelled or its consumer closed, and a consumer running
+ * in a producer of another exchange gives up when that exchange is
+ * cancelled.
+ */
+class ExchangeChannels {
+
+    /** Tuples per message */
+    static final int CHUNK_SIZE = 256;
+    /** Messages each queue holds before its producers wait */
+    static final int QUEUE_CHUNKS = 16;
+    /** How long a wait on a queue lasts before it checks for cancellation */
+    private static final long POLL_MILLIS = 10;
+
+    private static final Object END = new Object();
+    // the channels whose producer the current thread is running, if any
+    private static final ThreadLocal<ExchangeChannels> PRODUCING = new ThreadLocal<>();
+
+    private final OpIterator[] producers;
+    private final ToIntFunction<Tuple> route;
+    private final List<ArrayBlockingQueue<Object>> queues = new ArrayList<>();
+    // per consumer, the producers that have not finished yet
+    private final int[] running;
+    private final List<ForkJoinTask<?>> tasks = new ArrayList<>();
+    // consumers whose tuples are dropped rather than sent
+    private final Set<Integer> closed = ConcurrentHashMap.newKeySet();
+    private volatile boolean cancelled;
+
+    /**
+     * @param producers the iterators whose tuples are exchanged
+     * @param numConsumers the number of consumers
+     * @param route maps each tuple to the consumer that receives it
+     */
+    ExchangeChannels(OpIterator[] producers, int numConsumers, ToIntFunction<Tuple> route) {
+        this.producers = producers;
+        this.route = route;
+        this.running = new int[numConsumers];
+        for (int i = 0; i < numConsumers; i++) {
+            queues.add(new ArrayBlockingQueue<>(QUEUE_CHUNKS));
+            running[i] = producers.length;
+        }
+    }
+
+    /** Start one task per producer */
+    void start() {
+        for (OpIterator producer : producers) {
+            tasks.add(Exchange.POOL.submit(() -> produce(producer)));
+        }
+    }
+
+    private void produce(OpIterator producer) {
+        List<List<Tuple>> chunks = new ArrayList<>();
+        for (int i = 0; i < queues.size(); i++) {
+            chunks.add(new ArrayList<>(CHUNK_SIZE));
+        }
+        Object last = END;
+        ExchangeChannels outer = PRODUCING.get();
+        PRODUCING.set(this);
+        try {
+            producer.open();
+            while (!cancelled && producer.hasNext()) {
+                Tuple t = producer.next();
+                int consumer = route.applyAsInt(t);
+                List<Tuple> chunk = chunks.get(consumer);
+                chunk.add(t);
+                if (chunk.size() == CHUNK_SIZE) {
+                    send(consumer, chunk);
+                    chunks.set(consumer, new ArrayList<>(CHUNK_SIZE));
+                }
+            }
+            for (int i = 0; i < chunks.size(); i++) {
+                if (!chunks.get(i).isEmpty()) {
+                    send(i, chunks.get(i));
+                }
+            }
+        } catch (Throwable e) {
+            last = e;
+        } finally {
+            producer.close();
+            PRODUCING.set(outer);
+        }
+        for (int i = 0; i < queues.size(); i++) {
+            send(i, last);
+        }
+    }
+
+    // put message on the queue of consumer, unless the exchange is cancelled
+    // or the consumer closed
+    private void send(int consumer, Object message) {
+        ArrayBlockingQueue<Object> queue = queues.get(consumer);
+        try {
+            ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                boolean sent;
+
+                public boolean block() throws InterruptedException {
+                    sent = sent || queue.offer(message, POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    return isReleasable();
+                }
+
+                public boolean isReleasable() {
+                    return sent || cancelled || closed.contains(consumer) || (sent = queue.offer(message));
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the next chunk of tuples for consumer, or null once every
+     *         producer has finished
+     * @throws DbException if a producer failed, the wait was interrupted,
+     *         or the exchange whose producer is taking was cancelled
+     * @throws TransactionAbortedException if a producer's transaction was
+     *         aborted
+     */
+    List<Tuple> take(int consumer) throws DbException, TransactionAbortedException {
+        ArrayBlockingQueue<Object> queue = queues.get(consumer);
+        while (running[consumer] > 0) {
+            Object message = queue.poll();
+            if (message == null) {
+                message = waitFor(queue);
+            }
+            if (message == END) {
+                running[consumer]--;
+            } else if (message instanceof Throwable) {
+                running[consumer] = 0;
+                rethrow((Throwable) message);
+            } else {
+                @SuppressWarnings("unchecked")
+                List<Tuple> chunk = (List<Tuple>) message;
+                return chunk;
+            }
+        }
+        return null;
+    }
+
+    private Object waitFor(ArrayBlockingQueue<Object> queue) throws DbException {
+        ExchangeChannels outer = PRODUCING.get();
+        Object[] message = new Object[1];
+        try {
+            ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                public boolean block() throws InterruptedException {
+                    if (message[0] == null) {
+                        message[0] = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    }
+                    return isReleasable();
+                }
+
+                public boolean isReleasable() {
+                    return message[0] != null || (message[0] = queue.poll()) != null
+                            || cancelled || (outer != null && outer.cancelled);
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DbException("interrupted while waiting for an exchange");
+        }
+        if (message[0] == null) {
+            throw new DbException("exchange cancelled");
+        }
+        return message[0];
+    }
+
+    private static void rethrow(Throwable e) throws DbException, TransactionAbortedException {
+        if (e instanceof DbException) {
+            throw (DbException) e;
+        } else if (e instanceof TransactionAbortedException) {
+            throw (TransactionAbortedException) e;
+        } else if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        } else if (e instanceof Error) {
+            throw (Error) e;
+        }
+        throw new DbException("exchange producer failed: " + e);
+    }
+
+    /**
+     * Stop sending tuples to consumer, which takes no more, and discard
+     * those already queued for it.
+     */
+    void close(int consumer) {
+        closed.add(consumer);
+        queues.get(consumer).clear();
+    }
+
+    /**
+     * Stop the producers and wait for them to finish, discarding the tuples
+     * they have not delivered. The channels cannot be started again.
+     */
+    void cancel() {
+        cancelled = true;
+        for (ForkJoinTask<?> task : tasks) {
+            task.quietlyJoin();
+        }
+        for (ArrayBlockingQueue<Object> queue : queues) {
+            queue.clear();
+        }
+    }
+}
@@ -5,19 +5,31 @@ import simpledb.common.DbException;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
-import java.util.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
 
 /**
  * Filter is an operator that implements a relational select.
+ * <p>
+ * The condition of a Filter is a single {@link Predicate} or a tree of them
+ * combined with AND, OR and NOT. A chain of Filters is evaluated by the
+ * topmost one, which reads the input of the chain directly and applies the
+ * conjunction of all of their conditions, compiled by
+ * {@link PredicateCompiler}, in a single pass. If that input is a
+ * {@link SeqScan}, the scan is given the conjunction too, to skip pages
+ * that cannot match it.
  */
 public class Filter extends Operator {
 
     private static final long serialVersionUID = 1L;
 
-    private final Predicate predicate;
+    private final CompositePredicate condition;
     private OpIterator child;
-    private final List<Tuple> childTups = new ArrayList<>();
-    private Iterator<Tuple> it;
+    // while open, the first operator below a chain of filters ending in
+    // this one, and the conditions of the whole chain compiled into one test
+    private transient OpIterator source;
+    private transient PredicateCompiler.Test test;
 
     /**
      * Constructor accepts a predicate to apply and a child operator to read
@@ -29,12 +41,34 @@ public class Filter extends Operator {
      *            The child operator
      */
     public Filter(Predicate p, OpIterator child) {
-        this.predicate = p;
+        this(CompositePredicate.of(p), child);
+    }
+
+    /**
+     * Constructor accepts a tree of predicates to apply and a child operator
+     * to read tuples to filter from.
+     *
+     * @param condition
+     *            The predicates to filter tuples with
+     * @param child
+     *            The child operator
+     */
+    public Filter(CompositePredicate condition, OpIterator child) {
+        this.condition = condition;
         this.child = child;
     }
 
+    /**
+     * @return the predicate of this filter, or null if its condition is not
+     *         a single comparison
+     * @see #getCondition
+     */
     public Predicate getPredicate() {
-        return predicate;
+        return condition.getPredicate();
+    }
+
+    public CompositePredicate getCondition() {
+        return condition;
     }
 
     public TupleDesc getTupleDesc() {
@@ -43,26 +77,32 @@ public class Filter extends Operator {
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
-        child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext()) {
-            Tuple n = child.next();
-            if (predicate.filter(n)) {
-                childTups.add(n);
-            }
+        List<CompositePredicate> conditions = new ArrayList<>();
+        conditions.add(condition);
+        source = child;
+        while (source instanceof Filter) {
+            Filter f = (Filter) source;
+            conditions.add(0, f.condition);
+            source = f.child;
         }
-
-        it = childTups.iterator();
+        CompositePredicate all = CompositePredicate.and(conditions);
+        if (source instanceof SeqScan) {
+            ((SeqScan) source).setCondition(all);
+        }
+        child.open();
+        test = all.compile();
         super.open();
     }
 
     public void close() {
         super.close();
-        it = null;
+        child.close();
+        source = null;
+        test = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        child.rewind();
     }
 
     /**
@@ -76,8 +116,11 @@ public class Filter extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        if (it != null && it.hasNext()) {
-            return it.next();
+        while (source.hasNext()) {
+            Tuple t = source.next();
+            if (test.test(t)) {
+                return t;
+            }
         }
         return null;
     }
@@ -0,0 +1,92 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Gather merges the tuples of several children, each drained by its own
+ * thread, into one stream, in no particular order. It is the top of the
+ * parallel part of a plan.
+ */
+public class Gather extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator[] children;
+    private transient ExchangeChannels channels;
+    private transient Iterator<Tuple> chunk;
+
+    /**
+     * @param children the partitions to gather, which all have the same
+     *            TupleDesc
+     */
+    public Gather(OpIterator[] children) {
+        if (children.length == 0) {
+            throw new IllegalArgumentException("nothing to gather");
+        }
+        this.children = children;
+    }
+
+    public String getName() {
+        return "gather(" + children.length + ")";
+    }
+
+    public TupleDesc getTupleDesc() {
+        return children[0].getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        start();
+        super.open();
+    }
+
+    private void start() {
+        channels = new ExchangeChannels(children, 1, t -> 0);
+        channels.start();
+        chunk = null;
+    }
+
+    private void stop() {
+        if (channels != null) {
+            channels.cancel();
+            channels = null;
+        }
+        chunk = null;
+    }
+
+    public void close() {
+        super.close();
+        stop();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        stop();
+        start();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (chunk == null || !chunk.hasNext()) {
+            List<Tuple> next = channels.take(0);
+            if (next == null) {
+                return null;
+            }
+            chunk = next.iterator();
+        }
+        return chunk.next();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return children;
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.children = children;
+    }
+}
@@ -0,0 +1,264 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static simpledb.execution.Aggregator.NO_GROUPING;
+import static simpledb.execution.Aggregator.NO_GROUPING_FIELD;
+
+/**
+ * GroupTable keeps the running aggregate state of every group seen by an
+ * aggregator: a count, sum, minimum and maximum per group, held in primitive
+ * arrays indexed by a dense group number. INT group values are mapped to
+ * group numbers with an open-addressing hash table, so memory grows with the
+ * number of groups rather than the number of rows merged.
+ */
+public class GroupTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int gbfield;
+    private final Type gbfieldtype;
+
+    // group value -> group number, for INT and other group types respectively
+    private final IntIntMap intGroups;
+    private final Map<Field, Integer> groups;
+
+    private Field[] keys;
+    private long[] counts;
+    private long[] sums;
+    private int[] mins;
+    private int[] maxs;
+    private int size;
+
+    /**
+     * @param gbfield the index of the group-by field, or NO_GROUPING
+     * @param gbfieldtype the type of the group-by field, or null if there is no grouping
+     */
+    public GroupTable(int gbfield, Type gbfieldtype) {
+        this.gbfield = gbfield;
+        this.gbfieldtype = gbfieldtype;
+        this.intGroups = gbfield != NO_GROUPING && gbfieldtype == Type.INT_TYPE ? new IntIntMap() : null;
+        this.groups = intGroups == null ? new HashMap<>() : null;
+        this.keys = new Field[INITIAL_CAPACITY];
+        this.counts = new long[INITIAL_CAPACITY];
+        this.sums = new long[INITIAL_CAPACITY];
+        this.mins = new int[INITIAL_CAPACITY];
+        this.maxs = new int[INITIAL_CAPACITY];
+    }
+
+    public int getGroupByField() {
+        return gbfield;
+    }
+
+    public Type getGroupByFieldType() {
+        return gbfieldtype;
+    }
+
+    /**
+     * Return the group number of the group tup belongs to, creating the group
+     * if this is its first tuple.
+     */
+    public int groupOf(Tuple tup) {
+        if (gbfield == NO_GROUPING) {
+            return size == 0 ? newGroup(NO_GROUPING_FIELD) : 0;
+        }
+        if (intGroups != null) {
+            return groupOfInt(tup.getInt(gbfield));
+        }
+        return groupOf(tup.getField(gbfield));
+    }
+
+    /**
+     * Return the group number of the group with group-by value key, creating
+     * the group if it is new. Not for use without grouping.
+     */
+    public int groupOf(Field key) {
+        if (intGroups != null) {
+            return groupOfInt(((IntField) key).getValue());
+        }
+        Integer group = groups.get(key);
+        if (group == null) {
+            group = newGroup(key);
+            groups.put(key, group);
+        }
+        return group;
+    }
+
+    /**
+     * Like {@link #groupOf(Field)} for an INT group-by field, without
+     * boxing the value unless the group is new.
+     */
+    public int groupOfInt(int value) {
+        int group = intGroups.get(value);
+        if (group < 0) {
+            group = newGroup(IntField.valueOf(value));
+            intGroups.put(value, group);
+        }
+        return group;
+    }
+
+    /**
+     * @return the group number of the group tup belongs to, or -1 if no
+     *         tuple of that group has been seen
+     */
+    public int findGroup(Tuple tup) {
+        if (gbfield == NO_GROUPING) {
+            return size == 0 ? -1 : 0;
+        }
+        if (intGroups != null) {
+            return intGroups.get(tup.getInt(gbfield));
+        }
+        Integer group = groups.get(tup.getField(gbfield));
+        return group == null ? -1 : group;
+    }
+
+    private int newGroup(Field key) {
+        if (size == keys.length) {
+            int capacity = size * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            sums = Arrays.copyOf(sums, capacity);
+            mins = Arrays.copyOf(mins, capacity);
+            maxs = Arrays.copyOf(maxs, capacity);
+        }
+        keys[size] = key;
+        mins[size] = Integer.MAX_VALUE;
+        maxs[size] = Integer.MIN_VALUE;
+        return size++;
+    }
+
+    /** Count one more row in group */
+    public void add(int group) {
+        counts[group]++;
+    }
+
+    /** Fold one more value into the accumulators of group */
+    public void add(int group, int value) {
+        counts[group]++;
+        sums[group] += value;
+        if (value < mins[group]) {
+            mins[group] = value;
+        }
+        if (value > maxs[group]) {
+            maxs[group] = value;
+        }
+    }
+
+    /** @return the number of groups seen so far */
+    public int numGroups() {
+        return size;
+    }
+
+    /** @return the group-by value of group, or NO_GROUPING_FIELD */
+    public Field getKey(int group) {
+        return keys[group];
+    }
+
+    public long getCount(int group) {
+        return counts[group];
+    }
+
+    public long getSum(int group) {
+        return sums[group];
+    }
+
+    public int getMin(int group) {
+        return mins[group];
+    }
+
+    public int getMax(int group) {
+        return maxs[group];
+    }
+
+    /**
+     * Compute the value of aggregate op over group. SUM and AVG wrap around
+     * to int, like the IntField they are returned in.
+     */
+    public int getValue(int group, Aggregator.Op op) {
+        switch (op) {
+            case COUNT:
+                return (int) counts[group];
+            case MIN:
+                return mins[group];
+            case MAX:
+                return maxs[group];
+            case SUM:
+                return (int) sums[group];
+            case AVG:
+                return (int) (sums[group] / counts[group]);
+            default:
+                throw new IllegalArgumentException("Unknown Op: " + op);
+        }
+    }
+
+    /**
+     * A map from int keys to non-negative int values using open addressing
+     * with linear probing, so lookups allocate nothing.
+     */
+    static class IntIntMap implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private int[] keys = new int[INITIAL_CAPACITY];
+        private int[] values = new int[INITIAL_CAPACITY];
+        private boolean[] used = new boolean[INITIAL_CAPACITY];
+        private int size;
+
+        private static int slot(int key, int mask) {
+            int h = key * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        /** @return the value mapped to key, or -1 if there is none */
+        int get(int key) {
+            int mask = keys.length - 1;
+            for (int i = slot(key, mask); used[i]; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return values[i];
+                }
+            }
+            return -1;
+        }
+
+        void put(int key, int value) {
+            if ((size + 1) * 4 > keys.length * 3) {
+                grow();
+            }
+            int mask = keys.length - 1;
+            int i = slot(key, mask);
+            while (used[i] && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (!used[i]) {
+                used[i] = true;
+                keys[i] = key;
+                size++;
+            }
+            values[i] = value;
+        }
+
+        private void grow() {
+            int[] oldKeys = keys;
+            int[] oldValues = values;
+            boolean[] oldUsed = used;
+            keys = new int[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            used = new boolean[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldUsed[i]) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+    }
+}
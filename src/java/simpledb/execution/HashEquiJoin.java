@@ -2,23 +2,76 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.SpillFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * HashEquiJoin is a hybrid hash join. Tuples of the left (build) child are
+ * hashed into SPILL_FANOUT partitions that start out in memory; whenever the
+ * partitions in memory hold more than memoryPages pages worth of tuples, the
+ * largest of them is moved to a {@link SpillFile}, and so are its later build
+ * tuples. The right (probe) child is then streamed past the partitions still
+ * in memory. Probe tuples of a spilled partition are spilled as well, unless
+ * the partition's bloom filter shows they cannot match. Each pair of spilled
+ * partitions is joined the same way with a different hash, down to
+ * MAX_SPILL_DEPTH, below which a partition is joined a memory budget of build
+ * tuples at a time.
+ * <p>
+ * Partitions in memory are {@link JoinHashTable}s, which keep INT join
+ * values and their tuples in primitive arrays.
  */
 public class HashEquiJoin extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** Default memory budget, in pages of build tuples */
+    public static final int DEFAULT_MEMORY_PAGES = 64;
+    /** Number of partitions each pass hashes its build tuples into */
+    static final int SPILL_FANOUT = 16;
+    /** Number of times a partition may be split again */
+    static final int MAX_SPILL_DEPTH = 4;
+
     private final JoinPredicate pred;
     private OpIterator child1, child2;
     private final TupleDesc comboTD;
+    private final int memoryPages;
     transient private Tuple t1 = null;
     transient private Tuple t2 = null;
 
+    // the pass being joined: its build and probe inputs, the partitions held
+    // in memory and those spilled to disk
+    transient private OpIterator build, probe;
+    transient private int depth;
+    transient private Partition current;
+    transient private List<JoinHashTable> tables;
+    transient private int inMemory;
+    transient private boolean moreBuild;
+    transient private SpillFile[] buildSpills, probeSpills;
+    transient private BloomFilter[] filters;
+
+    // spilled partitions still to be joined
+    private final Deque<Partition> pending = new ArrayDeque<>();
+
+    private static class Partition {
+        final SpillFile build;
+        final SpillFile probe;
+        final int depth;
+
+        Partition(SpillFile build, SpillFile probe, int depth) {
+            this.build = build;
+            this.probe = probe;
+            this.depth = depth;
+        }
+    }
+
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
@@ -31,9 +84,27 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left relation, which is hashed
+     * @param child2
+     *            Iterator for the right relation, which probes the hash table
+     * @param memoryPages
+     *            The number of pages of left tuples to keep in memory before
+     *            spilling
+     */
+    public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int memoryPages) {
         this.pred = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.memoryPages = Math.max(1, memoryPages);
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
@@ -55,44 +126,189 @@ public class HashEquiJoin extends Operator {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
     
-    final Map<Object, List<Tuple>> map = new HashMap<>();
-    public final static int MAP_SIZE = 20000;
-
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
-        map.clear();
-        while (child1.hasNext()) {
-            t1 = child1.next();
-            List<Tuple> list = map.computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<>());
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
-        }
-        return cnt > 0;
-
-    }
-
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        startPass(child1, child2, 0);
         super.open();
     }
 
     public void close() {
         super.close();
+        deleteSpills();
         child2.close();
         child1.close();
         this.t1=null;
         this.t2=null;
         this.listIt=null;
-        this.map.clear();
+        this.tables=null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
+        deleteSpills();
         child1.rewind();
         child2.rewind();
+        listIt = null;
+        startPass(child1, child2, 0);
+    }
+
+    /** Start joining probe against build, hashing with the hash of depth */
+    private void startPass(OpIterator build, OpIterator probe, int depth)
+            throws DbException, TransactionAbortedException {
+        this.build = build;
+        this.probe = probe;
+        this.depth = depth;
+        Type buildType = build.getTupleDesc().getFieldType(pred.getField1());
+        Type probeType = probe.getTupleDesc().getFieldType(pred.getField2());
+        tables = new ArrayList<>(SPILL_FANOUT);
+        for (int p = 0; p < SPILL_FANOUT; p++) {
+            tables.add(JoinHashTable.create(buildType, probeType));
+        }
+        inMemory = 0;
+        buildSpills = new SpillFile[SPILL_FANOUT];
+        probeSpills = new SpillFile[SPILL_FANOUT];
+        filters = new BloomFilter[SPILL_FANOUT];
+        loadBuild();
+    }
+
+    /**
+     * Hash the build input into the partitions, spilling partitions to stay
+     * within the memory budget. Below MAX_SPILL_DEPTH nothing is spilled;
+     * instead this stops once the budget is full and sets moreBuild.
+     */
+    private void loadBuild() throws DbException, TransactionAbortedException {
+        long maxTuples = (long) memoryPages * SpillFile.tuplesPerPage(build.getTupleDesc());
+        boolean canSpill = depth < MAX_SPILL_DEPTH;
+        moreBuild = false;
+        try {
+            while (build.hasNext()) {
+                if (!canSpill && inMemory >= maxTuples) {
+                    moreBuild = true;
+                    return;
+                }
+                Tuple t = build.next();
+                Field key = t.getField(pred.getField1());
+                int p = partition(key, depth);
+                if (buildSpills[p] != null) {
+                    buildSpills[p].add(t);
+                    filters[p].add(key);
+                    continue;
+                }
+                tables.get(p).add(key, t);
+                inMemory++;
+                if (canSpill && inMemory > maxTuples) {
+                    spillLargest();
+                }
+            }
+        } catch (IOException e) {
+            throw new DbException("could not spill join input: " + e.getMessage());
+        }
+    }
+
+    // move the largest partition in memory to disk
+    private void spillLargest() throws IOException, DbException {
+        int largest = 0;
+        for (int p = 1; p < SPILL_FANOUT; p++) {
+            if (tables.get(p).size() > tables.get(largest).size()) {
+                largest = p;
+            }
+        }
+        SpillFile file = new SpillFile(build.getTupleDesc());
+        JoinHashTable table = tables.get(largest);
+        BloomFilter filter = new BloomFilter(table.size());
+        for (Iterator<Tuple> it = table.iterator(); it.hasNext(); ) {
+            Tuple t = it.next();
+            filter.add(t.getField(pred.getField1()));
+            file.add(t);
+        }
+        inMemory -= table.size();
+        table.clear();
+        buildSpills[largest] = file;
+        filters[largest] = filter;
+    }
+
+    private void spillProbe(int p, Tuple t) throws DbException {
+        try {
+            if (probeSpills[p] == null) {
+                probeSpills[p] = new SpillFile(probe.getTupleDesc());
+            }
+            probeSpills[p].add(t);
+        } catch (IOException e) {
+            throw new DbException("could not spill join input: " + e.getMessage());
+        }
+    }
+
+    // pick a partition from the join value, with a different hash per depth
+    // so that a partition is split further when it spills again
+    private static int partition(Field key, int depth) {
+        int h = key.hashCode() * (0x9E3779B9 + 2 * depth);
+        h ^= h >>> 16;
+        return Math.floorMod(h, SPILL_FANOUT);
+    }
+
+    /**
+     * The probe input of the current pass is exhausted: queue the spilled
+     * partitions that may produce matches and drop the current pass.
+     */
+    private void finishPass() {
+        for (int p = 0; p < SPILL_FANOUT; p++) {
+            if (buildSpills[p] == null) {
+                continue;
+            }
+            if (probeSpills[p] != null) {
+                pending.addLast(new Partition(buildSpills[p], probeSpills[p], depth + 1));
+            } else {
+                buildSpills[p].delete();
+            }
+            buildSpills[p] = null;
+            probeSpills[p] = null;
+        }
+        endPartition();
+        tables = null;
+    }
+
+    private void startPartition(Partition partition)
+            throws DbException, TransactionAbortedException {
+        current = partition;
+        OpIterator b = new SpillScan(partition.build);
+        OpIterator p = new SpillScan(partition.probe);
+        b.open();
+        p.open();
+        startPass(b, p, partition.depth);
+    }
+
+    // close and delete the spilled partition being joined, if any
+    private void endPartition() {
+        if (current == null) {
+            return;
+        }
+        build.close();
+        probe.close();
+        current.build.delete();
+        current.probe.delete();
+        current = null;
+    }
+
+    private void deleteSpills() {
+        if (buildSpills != null) {
+            for (int p = 0; p < SPILL_FANOUT; p++) {
+                if (buildSpills[p] != null) {
+                    buildSpills[p].delete();
+                    buildSpills[p] = null;
+                }
+                if (probeSpills[p] != null) {
+                    probeSpills[p].delete();
+                    probeSpills[p] = null;
+                }
+            }
+        }
+        endPartition();
+        for (Partition partition : pending) {
+            partition.build.delete();
+            partition.probe.delete();
+        }
+        pending.clear();
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -132,32 +348,126 @@ public class HashEquiJoin extends Operator {
     }
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
+        while (true) {
+            if (listIt != null && listIt.hasNext()) {
+                return processList();
+            }
+            if (tables != null) {
+                // loop around the probe input
+                while (probe.hasNext()) {
+                    t2 = probe.next();
+                    Field key = t2.getField(pred.getField2());
+                    int p = partition(key, depth);
+                    if (buildSpills[p] != null) {
+                        if (filters[p].mightContain(key)) {
+                            spillProbe(p, t2);
+                        }
+                        continue;
+                    }
+
+                    // if match, create a combined tuple and fill it with the
+                    // values from both tuples
+                    listIt = tables.get(p).get(key);
+                    if (listIt == null)
+                        continue;
+
+                    return processList();
+                }
+
+                // the probe input is done: join it with the next chunk of
+                // build tuples, or move on to the spilled partitions
+                if (moreBuild) {
+                    for (JoinHashTable table : tables) {
+                        table.clear();
+                    }
+                    inMemory = 0;
+                    loadBuild();
+                    probe.rewind();
+                    continue;
+                }
+                finishPass();
+            }
+            if (pending.isEmpty()) {
+                return null;
+            }
+            startPartition(pending.removeFirst());
         }
+    }
 
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
+    /**
+     * A bloom filter over join values, used to drop probe tuples of a
+     * spilled partition that cannot match any of its build tuples.
+     * <p>
+     * It is sized for the tuples the partition holds when it is spilled.
+     * Since its later build tuples are added too, it grows as a chain of
+     * filters, each sized for twice the keys of the one before and with
+     * more bits per key, so that it never saturates and its false positive
+     * rate stays bounded however large the partition gets.
+     */
+    private static class BloomFilter {
+        private static final int HASHES = 3;
+        // bits per key of the first filter, and the bits per key added
+        // with each further one
+        private static final int BITS_PER_KEY = 10;
+        private static final int MORE_BITS_PER_KEY = 4;
+        private static final int MIN_KEYS = 64;
+        // keeps the bit index of a filter within an int
+        private static final int MAX_WORDS = 1 << 25;
 
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            List<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
-                continue;
-            listIt = l.iterator();
+        private final List<long[]> filters = new ArrayList<>();
+        // the keys the last filter is sized for, and the keys added to it
+        private int capacity;
+        private int count;
 
-            return processList();
+        BloomFilter(int expectedKeys) {
+            capacity = Math.max(MIN_KEYS, expectedKeys);
+            filters.add(newFilter());
+        }
 
+        private long[] newFilter() {
+            long numBits = (long) capacity * (BITS_PER_KEY + MORE_BITS_PER_KEY * filters.size());
+            return new long[(int) Math.min(MAX_WORDS, (numBits + 63) / 64)];
         }
 
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
+        private static int bit(long[] bits, int h1, int i) {
+            int h2 = (h1 * 0x85EBCA6B) ^ (h1 >>> 13) | 1;
+            return Math.floorMod(h1 + i * h2, bits.length * 64);
+        }
+
+        void add(Field key) {
+            if (count >= capacity) {
+                capacity = (int) Math.min(Integer.MAX_VALUE, 2L * capacity);
+                count = 0;
+                filters.add(newFilter());
+            }
+            count++;
+            long[] bits = filters.get(filters.size() - 1);
+            int h = key.hashCode();
+            for (int i = 0; i < HASHES; i++) {
+                int b = bit(bits, h, i);
+                bits[b >>> 6] |= 1L << b;
+            }
+        }
+
+        boolean mightContain(Field key) {
+            int h = key.hashCode();
+            for (long[] bits : filters) {
+                if (contains(bits, h)) {
+                    return true;
+                }
+            }
+            return false;
         }
 
-        return null;
+        private static boolean contains(long[] bits, int h) {
+            for (int i = 0; i < HASHES; i++) {
+                int b = bit(bits, h, i);
+                if ((bits[b >>> 6] & (1L << b)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
     }
 
     @Override
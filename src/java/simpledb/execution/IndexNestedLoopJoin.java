@@ -0,0 +1,237 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.index.BTreeFile;
+import simpledb.storage.DbFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopJoin joins child1 with a table stored in a {@link BTreeFile}
+ * keyed on the join field, by probing the B+ tree with
+ * {@link BTreeFile#indexIterator} for each child1 tuple instead of scanning
+ * the table.
+ * <p>
+ * child1 is read a block of memoryPages pages worth of tuples at a time, and
+ * each block is sorted on the join field before it is probed, so that
+ * consecutive probes visit neighbouring leaf pages. For equality joins, a
+ * run of equal join values is probed once.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    private OpIterator child1;
+    private SeqScan inner;
+    private final TupleDesc comboTD;
+    private final int memoryPages;
+    // the operator comparing the index key to a child1 join value
+    private final Predicate.Op indexOp;
+
+    // the sorted block of child1 tuples being probed
+    private final List<Tuple> block = new ArrayList<>();
+    private int blockPos;
+    // the child1 tuple being joined and the probe of its matches
+    private Tuple outer;
+    private DbFileIterator probe;
+    // for equality joins, the matches of the last join value probed
+    private Field lastKey;
+    private final List<Tuple> lastMatches = new ArrayList<>();
+    private Iterator<Tuple> cached;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to join on; its operator must be EQUALS,
+     *            LESS_THAN, LESS_THAN_OR_EQ, GREATER_THAN or GREATER_THAN_OR_EQ
+     * @param child1
+     *            Iterator for the left relation
+     * @param inner
+     *            A scan of a B+ tree keyed on the second join field. It is
+     *            never opened; its table is probed through the index instead.
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, SeqScan inner) {
+        this(p, child1, inner, Join.DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to join on
+     * @param child1
+     *            Iterator for the left relation
+     * @param inner
+     *            A scan of a B+ tree keyed on the second join field
+     * @param memoryPages
+     *            The number of pages of child1 tuples to sort and probe at a
+     *            time
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, SeqScan inner, int memoryPages) {
+        if (!SortMergeJoin.supports(p.getOperator())) {
+            throw new IllegalArgumentException("cannot probe an index on " + p.getOperator());
+        }
+        if (!isIndexedOn(inner, p.getField2())) {
+            throw new IllegalArgumentException("table " + inner.getTableName()
+                    + " is not a B+ tree keyed on field " + p.getField2());
+        }
+        this.pred = p;
+        this.child1 = child1;
+        this.inner = inner;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), inner.getTupleDesc());
+        this.memoryPages = memoryPages;
+        this.indexOp = flip(p.getOperator());
+    }
+
+    /** @return true if the table scan scans a B+ tree keyed on its field */
+    public static boolean isIndexedOn(SeqScan scan, int field) {
+        DbFile f = Database.getCatalog().getDatabaseFile(scan.getTableId());
+        return f instanceof BTreeFile && ((BTreeFile) f).keyField() == scan.getTableField(field);
+    }
+
+    // a OP b holds exactly when b flip(OP) a does
+    private static Predicate.Op flip(Predicate.Op op) {
+        switch (op) {
+            case LESS_THAN:
+                return Predicate.Op.GREATER_THAN;
+            case LESS_THAN_OR_EQ:
+                return Predicate.Op.GREATER_THAN_OR_EQ;
+            case GREATER_THAN:
+                return Predicate.Op.LESS_THAN;
+            case GREATER_THAN_OR_EQ:
+                return Predicate.Op.LESS_THAN_OR_EQ;
+            default:
+                return op;
+        }
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return inner.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        reset();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        reset();
+        child1.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        reset();
+    }
+
+    private void reset() {
+        closeProbe();
+        block.clear();
+        blockPos = 0;
+        outer = null;
+        lastKey = null;
+        lastMatches.clear();
+        cached = null;
+    }
+
+    private void closeProbe() {
+        if (probe != null) {
+            probe.close();
+            probe = null;
+        }
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        boolean equals = pred.getOperator() == Predicate.Op.EQUALS;
+        while (true) {
+            if (outer != null) {
+                if (cached != null) {
+                    if (cached.hasNext()) {
+                        return mergeTuples(outer, cached.next());
+                    }
+                } else if (probe.hasNext()) {
+                    Tuple t = inner.project(probe.next());
+                    if (equals) {
+                        lastMatches.add(t);
+                    }
+                    return mergeTuples(outer, t);
+                }
+                closeProbe();
+                cached = null;
+                outer = null;
+            }
+            if (blockPos == block.size() && !loadBlock()) {
+                return null;
+            }
+            outer = block.get(blockPos++);
+            Field key = outer.getField(pred.getField1());
+            if (equals && key.equals(lastKey)) {
+                cached = lastMatches.iterator();
+                continue;
+            }
+            lastKey = key;
+            lastMatches.clear();
+            BTreeFile f = (BTreeFile) Database.getCatalog().getDatabaseFile(inner.getTableId());
+            probe = f.indexIterator(inner.getTransactionId(), new IndexPredicate(indexOp, key));
+            probe.open();
+        }
+    }
+
+    // read and sort the next block of child1; return false once it is exhausted
+    private boolean loadBlock() throws TransactionAbortedException, DbException {
+        int size = Join.blockTuples(child1.getTupleDesc(), memoryPages);
+        block.clear();
+        blockPos = 0;
+        while (block.size() < size && child1.hasNext()) {
+            block.add(child1.next());
+        }
+        block.sort(new TupleComparator(pred.getField1(), true));
+        return !block.isEmpty();
+    }
+
+    private Tuple mergeTuples(Tuple t1, Tuple t2) {
+        int td1n = t1.getTupleDesc().numFields();
+        int td2n = t2.getTupleDesc().numFields();
+        Tuple t = new Tuple(comboTD);
+        for (int i = 0; i < td1n; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < td2n; i++)
+            t.setField(td1n + i, t2.getField(i));
+        return t;
+    }
+
+    /** @return child1 and the scan of the indexed table */
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.inner};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.inner = (SeqScan) children[1];
+    }
+}
@@ -1,6 +1,7 @@
 package simpledb.execution;
 
 import simpledb.storage.Field;
+import simpledb.storage.SpillFile;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
@@ -10,17 +11,29 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * It is a block nested loops join: child1 is read a block of memoryPages
+ * pages worth of tuples at a time, and child2 is scanned once per block
+ * rather than once per child1 tuple.
  */
 public class Join extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    /** Default memory budget, in pages of child1 tuples */
+    public static final int DEFAULT_MEMORY_PAGES = 64;
+
     private JoinPredicate joinPredicate;
     private OpIterator child1;
     private OpIterator child2;
     private TupleDesc tupleDesc;
-    private final List<Tuple> childTups = new ArrayList<>();
-    private Iterator<Tuple> it;
+    private final int memoryPages;
+    // the block of child1 tuples being joined with child2
+    private final List<Tuple> block = new ArrayList<>();
+    // the child2 tuple being matched against the block, and the next block
+    // tuple to try, or null between child2 tuples
+    private Tuple inner;
+    private int blockPos;
 
     /**
      * Constructor. Accepts two children to join and the predicate to join them
@@ -35,10 +48,36 @@ public class Join extends Operator {
      */
     public Join(JoinPredicate p, OpIterator child1, OpIterator child2) {
         // some code goes here
+        this(p, child1, child2, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @param memoryPages
+     *            The number of pages of child1 tuples to join with each scan
+     *            of child2
+     */
+    public Join(JoinPredicate p, OpIterator child1, OpIterator child2, int memoryPages) {
         this.joinPredicate = p;
         this.child1 = child1;
         this.child2 = child2;
         this.tupleDesc = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.memoryPages = Math.max(1, memoryPages);
+    }
+
+    /**
+     * @return the number of child1 tuples of the given TupleDesc that a block
+     *         of memoryPages pages holds
+     */
+    public static int blockTuples(TupleDesc td, int memoryPages) {
+        return Math.max(1, memoryPages) * SpillFile.tuplesPerPage(td);
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -80,43 +119,24 @@ public class Join extends Operator {
         // some code goes here
         child1.open();
         child2.open();
-        // load all the tuples in a collection, and sort it
-        while (child1.hasNext()) {
-            Tuple n1 = child1.next();
-            while (child2.hasNext()) {
-                Tuple n2 = child2.next();
-                if (joinPredicate.filter(n1, n2)) {
-                    Tuple n = new Tuple(tupleDesc);
-                    int i = 0;
-                    Iterator<Field> i1 = n1.fields();
-                    while (i1.hasNext()) {
-                        n.setField(i, i1.next());
-                        i++;
-                    }
-
-                    Iterator<Field> i2 = n2.fields();
-                    while (i2.hasNext()) {
-                        n.setField(i, i2.next());
-                        i++;
-                    }
-                    childTups.add(n);
-                }
-            }
-            // rewind child2 for next iteration
-            child2.rewind();
-        }
-
-        it = childTups.iterator();
+        block.clear();
+        inner = null;
         super.open();
     }
 
     public void close() {
         super.close();
-        it = null;
+        child2.close();
+        child1.close();
+        block.clear();
+        inner = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        child1.rewind();
+        child2.rewind();
+        block.clear();
+        inner = null;
     }
 
     /**
@@ -139,10 +159,59 @@ public class Join extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        if (it != null && it.hasNext()) {
-            return it.next();
+        // resume matching the current child2 tuple against the block, and
+        // only load the next block once child2 is done
+        while (true) {
+            if (inner != null) {
+                while (blockPos < block.size()) {
+                    Tuple outer = block.get(blockPos++);
+                    if (joinPredicate.filter(outer, inner)) {
+                        return mergeTuples(outer, inner);
+                    }
+                }
+                inner = null;
+            }
+            if (!block.isEmpty() && child2.hasNext()) {
+                inner = child2.next();
+                blockPos = 0;
+                continue;
+            }
+            if (!loadBlock()) {
+                return null;
+            }
+        }
+    }
+
+    // read the next block of child1, and rewind child2 for it unless it is
+    // the first; return false once child1 is exhausted
+    private boolean loadBlock() throws TransactionAbortedException, DbException {
+        boolean first = block.isEmpty();
+        int size = blockTuples(child1.getTupleDesc(), memoryPages);
+        block.clear();
+        while (block.size() < size && child1.hasNext()) {
+            block.add(child1.next());
+        }
+        if (block.isEmpty()) {
+            return false;
+        }
+        if (!first) {
+            child2.rewind();
+        }
+        return true;
+    }
+
+    private Tuple mergeTuples(Tuple t1, Tuple t2) {
+        Tuple n = new Tuple(tupleDesc);
+        int i = 0;
+        Iterator<Field> i1 = t1.fields();
+        while (i1.hasNext()) {
+            n.setField(i++, i1.next());
+        }
+        Iterator<Field> i2 = t2.fields();
+        while (i2.hasNext()) {
+            n.setField(i++, i2.next());
         }
-        return null;
+        return n;
     }
 
     @Override
@@ -0,0 +1,216 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+
+import java.util.*;
+
+/**
+ * JoinHashTable holds the build tuples of a hash join by join value. Tables
+ * over INT join values keep the values in an open-addressing table of ints
+ * and the tuples of each value as a chain through parallel arrays, so the
+ * table allocates no objects per value or per tuple and probes without
+ * boxing; other join values use a HashMap of lists.
+ */
+public abstract class JoinHashTable {
+
+    /**
+     * @return an empty table for join values of the given type, probed with
+     *         values of probeType
+     */
+    public static JoinHashTable create(Type buildType, Type probeType) {
+        if (buildType == Type.INT_TYPE && probeType == Type.INT_TYPE) {
+            return new IntTable();
+        }
+        return new ObjectTable();
+    }
+
+    /** Add build tuple t, whose join value is key */
+    public abstract void add(Field key, Tuple t);
+
+    /**
+     * @return the build tuples whose join value is key, in the order they
+     *         were added, or null if there are none. The iterator may be
+     *         reused by the next call, so it must be consumed first.
+     */
+    public abstract Iterator<Tuple> get(Field key);
+
+    /** Like {@link #get(Field)}, for an INT join value */
+    public Iterator<Tuple> get(int key) {
+        return get(new IntField(key));
+    }
+
+    /** @return the number of tuples added */
+    public abstract int size();
+
+    /** @return all tuples added */
+    public abstract Iterator<Tuple> iterator();
+
+    /** Remove all tuples */
+    public abstract void clear();
+
+    private static class ObjectTable extends JoinHashTable {
+        private final Map<Field, List<Tuple>> map = new HashMap<>();
+        private int size;
+
+        public void add(Field key, Tuple t) {
+            map.computeIfAbsent(key, k -> new ArrayList<>()).add(t);
+            size++;
+        }
+
+        public Iterator<Tuple> get(Field key) {
+            List<Tuple> l = map.get(key);
+            return l == null ? null : l.iterator();
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public Iterator<Tuple> iterator() {
+            List<Tuple> all = new ArrayList<>(size);
+            for (List<Tuple> l : map.values()) {
+                all.addAll(l);
+            }
+            return all.iterator();
+        }
+
+        public void clear() {
+            map.clear();
+            size = 0;
+        }
+    }
+
+    /**
+     * Open addressing with linear probing over int join values. Each used
+     * slot points to the first and last tuple of its value; tuples are
+     * chained in insertion order through next.
+     */
+    private static class IntTable extends JoinHashTable {
+        private static final int INITIAL_CAPACITY = 16;
+
+        // slots: a join value and its first and last row, or head -1 if empty
+        private int[] keys;
+        private int[] heads;
+        private int[] tails;
+        private int values;
+        // rows: the tuples and the row after each one of the same value
+        private Tuple[] rows;
+        private int[] next;
+        private int size;
+        private final Chain chain = new Chain();
+
+        IntTable() {
+            clear();
+        }
+
+        private static int slot(int key, int mask) {
+            int h = key * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        // the slot holding key, or the empty slot it would go in
+        private int find(int key) {
+            int mask = heads.length - 1;
+            int i = slot(key, mask);
+            while (heads[i] >= 0 && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
+
+        public void add(Field key, Tuple t) {
+            int k = ((IntField) key).getValue();
+            if ((values + 1) * 4 > heads.length * 3) {
+                growSlots();
+            }
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, size * 2);
+                next = Arrays.copyOf(next, size * 2);
+            }
+            rows[size] = t;
+            next[size] = -1;
+            int s = find(k);
+            if (heads[s] < 0) {
+                keys[s] = k;
+                heads[s] = size;
+                values++;
+            } else {
+                next[tails[s]] = size;
+            }
+            tails[s] = size;
+            size++;
+        }
+
+        private void growSlots() {
+            int[] oldKeys = keys;
+            int[] oldHeads = heads;
+            int[] oldTails = tails;
+            keys = new int[oldKeys.length * 2];
+            heads = new int[oldKeys.length * 2];
+            tails = new int[oldKeys.length * 2];
+            Arrays.fill(heads, -1);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldHeads[i] >= 0) {
+                    int s = find(oldKeys[i]);
+                    keys[s] = oldKeys[i];
+                    heads[s] = oldHeads[i];
+                    tails[s] = oldTails[i];
+                }
+            }
+        }
+
+        public Iterator<Tuple> get(Field key) {
+            return get(((IntField) key).getValue());
+        }
+
+        @Override
+        public Iterator<Tuple> get(int key) {
+            int s = find(key);
+            if (heads[s] < 0) {
+                return null;
+            }
+            chain.row = heads[s];
+            return chain;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public Iterator<Tuple> iterator() {
+            return Arrays.asList(rows).subList(0, size).iterator();
+        }
+
+        public void clear() {
+            keys = new int[INITIAL_CAPACITY];
+            heads = new int[INITIAL_CAPACITY];
+            tails = new int[INITIAL_CAPACITY];
+            Arrays.fill(heads, -1);
+            values = 0;
+            rows = new Tuple[INITIAL_CAPACITY];
+            next = new int[INITIAL_CAPACITY];
+            size = 0;
+        }
+
+        /** Walks the rows of one join value */
+        private class Chain implements Iterator<Tuple> {
+            int row = -1;
+
+            public boolean hasNext() {
+                return row >= 0;
+            }
+
+            public Tuple next() {
+                if (row < 0) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = rows[row];
+                row = next[row];
+                return t;
+            }
+        }
+    }
+}
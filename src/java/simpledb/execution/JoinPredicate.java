@@ -17,6 +17,8 @@ public class JoinPredicate implements Serializable {
     private int field1;
     private int field2;
     private Predicate.Op op;
+    // filter, specialized for op and the join field types on first use
+    private transient PredicateCompiler.JoinTest compiled;
 
     /**
      * Constructor -- create a new predicate over two fields of two tuples.
@@ -55,7 +57,11 @@ public class JoinPredicate implements Serializable {
             return false;
         }
 
-        return t1.getField(field1).compare(op, t2.getField(field2));
+        if (compiled == null) {
+            compiled = PredicateCompiler.compile(this,
+                    t1.getTupleDesc().getFieldType(field1), t2.getTupleDesc().getFieldType(field2));
+        }
+        return compiled.test(t1, t2);
     }
     
     public int getField1() {
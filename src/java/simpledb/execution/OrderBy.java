@@ -2,29 +2,47 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
-import simpledb.storage.Field;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.SpillFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * It is an external merge sort: the child is read into sorted runs of at
+ * most memoryPages pages worth of tuples, runs are written to
+ * {@link SpillFile}s, and the runs are merged with a priority queue, in
+ * several passes if there are more runs than memoryPages - 1. Input that fits
+ * in memory is sorted in memory and never touches disk.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** Default memory budget, in pages of input tuples */
+    public static final int DEFAULT_MEMORY_PAGES = 64;
+
     private OpIterator child;
     private final TupleDesc td;
-    private final List<Tuple> childTups = new ArrayList<>();
-    private final int orderByField;
-    private final String orderByFieldName;
+    private final int[] orderByFields;
+    private final boolean[] asc;
+    private final int memoryPages;
+    private final TupleComparator comparator;
+
+    // the whole input, if it fit in memory
+    private List<Tuple> childTups;
     private Iterator<Tuple> it;
-    private final boolean asc;
+    // otherwise the sorted runs it was split into, and their merge
+    private final List<SpillFile> runs = new ArrayList<>();
+    private Merge merge;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
-     * 
+     *
      * @param orderbyField
      *            the field to which the sort is applied.
      * @param asc
@@ -33,28 +51,73 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, OpIterator child) {
+        this(new int[]{orderbyField}, new boolean[]{asc}, child);
+    }
+
+    /**
+     * Creates a new OrderBy node sorting on several fields.
+     *
+     * @param orderbyFields
+     *            the fields to sort on, most significant first.
+     * @param asc
+     *            for each field, true if it is sorted in ascending order.
+     * @param child
+     *            the tuples to sort.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, OpIterator child) {
+        this(orderbyFields, asc, child, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * Creates a new OrderBy node with the given memory budget.
+     *
+     * @param orderbyFields
+     *            the fields to sort on, most significant first.
+     * @param asc
+     *            for each field, true if it is sorted in ascending order.
+     * @param child
+     *            the tuples to sort.
+     * @param memoryPages
+     *            the number of pages of tuples to sort in memory at a time;
+     *            at least 3, so that runs can be merged two at a time.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, OpIterator child, int memoryPages) {
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length) {
+            throw new IllegalArgumentException("need one sort direction per sort field");
+        }
         this.child = child;
         td = child.getTupleDesc();
-        this.orderByField = orderbyField;
-        this.orderByFieldName = td.getFieldName(orderbyField);
-        this.asc = asc;
+        this.orderByFields = orderbyFields.clone();
+        this.asc = asc.clone();
+        this.memoryPages = Math.max(3, memoryPages);
+        this.comparator = new TupleComparator(this.orderByFields, this.asc);
     }
-    
+
     public boolean isASC()
     {
-	return this.asc;
+	return this.asc[0];
     }
-    
+
     public int getOrderByField()
     {
-        return this.orderByField;
+        return this.orderByFields[0];
     }
-    
+
     public String getOrderFieldName()
     {
-	return this.orderByFieldName;
+	return td.getFieldName(orderByFields[0]);
+    }
+
+    /** @return the fields sorted on, most significant first */
+    public int[] getOrderByFields() {
+        return orderByFields.clone();
+    }
+
+    /** @return for each sort field, true if it is sorted in ascending order */
+    public boolean[] getAscending() {
+        return asc.clone();
     }
-    
+
     public TupleDesc getTupleDesc() {
         return td;
     }
@@ -62,35 +125,111 @@ public class OrderBy extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add(child.next());
-        childTups.sort(new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        int maxTuples = memoryPages * SpillFile.tuplesPerPage(td);
+        List<Tuple> buffer = new ArrayList<>();
+        try {
+            while (child.hasNext()) {
+                buffer.add(child.next());
+                if (buffer.size() == maxTuples) {
+                    runs.add(writeRun(buffer));
+                    buffer.clear();
+                }
+            }
+            if (runs.isEmpty()) {
+                buffer.sort(comparator);
+                childTups = buffer;
+            } else {
+                if (!buffer.isEmpty()) {
+                    runs.add(writeRun(buffer));
+                }
+                // keep at most memoryPages - 1 runs, so that the final merge
+                // reads one page of each
+                int fanIn = memoryPages - 1;
+                while (runs.size() > fanIn) {
+                    List<SpillFile> merged = new ArrayList<>();
+                    for (int i = 0; i < runs.size(); i += fanIn) {
+                        merged.add(mergeRuns(runs.subList(i, Math.min(i + fanIn, runs.size()))));
+                    }
+                    runs.clear();
+                    runs.addAll(merged);
+                }
+            }
+        } catch (IOException e) {
+            deleteRuns();
+            throw new DbException("could not write sorted run: " + e.getMessage());
+        }
+        rewind();
         super.open();
     }
 
+    private SpillFile writeRun(List<Tuple> buffer) throws IOException, DbException {
+        buffer.sort(comparator);
+        SpillFile run = new SpillFile(td);
+        for (Tuple t : buffer) {
+            run.add(t);
+        }
+        return run;
+    }
+
+    // merge some runs into one new run, deleting them
+    private SpillFile mergeRuns(List<SpillFile> toMerge)
+            throws IOException, DbException, TransactionAbortedException {
+        SpillFile run = new SpillFile(td);
+        Merge m = new Merge(toMerge, comparator);
+        Tuple t;
+        while ((t = m.next()) != null) {
+            run.add(t);
+        }
+        m.close();
+        for (SpillFile f : toMerge) {
+            f.delete();
+        }
+        return run;
+    }
+
+    private void deleteRuns() {
+        if (merge != null) {
+            merge.close();
+            merge = null;
+        }
+        for (SpillFile f : runs) {
+            f.delete();
+        }
+        runs.clear();
+    }
+
     public void close() {
         super.close();
+        child.close();
+        deleteRuns();
+        childTups = null;
         it = null;
     }
 
-    public void rewind() {
-        it = childTups.iterator();
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (childTups != null) {
+            it = childTups.iterator();
+            return;
+        }
+        if (merge != null) {
+            merge.close();
+        }
+        merge = new Merge(runs, comparator);
     }
 
     /**
      * Operator.fetchNext implementation. Returns tuples from the child operator
      * in order
-     * 
+     *
      * @return The next tuple in the ordering, or null if there are no more
      *         tuples
      */
-    protected Tuple fetchNext() throws NoSuchElementException {
-        if (it != null && it.hasNext()) {
-            return it.next();
-        } else
-            return null;
+    protected Tuple fetchNext() throws NoSuchElementException, DbException,
+            TransactionAbortedException {
+        if (it != null) {
+            return it.hasNext() ? it.next() : null;
+        }
+        return merge != null ? merge.next() : null;
     }
 
     @Override
@@ -103,26 +242,89 @@ public class OrderBy extends Operator {
         this.child = children[0];
     }
 
+    /**
+     * A k-way merge of sorted runs. A priority queue holds the next tuple of
+     * each run; ties go to the earlier run, so the merge is stable.
+     */
+    private static class Merge {
+        private final List<DbFileIterator> iterators = new ArrayList<>();
+        private final PriorityQueue<Head> heads;
+
+        private static class Head {
+            final Tuple tuple;
+            final int run;
+
+            Head(Tuple tuple, int run) {
+                this.tuple = tuple;
+                this.run = run;
+            }
+        }
+
+        Merge(List<SpillFile> runs, Comparator<Tuple> comparator)
+                throws DbException, TransactionAbortedException {
+            heads = new PriorityQueue<>(Math.max(1, runs.size()), (a, b) -> {
+                int c = comparator.compare(a.tuple, b.tuple);
+                return c != 0 ? c : Integer.compare(a.run, b.run);
+            });
+            for (int i = 0; i < runs.size(); i++) {
+                DbFileIterator run = runs.get(i).iterator();
+                run.open();
+                iterators.add(run);
+                advance(i);
+            }
+        }
+
+        private void advance(int run) throws DbException, TransactionAbortedException {
+            DbFileIterator i = iterators.get(run);
+            if (i.hasNext()) {
+                heads.add(new Head(i.next(), run));
+            }
+        }
+
+        /** @return the next tuple of the merge, or null when all runs are exhausted */
+        Tuple next() throws DbException, TransactionAbortedException {
+            Head head = heads.poll();
+            if (head == null) {
+                return null;
+            }
+            advance(head.run);
+            return head.tuple;
+        }
+
+        void close() {
+            for (DbFileIterator i : iterators) {
+                i.close();
+            }
+            heads.clear();
+        }
+    }
+
 }
 
+/**
+ * Compares tuples on a list of fields, most significant first, each in
+ * ascending or descending order.
+ */
 class TupleComparator implements Comparator<Tuple> {
-    final int field;
-    final boolean asc;
+    final int[] fields;
+    final boolean[] asc;
 
     public TupleComparator(int field, boolean asc) {
-        this.field = field;
+        this(new int[]{field}, new boolean[]{asc});
+    }
+
+    public TupleComparator(int[] fields, boolean[] asc) {
+        this.fields = fields;
         this.asc = asc;
     }
 
     public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-    
+        for (int i = 0; i < fields.length; i++) {
+            int c = o1.compareField(fields[i], o2, fields[i]);
+            if (c != 0)
+                return asc[i] ? c : -c;
+        }
+        return 0;
+    }
+
 }
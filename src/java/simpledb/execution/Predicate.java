@@ -51,6 +51,8 @@ public class Predicate implements Serializable {
     private int field;
     private Op op;
     private Field operand;
+    // filter, specialized for op and the operand's type on first use
+    private transient PredicateCompiler.Test compiled;
     
     /**
      * Constructor.
@@ -105,7 +107,15 @@ public class Predicate implements Serializable {
      */
     public boolean filter(Tuple t) {
         // some code goes here
-        return t.getField(field) != null && t.getField(field).compare(op, operand);
+        return compile().test(t);
+    }
+
+    /** @return this predicate compiled by {@link PredicateCompiler} */
+    public PredicateCompiler.Test compile() {
+        if (compiled == null) {
+            compiled = PredicateCompiler.compile(this);
+        }
+        return compiled;
     }
 
     /**
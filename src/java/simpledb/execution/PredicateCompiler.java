@@ -0,0 +1,234 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+
+import java.util.List;
+
+/**
+ * PredicateCompiler turns predicates into tests specialized for their
+ * operator and field types, so that evaluating one is a type check, a field
+ * read and a single primitive comparison, instead of a virtual
+ * {@link Field#compare} and a switch on the operator for every tuple. Each
+ * specialization is a separate lambda, which the JVM spins into its own
+ * class through java.lang.invoke, so each call site sees few classes and
+ * the JIT can inline the comparison.
+ */
+public class PredicateCompiler {
+
+    /** A compiled {@link Predicate} */
+    public interface Test {
+        boolean test(Tuple t);
+    }
+
+    /** A compiled {@link JoinPredicate} */
+    public interface JoinTest {
+        boolean test(Tuple t1, Tuple t2);
+    }
+
+    /**
+     * @return a test equivalent to p.filter, which is false for tuples whose
+     *         field is not set
+     */
+    public static Test compile(Predicate p) {
+        final int f = p.getField();
+        Field operand = p.getOperand();
+        if (operand instanceof IntField) {
+            final int v = ((IntField) operand).getValue();
+            switch (p.getOp()) {
+                case EQUALS:
+                case LIKE:
+                    return t -> { Field x = t.getField(f); return x instanceof IntField && ((IntField) x).getValue() == v; };
+                case NOT_EQUALS:
+                    return t -> { Field x = t.getField(f); return x instanceof IntField && ((IntField) x).getValue() != v; };
+                case GREATER_THAN:
+                    return t -> { Field x = t.getField(f); return x instanceof IntField && ((IntField) x).getValue() > v; };
+                case GREATER_THAN_OR_EQ:
+                    return t -> { Field x = t.getField(f); return x instanceof IntField && ((IntField) x).getValue() >= v; };
+                case LESS_THAN:
+                    return t -> { Field x = t.getField(f); return x instanceof IntField && ((IntField) x).getValue() < v; };
+                case LESS_THAN_OR_EQ:
+                    return t -> { Field x = t.getField(f); return x instanceof IntField && ((IntField) x).getValue() <= v; };
+            }
+        } else if (operand instanceof StringField) {
+            final String v = ((StringField) operand).getValue();
+            switch (p.getOp()) {
+                case EQUALS:
+                    return t -> { Field x = t.getField(f); return x instanceof StringField && ((StringField) x).getValue().equals(v); };
+                case NOT_EQUALS:
+                    return t -> { Field x = t.getField(f); return x instanceof StringField && !((StringField) x).getValue().equals(v); };
+                case GREATER_THAN:
+                    return t -> { Field x = t.getField(f); return x instanceof StringField && ((StringField) x).getValue().compareTo(v) > 0; };
+                case GREATER_THAN_OR_EQ:
+                    return t -> { Field x = t.getField(f); return x instanceof StringField && ((StringField) x).getValue().compareTo(v) >= 0; };
+                case LESS_THAN:
+                    return t -> { Field x = t.getField(f); return x instanceof StringField && ((StringField) x).getValue().compareTo(v) < 0; };
+                case LESS_THAN_OR_EQ:
+                    return t -> { Field x = t.getField(f); return x instanceof StringField && ((StringField) x).getValue().compareTo(v) <= 0; };
+                case LIKE:
+                    return t -> { Field x = t.getField(f); return x instanceof StringField && ((StringField) x).getValue().contains(v); };
+            }
+        }
+        final Predicate.Op op = p.getOp();
+        return t -> { Field x = t.getField(f); return x != null && x.compare(op, operand); };
+    }
+
+    /**
+     * @return a test that is true when all of tests are, evaluating them in
+     *         order and stopping at the first that fails
+     */
+    public static Test and(List<Test> tests) {
+        if (tests.size() == 1) {
+            return tests.get(0);
+        }
+        if (tests.size() == 2) {
+            final Test a = tests.get(0);
+            final Test b = tests.get(1);
+            return t -> a.test(t) && b.test(t);
+        }
+        final Test[] all = tests.toArray(new Test[0]);
+        return t -> {
+            for (Test test : all) {
+                if (!test.test(t)) {
+                    return false;
+                }
+            }
+            return true;
+        };
+    }
+
+    /**
+     * @return a test that is true when all of tests are, if and is true, or
+     *         when any of them is, if and is false. The tests are evaluated
+     *         in the order of their cost, given by costs, per tuple on which
+     *         they decide the result, as measured on the tuples tested.
+     */
+    public static Test adaptive(Test[] tests, double[] costs, boolean and) {
+        return new Adaptive(tests.clone(), costs.clone(), and);
+    }
+
+    /**
+     * Adaptive evaluates a conjunction or disjunction of tests, stopping at
+     * the first that decides the result. It counts how often each test
+     * decides, and every {@link #REORDER_INTERVAL} tuples sorts the tests by
+     * their cost divided by that frequency, which is the order that
+     * minimizes the expected cost of independent tests. The counts are then
+     * halved, so the order follows the data as it changes.
+     */
+    private static final class Adaptive implements Test {
+
+        static final int REORDER_INTERVAL = 1024;
+
+        private final Test[] tests;
+        private final double[] costs;
+        private final boolean and;
+        private final int[] order;
+        private final int[] evaluated;
+        private final int[] passed;
+        private final double[] rank;
+        private int calls;
+
+        /**
+         * @param tests the operands
+         * @param costs the relative cost of evaluating each operand
+         * @param and true for a conjunction, false for a disjunction
+         */
+        Adaptive(Test[] tests, double[] costs, boolean and) {
+            this.tests = tests;
+            this.costs = costs;
+            this.and = and;
+            this.order = new int[tests.length];
+            this.evaluated = new int[tests.length];
+            this.passed = new int[tests.length];
+            this.rank = new double[tests.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+        }
+
+        public boolean test(Tuple t) {
+            if (++calls == REORDER_INTERVAL) {
+                reorder();
+            }
+            for (int i : order) {
+                evaluated[i]++;
+                boolean r = tests[i].test(t);
+                if (r) {
+                    passed[i]++;
+                }
+                if (r != and) {
+                    return r;
+                }
+            }
+            return and;
+        }
+
+        private void reorder() {
+            calls = 0;
+            for (int i = 0; i < tests.length; i++) {
+                // the smoothed fraction of tuples on which test i decides
+                int decided = and ? evaluated[i] - passed[i] : passed[i];
+                rank[i] = costs[i] * (evaluated[i] + 2) / (decided + 1);
+                evaluated[i] >>= 1;
+                passed[i] >>= 1;
+            }
+            for (int i = 1; i < order.length; i++) {
+                int o = order[i];
+                int j = i - 1;
+                while (j >= 0 && rank[order[j]] > rank[o]) {
+                    order[j + 1] = order[j];
+                    j--;
+                }
+                order[j + 1] = o;
+            }
+        }
+    }
+
+    /**
+     * @return a test equivalent to p.filter for tuples whose join fields
+     *         have the types type1 and type2
+     */
+    public static JoinTest compile(JoinPredicate p, Type type1, Type type2) {
+        final int f1 = p.getField1();
+        final int f2 = p.getField2();
+        if (type1 == Type.INT_TYPE && type2 == Type.INT_TYPE) {
+            switch (p.getOperator()) {
+                case EQUALS:
+                case LIKE:
+                    return (t1, t2) -> t1.getInt(f1) == t2.getInt(f2);
+                case NOT_EQUALS:
+                    return (t1, t2) -> t1.getInt(f1) != t2.getInt(f2);
+                case GREATER_THAN:
+                    return (t1, t2) -> t1.getInt(f1) > t2.getInt(f2);
+                case GREATER_THAN_OR_EQ:
+                    return (t1, t2) -> t1.getInt(f1) >= t2.getInt(f2);
+                case LESS_THAN:
+                    return (t1, t2) -> t1.getInt(f1) < t2.getInt(f2);
+                case LESS_THAN_OR_EQ:
+                    return (t1, t2) -> t1.getInt(f1) <= t2.getInt(f2);
+            }
+        } else if (type1 == Type.STRING_TYPE && type2 == Type.STRING_TYPE) {
+            switch (p.getOperator()) {
+                case EQUALS:
+                    return (t1, t2) -> t1.getString(f1).equals(t2.getString(f2));
+                case NOT_EQUALS:
+                    return (t1, t2) -> !t1.getString(f1).equals(t2.getString(f2));
+                case GREATER_THAN:
+                    return (t1, t2) -> t1.compareField(f1, t2, f2) > 0;
+                case GREATER_THAN_OR_EQ:
+                    return (t1, t2) -> t1.compareField(f1, t2, f2) >= 0;
+                case LESS_THAN:
+                    return (t1, t2) -> t1.compareField(f1, t2, f2) < 0;
+                case LESS_THAN_OR_EQ:
+                    return (t1, t2) -> t1.compareField(f1, t2, f2) <= 0;
+                case LIKE:
+                    return (t1, t2) -> t1.getString(f1).contains(t2.getString(f2));
+            }
+        }
+        final Predicate.Op op = p.getOperator();
+        return (t1, t2) -> t1.getField(f1).compare(op, t2.getField(f2));
+    }
+}
@@ -16,7 +16,7 @@ public class Project extends Operator {
     private static final long serialVersionUID = 1L;
     private OpIterator child;
     private final TupleDesc td;
-    private final List<Integer> outFieldIds;
+    private final int[] outFields;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -34,7 +34,6 @@ public class Project extends Operator {
     public Project(List<Integer> fieldList, Type[] types,
                    OpIterator child) {
         this.child = child;
-        outFieldIds = fieldList;
         String[] fieldAr = new String[fieldList.size()];
         TupleDesc childtd = child.getTupleDesc();
 
@@ -42,6 +41,10 @@ public class Project extends Operator {
             fieldAr[i] = childtd.getFieldName(fieldList.get(i));
         }
         td = new TupleDesc(types, fieldAr);
+        outFields = new int[fieldList.size()];
+        for (int i = 0; i < outFields.length; i++) {
+            outFields[i] = fieldList.get(i);
+        }
     }
 
     public TupleDesc getTupleDesc() {
@@ -75,8 +78,8 @@ public class Project extends Operator {
         Tuple t = child.next();
         Tuple newTuple = new Tuple(td);
         newTuple.setRecordId(t.getRecordId());
-        for (int i = 0; i < td.numFields(); i++) {
-            newTuple.setField(i, t.getField(outFieldIds.get(i)));
+        for (int i = 0; i < outFields.length; i++) {
+            newTuple.setField(i, t.getField(outFields[i]));
         }
         return newTuple;
     }
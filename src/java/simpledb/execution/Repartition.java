@@ -0,0 +1,137 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Repartition redistributes the tuples of several partitions by the hash of
+ * a field, so that all tuples with equal values of the field end up in the
+ * same output. Repartitioning both inputs of an equi-join on their join
+ * fields lets each pair of outputs be joined independently.
+ * <p>
+ * The outputs must be consumed concurrently, each by its own thread, since
+ * the producers wait while any output's queue is full. The producers start
+ * when the first output is opened and stop when the last one is closed;
+ * tuples for an output that is closed before then are dropped. An output
+ * cannot be rewound on its own.
+ */
+public class Repartition implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final OpIterator[] children;
+    private final int field;
+    private final Output[] outputs;
+    private transient ExchangeChannels channels;
+    private int open;
+
+    /**
+     * @param children the partitions to redistribute
+     * @param field the field to partition on
+     * @param numOutputs the number of outputs
+     */
+    public Repartition(OpIterator[] children, int field, int numOutputs) {
+        this.children = children;
+        this.field = field;
+        this.outputs = new Output[numOutputs];
+        for (int i = 0; i < numOutputs; i++) {
+            outputs[i] = new Output(i);
+        }
+    }
+
+    /** @return the outputs, output i holding the tuples routed to partition i */
+    public OpIterator[] getOutputs() {
+        return outputs.clone();
+    }
+
+    /** @return the output of a tuple whose partitioning field hashes to hash */
+    static int partition(int hash, int numOutputs) {
+        int h = hash * 0xC2B2AE35;
+        h ^= h >>> 15;
+        return Math.floorMod(h, numOutputs);
+    }
+
+    private synchronized ExchangeChannels acquire() {
+        if (open++ == 0) {
+            channels = new ExchangeChannels(children, outputs.length,
+                    t -> partition(t.getField(field).hashCode(), outputs.length));
+            channels.start();
+        }
+        return channels;
+    }
+
+    private synchronized void release(int partition) {
+        channels.close(partition);
+        if (--open == 0) {
+            channels.cancel();
+            channels = null;
+        }
+    }
+
+    private class Output extends Exchange {
+        private static final long serialVersionUID = 1L;
+
+        private final int partition;
+        private transient ExchangeChannels source;
+        private transient Iterator<Tuple> chunk;
+
+        Output(int partition) {
+            this.partition = partition;
+        }
+
+        public String getName() {
+            return "repartition(" + children[0].getTupleDesc().getFieldName(field)
+                    + "," + partition + "/" + outputs.length + ")";
+        }
+
+        public TupleDesc getTupleDesc() {
+            return children[0].getTupleDesc();
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            source = acquire();
+            chunk = null;
+            super.open();
+        }
+
+        public void close() {
+            super.close();
+            if (source != null) {
+                source = null;
+                release(partition);
+            }
+            chunk = null;
+        }
+
+        public void rewind() throws DbException {
+            throw new DbException("a repartitioned stream cannot be rewound");
+        }
+
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            while (chunk == null || !chunk.hasNext()) {
+                List<Tuple> next = source.take(partition);
+                if (next == null) {
+                    return null;
+                }
+                chunk = next.iterator();
+            }
+            return chunk.next();
+        }
+
+        @Override
+        public OpIterator[] getChildren() {
+            return children;
+        }
+
+        @Override
+        public void setChildren(OpIterator[] children) {
+            throw new UnsupportedOperationException("the children of a repartition are shared");
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * RowToBatchAdapter presents a tuple-at-a-time OpIterator as a
+ * BatchOpIterator, by copying its tuples into a batch.
+ */
+public class RowToBatchAdapter implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final OpIterator child;
+    private final int batchSize;
+    private transient TupleBatch batch;
+
+    public RowToBatchAdapter(OpIterator child) {
+        this(child, TupleBatch.DEFAULT_SIZE);
+    }
+
+    public RowToBatchAdapter(OpIterator child, int batchSize) {
+        this.child = child;
+        this.batchSize = batchSize;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = new TupleBatch(child.getTupleDesc(), batchSize);
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null) {
+            throw new IllegalStateException("RowToBatchAdapter not yet open");
+        }
+        batch.clear();
+        while (!batch.isFull() && child.hasNext()) {
+            batch.add(child.next());
+        }
+        return batch.numSelected() > 0 ? batch : null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        child.close();
+        batch = null;
+    }
+}
@@ -1,11 +1,15 @@
 package simpledb.execution;
 
 import simpledb.common.Database;
+import simpledb.common.Permissions;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 import simpledb.common.Type;
 import simpledb.common.DbException;
+import simpledb.storage.DbFile;
 import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.PaxFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
@@ -15,6 +19,11 @@ import java.util.*;
  * SeqScan is an implementation of a sequential scan access method that reads
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
+ * <p>
+ * A scan may be restricted to some columns of the table, in which case its
+ * tuples hold only those fields, so the operators above it carry no more of
+ * each tuple than the query needs. Heap and PAX files build such tuples
+ * directly, and over a {@link PaxFile} only those columns are decoded.
  */
 public class SeqScan implements OpIterator {
 
@@ -24,6 +33,14 @@ public class SeqScan implements OpIterator {
     private int tableId;
     private String tableAlias;
     private DbFileIterator iterator;
+    private int partition = 0;
+    private int numPartitions = 1;
+    // the fields of the table the scan returns, or null for all of them
+    private int[] columns;
+    // whether the file's iterator already restricts its tuples to columns
+    private boolean pruned;
+    // while open and restricted to columns, the scan's tuple desc
+    private transient TupleDesc projectedTd;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -42,10 +59,89 @@ public class SeqScan implements OpIterator {
      *            tableAlias.null, or null.null).
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, Permissions.READ_ONLY);
+    }
+
+    /**
+     * Creates a sequential scan that fetches pages with the given permissions.
+     * Scans feeding a Delete use UPDATE, so that two deleting transactions
+     * queue on the update lock instead of deadlocking on their upgrades.
+     *
+     * @param perm
+     *            the permissions to fetch pages with
+     * @see #SeqScan(TransactionId, int, String)
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, Permissions perm) {
+        this(tid, tableid, tableAlias, perm, null);
+    }
+
+    /**
+     * Creates a scan that returns only some columns of the table, in the
+     * given order.
+     *
+     * @param columns
+     *            the indexes of the fields of the table to return, or null
+     *            for all of them
+     * @see #SeqScan(TransactionId, int, String, Permissions)
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, Permissions perm, int[] columns) {
         this.tid = tid;
         this.tableId = tableid;
         this.tableAlias = tableAlias;
-        this.iterator = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+        this.columns = columns == null ? null : columns.clone();
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        if (file instanceof PaxFile) {
+            // decode only the columns of the table the scan returns
+            this.iterator = ((PaxFile) file).iterator(tid, perm, columns);
+            this.pruned = true;
+        } else if (file instanceof HeapFile) {
+            this.iterator = ((HeapFile) file).iterator(tid, perm, columns);
+            this.pruned = true;
+        } else {
+            this.iterator = file.iterator(tid, perm);
+        }
+    }
+
+    /**
+     * Creates a scan over one partition of a heap file, for scanning the
+     * file in parallel. The file is split into numPartitions contiguous page
+     * ranges, and the scan reads range partition.
+     *
+     * @param partition
+     *            the partition to scan, from 0 to numPartitions - 1
+     * @param numPartitions
+     *            the number of partitions the table is split into
+     * @throws IllegalArgumentException
+     *            if the table is not a HeapFile
+     * @see #SeqScan(TransactionId, int, String)
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int partition, int numPartitions) {
+        this(tid, tableid, tableAlias, partition, numPartitions, null);
+    }
+
+    /**
+     * Creates a scan over one partition of a heap file that returns only
+     * some columns of the table.
+     *
+     * @param columns
+     *            the indexes of the fields of the table to return, or null
+     *            for all of them
+     * @see #SeqScan(TransactionId, int, String, int, int)
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int partition, int numPartitions,
+                   int[] columns) {
+        this.tid = tid;
+        this.tableId = tableid;
+        this.tableAlias = tableAlias;
+        this.columns = columns == null ? null : columns.clone();
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(file instanceof HeapFile)) {
+            throw new IllegalArgumentException("only heap files can be scanned in partitions");
+        }
+        this.partition = partition;
+        this.numPartitions = numPartitions;
+        this.iterator = ((HeapFile) file).iterator(tid, partition, numPartitions, columns);
+        this.pruned = true;
     }
 
     /**
@@ -57,6 +153,86 @@ public class SeqScan implements OpIterator {
         return Database.getCatalog().getTableName(tableId);
     }
 
+    /**
+     * @return the id of the table the operator scans
+     */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the transaction the operator scans on behalf of
+     */
+    public TransactionId getTransactionId() {
+        return tid;
+    }
+
+    /**
+     * @return the partition of the table this operator scans, 0 unless it
+     *         was created with a number of partitions
+     */
+    public int getPartition() {
+        return partition;
+    }
+
+    /**
+     * @return the number of partitions the table is split into, 1 for a
+     *         scan of the whole table
+     */
+    public int getNumPartitions() {
+        return numPartitions;
+    }
+
+    /**
+     * @return the indexes of the fields of the table this operator returns,
+     *         or null if it returns all of them
+     */
+    public int[] getColumns() {
+        return columns == null ? null : columns.clone();
+    }
+
+    /**
+     * @return the index in the table of field i of this operator's tuples
+     */
+    public int getTableField(int i) {
+        return columns == null ? i : columns[i];
+    }
+
+    /**
+     * @return t, a tuple of the table, restricted to the columns of this
+     *         operator
+     */
+    Tuple project(Tuple t) {
+        if (columns == null) {
+            return t;
+        }
+        if (projectedTd == null) {
+            projectedTd = getTupleDesc();
+        }
+        Tuple out = new Tuple(projectedTd);
+        for (int i = 0; i < columns.length; i++) {
+            out.setField(i, t.getField(columns[i]));
+        }
+        out.setRecordId(t.getRecordId());
+        return out;
+    }
+
+    /**
+     * Let the scan skip pages of a heap file on which, according to the
+     * file's {@link simpledb.storage.ZoneMap}, no tuple satisfies condition.
+     * The tuples of the pages read are all returned, so condition must
+     * still be applied above the scan. Has no effect on other files.
+     *
+     * @param condition a predicate over the fields of this operator's
+     *                  tuples, or null to read every page
+     */
+    public void setCondition(CompositePredicate condition) {
+        if (iterator instanceof HeapFile.HeapFileIterator) {
+            ((HeapFile.HeapFileIterator) iterator).setCondition(
+                    condition == null ? null : condition.mapFields(this::getTableField));
+        }
+    }
+
     /**
      * @return Return the alias of the table this operator scans.
      * */
@@ -79,6 +255,7 @@ public class SeqScan implements OpIterator {
     public void reset(int tableid, String tableAlias) {
         this.tableId = tableid;
         this.tableAlias = tableAlias;
+        this.projectedTd = null;
     }
 
     public SeqScan(TransactionId tid, int tableId) {
@@ -97,18 +274,19 @@ public class SeqScan implements OpIterator {
      * (e.g., "alias.fieldName").
      *
      * @return the TupleDesc with field names from the underlying HeapFile,
-     *         prefixed with the tableAlias string from the constructor.
+     *         prefixed with the tableAlias string from the constructor, of
+     *         the columns this operator returns.
      */
     public TupleDesc getTupleDesc() {
         TupleDesc tupleDesc = Database.getCatalog().getDatabaseFile(tableId).getTupleDesc();
 
         // prefix with the tableAlias
-        int len = tupleDesc.numFields();
+        int len = columns == null ? tupleDesc.numFields() : columns.length;
         Type[] types = new Type[len];
         String[] fields = new String[len];
         for (int i = 0; i < len; i++) {
-            types[i] = tupleDesc.getFieldType(i);
-            fields[i] = getAlias() + "." + tupleDesc.getFieldName(i);
+            types[i] = tupleDesc.getFieldType(getTableField(i));
+            fields[i] = getAlias() + "." + tupleDesc.getFieldName(getTableField(i));
         }
 
         return new TupleDesc(types, fields);
@@ -120,7 +298,8 @@ public class SeqScan implements OpIterator {
 
     public Tuple next() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        return this.iterator.next();
+        Tuple t = this.iterator.next();
+        return pruned ? t : project(t);
     }
 
     public void close() {
@@ -0,0 +1,227 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.*;
+
+/**
+ * SortMergeJoin joins two children that are both sorted in ascending order
+ * on their join fields, such as scans of B+ trees keyed on the join fields.
+ * <p>
+ * Equality joins merge the two inputs in a single pass, buffering only the
+ * child2 tuples of the current join value. Band joins (LESS_THAN,
+ * GREATER_THAN and their OR_EQ variants) are output sensitive: the tuples
+ * matching a tuple of one child are a prefix of the other child, so each
+ * rescan stops at the first tuple that does not match instead of reading the
+ * whole inner child.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    private OpIterator child1, child2;
+    private final TupleDesc comboTD;
+
+    // equality: the current child1 tuple, the child2 tuples with its join
+    // value, and the first child2 tuple past them
+    transient private Tuple t1;
+    transient private Field groupKey;
+    private final List<Tuple> group = new ArrayList<>();
+    transient private Iterator<Tuple> groupIt;
+    transient private Tuple lookahead;
+
+    // band joins: the current outer tuple, and whether its prefix of the
+    // inner child is done
+    transient private Tuple outer;
+    transient private boolean prefixDone;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to join on; its operator must be EQUALS,
+     *            LESS_THAN, LESS_THAN_OR_EQ, GREATER_THAN or GREATER_THAN_OR_EQ
+     * @param child1
+     *            Iterator for the left relation, sorted ascending on the
+     *            first join field
+     * @param child2
+     *            Iterator for the right relation, sorted ascending on the
+     *            second join field
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        if (!supports(p.getOperator())) {
+            throw new IllegalArgumentException("cannot merge join on " + p.getOperator());
+        }
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /** @return true if a merge join can evaluate join predicates with op */
+    public static boolean supports(Predicate.Op op) {
+        switch (op) {
+            case EQUALS:
+            case LESS_THAN:
+            case LESS_THAN_OR_EQ:
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQ:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        reset();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child2.close();
+        child1.close();
+        group.clear();
+        t1 = null;
+        outer = null;
+        lookahead = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        reset();
+    }
+
+    private void reset() throws DbException, TransactionAbortedException {
+        t1 = null;
+        groupKey = null;
+        group.clear();
+        groupIt = null;
+        outer = null;
+        prefixDone = true;
+        if (pred.getOperator() == Predicate.Op.EQUALS) {
+            lookahead = child2.hasNext() ? child2.next() : null;
+        }
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        switch (pred.getOperator()) {
+            case EQUALS:
+                return fetchEquals();
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQ:
+                // the child2 tuples below a child1 tuple are a prefix of child2
+                return fetchPrefix(child1, child2, false);
+            default:
+                // the child1 tuples below a child2 tuple are a prefix of child1
+                return fetchPrefix(child2, child1, true);
+        }
+    }
+
+    private Tuple fetchEquals() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (groupIt != null && groupIt.hasNext()) {
+                return mergeTuples(t1, groupIt.next());
+            }
+            if (!child1.hasNext()) {
+                return null;
+            }
+            t1 = child1.next();
+            Field key = t1.getField(pred.getField1());
+            if (groupKey != null && key.compare(Predicate.Op.EQUALS, groupKey)) {
+                // same join value as the previous child1 tuple
+                groupIt = group.iterator();
+                continue;
+            }
+            // skip child2 tuples below the new join value
+            while (lookahead != null
+                    && lookahead.getField(pred.getField2()).compare(Predicate.Op.LESS_THAN, key)) {
+                lookahead = child2.hasNext() ? child2.next() : null;
+            }
+            if (lookahead == null) {
+                // no child2 tuple can match this or any later child1 tuple
+                return null;
+            }
+            group.clear();
+            while (lookahead != null
+                    && lookahead.getField(pred.getField2()).compare(Predicate.Op.EQUALS, key)) {
+                group.add(lookahead);
+                lookahead = child2.hasNext() ? child2.next() : null;
+            }
+            groupKey = key;
+            groupIt = group.iterator();
+        }
+    }
+
+    /**
+     * Join each outer tuple with the prefix of inner that matches it.
+     *
+     * @param swapped true if outer is child2, so that the predicate is
+     *            applied and the output is built with the inner tuple first
+     */
+    private Tuple fetchPrefix(OpIterator outerChild, OpIterator inner, boolean swapped)
+            throws TransactionAbortedException, DbException {
+        while (true) {
+            if (!prefixDone && inner.hasNext()) {
+                Tuple t = inner.next();
+                if (swapped ? pred.filter(t, outer) : pred.filter(outer, t)) {
+                    return swapped ? mergeTuples(t, outer) : mergeTuples(outer, t);
+                }
+                prefixDone = true;
+            }
+            if (!outerChild.hasNext()) {
+                return null;
+            }
+            outer = outerChild.next();
+            inner.rewind();
+            prefixDone = false;
+        }
+    }
+
+    private Tuple mergeTuples(Tuple left, Tuple right) {
+        int td1n = left.getTupleDesc().numFields();
+        int td2n = right.getTupleDesc().numFields();
+        Tuple t = new Tuple(comboTD);
+        for (int i = 0; i < td1n; i++)
+            t.setField(i, left.getField(i));
+        for (int i = 0; i < td2n; i++)
+            t.setField(td1n + i, right.getField(i));
+        return t;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+}
@@ -0,0 +1,51 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.SpillFile;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/** Adapts the iterator of a spill file to the OpIterator interface */
+class SpillScan implements OpIterator {
+    private static final long serialVersionUID = 1L;
+
+    private final DbFileIterator it;
+    private final TupleDesc td;
+
+    SpillScan(SpillFile file) {
+        this(file.iterator(), file.getTupleDesc());
+    }
+
+    SpillScan(DbFileIterator it, TupleDesc td) {
+        this.it = it;
+        this.td = td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        it.open();
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        return it.hasNext();
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        return it.next();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        it.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void close() {
+        it.close();
+    }
+}
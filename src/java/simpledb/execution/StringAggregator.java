@@ -1,14 +1,8 @@
 package simpledb.execution;
 
 import simpledb.common.Type;
-import simpledb.storage.Field;
 import simpledb.storage.Tuple;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
 /**
  * Knows how to compute some aggregate over a set of StringFields.
  */
@@ -16,11 +10,9 @@ public class StringAggregator implements Aggregator {
 
     private static final long serialVersionUID = 1L;
 
-    private int gbfield;
-    private Type gbfieldtype;
     private int afield;
     private Op op;
-    private Map<Field, List<Field>> groupMap;
+    private final GroupTable groups;
 
     /**
      * Aggregate constructor
@@ -33,11 +25,9 @@ public class StringAggregator implements Aggregator {
 
     public StringAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
         // some code goes here
-        this.gbfield = gbfield;
-        this.gbfieldtype = gbfieldtype;
         this.afield = afield;
         this.op = what;
-        this.groupMap = new HashMap<>();
+        this.groups = new GroupTable(gbfield, gbfieldtype);
     }
 
     /**
@@ -46,11 +36,15 @@ public class StringAggregator implements Aggregator {
      */
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
-        Field key = (gbfield == NO_GROUPING) ? NO_GROUPING_FIELD : tup.getField(gbfield);
-        if (!groupMap.containsKey(key)) {
-            groupMap.put(key, new ArrayList<>());
-        }
-        groupMap.get(key).add(tup.getField(afield));
+        groups.add(groups.groupOf(tup));
+    }
+
+    public int numGroups() {
+        return groups.numGroups();
+    }
+
+    public boolean hasGroup(Tuple tup) {
+        return groups.findGroup(tup) >= 0;
     }
 
     /**
@@ -63,7 +57,7 @@ public class StringAggregator implements Aggregator {
      */
     public OpIterator iterator() {
         // some code goes here
-        return new AggregateIter(groupMap, gbfield, gbfieldtype, op);
+        return new AggregateIter(groups, op);
     }
 
 }
@@ -0,0 +1,139 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.*;
+
+/**
+ * TopN returns the first n tuples of its child in ORDER BY order, without
+ * sorting the whole input: it keeps the best n tuples seen so far in a
+ * bounded heap whose root is the worst of them, so it holds O(n) tuples and
+ * does O(log n) work per input tuple. Ties keep their input order, like
+ * {@link OrderBy}.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator child;
+    private final TupleDesc td;
+    private final int[] orderByFields;
+    private final boolean[] asc;
+    private final int n;
+    private final TupleComparator comparator;
+
+    private List<Tuple> top;
+    private Iterator<Tuple> it;
+
+    /**
+     * @param orderbyFields the fields to sort on, most significant first
+     * @param asc for each field, true if it is sorted in ascending order
+     * @param n the number of tuples to return
+     * @param child the tuples to pick from
+     */
+    public TopN(int[] orderbyFields, boolean[] asc, int n, OpIterator child) {
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length) {
+            throw new IllegalArgumentException("need one sort direction per sort field");
+        }
+        if (n < 0) {
+            throw new IllegalArgumentException("negative TopN limit " + n);
+        }
+        this.child = child;
+        this.td = child.getTupleDesc();
+        this.orderByFields = orderbyFields.clone();
+        this.asc = asc.clone();
+        this.n = n;
+        this.comparator = new TupleComparator(this.orderByFields, this.asc);
+    }
+
+    /** @return the fields sorted on, most significant first */
+    public int[] getOrderByFields() {
+        return orderByFields.clone();
+    }
+
+    /** @return for each sort field, true if it is sorted in ascending order */
+    public boolean[] getAscending() {
+        return asc.clone();
+    }
+
+    /** @return the maximum number of tuples returned */
+    public int getLimit() {
+        return n;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    private static class Entry {
+        final Tuple tuple;
+        final long seq;
+
+        Entry(Tuple tuple, long seq) {
+            this.tuple = tuple;
+            this.seq = seq;
+        }
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        // order entries worst first: later in the sort order, then arrived later
+        Comparator<Entry> order = (a, b) -> {
+            int c = comparator.compare(a.tuple, b.tuple);
+            return c != 0 ? c : Long.compare(a.seq, b.seq);
+        };
+        PriorityQueue<Entry> heap = new PriorityQueue<>(Math.max(1, n), order.reversed());
+        long seq = 0;
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (n == 0) {
+                continue;
+            }
+            if (heap.size() < n) {
+                heap.add(new Entry(t, seq++));
+            } else if (comparator.compare(t, heap.peek().tuple) < 0) {
+                heap.poll();
+                heap.add(new Entry(t, seq++));
+            }
+        }
+        Tuple[] sorted = new Tuple[heap.size()];
+        for (int i = sorted.length - 1; i >= 0; i--) {
+            sorted[i] = heap.poll().tuple;
+        }
+        top = Arrays.asList(sorted);
+        it = top.iterator();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        top = null;
+        it = null;
+    }
+
+    public void rewind() {
+        it = top.iterator();
+    }
+
+    protected Tuple fetchNext() {
+        if (it != null && it.hasNext()) {
+            return it.next();
+        }
+        return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
@@ -0,0 +1,169 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+/**
+ * TupleBatch holds up to a fixed number of rows in column vectors: an int[]
+ * per INT_TYPE column and a Field[] per column of any other type. A
+ * selection vector lists the rows that are part of the batch, in order, so
+ * that a filter removes rows by rewriting the selection instead of copying
+ * the columns.
+ */
+public class TupleBatch {
+
+    /** The default number of rows in a batch */
+    public static final int DEFAULT_SIZE = 1024;
+
+    private final TupleDesc td;
+    private final int[][] ints;
+    private final Field[][] fields;
+    private final int[] selection;
+    private int size;
+    private int selected;
+
+    /** Create an empty batch of DEFAULT_SIZE rows */
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_SIZE);
+    }
+
+    /** Create an empty batch of capacity rows */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        int n = td.numFields();
+        this.ints = new int[n][];
+        this.fields = new Field[n][];
+        for (int i = 0; i < n; i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                ints[i] = new int[capacity];
+            } else {
+                fields[i] = new Field[capacity];
+            }
+        }
+        this.selection = new int[capacity];
+    }
+
+    // a view sharing another batch's vectors
+    private TupleBatch(TupleDesc td, int[][] ints, Field[][] fields, int[] selection,
+                       int size, int selected) {
+        this.td = td;
+        this.ints = ints;
+        this.fields = fields;
+        this.selection = selection;
+        this.size = size;
+        this.selected = selected;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the maximum number of rows */
+    public int capacity() {
+        return selection.length;
+    }
+
+    /** @return the number of rows filled, selected or not */
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == selection.length;
+    }
+
+    /** @return the number of selected rows */
+    public int numSelected() {
+        return selected;
+    }
+
+    /**
+     * @return the selection vector; its first numSelected() entries are the
+     *         selected rows in increasing order
+     */
+    public int[] selection() {
+        return selection;
+    }
+
+    /**
+     * Keep only the first n entries of the selection vector, after a filter
+     * has moved the rows it keeps to the front.
+     */
+    public void setNumSelected(int n) {
+        selected = n;
+    }
+
+    /** Remove all rows */
+    public void clear() {
+        size = 0;
+        selected = 0;
+    }
+
+    /** @return the vector of INT column col */
+    public int[] getInts(int col) {
+        return ints[col];
+    }
+
+    /** @return the value of row in column col */
+    public Field getField(int col, int row) {
+        return ints[col] != null ? new IntField(ints[col][row]) : fields[col][row];
+    }
+
+    public void setInt(int col, int row, int value) {
+        ints[col][row] = value;
+    }
+
+    public void setField(int col, int row, Field f) {
+        if (ints[col] != null) {
+            ints[col][row] = ((IntField) f).getValue();
+        } else {
+            fields[col][row] = f;
+        }
+    }
+
+    /**
+     * Add an empty row and select it.
+     *
+     * @return the index of the new row, whose columns are set with setInt
+     *         and setField
+     */
+    public int addRow() {
+        int row = size++;
+        selection[selected++] = row;
+        return row;
+    }
+
+    /** Add the fields of t as a new selected row */
+    public void add(Tuple t) {
+        int row = addRow();
+        for (int i = 0; i < ints.length; i++) {
+            setField(i, row, t.getField(i));
+        }
+    }
+
+    /** @return row as a tuple */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < ints.length; i++) {
+            t.setField(i, getField(i, row));
+        }
+        return t;
+    }
+
+    /**
+     * @return a batch with the columns cols of this batch, which shares this
+     *         batch's vectors and selection
+     */
+    public TupleBatch project(int[] cols, TupleDesc outTd) {
+        int[][] outInts = new int[cols.length][];
+        Field[][] outFields = new Field[cols.length][];
+        for (int i = 0; i < cols.length; i++) {
+            outInts[i] = ints[cols[i]];
+            outFields[i] = fields[cols[i]];
+        }
+        return new TupleBatch(outTd, outInts, outFields, selection, size, selected);
+    }
+}
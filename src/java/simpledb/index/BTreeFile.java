@@ -2,6 +2,10 @@ package simpledb.index;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import simpledb.common.Database;
 import simpledb.common.Permissions;
@@ -35,6 +39,20 @@ public class BTreeFile implements DbFile {
 	private final int tableid ;
 	private final int keyField;
 
+	/** How long to wait for an internal page latch before giving up, in milliseconds */
+	private static final long LATCH_TIMEOUT = 1000;
+	/** How many times a traversal restarts after reaching a leaf that no longer belongs to its parent */
+	private static final int MAX_TRAVERSAL_RETRIES = 3;
+
+	/**
+	 * Short-term latches on internal pages. Readers hold a latch only while
+	 * choosing a child; writers hold one for the duration of a single
+	 * insertTuple/deleteTuple call on every internal page they modify.
+	 */
+	private final Map<PageId, ReentrantReadWriteLock> latches = new ConcurrentHashMap<>();
+	/** Write latches taken by the current thread's in-progress modification */
+	private final ThreadLocal<List<Lock>> heldLatches = ThreadLocal.withInitial(ArrayList::new);
+
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
 	 * 
@@ -171,10 +189,15 @@ public class BTreeFile implements DbFile {
 	}
 
 	/**
-	 * Recursive function which finds and locks the leaf page in the B+ tree corresponding to
-	 * the left-most page possibly containing the key field f. It locks all internal
-	 * nodes along the path to the leaf node with READ_ONLY permission, and locks the 
-	 * leaf node with permission perm.
+	 * Finds and locks the leaf page in the B+ tree corresponding to the left-most page
+	 * possibly containing the key field f. Internal nodes along the path are not locked;
+	 * instead they are latch-coupled: the latch on a node is held only until the latch on
+	 * (or, for the last level, the lock on) its child has been acquired. Only the leaf
+	 * node is locked, with permission perm.
+	 * 
+	 * An internal page that another transaction has write-locked holds a split or merge
+	 * that may still be undone, so the descent does not follow it: it waits until that
+	 * transaction completes and starts again from pid.
 	 * 
 	 * If f is null, it finds the left-most leaf page -- used for the iterator
 	 * 
@@ -193,27 +216,128 @@ public class BTreeFile implements DbFile {
 		if (pid.pgcateg() == LEAF) {
 			return (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
 		}
-		BTreeInternalPage page = (BTreeInternalPage) getPage(tid, dirtypages, pid, perm);
+		for (int attempt = 0; attempt < MAX_TRAVERSAL_RETRIES; attempt++) {
+			BTreeLeafPage leaf = descend(tid, dirtypages, pid, perm, f);
+			if (leaf != null) {
+				return leaf;
+			}
+		}
+		throw new TransactionAbortedException();
+	}
+
+	/**
+	 * One latch-coupled descent from internal page pid to a leaf. Returns null if the
+	 * leaf reached no longer points back at the internal page it was found through,
+	 * which happens when the writer that created it aborted while we waited for its lock,
+	 * or when a read-only transaction reads the two from different committed images.
+	 */
+	private BTreeLeafPage descend(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId root, Permissions perm,
+                                  Field f)
+					throws DbException, TransactionAbortedException {
+		BTreePageId pid = root;
+		Lock held = acquireLatch(pid, false);
+		try {
+			while (true) {
+				BTreeInternalPage page = (BTreeInternalPage) getLatchedPage(tid, dirtypages, pid);
+				if (page == null) {
+					// wait for the writer without holding a latch it may need, then restart
+					held.unlock();
+					held = null;
+					Database.getBufferPool().lockPage(tid, pid, Permissions.READ_ONLY);
+					Database.getBufferPool().unsafeReleasePage(tid, pid);
+					pid = root;
+					held = acquireLatch(pid, false);
+					continue;
+				}
+				BTreePageId childId = findChild(page, f);
+				if (childId == null) {
+					return null;
+				}
+				if (childId.pgcateg() == LEAF) {
+					// pin the leaf while the parent cannot change underneath us
+					BTreeLeafPage leaf = (BTreeLeafPage) getPage(tid, dirtypages, childId, perm);
+					return leaf.getParentId().equals(pid) ? leaf : null;
+				}
+				Lock childLatch = acquireLatch(childId, false);
+				held.unlock();
+				held = childLatch;
+				pid = childId;
+			}
+		} finally {
+			if (held != null) {
+				held.unlock();
+			}
+		}
+	}
+
+	/**
+	 * @return the child of an internal page to follow when looking for the left-most page
+	 * possibly containing f, or null if the page has no entries
+	 */
+	private BTreePageId findChild(BTreeInternalPage page, Field f) {
 		Iterator<BTreeEntry> iterator = page.iterator();
 		if (f == null) {
-			if (iterator.hasNext()) {
-				return findLeafPage(tid, dirtypages, iterator.next().getLeftChild(), perm, f);
-			}
+			return iterator.hasNext() ? iterator.next().getLeftChild() : null;
 		}
 
 		BTreeEntry next = null;
 		while (iterator.hasNext()) {
 			next = iterator.next();
 			if (f.compare(Op.LESS_THAN_OR_EQ, next.getKey())) {
-				return findLeafPage(tid, dirtypages, next.getLeftChild(), perm, f);
+				return next.getLeftChild();
 			}
 		}
-		if (next != null) {
-			return findLeafPage(tid, dirtypages, next.getRightChild(), perm, f);
+		return next != null ? next.getRightChild() : null;
+	}
+
+	/**
+	 * Fetch an internal page that the caller protects with a latch rather than a
+	 * transactional lock, or return null if another transaction has write-locked it.
+	 */
+	private Page getLatchedPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid)
+			throws DbException, TransactionAbortedException {
+		if (dirtypages.containsKey(pid)) {
+			return dirtypages.get(pid);
 		}
-		return null;
+		if (tid.isReadOnly()) {
+			// read-only transactions never lock, and read committed images
+			return Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+		}
+		if (Database.getBufferPool().isWriteLockedByOther(tid, pid)) {
+			return null;
+		}
+		return Database.getBufferPool().getPageUnlocked(pid);
 	}
-	
+
+	/**
+	 * Acquire the shared or exclusive latch on an internal page. Latch waits are
+	 * bounded so that a latch cycle (e.g. a reader waiting on a leaf lock while a
+	 * writer wants to split the reader's parent) aborts instead of hanging.
+	 */
+	private Lock acquireLatch(PageId pid, boolean exclusive) throws TransactionAbortedException {
+		ReentrantReadWriteLock latch = latches.computeIfAbsent(pid, k -> new ReentrantReadWriteLock());
+		Lock l = exclusive ? latch.writeLock() : latch.readLock();
+		try {
+			if (l.tryLock(LATCH_TIMEOUT, TimeUnit.MILLISECONDS)) {
+				return l;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		throw new TransactionAbortedException();
+	}
+
+	/**
+	 * Release the write latches taken by the current thread while modifying the tree.
+	 */
+	private void releaseLatches() {
+		List<Lock> held = heldLatches.get();
+		for (Lock l : held) {
+			l.unlock();
+		}
+		held.clear();
+	}
+
 	/**
 	 * Convenience method to find a leaf page when there is no dirtypages HashMap.
 	 * Used by the BTreeFile iterator.
@@ -427,12 +551,17 @@ public class BTreeFile implements DbFile {
 	private void updateParentPointer(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid, BTreePageId child)
 			throws DbException, TransactionAbortedException {
 
+		boolean wasLocked = Database.getBufferPool().holdsLock(tid, child);
 		BTreePage p = (BTreePage) getPage(tid, dirtypages, child, Permissions.READ_ONLY);
 
 		if(!p.getParentId().equals(pid)) {
 			p = (BTreePage) getPage(tid, dirtypages, child, Permissions.READ_WRITE);
 			p.setParentId(pid);
 		}
+		else if(!wasLocked && child.pgcateg() == BTreePageId.INTERNAL) {
+			// internal pages are otherwise only latched, so do not keep them locked until commit
+			Database.getBufferPool().unsafeReleasePage(tid, child);
+		}
 
 	}
 	
@@ -489,6 +618,10 @@ public class BTreeFile implements DbFile {
 		else {
 			Page p = Database.getBufferPool().getPage(tid, pid, perm);
 			if(perm == Permissions.READ_WRITE) {
+				if(pid.pgcateg() == BTreePageId.INTERNAL) {
+					// keep latch-coupled readers out until this modification is done
+					heldLatches.get().add(acquireLatch(pid, true));
+				}
 				dirtypages.put(pid, p);
 			}
 			return p;
@@ -507,6 +640,15 @@ public class BTreeFile implements DbFile {
 	 */
 	public List<Page> insertTuple(TransactionId tid, Tuple t)
 			throws DbException, IOException, TransactionAbortedException {
+		try {
+			return insertTupleLatched(tid, t);
+		} finally {
+			releaseLatches();
+		}
+	}
+
+	private List<Page> insertTupleLatched(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
 		Map<PageId, Page> dirtypages = new HashMap<>();
 
 		// get a read lock on the root pointer page and use it to locate the root page
@@ -993,6 +1135,15 @@ public class BTreeFile implements DbFile {
 	 */
 	public List<Page> deleteTuple(TransactionId tid, Tuple t)
 			throws DbException, IOException, TransactionAbortedException {
+		try {
+			return deleteTupleLatched(tid, t);
+		} finally {
+			releaseLatches();
+		}
+	}
+
+	private List<Page> deleteTupleLatched(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
 		Map<PageId, Page> dirtypages = new HashMap<>();
 
 		BTreePageId pageId = new BTreePageId(tableid, t.getRecordId().getPageId().getPageNumber(),
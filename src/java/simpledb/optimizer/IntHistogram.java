@@ -33,7 +33,8 @@ public class IntHistogram {
         this.hist = new int[Math.min(buckets, (max - min))];
         this.min = min;
         this.max = max;
-        this.width = (max - min) / hist.length;
+        // rounded up, so that the buckets cover max
+        this.width = (max - min + hist.length - 1) / hist.length;
         this.count = 0;
     }
 
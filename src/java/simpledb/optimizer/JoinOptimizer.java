@@ -3,6 +3,8 @@ package simpledb.optimizer;
 import simpledb.common.Database;
 import simpledb.ParsingException;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.storage.DbFile;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -39,6 +41,10 @@ public class JoinOptimizer {
      * inner/outer here -- because OpIterator's don't provide any cardinality
      * estimates, and stats only has information about the base tables. For this
      * reason, the plan1
+     * <p>
+     * The join is run with the algorithm the optimizer chose for lj, if it
+     * can be run over plan1 and plan2; joins the optimizer has not costed
+     * prefer a merge join, then an index join, then a hash join.
      * 
      * @param lj
      *            The join being considered
@@ -73,13 +79,43 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        if (lj.p == Predicate.Op.EQUALS) {
+        // plan2 with the filters on it peeled off
+        OpIterator scan2 = plan2;
+        List<CompositePredicate> filters2 = new ArrayList<>();
+        while (scan2 instanceof Filter) {
+            filters2.add(((Filter) scan2).getCondition());
+            scan2 = ((Filter) scan2).getChildren()[0];
+        }
+
+        boolean ordered = !(lj instanceof LogicalSubplanJoinNode) && SortMergeJoin.supports(lj.p);
+        boolean mergeable = ordered && isSortedOn(plan1, t1id) && isSortedOn(plan2, t2id);
+        boolean indexable = ordered && scan2 instanceof SeqScan
+                && IndexNestedLoopJoin.isIndexedOn((SeqScan) scan2, t2id);
+        LogicalJoinNode.Algorithm algorithm = lj.algorithm;
+        if (algorithm == null) {
+            algorithm = mergeable ? LogicalJoinNode.Algorithm.SORT_MERGE
+                    : indexable ? LogicalJoinNode.Algorithm.INDEX_NESTED_LOOP
+                    : LogicalJoinNode.Algorithm.HASH;
+        }
+
+        if (algorithm == LogicalJoinNode.Algorithm.SORT_MERGE && mergeable) {
+            j = new SortMergeJoin(p, plan1, plan2);
+        } else if (algorithm == LogicalJoinNode.Algorithm.INDEX_NESTED_LOOP && indexable) {
+            // probe the index on plan2's table, and apply its filters to
+            // the join result instead
+            j = new IndexNestedLoopJoin(p, plan1, (SeqScan) scan2);
+            int width1 = plan1.getTupleDesc().numFields();
+            for (CompositePredicate f : filters2) {
+                j = new Filter(f.shift(width1), j);
+            }
+        } else if (algorithm != LogicalJoinNode.Algorithm.NESTED_LOOP && lj.p == Predicate.Op.EQUALS) {
 
             try {
                 // dynamically load HashEquiJoin -- if it doesn't exist, just
                 // fall back on regular join
                 Class<?> c = Class.forName("simpledb.execution.HashEquiJoin");
-                java.lang.reflect.Constructor<?> ct = c.getConstructors()[0];
+                java.lang.reflect.Constructor<?> ct = c.getConstructor(
+                        JoinPredicate.class, OpIterator.class, OpIterator.class);
                 j = (OpIterator) ct
                         .newInstance(new Object[] { p, plan1, plan2 });
             } catch (Exception e) {
@@ -93,6 +129,61 @@ public class JoinOptimizer {
 
     }
 
+    /**
+     * Return true if the tuples of plan are known to arrive in ascending
+     * order of field: scans of a B+ tree keyed on field, ascending ORDER BYs
+     * on it, and filters and equality merge joins over such plans.
+     */
+    static boolean isSortedOn(OpIterator plan, int field) {
+        if (plan instanceof SeqScan) {
+            SeqScan s = (SeqScan) plan;
+            DbFile f = Database.getCatalog().getDatabaseFile(s.getTableId());
+            return f instanceof BTreeFile && ((BTreeFile) f).keyField() == s.getTableField(field);
+        } else if (plan instanceof Filter) {
+            return isSortedOn(((Filter) plan).getChildren()[0], field);
+        } else if (plan instanceof OrderBy) {
+            OrderBy o = (OrderBy) plan;
+            return o.getOrderByField() == field && o.isASC();
+        } else if (plan instanceof SortMergeJoin) {
+            SortMergeJoin j = (SortMergeJoin) plan;
+            JoinPredicate jp = j.getJoinPredicate();
+            if (jp.getOperator() != Predicate.Op.EQUALS) {
+                return false;
+            }
+            // the output follows child1, and equal join values share order
+            int width1 = j.getChildren()[0].getTupleDesc().numFields();
+            return field == jp.getField1() || field == width1 + jp.getField2();
+        }
+        return false;
+    }
+
+    /**
+     * Return the number of tuples of the table with the given alias that fit
+     * in memoryPages pages, such as one block of a {@link Join}.
+     */
+    private int memoryTuples(String tableAlias, int memoryPages) {
+        Integer tableId = p.getTableId(tableAlias);
+        if (tableId == null) {
+            return memoryPages;
+        }
+        return Join.blockTuples(Database.getCatalog().getTupleDesc(tableId), memoryPages);
+    }
+
+    /**
+     * Return true if a scan of the table with the given alias returns its
+     * tuples in ascending order of field, because the table is a B+ tree
+     * keyed on it.
+     */
+    private boolean isSortedScan(String tableAlias, String field) {
+        Integer tableId = p.getTableId(tableAlias);
+        if (tableId == null) {
+            return false;
+        }
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        return f instanceof BTreeFile
+                && f.getTupleDesc().getFieldName(((BTreeFile) f).keyField()).equals(field);
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -121,18 +212,99 @@ public class JoinOptimizer {
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
             double cost1, double cost2) {
+        boolean indexed = !(j instanceof LogicalSubplanJoinNode)
+                && isSortedScan(j.t2Alias, j.f2PureName);
+        boolean sorted = indexed && isSortedScan(j.t1Alias, j.f1PureName);
+        return estimateJoinCost(j, card1, card2, cost1, cost2, sorted, indexed);
+    }
+
+    /**
+     * Estimate the cost of a join, as {@link #estimateJoinCost(LogicalJoinNode, int, int, double, double)},
+     * given whether both inputs arrive sorted on their join fields, which
+     * lets a {@link SortMergeJoin} be used, and whether the right input is a
+     * B+ tree keyed on its join field, which lets an
+     * {@link IndexNestedLoopJoin} probe it.
+     */
+    private double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, boolean sorted, boolean indexed) {
+        return cheapestJoin(j, card1, card2, cost1, cost2, sorted, indexed).cost;
+    }
+
+    /** A way to run a join and its estimated cost */
+    private static class JoinCost {
+        final LogicalJoinNode.Algorithm algorithm;
+        final double cost;
+
+        JoinCost(LogicalJoinNode.Algorithm algorithm, double cost) {
+            this.algorithm = algorithm;
+            this.cost = cost;
+        }
+
+        // the cheaper of this and running the join with algorithm at cost;
+        // this one on a tie
+        JoinCost orCheaper(LogicalJoinNode.Algorithm algorithm, double cost) {
+            return cost < this.cost ? new JoinCost(algorithm, cost) : this;
+        }
+    }
+
+    /**
+     * Return the cheapest way to run a join, and its cost, as
+     * {@link #estimateJoinCost(LogicalJoinNode, int, int, double, double, boolean, boolean)}.
+     */
+    private JoinCost cheapestJoin(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, boolean sorted, boolean indexed) {
         if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 3.
-            return card1 + cost1 + cost2;
+            return new JoinCost(j.p == Predicate.Op.EQUALS ? LogicalJoinNode.Algorithm.HASH
+                    : LogicalJoinNode.Algorithm.NESTED_LOOP, card1 + cost1 + cost2);
         } else {
             // Insert your code here.
             // HINT: You may need to use the variable "j" if you implemented
             // a join algorithm that's more complicated than a basic
             // nested-loops join.
-            // joincost(t1 join t2) = scancost(t1) + ntups(t1) x scancost(t2) //IO cost
+            // a block nested loops join scans t2 once per block of t1:
+            // joincost(t1 join t2) = scancost(t1) + nblocks(t1) x scancost(t2) //IO cost
             //                      + ntups(t1) x ntups(t2)  //CPU cost
-            return cost1 + card1 * cost2 + card1 * card2;
+            double blocks = Math.ceil((double) card1 / memoryTuples(j.t1Alias, Join.DEFAULT_MEMORY_PAGES));
+            JoinCost best = new JoinCost(LogicalJoinNode.Algorithm.NESTED_LOOP,
+                    cost1 + blocks * cost2 + (double) card1 * card2);
+            if (sorted && SortMergeJoin.supports(j.p)) {
+                double merge;
+                switch (j.p) {
+                    case EQUALS:
+                        // one pass over each input
+                        merge = cost1 + cost2 + card1 + card2;
+                        break;
+                    case GREATER_THAN:
+                    case GREATER_THAN_OR_EQ:
+                        // each t1 tuple rescans half of t2 on average
+                        merge = cost1 + card1 * cost2 / 2 + (double) card1 * card2 / 2;
+                        break;
+                    default:
+                        // each t2 tuple rescans half of t1 on average
+                        merge = cost2 + card2 * cost1 / 2 + (double) card1 * card2 / 2;
+                }
+                best = best.orCheaper(LogicalJoinNode.Algorithm.SORT_MERGE, merge);
+            }
+            if (j.p == Predicate.Op.EQUALS) {
+                // one pass over each input, plus writing out and reading
+                // back the share of both that does not fit in memory
+                double spilled = Math.max(0, 1 - (double) memoryTuples(j.t1Alias,
+                        HashEquiJoin.DEFAULT_MEMORY_PAGES) / Math.max(1, card1));
+                best = best.orCheaper(LogicalJoinNode.Algorithm.HASH,
+                        cost1 + cost2 + card1 + card2 + 2 * spilled * (cost1 + cost2));
+            }
+            if (indexed && SortMergeJoin.supports(j.p)) {
+                // each probe descends the tree, reading about log2(card2)
+                // tuples' worth of t2, then reads its matches
+                double probe = cost2 * (Math.log(card2 + 1) / Math.log(2)) / Math.max(1, card2);
+                double matches = j.p == Predicate.Op.EQUALS ? Math.max(card1, card2)
+                        : (double) card1 * card2 / 2;
+                best = best.orCheaper(LogicalJoinNode.Algorithm.INDEX_NESTED_LOOP,
+                        cost1 + card1 * probe + matches);
+            }
+            return best;
         }
     }
 
@@ -268,6 +440,10 @@ public class JoinOptimizer {
         //  looping through subset sizes, subsets, and sub-plans of subsets,
         //  calling computeCostAndCardOfSubplan and building a PlanCache object that stores
         //  the minimal-cost way to perform each subset join.
+        if (joins.isEmpty()) {
+            // the cache holds no plan for the empty set of joins
+            return new ArrayList<>();
+        }
         PlanCache pc = new PlanCache();
         for (int i = 1; i <= joins.size(); i++) {
             for (Set<LogicalJoinNode> joinNodeSet : enumerateSubsets(joins, i)) {
@@ -416,12 +592,22 @@ public class JoinOptimizer {
             }
         }
 
+        // a merge join needs both inputs sorted, and an index join a right
+        // input that is an indexed base table, which only base tables can
+        // be known to be
+        boolean subplan = j instanceof LogicalSubplanJoinNode;
+        boolean t1Base = news.isEmpty() || doesJoin(prevBest, j.t2Alias);
+        boolean t2Base = news.isEmpty() || doesJoin(prevBest, j.t1Alias);
+        boolean t1Indexed = !subplan && t1Base && isSortedScan(j.t1Alias, j.f1PureName);
+        boolean t2Indexed = !subplan && t2Base && isSortedScan(j.t2Alias, j.f2PureName);
+        boolean sorted = t1Indexed && t2Indexed;
+
         // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        JoinCost cost1 = cheapestJoin(j, t1card, t2card, t1cost, t2cost, sorted, t2Indexed);
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
-        if (cost2 < cost1) {
+        JoinCost cost2 = cheapestJoin(j2, t2card, t1card, t2cost, t1cost, sorted, t1Indexed);
+        if (cost2.cost < cost1.cost) {
             boolean tmp;
             j = j2;
             cost1 = cost2;
@@ -429,14 +615,16 @@ public class JoinOptimizer {
             rightPkey = leftPkey;
             leftPkey = tmp;
         }
-        if (cost1 >= bestCostSoFar)
+        if (cost1.cost >= bestCostSoFar)
             return null;
+        // a copy, since j is shared by the plans of every set of joins
+        j = j.withAlgorithm(cost1.algorithm);
 
         CostCard cc = new CostCard();
 
         cc.card = estimateJoinCardinality(j, t1card, t2card, leftPkey,
                 rightPkey, stats);
-        cc.cost = cost1;
+        cc.cost = cost1.cost;
         cc.plan = new ArrayList<>(prevBest);
         cc.plan.add(j); // prevbest is left -- add new join to end
         return cc;
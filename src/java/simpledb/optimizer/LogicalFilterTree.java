@@ -0,0 +1,60 @@
+package simpledb.optimizer;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/** A LogicalFilterTree represents a condition in the WHERE clause of a query
+    that combines filters with AND, OR and NOT.
+    <p>
+    Each leaf of the tree is a {@link LogicalFilterNode}, comparing a field
+    of a table with a constant.
+*/
+public class LogicalFilterTree {
+    /** The kinds of node in a filter tree */
+    public enum Kind { FILTER, AND, OR, NOT }
+
+    public final Kind kind;
+
+    /** The filter of a FILTER node, null for other nodes */
+    public final LogicalFilterNode filter;
+
+    /** The operands of an AND, OR or NOT node */
+    public final List<LogicalFilterTree> children;
+
+    private LogicalFilterTree(Kind kind, LogicalFilterNode filter, List<LogicalFilterTree> children) {
+        this.kind = kind;
+        this.filter = filter;
+        this.children = Collections.unmodifiableList(children);
+    }
+
+    public static LogicalFilterTree of(LogicalFilterNode filter) {
+        return new LogicalFilterTree(Kind.FILTER, filter, Collections.<LogicalFilterTree>emptyList());
+    }
+
+    public static LogicalFilterTree and(List<LogicalFilterTree> operands) {
+        return new LogicalFilterTree(Kind.AND, null, operands);
+    }
+
+    public static LogicalFilterTree or(List<LogicalFilterTree> operands) {
+        return new LogicalFilterTree(Kind.OR, null, operands);
+    }
+
+    public static LogicalFilterTree not(LogicalFilterTree operand) {
+        return new LogicalFilterTree(Kind.NOT, null, Collections.singletonList(operand));
+    }
+
+    /** @return the aliases of the tables whose fields the filters in this tree compare */
+    public Set<String> tableAliases() {
+        Set<String> aliases = new LinkedHashSet<>();
+        if (kind == Kind.FILTER) {
+            aliases.add(filter.tableAlias);
+        } else {
+            for (LogicalFilterTree c : children) {
+                aliases.addAll(c.tableAliases());
+            }
+        }
+        return aliases;
+    }
+}
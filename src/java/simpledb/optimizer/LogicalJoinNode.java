@@ -25,6 +25,15 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /** The ways a join can be run */
+    public enum Algorithm {
+        NESTED_LOOP, HASH, SORT_MERGE, INDEX_NESTED_LOOP
+    }
+
+    /** The way the optimizer chose to run this join, or null if it has not
+     * chosen one */
+    public Algorithm algorithm;
+
     public LogicalJoinNode() {
     }
 
@@ -64,6 +73,14 @@ public class LogicalJoinNode {
         return new LogicalJoinNode(t2Alias,t1Alias,f2PureName,f1PureName, newp);
     }
     
+    /** Return a copy of this LogicalJoinNode to be run with the given
+     * algorithm. */
+    public LogicalJoinNode withAlgorithm(Algorithm algorithm) {
+        LogicalJoinNode j = new LogicalJoinNode(t1Alias,t2Alias,f1PureName,f2PureName, p);
+        j.algorithm = algorithm;
+        return j;
+    }
+
     @Override public boolean equals(Object o) {
         if (!(o instanceof LogicalJoinNode)) return false;
         LogicalJoinNode j2 =(LogicalJoinNode)o;
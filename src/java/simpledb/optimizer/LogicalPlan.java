@@ -1,6 +1,7 @@
 package simpledb.optimizer;
 import simpledb.common.Catalog;
 import simpledb.common.Database;
+import simpledb.common.Permissions;
 import simpledb.ParsingException;
 import simpledb.common.Type;
 import simpledb.execution.*;
@@ -27,7 +28,7 @@ import java.io.File;
 public class LogicalPlan {
     private List<LogicalJoinNode> joins;
     private final List<LogicalScanNode> tables;
-    private final List<LogicalFilterNode> filters;
+    private final List<LogicalFilterTree> filters;
     private final Map<String, OpIterator> subplanMap;
     private final Map<String,Integer> tableMap;
 
@@ -36,9 +37,13 @@ public class LogicalPlan {
     private boolean hasAgg = false;
     private String aggOp;
     private String aggField;
-    private boolean oByAsc, hasOrderBy = false;
-    private String oByField;
+    private final List<String> oByFields = new ArrayList<>();
+    private final List<Boolean> oByAsc = new ArrayList<>();
+    private int limit = -1;
+    private int offset = 0;
+    private int parallelism = 1;
     private String query;
+    private Permissions scanPermissions = Permissions.READ_ONLY;
 //    private Query owner;
 
     /** Constructor -- generate an empty logical plan */
@@ -63,6 +68,15 @@ public class LogicalPlan {
         this.query = query;
     }
       
+    /** Set the permissions the table scans of this plan fetch pages with.
+        DELETE plans use UPDATE, since every page they read may be written.
+
+        @param perm the permissions to fetch scanned pages with
+    */
+    public void setScanPermissions(Permissions perm) {
+        this.scanPermissions = perm;
+    }
+
     /** Get the query text associated with this plan via {@link #setQuery}.
      */
     public String getQuery() {
@@ -101,11 +115,35 @@ public class LogicalPlan {
     public void addFilter(String field, Predicate.Op p, String
         constantValue) throws ParsingException{ 
 
-        field = disambiguateName(field); 
+        filters.add(comparison(field, p, constantValue));
+    }
+
+    /** Make a filter comparing a field with a constant, to combine into a
+     *   tree for {@link #addFilter(LogicalFilterTree)}
+     *   @param field The name of the field, as for {@link #addFilter(String, Predicate.Op, String)}
+     *   @param p The predicate for the filter
+     *   @param constantValue the constant to compare the field against
+     *   @throws ParsingException if field is unknown or ambiguous
+     */
+    public LogicalFilterTree comparison(String field, Predicate.Op p, String
+        constantValue) throws ParsingException {
+
+        field = disambiguateName(field);
         String table = field.split("[.]")[0];
-        
-        LogicalFilterNode lf = new LogicalFilterNode(table, field.split("[.]")[1], p, constantValue);
-        filters.add(lf);
+
+        return LogicalFilterTree.of(new LogicalFilterNode(table, field.split("[.]")[1], p, constantValue));
+    }
+
+    /** Add a tree of filters combined with AND, OR and NOT to the logical plan
+     *   @param tree The filters, made by {@link #comparison}
+     *   @throws ParsingException if the filters compare fields of more
+     *   than one table
+     */
+    public void addFilter(LogicalFilterTree tree) throws ParsingException {
+        if (tree.tableAliases().size() != 1) {
+            throw new ParsingException("Filter expression over more than one table is not supported: " + tree.tableAliases());
+        }
+        filters.add(tree);
     }
 
     /** Add a join between two fields of two different tables.  
@@ -206,17 +244,44 @@ public class LogicalPlan {
         hasAgg = true;
     }
 
-    /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
-        a single ORDER BY field.
+    /** Add an ORDER BY expression in the specified order on the specified field.  Fields are
+        sorted on in the order they are added, most significant first.
         @param field the field to order by
         @param asc true if should be ordered in ascending order, false for descending order
      * @throws ParsingException 
     */
     public void addOrderBy(String field, boolean asc) throws ParsingException {
         field=disambiguateName(field);
-        oByField = field;
-        oByAsc = asc;
-        hasOrderBy = true;
+        oByFields.add(field);
+        oByAsc.add(asc);
+    }
+
+    /** Return at most limit result tuples, after skipping the first offset ones.  With an ORDER BY,
+        the sort and the limit are fused into a {@link TopN} that keeps only limit + offset tuples.
+        @param limit the maximum number of tuples to return
+        @param offset the number of tuples to skip
+     * @throws ParsingException if limit or offset is negative
+    */
+    public void setLimit(int limit, int offset) throws ParsingException {
+        if (limit < 0 || offset < 0) {
+            throw new ParsingException("LIMIT and OFFSET must not be negative");
+        }
+        this.limit = limit;
+        this.offset = offset;
+    }
+
+    /** Set the number of threads the scans, filters, hash joins and
+        aggregate of this plan run on. With more than one, the plan is
+        rewritten by {@link ParallelPlanner}.
+
+        @param parallelism the degree of parallelism, 1 for a serial plan
+     * @throws ParsingException if parallelism is less than 1
+    */
+    public void setParallelism(int parallelism) throws ParsingException {
+        if (parallelism < 1) {
+            throw new ParsingException("the degree of parallelism must be at least 1");
+        }
+        this.parallelism = parallelism;
     }
 
     /** Given a name of a field, try to figure out what table it belongs to by looking
@@ -284,6 +349,11 @@ public class LogicalPlan {
      *    t2 would have just one entry with key 't' in this HashMap).
      *  @param explain flag indicating whether output visualizing the physical
      *    query plan should be given.
+     *  <p>
+     *  Read-only scans return only the fields of their table that the rest of the plan uses.
+     *  A serial read-only query over heap files whose filters are conjunctions of comparisons,
+     *  and whose joins are hash joins with a build side estimated to fit in memory, is run by
+     *  batch operators up to its ORDER BY or LIMIT, or up to its aggregate if it groups.
      *  @throws ParsingException if the logical plan is not valid
      *  @return A OpIterator representing this plan.
      */ 
@@ -292,55 +362,46 @@ public class LogicalPlan {
         Map<String,String> equivMap = new HashMap<>();
         Map<String,Double> filterSelectivities = new HashMap<>();
         Map<String,TableStats> statsMap = new HashMap<>();
+        Map<String,SeqScan> scans = new HashMap<>();
+        Set<String> usedFields = usedFields();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
             SeqScan ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                 DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+                 int[] columns = null;
+                 if (usedFields != null && scanPermissions == Permissions.READ_ONLY) {
+                     columns = usedColumns(file.getTupleDesc(), table.alias, usedFields);
+                 }
+                 ss = new SeqScan(t, file.getId(), table.alias, scanPermissions, columns);
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
             
             subplanMap.put(table.alias,ss);
+            scans.put(table.alias,ss);
             String baseTableName = Database.getCatalog().getTableName(table.t);
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
 
         }
 
-        for (LogicalFilterNode lf : filters) {
-            OpIterator subplan = subplanMap.get(lf.tableAlias);
+        for (LogicalFilterTree tree : filters) {
+            String alias = tree.tableAliases().iterator().next();
+            OpIterator subplan = subplanMap.get(alias);
             if (subplan == null) {
-                throw new ParsingException("Unknown table in WHERE clause " + lf.tableAlias);
+                throw new ParsingException("Unknown table in WHERE clause " + alias);
             }
 
-            Field f;
-            Type ftyp;
-            TupleDesc td = subplanMap.get(lf.tableAlias).getTupleDesc();
+            CompositePredicate c = toPredicate(tree, subplan.getTupleDesc());
+            subplanMap.put(alias, new Filter(c, subplan));
 
-            try {//td.fieldNameToIndex(disambiguateName(lf.fieldPureName))
-                ftyp = td.getFieldType(td.fieldNameToIndex(lf.fieldQuantifiedName));
-            } catch (NoSuchElementException e) {
-                throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
-            }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c));
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
-
-            Predicate p = null;
-            try {
-                p = new Predicate(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
-            } catch (NoSuchElementException e) {
-                throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
-            }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
-
-            TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(alias)));
+            SeqScan ss = scans.get(alias);
 
-            double sel = s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
-            filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
+            double sel = c.estimateSelectivity(p -> s.estimateSelectivity(ss.getTableField(p.getField()), p.getOp(), p.getOperand()));
+            filterSelectivities.put(alias, filterSelectivities.get(alias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
@@ -406,6 +467,13 @@ public class LogicalPlan {
         }
         
         OpIterator node = subplanMap.entrySet().iterator().next().getValue();
+        BatchOpIterator batch = null;
+        if (parallelism <= 1 && scanPermissions == Permissions.READ_ONLY) {
+            batch = batchPlan(node, statsMap, filterSelectivities);
+        }
+        if (batch != null) {
+            node = new BatchToRowAdapter(batch);
+        }
 
         //walk the select list, to determine order in which to project output fields
         List<Integer> outFields = new ArrayList<>();
@@ -459,25 +527,226 @@ public class LogicalPlan {
 
         if (hasAgg) {
             TupleDesc td = node.getTupleDesc();
-            Aggregate aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                int afield = td.fieldNameToIndex(aggField);
+                int gfield = groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField);
+                if (batch != null && gfield == Aggregator.NO_GROUPING) {
+                    batch = new BatchAggregate(batch, afield, gfield, getAggOp(aggOp));
+                    node = new BatchToRowAdapter(batch);
+                } else {
+                    // groups may not fit in memory, and only Aggregate spills them
+                    node = new Aggregate(node, afield, gfield, getAggOp(aggOp));
+                    batch = null;
+                }
             } catch (NoSuchElementException | IllegalArgumentException e) {
                 throw new simpledb.ParsingException(e);
             }
-            node = aggNode;
         }
 
-        if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+        if (batch != null && oByFields.isEmpty() && limit < 0) {
+            return new BatchToRowAdapter(new BatchProject(outFields, batch));
+        }
+
+        if (parallelism > 1 && scanPermissions == Permissions.READ_ONLY) {
+            node = ParallelPlanner.parallelize(node, parallelism);
+        }
+
+        if (!oByFields.isEmpty()) {
+            int[] fields = new int[oByFields.size()];
+            boolean[] asc = new boolean[oByFields.size()];
+            for (int j = 0; j < fields.length; j++) {
+                fields[j] = node.getTupleDesc().fieldNameToIndex(oByFields.get(j));
+                asc[j] = oByAsc.get(j);
+            }
+            if (limit >= 0) {
+                // only the first offset + limit tuples of the ordering are needed
+                node = new TopN(fields, asc, (int) Math.min(Integer.MAX_VALUE, (long) limit + offset), node);
+            } else {
+                node = new OrderBy(fields, asc, node);
+            }
+        }
+
+        if (limit >= 0) {
+            node = new Limit(limit, offset, node);
         }
 
         return new Project(outFields, outTypes, node);
     }
 
+    /** @return the batch version of plan, or null if it has an operator
+     *   other than a scan of a heap file, a filter that is a conjunction of
+     *   comparisons, or a hash join whose build side fits in memory */
+    private BatchOpIterator batchPlan(OpIterator plan, Map<String,TableStats> statsMap,
+                                      Map<String,Double> filterSelectivities) {
+        if (plan instanceof SeqScan) {
+            SeqScan ss = (SeqScan) plan;
+            if (!(Database.getCatalog().getDatabaseFile(ss.getTableId()) instanceof HeapFile)) {
+                return null;
+            }
+            return new BatchSeqScan(ss.getTransactionId(), ss.getTableId(), ss.getAlias(), ss.getColumns());
+        }
+        if (plan instanceof Filter) {
+            Filter f = (Filter) plan;
+            List<Predicate> preds = new ArrayList<>();
+            if (!addConjuncts(f.getCondition(), preds)) {
+                return null;
+            }
+            BatchOpIterator batch = batchPlan(f.getChildren()[0], statsMap, filterSelectivities);
+            if (batch == null) {
+                return null;
+            }
+            for (Predicate p : preds) {
+                batch = new BatchFilter(p, batch);
+            }
+            return batch;
+        }
+        if (plan instanceof HashEquiJoin) {
+            HashEquiJoin j = (HashEquiJoin) plan;
+            OpIterator[] children = j.getChildren();
+            // BatchHashEquiJoin keeps its whole build side in memory, while
+            // HashEquiJoin spills it; only batch joins that cannot spill
+            if (!fitsInMemory(children[0], statsMap, filterSelectivities)) {
+                return null;
+            }
+            BatchOpIterator build = batchPlan(children[0], statsMap, filterSelectivities);
+            BatchOpIterator probe = batchPlan(children[1], statsMap, filterSelectivities);
+            if (build == null || probe == null) {
+                return null;
+            }
+            return new BatchHashEquiJoin(j.getJoinPredicate(), build, probe);
+        }
+        return null;
+    }
+
+    /** @return true if plan is a filtered scan of a table whose estimated
+     *   output fits in the memory budget of a {@link HashEquiJoin} */
+    private static boolean fitsInMemory(OpIterator plan, Map<String,TableStats> statsMap,
+                                        Map<String,Double> filterSelectivities) {
+        OpIterator scan = plan;
+        while (scan instanceof Filter) {
+            scan = ((Filter) scan).getChildren()[0];
+        }
+        if (!(scan instanceof SeqScan)) {
+            return false;
+        }
+        SeqScan ss = (SeqScan) scan;
+        TableStats s = statsMap.get(ss.getTableName());
+        Double sel = filterSelectivities.get(ss.getAlias());
+        if (s == null || sel == null) {
+            return false;
+        }
+        return s.estimateTableCardinality(sel)
+                <= Join.blockTuples(plan.getTupleDesc(), HashEquiJoin.DEFAULT_MEMORY_PAGES);
+    }
+
+    /** Add the comparisons of c to preds, if c is a conjunction of them */
+    private static boolean addConjuncts(CompositePredicate c, List<Predicate> preds) {
+        switch (c.getKind()) {
+            case COMPARISON:
+                preds.add(c.getPredicate());
+                return true;
+            case AND:
+                for (CompositePredicate operand : c.getChildren()) {
+                    if (!addConjuncts(operand, preds)) {
+                        return false;
+                    }
+                }
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /** @return the qualified names of the fields of the scanned tables
+     *   that the filters, joins, select list, aggregate and ORDER BY use,
+     *   or null if the query selects all fields */
+    private Set<String> usedFields() {
+        Set<String> used = new HashSet<>();
+        for (LogicalSelectListNode si : selectList) {
+            used.add(si.fname);
+        }
+        if (hasAgg) {
+            used.add(aggField);
+            if (groupByField != null)
+                used.add(groupByField);
+        }
+        used.addAll(oByFields);
+        for (LogicalJoinNode lj : joins) {
+            used.add(lj.f1QuantifiedName);
+            used.add(lj.f2QuantifiedName);
+        }
+        for (LogicalFilterTree tree : filters) {
+            addFilterFields(tree, used);
+        }
+        return used.contains("null.*") ? null : used;
+    }
+
+    private static void addFilterFields(LogicalFilterTree tree, Set<String> used) {
+        if (tree.kind == LogicalFilterTree.Kind.FILTER) {
+            used.add(tree.filter.fieldQuantifiedName);
+        }
+        for (LogicalFilterTree c : tree.children) {
+            addFilterFields(c, used);
+        }
+    }
+
+    /** @return the indexes of the fields of a table with the given alias
+     *   and tuple desc that are in used, or null if all of them are */
+    private static int[] usedColumns(TupleDesc td, String alias, Set<String> used) {
+        List<Integer> columns = new ArrayList<>();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (used.contains(alias + "." + td.getFieldName(i)))
+                columns.add(i);
+        }
+        if (columns.size() == td.numFields())
+            return null;
+        if (columns.isEmpty())
+            columns.add(0); // the scan still has to return one tuple per row
+        int[] result = new int[columns.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = columns.get(i);
+        return result;
+    }
+
+    /** Resolve the fields and constants of a tree of filters over a table
+     *   whose tuples are described by td */
+    private CompositePredicate toPredicate(LogicalFilterTree tree, TupleDesc td) throws ParsingException {
+        switch (tree.kind) {
+            case FILTER:
+                return CompositePredicate.of(toPredicate(tree.filter, td));
+            case NOT:
+                return CompositePredicate.not(toPredicate(tree.children.get(0), td));
+            default:
+                List<CompositePredicate> operands = new ArrayList<>();
+                for (LogicalFilterTree c : tree.children) {
+                    operands.add(toPredicate(c, td));
+                }
+                return tree.kind == LogicalFilterTree.Kind.AND
+                        ? CompositePredicate.and(operands) : CompositePredicate.or(operands);
+        }
+    }
+
+    private Predicate toPredicate(LogicalFilterNode lf, TupleDesc td) throws ParsingException {
+        Field f;
+        Type ftyp;
+
+        try {//td.fieldNameToIndex(disambiguateName(lf.fieldPureName))
+            ftyp = td.getFieldType(td.fieldNameToIndex(lf.fieldQuantifiedName));
+        } catch (NoSuchElementException e) {
+            throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
+        }
+        if (ftyp == Type.INT_TYPE)
+            f = new IntField(new Integer(lf.c));
+        else
+            f = new StringField(lf.c, Type.STRING_LEN);
+
+        try {
+            return new Predicate(td.fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+        } catch (NoSuchElementException e) {
+            throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
+        }
+    }
+
     public static void main(String[] argv) {
         // construct a 3-column table schema
         Type[] types = new Type[]{ Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE };
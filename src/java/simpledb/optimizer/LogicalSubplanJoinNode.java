@@ -40,4 +40,10 @@ public class LogicalSubplanJoinNode extends LogicalJoinNode {
         return new LogicalSubplanJoinNode(t1Alias,f1PureName,subPlan, p);
     }
 
+    public LogicalSubplanJoinNode withAlgorithm(Algorithm algorithm) {
+        LogicalSubplanJoinNode j = new LogicalSubplanJoinNode(t1Alias,f1PureName,subPlan, p);
+        j.algorithm = algorithm;
+        return j;
+    }
+
 }
@@ -0,0 +1,122 @@
+package simpledb.optimizer;
+
+import simpledb.common.Database;
+import simpledb.execution.*;
+import simpledb.storage.HeapFile;
+
+/**
+ * ParallelPlanner rewrites a serial plan to run on several threads. The
+ * scans of heap files are split into page ranges, and the filters and hash
+ * joins above them are copied into each partition: the inputs of a join are
+ * repartitioned on the join fields when both are split, and an input that
+ * cannot be split is broadcast to every partition of the other. The
+ * partitions are gathered at the top of the rewritten part of the plan.
+ * <p>
+ * An aggregate over a split plan is computed in two phases: each partition
+ * aggregates its own tuples, and the partial results are gathered and
+ * combined. COUNT, SUM, MIN and MAX are combined this way; AVG, whose
+ * partial results cannot be combined, aggregates the gathered tuples
+ * instead.
+ */
+public class ParallelPlanner {
+
+    /**
+     * @param plan a serial plan
+     * @param dop the number of threads to run the plan on
+     * @return an equivalent plan that runs on dop threads, or plan itself if
+     *         no part of it can be split
+     */
+    public static OpIterator parallelize(OpIterator plan, int dop) {
+        if (dop <= 1) {
+            return plan;
+        }
+        if (plan instanceof Aggregate) {
+            return aggregate((Aggregate) plan, dop);
+        }
+        OpIterator[] parts = partition(plan, dop);
+        return parts == null ? plan : new Gather(parts);
+    }
+
+    private static OpIterator aggregate(Aggregate a, int dop) {
+        OpIterator[] parts = partition(a.getChildren()[0], dop);
+        if (parts == null) {
+            return a;
+        }
+        int afield = a.aggregateField();
+        int gfield = a.groupField();
+        Aggregator.Op op = a.aggregateOp();
+        if (op == Aggregator.Op.AVG) {
+            return new Aggregate(new Gather(parts), afield, gfield, op);
+        }
+        OpIterator[] partials = new OpIterator[dop];
+        for (int i = 0; i < dop; i++) {
+            partials[i] = new Aggregate(parts[i], afield, gfield, op,
+                    Math.max(1, Aggregate.DEFAULT_MEMORY_PAGES / dop));
+        }
+        // the partial results are (group, value) or (value) tuples; counts
+        // are combined by adding them up
+        Aggregator.Op combine = op == Aggregator.Op.COUNT ? Aggregator.Op.SUM : op;
+        if (gfield == Aggregator.NO_GROUPING) {
+            return new Aggregate(new Gather(partials), 0, Aggregator.NO_GROUPING, combine);
+        }
+        return new Aggregate(new Gather(partials), 1, 0, combine);
+    }
+
+    /**
+     * Split plan into dop partitions, which together return the tuples of
+     * plan.
+     *
+     * @return the partitions, or null if plan cannot be split
+     */
+    public static OpIterator[] partition(OpIterator plan, int dop) {
+        if (plan instanceof SeqScan) {
+            SeqScan s = (SeqScan) plan;
+            if (s.getNumPartitions() != 1
+                    || !(Database.getCatalog().getDatabaseFile(s.getTableId()) instanceof HeapFile)) {
+                return null;
+            }
+            OpIterator[] parts = new OpIterator[dop];
+            for (int i = 0; i < dop; i++) {
+                parts[i] = new SeqScan(s.getTransactionId(), s.getTableId(), s.getAlias(), i, dop, s.getColumns());
+            }
+            return parts;
+        } else if (plan instanceof Filter) {
+            Filter f = (Filter) plan;
+            OpIterator[] parts = partition(f.getChildren()[0], dop);
+            if (parts == null) {
+                return null;
+            }
+            for (int i = 0; i < dop; i++) {
+                parts[i] = new Filter(f.getCondition(), parts[i]);
+            }
+            return parts;
+        } else if (plan instanceof HashEquiJoin) {
+            return partitionJoin((HashEquiJoin) plan, dop);
+        }
+        return null;
+    }
+
+    private static OpIterator[] partitionJoin(HashEquiJoin j, int dop) {
+        JoinPredicate p = j.getJoinPredicate();
+        OpIterator[] children = j.getChildren();
+        OpIterator[] left = partition(children[0], dop);
+        OpIterator[] right = partition(children[1], dop);
+        if (left == null && right == null) {
+            return null;
+        }
+        if (left != null && right != null) {
+            left = new Repartition(left, p.getField1(), dop).getOutputs();
+            right = new Repartition(right, p.getField2(), dop).getOutputs();
+        } else if (left != null) {
+            right = new Broadcast(children[1], dop).getOutputs();
+        } else {
+            left = new Broadcast(children[0], dop).getOutputs();
+        }
+        OpIterator[] parts = new OpIterator[dop];
+        for (int i = 0; i < dop; i++) {
+            parts[i] = new HashEquiJoin(p, left[i], right[i],
+                    Math.max(1, HashEquiJoin.DEFAULT_MEMORY_PAGES / dop));
+        }
+        return parts;
+    }
+}
@@ -12,12 +12,17 @@ public class QueryPlanVisualizer {
 
     static final String JOIN = "⨝";
     static final String HASH_JOIN = "⨝(hash)";
+    static final String MERGE_JOIN = "⨝(merge)";
+    static final String INDEX_JOIN = "⨝(index)";
     static final String SELECT = "σ";
     static final String PROJECT = "π";
     static final String RENAME = "ρ";
     static final String SCAN = "scan";
     static final String ORDERBY = "o";
+    static final String TOPN = "top";
+    static final String LIMIT = "limit";
     static final String GROUPBY = "g";
+    static final String BATCH = "batch";
     static final String SPACE = "  ";
 
     private int calculateQueryPlanTreeDepth(OpIterator root) {
@@ -29,14 +34,15 @@ public class QueryPlanVisualizer {
         Operator o = (Operator) root;
         OpIterator[] children = o.getChildren();
 
-        if (o instanceof Join || o instanceof HashEquiJoin) {
+        if (o instanceof Join || o instanceof HashEquiJoin || o instanceof SortMergeJoin
+                || o instanceof IndexNestedLoopJoin) {
             int d1 = this.calculateQueryPlanTreeDepth(children[0]);
             int d2 = this.calculateQueryPlanTreeDepth(children[1]);
             return Math.max(d1, d2) + 3;
         }
         else
         {
-            if (children!=null && children[0]!=null)
+            if (children!=null && children.length>0 && children[0]!=null)
                 return this.calculateQueryPlanTreeDepth(children[0])+2;
         }
         return 2;
@@ -58,6 +64,165 @@ public class QueryPlanVisualizer {
 
     }
 
+    private static String orderKeys(TupleDesc td, int[] fields, boolean[] asc) {
+        StringBuilder keys = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                keys.append(",");
+            }
+            keys.append(td.getFieldName(fields[i]));
+            if (!asc[i]) {
+                keys.append(" desc");
+            }
+        }
+        return keys.toString();
+    }
+
+    private static String scanText(String tableName, String alias) {
+        if (!tableName.equals(alias))
+            alias = " " + alias;
+        else
+            alias = "";
+        return String.format("%1$s(%2$s)", SCAN, tableName + alias);
+    }
+
+    // the operators of a batch pipeline, from the top down, with the two
+    // inputs of a join in brackets
+    private static String batchText(BatchOpIterator op) {
+        if (op instanceof BatchSeqScan) {
+            BatchSeqScan s = (BatchSeqScan) op;
+            return scanText(s.getTableName(), s.getAlias());
+        }
+        if (op instanceof BatchHashEquiJoin) {
+            BatchHashEquiJoin j = (BatchHashEquiJoin) op;
+            JoinPredicate jp = j.getJoinPredicate();
+            TupleDesc td = j.getTupleDesc();
+            String field1 = td.getFieldName(jp.getField1());
+            String field2 = td.getFieldName(jp.getField2()
+                    + j.getChild1().getTupleDesc().numFields());
+            return String.format("%1$s(%2$s)[%3$s, %4$s]", HASH_JOIN,
+                    field1 + jp.getOperator() + field2,
+                    batchText(j.getChild1()), batchText(j.getChild2()));
+        }
+        String text;
+        BatchOpIterator child;
+        if (op instanceof BatchFilter) {
+            BatchFilter f = (BatchFilter) op;
+            child = f.getChild();
+            text = String.format("%1$s(%2$s)", SELECT,
+                    CompositePredicate.of(f.getPredicate()).toString(child.getTupleDesc()));
+        } else if (op instanceof BatchAggregate) {
+            BatchAggregate a = (BatchAggregate) op;
+            child = a.getChild();
+            String agg = String.format("%1$s(%2$s)", a.aggregateOp(),
+                    child.getTupleDesc().getFieldName(a.aggregateField()));
+            text = a.groupField() == Aggregator.NO_GROUPING ? agg : String.format("%1$s(%2$s), %3$s",
+                    GROUPBY, child.getTupleDesc().getFieldName(a.groupField()), agg);
+        } else if (op instanceof BatchProject) {
+            BatchProject p = (BatchProject) op;
+            child = p.getChild();
+            StringBuilder fields = new StringBuilder();
+            Iterator<TDItem> it = p.getTupleDesc().iterator();
+            while (it.hasNext())
+                fields.append(it.next().fieldName).append(",");
+            text = String.format("%1$s(%2$s)", PROJECT, fields.substring(0, fields.length() - 1));
+        } else {
+            return op.getClass().getSimpleName();
+        }
+        return text + " " + batchText(child);
+    }
+
+    // lay out an operator with no children, with bars up to its parent so
+    // that all leaves are at the bottom of the tree, and return the topmost
+    // of them
+    private SubTreeDescriptor buildLeafNode(SubTreeDescriptor thisNode, String symbol, String text,
+                                            int queryPlanDepth, int currentDepth, int currentStartPosition,
+                                            int parentUpperBarStartShift) {
+        thisNode.text = text;
+        if (symbol.length() / 2 < parentUpperBarStartShift) {
+            thisNode.upBarPosition = currentStartPosition
+                    + parentUpperBarStartShift;
+            thisNode.textStartPosition = thisNode.upBarPosition
+                    - symbol.length() / 2;
+        } else {
+            thisNode.upBarPosition = currentStartPosition + symbol.length()
+                    / 2;
+            thisNode.textStartPosition = currentStartPosition;
+        }
+        thisNode.width = thisNode.textStartPosition - currentStartPosition
+                + thisNode.text.length();
+        int embedHeight = Math.max((queryPlanDepth - currentDepth) / 2 - 1, 0);
+        thisNode.height = currentDepth + 2 * embedHeight;
+        int currentHeight = thisNode.height;
+        SubTreeDescriptor parentNode = thisNode;
+        for (int i = 0; i < embedHeight; i++) {
+            parentNode = new SubTreeDescriptor(parentNode);
+            parentNode.text = "|";
+            parentNode.upBarPosition = thisNode.upBarPosition;
+            parentNode.width = thisNode.width;
+            parentNode.height = currentHeight - 2;
+            parentNode.textStartPosition = thisNode.upBarPosition;
+            currentHeight -= 2;
+        }
+        return parentNode;
+    }
+
+    // lay out an operator with a single child, centering symbol over the child
+    private void buildUnaryNode(SubTreeDescriptor thisNode, String symbol, String text,
+                                int queryPlanDepth, int currentDepth, int adjustDepth,
+                                OpIterator childPlan, int currentStartPosition,
+                                int parentUpperBarStartShift) {
+        thisNode.text = text;
+        int upBarShift = parentUpperBarStartShift;
+        if (symbol.length() / 2 > parentUpperBarStartShift)
+            upBarShift = symbol.length() / 2;
+        SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                currentDepth + 2 + adjustDepth, childPlan,
+                currentStartPosition, upBarShift);
+        thisNode.upBarPosition = child.upBarPosition;
+        thisNode.textStartPosition = thisNode.upBarPosition
+                - symbol.length() / 2;
+        thisNode.width = Math.max(child.width,
+                thisNode.textStartPosition + thisNode.text.length()
+                        - currentStartPosition);
+        thisNode.leftChild = child;
+        thisNode.height = currentDepth;
+    }
+
+    // lay out a join, centering symbol between its two children
+    private void buildJoinNode(SubTreeDescriptor thisNode, String symbol, JoinPredicate jp,
+                               int card, int queryPlanDepth, int currentDepth, int adjustDepth,
+                               Operator plan, int currentStartPosition,
+                               int parentUpperBarStartShift) {
+        OpIterator[] children = plan.getChildren();
+        TupleDesc td = plan.getTupleDesc();
+        String field1 = td.getFieldName(jp.getField1());
+        String field2 = td.getFieldName(jp.getField2()
+                + children[0].getTupleDesc().numFields());
+        thisNode.text = String.format("%1$s(%2$s),card:%3$d", symbol,
+                field1 + jp.getOperator() + field2, card);
+        int upBarShift = parentUpperBarStartShift;
+        if (symbol.length() / 2 > parentUpperBarStartShift)
+            upBarShift = symbol.length() / 2;
+
+        SubTreeDescriptor left = this.buildTree(queryPlanDepth,
+                currentDepth + adjustDepth + 3, children[0],
+                currentStartPosition, upBarShift);
+        SubTreeDescriptor right = this.buildTree(queryPlanDepth,
+                currentDepth + adjustDepth + 3, children[1],
+                currentStartPosition + left.width + SPACE.length(), 0);
+        thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
+        thisNode.textStartPosition = thisNode.upBarPosition
+                - symbol.length() / 2;
+        thisNode.width = Math.max(
+                left.width + right.width + SPACE.length(),
+                thisNode.textStartPosition + thisNode.text.length()
+                        - currentStartPosition);
+        thisNode.leftChild = left;
+        thisNode.rightChild = right;
+        thisNode.height = currentDepth;
+    }
+
     private SubTreeDescriptor buildTree(int queryPlanDepth, int currentDepth,
                                         OpIterator queryPlan, int currentStartPosition,
                                         int parentUpperBarStartShift) {
@@ -69,41 +234,13 @@ public class QueryPlanVisualizer {
 
         if (queryPlan instanceof SeqScan) {
             SeqScan s = (SeqScan) queryPlan;
-            String tableName = s.getTableName();
-            String alias = s.getAlias();
-//            TupleDesc td = s.getTupleDesc();
-            if (!tableName.equals(alias))
-                alias = " " + alias;
-            else
-                alias = "";
-            thisNode.text = String
-                    .format("%1$s(%2$s)", SCAN, tableName + alias);
-            if (SCAN.length() / 2 < parentUpperBarStartShift) {
-                thisNode.upBarPosition = currentStartPosition
-                        + parentUpperBarStartShift;
-                thisNode.textStartPosition = thisNode.upBarPosition
-                        - SCAN.length() / 2;
-            } else {
-                thisNode.upBarPosition = currentStartPosition + SCAN.length()
-                        / 2;
-                thisNode.textStartPosition = currentStartPosition;
-            }
-            thisNode.width = thisNode.textStartPosition - currentStartPosition
-                    + thisNode.text.length();
-            int embedHeight = (queryPlanDepth - currentDepth) / 2 - 1;
-            thisNode.height = currentDepth + 2 * embedHeight;
-            int currentHeight = thisNode.height;
-            SubTreeDescriptor parentNode = thisNode;
-            for (int i = 0; i < embedHeight; i++) {
-                parentNode = new SubTreeDescriptor(parentNode);
-                parentNode.text = "|";
-                parentNode.upBarPosition = thisNode.upBarPosition;
-                parentNode.width = thisNode.width;
-                parentNode.height = currentHeight - 2;
-                parentNode.textStartPosition = thisNode.upBarPosition;
-                currentHeight -= 2;
-            }
-            thisNode = parentNode;
+            thisNode = buildLeafNode(thisNode, SCAN, scanText(s.getTableName(), s.getAlias()),
+                    queryPlanDepth, currentDepth, currentStartPosition, parentUpperBarStartShift);
+        } else if (queryPlan instanceof BatchToRowAdapter) {
+            String text = String.format("%1$s[%2$s]", BATCH,
+                    batchText(((BatchToRowAdapter) queryPlan).getChild()));
+            thisNode = buildLeafNode(thisNode, BATCH, text, queryPlanDepth, currentDepth,
+                    currentStartPosition, parentUpperBarStartShift);
         } else {
 
             Operator plan = (Operator) queryPlan;
@@ -111,61 +248,28 @@ public class QueryPlanVisualizer {
 
             if (plan instanceof Join) {
                 Join j = (Join) plan;
-                TupleDesc td = j.getTupleDesc();
-                JoinPredicate jp = j.getJoinPredicate();
-                String field1 = td.getFieldName(jp.getField1());
-                String field2 = td.getFieldName(jp.getField2()
-                        + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", JOIN,
-                        field1 + jp.getOperator() + field2,j.getEstimatedCardinality());
-                int upBarShift = parentUpperBarStartShift;
-                if (JOIN.length() / 2 > parentUpperBarStartShift)
-                    upBarShift = JOIN.length() / 2;
-
-                SubTreeDescriptor left = this.buildTree(queryPlanDepth,
-                        currentDepth + adjustDepth + 3, children[0],
-                        currentStartPosition, upBarShift);
-                SubTreeDescriptor right = this.buildTree(queryPlanDepth,
-                        currentDepth + adjustDepth + 3, children[1],
-                        currentStartPosition + left.width + SPACE.length(), 0);
-                thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
-                thisNode.textStartPosition = thisNode.upBarPosition
-                        - JOIN.length() / 2;
-                thisNode.width = Math.max(
-                        left.width + right.width + SPACE.length(),
-                        thisNode.textStartPosition + thisNode.text.length()
-                                - currentStartPosition);
-                thisNode.leftChild = left;
-                thisNode.rightChild = right;
-                thisNode.height = currentDepth;
+                buildJoinNode(thisNode, JOIN, j.getJoinPredicate(),
+                        j.getEstimatedCardinality(), queryPlanDepth, currentDepth,
+                        adjustDepth, plan, currentStartPosition,
+                        parentUpperBarStartShift);
             } else if (plan instanceof HashEquiJoin) {
                 HashEquiJoin j = (HashEquiJoin) plan;
-                JoinPredicate jp = j.getJoinPredicate();
-                TupleDesc td = j.getTupleDesc();
-                String field1 = td.getFieldName(jp.getField1());
-                String field2 = td.getFieldName(jp.getField2()
-                        + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", HASH_JOIN, field1
-                        + jp.getOperator() + field2,j.getEstimatedCardinality());
-                int upBarShift = parentUpperBarStartShift;
-                if (HASH_JOIN.length() / 2 > parentUpperBarStartShift)
-                    upBarShift = HASH_JOIN.length() / 2;
-                SubTreeDescriptor left = this.buildTree(queryPlanDepth,
-                        currentDepth + 3 + adjustDepth, children[0],
-                        currentStartPosition, upBarShift);
-                SubTreeDescriptor right = this.buildTree(queryPlanDepth,
-                        currentDepth + 3 + adjustDepth, children[1],
-                        currentStartPosition + left.width + SPACE.length(), 0);
-                thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
-                thisNode.textStartPosition = thisNode.upBarPosition
-                        - HASH_JOIN.length() / 2;
-                thisNode.width = Math.max(
-                        left.width + right.width + SPACE.length(),
-                        thisNode.textStartPosition + thisNode.text.length()
-                                - currentStartPosition);
-                thisNode.leftChild = left;
-                thisNode.rightChild = right;
-                thisNode.height = currentDepth;
+                buildJoinNode(thisNode, HASH_JOIN, j.getJoinPredicate(),
+                        j.getEstimatedCardinality(), queryPlanDepth, currentDepth,
+                        adjustDepth, plan, currentStartPosition,
+                        parentUpperBarStartShift);
+            } else if (plan instanceof SortMergeJoin) {
+                SortMergeJoin j = (SortMergeJoin) plan;
+                buildJoinNode(thisNode, MERGE_JOIN, j.getJoinPredicate(),
+                        j.getEstimatedCardinality(), queryPlanDepth, currentDepth,
+                        adjustDepth, plan, currentStartPosition,
+                        parentUpperBarStartShift);
+            } else if (plan instanceof IndexNestedLoopJoin) {
+                IndexNestedLoopJoin j = (IndexNestedLoopJoin) plan;
+                buildJoinNode(thisNode, INDEX_JOIN, j.getJoinPredicate(),
+                        j.getEstimatedCardinality(), queryPlanDepth, currentDepth,
+                        adjustDepth, plan, currentStartPosition,
+                        parentUpperBarStartShift);
             }
             else if (plan instanceof Aggregate) {
                 Aggregate a = (Aggregate) plan;
@@ -200,11 +304,9 @@ public class QueryPlanVisualizer {
                 thisNode.height = currentDepth;
             } else if (plan instanceof Filter) {
                 Filter f = (Filter) plan;
-                Predicate p = f.getPredicate();
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", SELECT, children[0]
-                        .getTupleDesc().getFieldName(p.getField())
-                        + p.getOp()
-                        + p.getOperand(),f.getEstimatedCardinality());
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", SELECT,
+                        f.getCondition().toString(children[0].getTupleDesc()),
+                        f.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
                 if (SELECT.length() / 2 > parentUpperBarStartShift)
                     upBarShift = SELECT.length() / 2;
@@ -224,8 +326,8 @@ public class QueryPlanVisualizer {
                 thisNode.text = String.format(
                         "%1$s(%2$s),card:%3$d",
                         ORDERBY,
-                        children[0].getTupleDesc().getFieldName(
-                                o.getOrderByField()),o.getEstimatedCardinality());
+                        orderKeys(children[0].getTupleDesc(), o.getOrderByFields(), o.getAscending()),
+                        o.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
                 if (ORDERBY.length() / 2 > parentUpperBarStartShift)
                     upBarShift = ORDERBY.length() / 2;
@@ -240,6 +342,22 @@ public class QueryPlanVisualizer {
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
+            } else if (plan instanceof TopN) {
+                TopN t = (TopN) plan;
+                String text = String.format(
+                        "%1$s %2$d(%3$s),card:%4$d",
+                        TOPN, t.getLimit(),
+                        orderKeys(children[0].getTupleDesc(), t.getOrderByFields(), t.getAscending()),
+                        t.getEstimatedCardinality());
+                buildUnaryNode(thisNode, TOPN, text, queryPlanDepth, currentDepth, adjustDepth,
+                        children[0], currentStartPosition, parentUpperBarStartShift);
+            } else if (plan instanceof Limit) {
+                Limit l = (Limit) plan;
+                String text = String.format(
+                        "%1$s %2$d offset %3$d,card:%4$d",
+                        LIMIT, l.getLimit(), l.getOffset(), l.getEstimatedCardinality());
+                buildUnaryNode(thisNode, LIMIT, text, queryPlanDepth, currentDepth, adjustDepth,
+                        children[0], currentStartPosition, parentUpperBarStartShift);
             } else if (plan instanceof Project) {
                 Project p = (Project) plan;
                 StringBuilder fields = new StringBuilder();
@@ -263,39 +381,11 @@ public class QueryPlanVisualizer {
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
             }
-            else if (plan.getClass().getSuperclass().getSuperclass().getSimpleName().equals("Exchange")) {
-                String name="Exchange";
-                int card=0;
-                try {
-                    name = (String) plan.getClass().getMethod("getName").invoke(plan);
-                    card = (Integer) plan.getClass().getMethod("getEstimatedCardinality").invoke(plan);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                } 
-
-                thisNode.text = String.format("%1$s,card:%2$d", name,card);
-                int upBarShift = parentUpperBarStartShift;
-                if (name.length() / 2 > parentUpperBarStartShift)
-                    upBarShift = name.length() / 2;
-                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
-                        currentDepth + 2 + adjustDepth, children[0],
-                        currentStartPosition, upBarShift);
-                if (child == null) {
-                    thisNode.upBarPosition = upBarShift;
-                    thisNode.textStartPosition = thisNode.upBarPosition
-                            - name.length() / 2;
-                    thisNode.width = thisNode.textStartPosition + thisNode.text.length()
-                                    - currentStartPosition;
-                } else {
-                    thisNode.upBarPosition = child.upBarPosition;
-                    thisNode.textStartPosition = thisNode.upBarPosition
-                            - name.length() / 2;
-                    thisNode.width = Math.max(child.width,
-                            thisNode.textStartPosition + thisNode.text.length()
-                                    - currentStartPosition);
-                    thisNode.leftChild = child;
-                }
-                thisNode.height = currentDepth;
+            else if (plan instanceof Exchange) {
+                Exchange e = (Exchange) plan;
+                String text = String.format("%1$s,card:%2$d", e.getName(), e.getEstimatedCardinality());
+                buildUnaryNode(thisNode, e.getName(), text, queryPlanDepth, currentDepth, adjustDepth,
+                        children[0], currentStartPosition, parentUpperBarStartShift);
             }
             else if (plan.getClass().getName().equals("simpledb.execution.Rename"))
             {
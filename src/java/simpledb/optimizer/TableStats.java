@@ -72,7 +72,7 @@ public class TableStats {
      */
     static final int NUM_HIST_BINS = 100;
 
-    private final HeapFile heapFile;
+    private final DbFile heapFile;
     private final int ioCostPerPage;
     private int tupleCount;
     public IntHistogram[] intHistArr;
@@ -99,7 +99,7 @@ public class TableStats {
         this.ioCostPerPage = ioCostPerPage;
         this.tupleCount = 0;
 
-        this.heapFile = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
+        this.heapFile = Database.getCatalog().getDatabaseFile(tableid);
         TupleDesc tupleDesc = heapFile.getTupleDesc();
         this.intHistArr = new IntHistogram[tupleDesc.numFields()];
         int[] minArr = new int[tupleDesc.numFields()];
@@ -164,7 +164,7 @@ public class TableStats {
      */
     public double estimateScanCost() {
         // some code goes here
-        return this.heapFile.numPages() * ioCostPerPage;
+        return heapFile.numPages() * ioCostPerPage;
     }
 
     /**
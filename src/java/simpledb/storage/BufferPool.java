@@ -1,15 +1,24 @@
 package simpledb.storage;
 
 import simpledb.transaction.LockManager;
+import simpledb.transaction.LockMetrics;
 import simpledb.common.*;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -36,6 +45,49 @@ public class BufferPool {
     private final int numPages;
     private final LRUPageCache<PageId> pageCache;
     private final LockManager lockManager;
+    private final Map<TransactionId, Savepoints> savepoints;
+    /**
+     * The last committed image of pages, as handed to read-only
+     * transactions. These copies are never modified, so a reader holding
+     * one never sees a change that is not committed. A page without an
+     * entry has its committed image as its before-image.
+     */
+    private final Map<PageId, Page> committed;
+    /**
+     * Committed images that a later commit replaced, kept while a read-only
+     * transaction that started before that commit is running. For each
+     * page, the sequence number of the commit that replaced an image maps
+     * to the image.
+     */
+    private final Map<PageId, NavigableMap<Long, Page>> replaced;
+    /**
+     * The snapshot of each running read-only transaction: the sequence
+     * number of the last commit it sees. Guarded by commitLock.
+     */
+    private final Map<TransactionId, Long> snapshots;
+    /** The sequence number of the last commit, guarded by commitLock */
+    private long commitSequence;
+    /** Makes each commit visible to read-only transactions all at once */
+    private final Object commitLock = new Object();
+
+    /**
+     * The savepoints of one transaction. Each savepoint keeps a copy of every
+     * page the transaction took a write lock on while it was the most recent
+     * savepoint, as the page was before that write, so rolling back only
+     * restores pages dirtied since the savepoint was set.
+     */
+    private static class Savepoints {
+        final Deque<Savepoint> stack = new ArrayDeque<>();
+    }
+
+    private static class Savepoint {
+        final String name;
+        final Map<PageId, Page> images = new HashMap<>();
+
+        Savepoint(String name) {
+            this.name = name;
+        }
+    }
 
     /**
      * Creates a BufferPool that caches up to numPages pages.
@@ -46,6 +98,10 @@ public class BufferPool {
         this.numPages = numPages;
         this.pageCache = new LRUPageCache<>(numPages);
         this.lockManager = new LockManager();
+        this.savepoints = new ConcurrentHashMap<>();
+        this.committed = new ConcurrentHashMap<>();
+        this.replaced = new ConcurrentHashMap<>();
+        this.snapshots = new ConcurrentHashMap<>();
     }
     
     public static int getPageSize() {
@@ -73,19 +129,135 @@ public class BufferPool {
      * space in the buffer pool, a page should be evicted and the new page
      * should be added in its place.
      *
+     * <p>
+     * Transactions declared read-only skip the lock manager entirely: they
+     * get a copy of the committed image of each page, shared by all of them
+     * until a commit changes the page. Writers never modify these copies, so
+     * a reader sees no uncommitted change, even one a writer is making to
+     * the cached page while the reader scans its copy. Each reader sees the
+     * commits made before its first getPage and none made after, so it sees
+     * either all or none of the pages of a commit.
+     *
      * @param tid the ID of the transaction requesting the page
      * @param pid the ID of the requested page
      * @param perm the requested permissions on the page
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
-        long start = System.currentTimeMillis();
-        long timeout = new Random().nextInt(2000);
-        while (!lockManager.lock(tid, pid, perm)) {
-            if (System.currentTimeMillis() - start > timeout) {
-                throw new TransactionAbortedException();
+        if (tid != null && tid.isReadOnly()) {
+            if (perm != Permissions.READ_ONLY) {
+                throw new DbException("read-only transaction " + tid.getId() + " cannot acquire " + perm);
             }
+            long snapshot = snapshot(tid);
+            Page page = fetchPage(pid);
+            Page image = committed.computeIfAbsent(pid, k -> page.getBeforeImage());
+            // looked up second, since a commit keeps the image it replaces
+            // before replacing it
+            NavigableMap<Long, Page> images = replaced.get(pid);
+            Map.Entry<Long, Page> older = images == null ? null : images.higherEntry(snapshot);
+            return older != null ? older.getValue() : image;
+        }
+        acquireLock(tid, pid, perm);
+        Page page = fetchPage(pid);
+        if (perm == Permissions.READ_WRITE) {
+            saveForSavepoint(tid, page);
+        }
+        return page;
+    }
+
+    // the snapshot of read-only transaction tid, taken on its first call
+    private long snapshot(TransactionId tid) {
+        Long snapshot = snapshots.get(tid);
+        if (snapshot != null) {
+            return snapshot;
+        }
+        synchronized (commitLock) {
+            return snapshots.computeIfAbsent(tid, k -> commitSequence);
         }
+    }
+
+    // forget the snapshot of read-only transaction tid, and the replaced
+    // images no running reader can see any more
+    private void releaseSnapshot(TransactionId tid) {
+        synchronized (commitLock) {
+            if (snapshots.remove(tid) == null) {
+                return;
+            }
+            long oldest = Long.MAX_VALUE;
+            for (long snapshot : snapshots.values()) {
+                oldest = Math.min(oldest, snapshot);
+            }
+            // an image replaced by commit c is seen only by snapshots before c
+            for (NavigableMap<Long, Page> images : replaced.values()) {
+                images.headMap(oldest, true).clear();
+            }
+            replaced.values().removeIf(Map::isEmpty);
+        }
+    }
+
+    /**
+     * Acquire the lock {@link #getPage} would, without fetching the page.
+     * Scans that can tell from elsewhere that a page holds nothing they
+     * need lock it all the same, so that no tuple they would need can be
+     * added to it before they commit.
+     *
+     * @param tid the ID of the transaction requesting the lock
+     * @param pid the ID of the page to lock
+     * @param perm the requested permissions on the page
+     */
+    public void lockPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException {
+        if (tid != null && tid.isReadOnly()) {
+            return;
+        }
+        acquireLock(tid, pid, perm);
+    }
+
+    // spin until the lock is granted, aborting after a random timeout or
+    // as soon as the lock manager detects an upgrade deadlock
+    private void acquireLock(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException {
+        LockMetrics metrics = lockManager.getMetrics();
+        boolean waited = false;
+        long start = 0;
+        long timeout = 0;
+        try {
+            while (!lockManager.lock(tid, pid, perm)) {
+                long now = System.nanoTime();
+                if (!waited) {
+                    waited = true;
+                    start = now;
+                    timeout = TimeUnit.MILLISECONDS.toNanos(new Random().nextInt(2000));
+                } else if (now - start > timeout) {
+                    lockManager.cancelUpgrade(tid, pid);
+                    metrics.recordTimeout(pid, now - start);
+                    throw new TransactionAbortedException();
+                }
+            }
+        } catch (DeadlockException e) {
+            metrics.recordTimeout(pid, waited ? System.nanoTime() - start : 0);
+            throw new TransactionAbortedException();
+        }
+        if (waited) {
+            metrics.recordWait(pid, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Retrieve the specified page without acquiring a transactional lock.
+     * Callers must protect the page with their own short-term latch; B+ tree
+     * traversal uses this for internal pages.
+     *
+     * @param pid the ID of the requested page
+     */
+    public Page getPageUnlocked(PageId pid) throws DbException {
+        return fetchPage(pid);
+    }
+
+    // look the page up in the cache, reading it from disk if necessary;
+    // synchronized since the partitions of a parallel scan fetch pages from
+    // several threads
+    private synchronized Page fetchPage(PageId pid) throws DbException {
         if (pageCache.contains(pid)) {
             return pageCache.get(pid);
         }
@@ -125,6 +297,11 @@ public class BufferPool {
         transactionComplete(tid, true);
     }
 
+    /** Return the lock contention statistics gathered by this buffer pool */
+    public LockMetrics getLockMetrics() {
+        return lockManager.getMetrics();
+    }
+
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
         // some code goes here
@@ -132,6 +309,14 @@ public class BufferPool {
         return lockManager.holdsLock(tid, p);
     }
 
+    /**
+     * Return true if a transaction other than tid holds a READ_WRITE lock on
+     * the specified page, whose changes may therefore still be undone
+     */
+    public boolean isWriteLockedByOther(TransactionId tid, PageId p) {
+        return lockManager.isWriteLockedByOther(tid, p);
+    }
+
     /**
      * Commit or abort a given transaction; release all locks associated to
      * the transaction.
@@ -142,34 +327,214 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid, boolean commit) {
         // some code goes here
         // not necessary for lab1|lab2
+        if (tid.isReadOnly()) {
+            // read-only transactions hold no locks and dirty no pages
+            releaseSnapshot(tid);
+            return;
+        }
         if (commit) {
-            try {
-                for (PageId pid : pageCache.keySet()) {
-                    Page page = pageCache.internalGet(pid);
-                    if (page != null) {
-                        if (page.isDirty() != null && page.isDirty().equals(tid)) {
-                            flushPage(pid);
-                        }
-                        // use current page contents as the before-image
-                        // for the next transaction that modifies this page.
-                        page.setBeforeImage();
-                    }
-                }
-
-            } catch (IOException e) {
-                e.printStackTrace();
+            synchronized (commitLock) {
+                commit(tid);
             }
         } else {
              rollback(tid);
         }
+        savepoints.remove(tid);
         lockManager.releaseAllLocks(tid);
     }
 
-    // remove the dirty pages and reload from disk
+    // flush the pages of tid and make them the committed images, keeping
+    // the images they replace for the read-only transactions running
+    private void commit(TransactionId tid) {
+        long sequence = commitSequence + 1;
+        try {
+            for (PageId pid : pageCache.keySet()) {
+                Page page = pageCache.internalGet(pid);
+                if (page != null) {
+                    boolean dirtied = page.isDirty() != null && page.isDirty().equals(tid);
+                    if (!snapshots.isEmpty() && (dirtied || lockManager.holdsExclusiveLock(tid, pid))) {
+                        replaced.computeIfAbsent(pid, k -> new ConcurrentSkipListMap<>())
+                                .put(sequence, beforeImage(page));
+                    }
+                    if (dirtied) {
+                        flushPage(pid);
+                    }
+                    // use current page contents as the before-image
+                    // for the next transaction that modifies this page.
+                    // Only pages tid dirtied or locked are committed
+                    // now; any other may be in the middle of another
+                    // writer's change.
+                    if (dirtied || (page.isDirty() == null && lockManager.holdsLock(tid, pid))) {
+                        committed.compute(pid, (k, image) -> {
+                            page.setBeforeImage();
+                            return null;
+                        });
+                    }
+                }
+            }
+
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        commitSequence = sequence;
+    }
+
+    /**
+     * Set a savepoint named name in transaction tid, replacing any savepoint
+     * of the same name. A later call to rollbackToSavepoint undoes the
+     * changes tid makes after this call while keeping its earlier changes
+     * and all of its locks.
+     *
+     * @param tid the transaction setting the savepoint
+     * @param name the name of the savepoint
+     */
+    public void setSavepoint(TransactionId tid, String name)
+        throws DbException, IOException {
+        checkWritable(tid);
+        Savepoints sps = savepoints.computeIfAbsent(tid, k -> new Savepoints());
+        synchronized (sps) {
+            Savepoint old = find(sps, name);
+            if (old != null) {
+                release(sps, old, false);
+            }
+            sps.stack.addLast(new Savepoint(name));
+        }
+        Database.getLogFile().logSavepoint(tid, name);
+    }
+
+    /**
+     * Undo the changes transaction tid made since it set savepoint name.
+     * Savepoints set after it are discarded; the savepoint itself remains,
+     * so the transaction can roll back to it again. No locks are released.
+     *
+     * @param tid the transaction rolling back
+     * @param name the name of the savepoint to roll back to
+     * @throws DbException if tid has no savepoint of that name
+     */
+    public void rollbackToSavepoint(TransactionId tid, String name)
+        throws DbException, IOException {
+        Savepoints sps = savepoints.get(tid);
+        Savepoint sp = sps == null ? null : find(sps, name);
+        if (sp == null) {
+            throw new DbException("transaction " + tid.getId() + " has no savepoint " + name);
+        }
+        synchronized (sps) {
+            // walk from the newest savepoint back to sp, so the oldest copy
+            // of each page, i.e. its contents when sp was set, wins
+            Map<PageId, Page> restore = new HashMap<>();
+            while (true) {
+                Savepoint last = sps.stack.peekLast();
+                restore.putAll(last.images);
+                last.images.clear();
+                if (last == sp) {
+                    break;
+                }
+                sps.stack.removeLast();
+            }
+            for (Map.Entry<PageId, Page> e : restore.entrySet()) {
+                Page image = e.getValue();
+                // dirty even if it was clean when sp was set: the changes
+                // since may have been flushed, and the page evicted, so
+                // the image must be logged and written back over them
+                image.markDirty(true, tid);
+                if (!pageCache.contains(e.getKey()) && pageCache.size() >= numPages) {
+                    evictPage();
+                }
+                pageCache.put(e.getKey(), image);
+            }
+        }
+        Database.getLogFile().logSavepointRollback(tid, name);
+    }
+
+    /**
+     * Forget savepoint name of transaction tid and every savepoint set after
+     * it. The changes made since then are kept.
+     *
+     * @param tid the transaction releasing the savepoint
+     * @param name the name of the savepoint to release
+     * @throws DbException if tid has no savepoint of that name
+     */
+    public void releaseSavepoint(TransactionId tid, String name) throws DbException {
+        Savepoints sps = savepoints.get(tid);
+        Savepoint sp = sps == null ? null : find(sps, name);
+        if (sp == null) {
+            throw new DbException("transaction " + tid.getId() + " has no savepoint " + name);
+        }
+        synchronized (sps) {
+            release(sps, sp, true);
+        }
+    }
+
+    private static Savepoint find(Savepoints sps, String name) {
+        synchronized (sps) {
+            for (Savepoint sp : sps.stack) {
+                if (sp.name.equals(name)) {
+                    return sp;
+                }
+            }
+            return null;
+        }
+    }
+
+    // remove sp (and, if cascade, every later savepoint), handing the saved
+    // pages to the preceding savepoint so rolling back to it still works
+    private static void release(Savepoints sps, Savepoint sp, boolean cascade) {
+        List<Savepoint> stack = new ArrayList<>(sps.stack);
+        int i = stack.indexOf(sp);
+        Savepoint previous = i > 0 ? stack.get(i - 1) : null;
+        List<Savepoint> removed = cascade ? stack.subList(i, stack.size()) : stack.subList(i, i + 1);
+        for (Savepoint r : removed) {
+            sps.stack.remove(r);
+            if (previous != null) {
+                for (Map.Entry<PageId, Page> e : r.images.entrySet()) {
+                    previous.images.putIfAbsent(e.getKey(), e.getValue());
+                }
+            }
+        }
+    }
+
+    // copy a page the first time tid write-locks it after its latest savepoint
+    private void saveForSavepoint(TransactionId tid, Page page) {
+        Savepoints sps = tid == null ? null : savepoints.get(tid);
+        if (sps == null) {
+            return;
+        }
+        synchronized (sps) {
+            Savepoint sp = sps.stack.peekLast();
+            if (sp == null || sp.images.containsKey(page.getId())) {
+                return;
+            }
+            // Pages have no copy constructor, so copy through the
+            // before-image, pinning the committed image it replaces
+            Page[] copy = new Page[1];
+            committed.compute(page.getId(), (pid, image) -> {
+                Page before = image != null ? image : page.getBeforeImage();
+                page.setBeforeImage();
+                copy[0] = page.getBeforeImage();
+                return before;
+            });
+            TransactionId dirtier = page.isDirty();
+            copy[0].markDirty(dirtier != null, dirtier);
+            sp.images.put(page.getId(), copy[0]);
+        }
+    }
+
+    // the last committed image of a page, which a savepoint may have moved
+    private Page beforeImage(Page page) {
+        Page image = committed.get(page.getId());
+        return image != null ? image : page.getBeforeImage();
+    }
+
+    // remove the dirty pages and reload from disk. Pages tid write-locked
+    // are reloaded too: a DbFile changes pages in place and they are only
+    // marked dirty once its insertTuple/deleteTuple returns, so an abort in
+    // the middle (e.g. a B+ tree split) leaves them changed but clean. The
+    // keys are copied first, since a reloaded page stays write-locked and
+    // the live key set may hand it out again
     private void rollback(TransactionId tid) {
-        for (PageId pid : pageCache.keySet()) {
+        for (PageId pid : new ArrayList<>(pageCache.keySet())) {
             Page page = pageCache.internalGet(pid);
-            if (page != null && page.isDirty() != null && page.isDirty().equals(tid)) {
+            if (page != null && (tid.equals(page.isDirty()) || lockManager.holdsExclusiveLock(tid, pid))) {
                 pageCache.discard(pid);
                 try {
                     Page cleanPage = Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
@@ -203,6 +568,7 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        checkWritable(tid);
         List<Page> pages = Database.getCatalog().getDatabaseFile(tableId).insertTuple(tid, t);
         for (Page p : pages) {
             p.markDirty(true, tid);
@@ -228,6 +594,7 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        checkWritable(tid);
         List<Page> pages = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId()).deleteTuple(tid, t);
         for (Page p : pages) {
             p.markDirty(true, tid);
@@ -235,6 +602,12 @@ public class BufferPool {
         }
     }
 
+    private void checkWritable(TransactionId tid) throws DbException {
+        if (tid.isReadOnly()) {
+            throw new DbException("read-only transaction " + tid.getId() + " cannot modify tuples");
+        }
+    }
+
     /**
      * Flush all dirty pages to disk.
      * NB: Be careful using this routine -- it writes dirty data to disk so will
@@ -258,6 +631,7 @@ public class BufferPool {
     */
     public synchronized void discardPage(PageId pid) {
         pageCache.discard(pid);
+        committed.remove(pid);
     }
 
     /**
@@ -289,6 +663,8 @@ public class BufferPool {
         if (evicted == null) {
             return;
         }
+        // a clean page's committed image is on disk
+        committed.remove(evicted.getKey());
     }
 
     private void flushPage(PageId pid, Page page) throws IOException {
@@ -296,7 +672,7 @@ public class BufferPool {
             // append an update record to the log, with
             // a before-image and after-image.
             TransactionId dirtier = page.isDirty();
-            Database.getLogFile().logWrite(dirtier, page.getBeforeImage(), page);
+            Database.getLogFile().logWrite(dirtier, beforeImage(page), page);
             Database.getLogFile().force();
 
             Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
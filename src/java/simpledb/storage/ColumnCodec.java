@@ -0,0 +1,325 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ColumnCodec encodes the minipages of a compressed {@link PaxPage}. Each
+ * value of a column is first mapped to a small integer code: INT values
+ * are stored as their distance from the column's minimum (frame of
+ * reference), STRING values as an index into a per-page dictionary. The
+ * codes are then bit-packed with just enough bits for the largest one, or
+ * run-length encoded if that is smaller.
+ * <p>
+ * A block for n slots is laid out as
+ * <pre>
+ *   INT:    mode(1) base(4) width(1) body
+ *   STRING: mode(1) d(2) d * [len(2) bytes(len)] width(1) body
+ * </pre>
+ * where the body is a bit stream of either n codes of width bits (mode
+ * PACKED) or a 16 bit run count followed by that many (code, length)
+ * pairs (mode RLE). Empty slots repeat the value before them, so they
+ * neither extend runs nor the dictionary.
+ */
+class ColumnCodec {
+
+    private static final int PACKED = 0;
+    private static final int RLE = 1;
+
+    private ColumnCodec() {
+    }
+
+    /**
+     * Encodes the first n values of a column; null values are empty slots.
+     * Returns an empty block if n is 0.
+     */
+    static byte[] encode(Type type, Field[] values, int n) {
+        if (n == 0) {
+            return new byte[0];
+        }
+        Field[] filled = fill(values, n);
+        Stats stats = new Stats(type, filled, n);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(stats.size());
+        BitWriter bits = new BitWriter(out);
+        boolean rle = stats.rleBits() < stats.packedBits();
+        bits.write(rle ? RLE : PACKED, 8);
+        int width = stats.width();
+        Map<Field, Integer> codes = null;
+        if (type == Type.INT_TYPE) {
+            bits.write(stats.min, 32);
+        } else {
+            codes = new HashMap<>();
+            bits.write(stats.dictionary.size(), 16);
+            for (Field f : stats.dictionary) {
+                String s = ((StringField) f).getValue();
+                codes.put(f, codes.size());
+                bits.write(s.length(), 16);
+                for (int k = 0; k < s.length(); k++) {
+                    // the low byte of each char, as StringField.serialize writes it
+                    bits.write(s.charAt(k) & 0xff, 8);
+                }
+            }
+        }
+        bits.write(width, 8);
+        if (rle) {
+            bits.write(stats.runs, 16);
+            int lengthWidth = bitsFor(n);
+            int start = 0;
+            for (int i = 1; i <= n; i++) {
+                if (i == n || !filled[i].equals(filled[start])) {
+                    bits.write(code(filled[start], stats.min, codes), width);
+                    bits.write(i - start, lengthWidth);
+                    start = i;
+                }
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                bits.write(code(filled[i], stats.min, codes), width);
+            }
+        }
+        bits.flush();
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a block of n values starting at offset in data. Empty slots
+     * come back holding the value they were encoded with; equal values
+     * share a Field object.
+     */
+    static Field[] decode(Type type, byte[] data, int offset, int n) {
+        Field[] values = new Field[n];
+        if (n == 0) {
+            return values;
+        }
+        BitReader bits = new BitReader(data, offset);
+        boolean rle = bits.read(8) == RLE;
+        long base = 0;
+        Field[] dictionary = null;
+        if (type == Type.INT_TYPE) {
+            base = (int) bits.read(32);
+        } else {
+            dictionary = new Field[(int) bits.read(16)];
+            for (int c = 0; c < dictionary.length; c++) {
+                char[] chars = new char[(int) bits.read(16)];
+                for (int k = 0; k < chars.length; k++) {
+                    chars[k] = (char) bits.read(8);
+                }
+                dictionary[c] = new StringField(new String(chars), Type.STRING_LEN);
+            }
+        }
+        int width = (int) bits.read(8);
+        if (rle) {
+            int runs = (int) bits.read(16);
+            int lengthWidth = bitsFor(n);
+            int i = 0;
+            for (int r = 0; r < runs; r++) {
+                Field f = field(bits.read(width), base, dictionary);
+                int length = (int) bits.read(lengthWidth);
+                for (int k = 0; k < length; k++) {
+                    values[i++] = f;
+                }
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                values[i] = field(bits.read(width), base, dictionary);
+            }
+        }
+        return values;
+    }
+
+    private static long code(Field f, long min, Map<Field, Integer> codes) {
+        return codes == null ? ((IntField) f).getValue() - min : codes.get(f);
+    }
+
+    private static Field field(long code, long base, Field[] dictionary) {
+        return dictionary == null ? IntField.valueOf((int) (base + code)) : dictionary[(int) code];
+    }
+
+    // values with every empty slot replaced by the value before it, or by
+    // the first value for leading empty slots
+    private static Field[] fill(Field[] values, int n) {
+        Field[] filled = new Field[n];
+        Field last = null;
+        for (int i = 0; i < n; i++) {
+            if (values[i] != null) {
+                last = values[i];
+                break;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            if (values[i] != null) {
+                last = values[i];
+            }
+            filled[i] = last;
+        }
+        return filled;
+    }
+
+    /** @return the number of bits needed to represent x, 0 for x <= 0 */
+    static int bitsFor(long x) {
+        return x <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(x);
+    }
+
+    /**
+     * The parameters that determine the encoded size of a column: its
+     * number of slots, runs and distinct values, and its range. Built from
+     * a column, it gives the exact size of its block; after add() it gives
+     * an upper bound, which is what a page needs to decide whether a tuple
+     * still fits.
+     */
+    static class Stats {
+        private final Type type;
+        private int n;
+        private int runs;
+        private long min = Long.MAX_VALUE;
+        private long max = Long.MIN_VALUE;
+        // the distinct STRING values, in order of first appearance
+        private final List<Field> dictionary = new ArrayList<>();
+        private final Map<Field, Integer> distinct = new HashMap<>();
+        private int dictionaryBytes;
+
+        Stats(Type type, Field[] values, int n) {
+            this.type = type;
+            Field[] filled = fill(values, n);
+            for (int i = 0; i < n; i++) {
+                if (filled[i] == null) {
+                    // no slot is used; an encoded page drops them
+                    this.n = i + 1;
+                } else {
+                    add(i, filled[i], i == 0 ? null : filled[i - 1], null);
+                }
+            }
+        }
+
+        /**
+         * Accounts for storing f in an empty slot, given the values of the
+         * closest used slots before and after it, or null if there are none.
+         * Deletes need no accounting: they never add to the encoded size.
+         */
+        void add(int slot, Field f, Field before, Field after) {
+            if (before == null && after == null) {
+                runs++;
+            }
+            if (before != null && !before.equals(f)) {
+                runs++;
+            }
+            if (after != null && !after.equals(f)) {
+                runs++;
+            }
+            if (before != null && after != null && !before.equals(after)) {
+                runs--;
+            }
+            n = Math.max(n, slot + 1);
+            if (type == Type.INT_TYPE) {
+                int v = ((IntField) f).getValue();
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            } else if (!distinct.containsKey(f)) {
+                distinct.put(f, dictionary.size());
+                dictionary.add(f);
+                dictionaryBytes += 2 + ((StringField) f).getValue().length();
+            }
+        }
+
+        int width() {
+            if (type == Type.INT_TYPE) {
+                return n == 0 ? 0 : bitsFor(max - min);
+            }
+            return bitsFor(dictionary.size() - 1);
+        }
+
+        long packedBits() {
+            return (long) n * width();
+        }
+
+        long rleBits() {
+            return 16 + (long) runs * (width() + bitsFor(n));
+        }
+
+        /** @return the size in bytes of the column's block */
+        int size() {
+            if (n == 0) {
+                return 0;
+            }
+            int header = type == Type.INT_TYPE ? 6 : 4 + dictionaryBytes;
+            return header + (int) ((Math.min(packedBits(), rleBits()) + 7) / 8);
+        }
+
+        /** @return the size the block would have after the same add() */
+        int sizeWith(int slot, Field f, Field before, Field after) {
+            int n0 = n, runs0 = runs, bytes0 = dictionaryBytes;
+            long min0 = min, max0 = max;
+            boolean added = type == Type.STRING_TYPE && !distinct.containsKey(f);
+            add(slot, f, before, after);
+            int size = size();
+            n = n0;
+            runs = runs0;
+            min = min0;
+            max = max0;
+            dictionaryBytes = bytes0;
+            if (added) {
+                distinct.remove(dictionary.remove(dictionary.size() - 1));
+            }
+            return size;
+        }
+    }
+
+    private static class BitWriter {
+        private final ByteArrayOutputStream out;
+        private long buffer;
+        private int count;
+
+        BitWriter(ByteArrayOutputStream out) {
+            this.out = out;
+        }
+
+        void write(long value, int width) {
+            if (width == 0) {
+                return;
+            }
+            buffer = (buffer << width) | (value & (-1L >>> (64 - width)));
+            count += width;
+            while (count >= 8) {
+                count -= 8;
+                out.write((int) (buffer >>> count));
+            }
+            buffer &= (1L << count) - 1;
+        }
+
+        void flush() {
+            if (count > 0) {
+                out.write((int) (buffer << (8 - count)));
+                buffer = 0;
+                count = 0;
+            }
+        }
+    }
+
+    private static class BitReader {
+        private final byte[] data;
+        private long position;
+
+        BitReader(byte[] data, int offset) {
+            this.data = data;
+            this.position = (long) offset * 8;
+        }
+
+        long read(int width) {
+            long value = 0;
+            while (width > 0) {
+                int bit = (int) (position & 7);
+                int take = Math.min(width, 8 - bit);
+                int b = (data[(int) (position >>> 3)] & 0xff) >>> (8 - bit - take);
+                value = (value << take) | (b & ((1 << take) - 1));
+                width -= take;
+                position += take;
+            }
+            return value;
+        }
+    }
+}
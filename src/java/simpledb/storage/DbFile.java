@@ -3,6 +3,7 @@ package simpledb.storage;
 
 import simpledb.common.DbException;
 import simpledb.common.Catalog;
+import simpledb.common.Permissions;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -33,6 +34,11 @@ public interface DbFile {
      */
     void writePage(Page p) throws IOException;
 
+    /**
+     * Returns the number of pages in this DbFile.
+     */
+    int numPages();
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -73,6 +79,18 @@ public interface DbFile {
      */
     DbFileIterator iterator(TransactionId tid);
 
+    /**
+     * Returns an iterator over all the tuples stored in this DbFile that
+     * fetches pages with the given permissions, e.g. UPDATE for a scan that
+     * feeds a delete. Files that do not support a stronger permission fall
+     * back to {@link #iterator(TransactionId)}.
+     *
+     * @return an iterator over all the tuples stored in this DbFile.
+     */
+    default DbFileIterator iterator(TransactionId tid, Permissions perm) {
+        return iterator(tid);
+    }
+
     /**
      * Returns a unique ID used to identify this DbFile in the Catalog. This id
      * can be used to look up the table via {@link Catalog#getDatabaseFile} and
@@ -17,6 +17,16 @@ public interface Field extends Serializable{
      */
     void serialize(DataOutputStream dos) throws IOException;
 
+    /**
+     * Write the bytes representing this field in a variable-length record,
+     * which {@link Type#parseVariable} reads back. Fields of fixed-width
+     * types are written as by {@link #serialize}.
+     * @param dos The DataOutputStream to write to.
+     */
+    default void serializeVariable(DataOutputStream dos) throws IOException {
+        serialize(dos);
+    }
+
     /**
      * Compare the value of this field object to the passed in value.
      * @param op The operator
@@ -4,6 +4,7 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Permissions;
+import simpledb.execution.CompositePredicate;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -16,6 +17,9 @@ import java.util.*;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * A {@link ZoneMap} of the file records the range of each INT field on each
+ * page, so that scans given a predicate skip pages it cannot match.
  * 
  * @see HeapPage#HeapPage
  * @author Sam Madden
@@ -24,6 +28,8 @@ public class HeapFile implements DbFile {
 
     private File file;
     private TupleDesc tupleDesc;
+    private final ZoneMap zoneMap;
+    private final boolean slotted;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -33,8 +39,26 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, whose pages are
+     * {@link SlottedPage}s holding variable-length records if slotted is
+     * true.
+     */
+    public HeapFile(File f, TupleDesc td, boolean slotted) {
         this.file = f;
         this.tupleDesc = td;
+        this.zoneMap = ZoneMap.of(f, td);
+        this.slotted = slotted;
+    }
+
+    /**
+     * @return true if the pages of this file are SlottedPages
+     */
+    public boolean isSlotted() {
+        return slotted;
     }
 
     /**
@@ -81,22 +105,39 @@ public class HeapFile implements DbFile {
             if (raf.read(buf) == -1) {
                 throw new IllegalArgumentException("PageId: " + pid + " does not exist in the disk.");
             }
-            heapPage = new HeapPage((HeapPageId) pid, buf);
+            heapPage = newPage((HeapPageId) pid, buf);
         } catch (IOException e) {
             e.printStackTrace();
         }
+        if (heapPage != null) {
+            zoneMap.pageRead(heapPage, buf);
+            heapPage.zoneMap = zoneMap;
+        }
         return heapPage;
     }
 
+    private HeapPage newPage(HeapPageId pid, byte[] data) throws IOException {
+        return slotted ? new SlottedPage(pid, data) : new HeapPage(pid, data);
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
         int pageSize = BufferPool.getPageSize();
+        byte[] data = page.getPageData();
         try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
             raf.seek(page.getId().getPageNumber() * pageSize);
-            raf.write(page.getPageData());
+            raf.write(data);
         }
+        zoneMap.pageWritten((HeapPage) page, data);
+    }
+
+    /**
+     * @return the zone map of this file
+     */
+    public ZoneMap getZoneMap() {
+        return zoneMap;
     }
 
     /**
@@ -110,24 +151,36 @@ public class HeapFile implements DbFile {
     public List<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
+        if (slotted && !SlottedPage.fitsEmptyPage(t)) {
+            // rejected before a new page is appended for it
+            throw new DbException("tuple is too large for a page");
+        }
+        BufferPool bufferPool = Database.getBufferPool();
         for (int i = 0; i < numPages(); i++) {
             HeapPageId pageId = new HeapPageId(getId(), i);
-            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
-            if (page == null || page.getNumEmptySlots() == 0) {
-                Database.getBufferPool().unsafeReleasePage(tid, pageId);
+            // probe with an update lock, which does not block readers, and
+            // only take the exclusive lock on the page we actually change
+            boolean wasLocked = bufferPool.holdsLock(tid, pageId);
+            HeapPage page = (HeapPage) bufferPool.getPage(tid, pageId, Permissions.UPDATE);
+            if (page == null || !page.hasRoomFor(t)) {
+                if (!wasLocked) {
+                    bufferPool.unsafeReleasePage(tid, pageId);
+                }
                 continue;
             }
+            page = (HeapPage) bufferPool.getPage(tid, pageId, Permissions.READ_WRITE);
             page.insertTuple(t);
             page.markDirty(true, tid);
             return Collections.singletonList(page);
         }
 
-        // create new page
+        // create new page: append it empty and fill it through the buffer
+        // pool, so the insert is locked and undone like any other
         HeapPageId pageId = new HeapPageId(getId(), numPages());
-        HeapPage newPage = new HeapPage(pageId, HeapPage.createEmptyPageData());
+        writePage(newPage(pageId, HeapPage.createEmptyPageData()));
+        HeapPage newPage = (HeapPage) bufferPool.getPage(tid, pageId, Permissions.READ_WRITE);
         newPage.insertTuple(t);
         newPage.markDirty(true, tid);
-        writePage(newPage);
 
         return Collections.singletonList(newPage);
         // not necessary for lab1
@@ -153,22 +206,111 @@ public class HeapFile implements DbFile {
         return new HeapFileIterator(tid, Permissions.READ_ONLY);
     }
 
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid, Permissions perm) {
+        return new HeapFileIterator(tid, perm);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file holding only the
+     * given fields, in the given order.
+     *
+     * @param fields the fields to return, or null for all of them
+     */
+    public DbFileIterator iterator(TransactionId tid, Permissions perm, int[] fields) {
+        return new HeapFileIterator(tid, perm, 0, 1, fields);
+    }
+
+    /**
+     * Returns an iterator over one of numPartitions contiguous page ranges of
+     * this file, so that the partitions can be scanned by separate threads.
+     * The ranges are fixed from the number of pages when the iterator is
+     * opened.
+     *
+     * @param partition which range to scan, from 0 to numPartitions - 1
+     * @param numPartitions the number of ranges the file is split into
+     */
+    public DbFileIterator iterator(TransactionId tid, int partition, int numPartitions) {
+        return iterator(tid, partition, numPartitions, null);
+    }
+
+    /**
+     * Returns an iterator over one partition of this file, whose tuples
+     * hold only the given fields, in the given order.
+     *
+     * @param fields the fields to return, or null for all of them
+     * @see #iterator(TransactionId, int, int)
+     */
+    public DbFileIterator iterator(TransactionId tid, int partition, int numPartitions, int[] fields) {
+        if (partition < 0 || partition >= numPartitions) {
+            throw new IllegalArgumentException("no partition " + partition + " of " + numPartitions);
+        }
+        return new HeapFileIterator(tid, Permissions.READ_ONLY, partition, numPartitions, fields);
+    }
+
     public class HeapFileIterator extends AbstractDbFileIterator {
         private TransactionId tid;
         private Permissions permissions;
         private int nextPage;
         private Iterator<Tuple> iterator;
+        private final int partition;
+        private final int numPartitions;
+        // the page range of a partition, fixed at open
+        private int endPage;
+        // pages the zone map shows cannot match this are skipped
+        private CompositePredicate condition;
+        // the fields the tuples returned hold, or null for all of them
+        private final int[] fields;
+        private final TupleDesc fieldsTd;
 
         public HeapFileIterator(TransactionId tid, Permissions permissions) {
+            this(tid, permissions, 0, 1, null);
+        }
+
+        HeapFileIterator(TransactionId tid, Permissions permissions, int partition, int numPartitions,
+                         int[] fields) {
             this.tid = tid;
             this.permissions = permissions;
+            this.partition = partition;
+            this.numPartitions = numPartitions;
             this.nextPage = 0;
+            this.fields = fields == null ? null : fields.clone();
+            this.fieldsTd = fields == null ? null : tupleDesc.project(fields);
+        }
+
+        /**
+         * Skip pages on which, according to the zone map of the file, no
+         * tuple satisfies condition. Tuples of the pages read are returned
+         * whether they satisfy it or not.
+         *
+         * @param condition a predicate over the fields of the file, or
+         *                  null to read every page
+         */
+        public void setCondition(CompositePredicate condition) {
+            this.condition = condition;
         }
 
         @Override
         public void open() throws DbException, TransactionAbortedException {
-            nextPage = 0;
-            loadNextPageIterator();
+            if (numPartitions == 1) {
+                nextPage = 0;
+                loadNextPageIterator();
+                return;
+            }
+            long pages = numPages();
+            nextPage = (int) (pages * partition / numPartitions);
+            endPage = (int) (pages * (partition + 1) / numPartitions);
+            if (nextPage < endPage) {
+                loadNextPageIterator();
+            } else {
+                iterator = Collections.emptyIterator();
+            }
+        }
+
+        // one past the last page to scan; a whole-file scan also sees pages
+        // added while it runs
+        private int endPage() {
+            return numPartitions == 1 ? numPages() : endPage;
         }
 
         @Override
@@ -180,7 +322,7 @@ public class HeapFile implements DbFile {
             if (iterator.hasNext()) {
                 return iterator.next();
             } else {
-                while (nextPage < numPages()) {
+                while (nextPage < endPage()) {
                     loadNextPageIterator();
                     if (iterator.hasNext()) {
                         return iterator.next();
@@ -192,8 +334,19 @@ public class HeapFile implements DbFile {
         }
 
         private void loadNextPageIterator() throws TransactionAbortedException, DbException {
-            HeapPage heapPage = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(), nextPage), permissions);
-            this.iterator = heapPage.iterator();
+            HeapPageId pid = new HeapPageId(getId(), nextPage);
+            if (condition != null) {
+                // lock before consulting the zone map, so that the page's
+                // ranges cannot widen until the transaction ends
+                Database.getBufferPool().lockPage(tid, pid, permissions);
+                if (!zoneMap.mayMatch(nextPage, condition)) {
+                    iterator = Collections.emptyIterator();
+                    nextPage++;
+                    return;
+                }
+            }
+            HeapPage heapPage = (HeapPage) Database.getBufferPool().getPage(tid, pid, permissions);
+            this.iterator = fields == null ? heapPage.iterator() : heapPage.iterator(fields, fieldsTd);
             nextPage++;
         }
 
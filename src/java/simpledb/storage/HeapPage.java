@@ -4,6 +4,7 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Catalog;
+import simpledb.execution.TupleBatch;
 import simpledb.transaction.TransactionId;
 
 import java.util.*;
@@ -28,6 +29,9 @@ public class HeapPage implements Page {
     private boolean isDirty;
     private TransactionId tid;
 
+    // the zone map of the page's file, if it has one
+    ZoneMap zoneMap;
+
     byte[] oldData;
     private final Byte oldDataLock= (byte) 0;
 
@@ -48,8 +52,16 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()));
+    }
+
+    /**
+     * Create a HeapPage holding tuples of the given TupleDesc, for pages of
+     * files that are not in the catalog, such as {@link SpillFile}s.
+     */
+    public HeapPage(HeapPageId id, byte[] data, TupleDesc td) throws IOException {
         this.pid = id;
-        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.td = td;
         this.numSlots = getNumTuples();
         DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
@@ -71,6 +83,18 @@ public class HeapPage implements Page {
         setBeforeImage();
     }
 
+    /**
+     * Create an empty page of the given number of slots, for subclasses that
+     * read their own page format and then call {@link #setBeforeImage()}.
+     */
+    HeapPage(HeapPageId id, TupleDesc td, int numSlots) {
+        this.pid = id;
+        this.td = td;
+        this.numSlots = numSlots;
+        this.header = new byte[(numSlots + 7) / 8];
+        this.tuples = new Tuple[numSlots];
+    }
+
     /** Retrieve the number of tuples on this page.
         @return the number of tuples on this page
     */
@@ -95,7 +119,11 @@ public class HeapPage implements Page {
             {
                 oldDataRef = oldData;
             }
-            return new HeapPage(pid,oldDataRef);
+            HeapPage page = newPage(oldDataRef);
+            // the image may be put back into the buffer pool by an abort or
+            // a savepoint rollback, and must keep widening the zone map
+            page.zoneMap = zoneMap;
+            return page;
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -104,6 +132,11 @@ public class HeapPage implements Page {
         return null;
     }
     
+    // a page of the same kind as this one, with the given data
+    HeapPage newPage(byte[] data) throws IOException {
+        return new HeapPage(pid, data, td);
+    }
+
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
@@ -255,6 +288,8 @@ public class HeapPage implements Page {
         }
         tuples[tupleNo] = null;
         markSlotUsed(tupleNo, false);
+        // the zone map keeps the page's ranges, which may now be wider than
+        // needed, since an abort could bring the tuple back
     }
 
     /**
@@ -267,20 +302,23 @@ public class HeapPage implements Page {
     public void insertTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
-        if (getNumEmptySlots() == 0) {
-            throw new DbException("Page is full");
-        }
-
         if (!td.equals(t.getTupleDesc())) {
             throw new DbException("Tuple Desc is mismatched");
         }
 
+        if (!hasRoomFor(t)) {
+            throw new DbException("Page is full");
+        }
+
         for (int i = 0; i < numSlots; i++) {
             if (!isSlotUsed(i)) {
                 // set new record id since we put the tuple into a new page
                 t.setRecordId(new RecordId(pid, i));
                 this.tuples[i] = t;
                 markSlotUsed(i, true);
+                if (zoneMap != null) {
+                    zoneMap.tupleInserted(pid.getPageNumber(), t);
+                }
                 return;
             }
         }
@@ -321,6 +359,14 @@ public class HeapPage implements Page {
         return count;
     }
 
+    /**
+     * Returns true if t can be inserted into this page, which is the case
+     * as long as it has an empty slot.
+     */
+    public boolean hasRoomFor(Tuple t) {
+        return getNumEmptySlots() > 0;
+    }
+
     /**
      * Returns true if associated slot on this page is filled.
      */
@@ -333,7 +379,7 @@ public class HeapPage implements Page {
     /**
      * Abstraction to fill or clear a slot on this page.
      */
-    private void markSlotUsed(int i, boolean value) {
+    void markSlotUsed(int i, boolean value) {
         // some code goes here
         // not necessary for lab1
         if (value) {
@@ -361,5 +407,62 @@ public class HeapPage implements Page {
         return tupleList.iterator();
     }
 
+    /**
+     * @param fields the fields of the page's tuples to return, in order
+     * @param fieldsTd the TupleDesc of those fields
+     * @return an iterator over the tuples on this page holding only the
+     *         given fields
+     */
+    public Iterator<Tuple> iterator(int[] fields, TupleDesc fieldsTd) {
+        List<Tuple> tupleList = new ArrayList<>();
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i)) {
+                Tuple t = new Tuple(fieldsTd);
+                for (int k = 0; k < fields.length; k++) {
+                    t.setField(k, tuples[i].getField(fields[k]));
+                }
+                t.setRecordId(tuples[i].getRecordId());
+                tupleList.add(t);
+            }
+        }
+        return tupleList.iterator();
+    }
+
+    /**
+     * Copy the given fields of the tuples on this page, from slot from on,
+     * into the column vectors of batch as new rows, until the batch is full.
+     * No tuple is created for the rows.
+     *
+     * @param batch a batch of the fields' types
+     * @param from the slot to start from
+     * @param fields the fields of the page's tuples to copy, in order
+     * @return the slot to continue from once batch has been consumed, or -1
+     *         if every tuple from slot from on has been copied
+     */
+    public int fill(TupleBatch batch, int from, int[] fields) {
+        int[][] ints = new int[fields.length][];
+        for (int k = 0; k < fields.length; k++) {
+            ints[k] = batch.getInts(k);
+        }
+        for (int i = from; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                continue;
+            }
+            if (batch.isFull()) {
+                return i;
+            }
+            int row = batch.addRow();
+            Tuple t = tuples[i];
+            for (int k = 0; k < fields.length; k++) {
+                if (ints[k] != null) {
+                    ints[k][row] = t.getInt(fields[k]);
+                } else {
+                    batch.setField(k, row, t.getField(fields[k]));
+                }
+            }
+        }
+        return -1;
+    }
+
 }
 
@@ -14,6 +14,16 @@ public class IntField implements Field {
 
     private final int value;
 
+    // the fields of small values, which most INT columns are full of
+    private static final int CACHE_LOW = -128;
+    private static final IntField[] CACHE = new IntField[1024 - CACHE_LOW];
+
+    static {
+        for (int i = 0; i < CACHE.length; i++) {
+            CACHE[i] = new IntField(i + CACHE_LOW);
+        }
+    }
+
     public int getValue() {
         return value;
     }
@@ -27,6 +37,20 @@ public class IntField implements Field {
         value = i;
     }
 
+    /**
+     * Returns an IntField of the given value, sharing one object per value
+     * for small values as Integer.valueOf does, so reading them from pages
+     * allocates nothing.
+     *
+     * @param i The value of the field.
+     */
+    public static IntField valueOf(int i) {
+        if (i >= CACHE_LOW && i - CACHE_LOW < CACHE.length) {
+            return CACHE[i - CACHE_LOW];
+        }
+        return new IntField(i);
+    }
+
     public String toString() {
         return Integer.toString(value);
     }
@@ -55,11 +55,16 @@ transaction id.
 <li> Each log record ends with a long integer file offset representing
 the position in the log file where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are seven record types: ABORT, COMMIT, UPDATE, BEGIN,
+CHECKPOINT, SAVEPOINT and SAVEPOINT_ROLLBACK
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
+<li> SAVEPOINT and SAVEPOINT_ROLLBACK records contain the name of the
+savepoint, written with writeUTF.  Partial rollbacks only touch pages in
+the buffer pool, so these records are informational and recovery skips
+them.
+
 <li>UPDATE RECORDS consist of two entries, a before image and an
 after image.  These images are serialized Page objects, and can be
 accessed with the LogFile.readPageData() and LogFile.writePageData()
@@ -84,6 +89,8 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int SAVEPOINT_RECORD = 6;
+    static final int SAVEPOINT_ROLLBACK_RECORD = 7;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
@@ -267,7 +274,7 @@ public class LogFile {
             }
             pid = (PageId)idConsts[0].newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
+            Constructor<?> pageConst = pageClass.getDeclaredConstructor(idClass, byte[].class);
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
@@ -277,10 +284,10 @@ public class LogFile {
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e){
+        } catch (ClassNotFoundException | NoSuchMethodException | InvocationTargetException | IllegalAccessException | InstantiationException e){
             e.printStackTrace();
             throw new IOException();
         }
@@ -288,6 +295,40 @@ public class LogFile {
 
     }
 
+    /** Write a SAVEPOINT record for the specified transaction.
+        @param tid The transaction setting the savepoint
+        @param name The name of the savepoint
+
+        @see BufferPool#setSavepoint
+    */
+    public synchronized void logSavepoint(TransactionId tid, String name)
+        throws IOException {
+        Debug.log("SAVEPOINT " + name);
+        writeSavepointRecord(SAVEPOINT_RECORD, tid, name);
+    }
+
+    /** Write a SAVEPOINT_ROLLBACK record for the specified transaction.
+        @param tid The transaction rolling back
+        @param name The name of the savepoint it rolled back to
+
+        @see BufferPool#rollbackToSavepoint
+    */
+    public synchronized void logSavepointRollback(TransactionId tid, String name)
+        throws IOException {
+        Debug.log("SAVEPOINT ROLLBACK " + name);
+        writeSavepointRecord(SAVEPOINT_ROLLBACK_RECORD, tid, name);
+    }
+
+    private void writeSavepointRecord(int type, TransactionId tid, String name)
+        throws IOException {
+        preAppend();
+        raf.writeInt(type);
+        raf.writeLong(tid.getId());
+        raf.writeUTF(name);
+        raf.writeLong(currentOffset);
+        currentOffset = raf.getFilePointer();
+    }
+
     /** Write a BEGIN record for the specified transaction
         @param tid The transaction that is beginning
 
@@ -422,6 +463,10 @@ public class LogFile {
                 case BEGIN_RECORD:
                     tidToFirstLogRecord.put(record_tid,newStart);
                     break;
+                case SAVEPOINT_RECORD:
+                case SAVEPOINT_ROLLBACK_RECORD:
+                    logNew.writeUTF(raf.readUTF());
+                    break;
                 }
 
                 //all xactions finish with a pointer
@@ -473,6 +518,10 @@ public class LogFile {
                             case ABORT_RECORD:
                             case COMMIT_RECORD:
                                 break;
+                            case SAVEPOINT_RECORD:
+                            case SAVEPOINT_ROLLBACK_RECORD:
+                                raf.readUTF();
+                                break;
                             case CHECKPOINT_RECORD:
                                 int numTransactions = raf.readInt();
                                 // skip all transactionId (long) and firstRecordId (long)
@@ -584,6 +633,10 @@ public class LogFile {
                             loserMap.remove(cpTid);
                         }
                         break;
+                    case SAVEPOINT_RECORD:
+                    case SAVEPOINT_ROLLBACK_RECORD:
+                        raf.readUTF();
+                        break;
                     case UPDATE_RECORD:
                         Page before = readPageData(raf);
                         Page after = readPageData(raf);
@@ -635,6 +688,13 @@ public class LogFile {
                     System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
                     break;
 
+                case SAVEPOINT_RECORD:
+                case SAVEPOINT_ROLLBACK_RECORD:
+                    System.out.println(cpType == SAVEPOINT_RECORD ? " (SAVEPOINT)" : " (SAVEPOINT_ROLLBACK)");
+                    System.out.println(raf.getFilePointer() + ": SAVEPOINT NAME: " + raf.readUTF());
+                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    break;
+
                 case CHECKPOINT_RECORD:
                     System.out.println(" (CHECKPOINT)");
                     int numTransactions = raf.readInt();
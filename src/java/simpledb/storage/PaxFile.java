@@ -0,0 +1,206 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * PaxFile is a DbFile that stores a collection of tuples in no particular
+ * order, like {@link HeapFile}, but on {@link PaxPage}s, which lay tuples out
+ * column by column. Scans that need only some of the fields of a wide table
+ * decode only those columns of each page.
+ *
+ * @see PaxPage
+ */
+public class PaxFile implements DbFile {
+
+    private final File file;
+    private final TupleDesc tupleDesc;
+    private final boolean compressed;
+
+    /**
+     * Constructs a PAX file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this file
+     * @param td the TupleDesc of the tuples in the file
+     */
+    public PaxFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a PAX file backed by the specified file, whose pages are
+     * compressed if compressed is true.
+     *
+     * @see PaxPage
+     */
+    public PaxFile(File f, TupleDesc td, boolean compressed) {
+        this.file = f;
+        this.tupleDesc = td;
+        this.compressed = compressed;
+    }
+
+    /** @return true if the pages of this file are compressed */
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    /** @return the File backing this PaxFile on disk */
+    public File getFile() {
+        return file;
+    }
+
+    /** @return an ID uniquely identifying this PaxFile, from its absolute path */
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return tupleDesc;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        int pageSize = BufferPool.getPageSize();
+        byte[] buf = new byte[pageSize];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek((long) pid.getPageNumber() * pageSize);
+            if (raf.read(buf) == -1) {
+                throw new IllegalArgumentException("PageId: " + pid + " does not exist in the disk.");
+            }
+            return new PaxPage((HeapPageId) pid, buf);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek((long) page.getId().getPageNumber() * pageSize);
+            raf.write(page.getPageData());
+        }
+    }
+
+    /** Returns the number of pages in this PaxFile. */
+    public int numPages() {
+        return (int) (file.length() / BufferPool.getPageSize());
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool bufferPool = Database.getBufferPool();
+        for (int i = 0; i < numPages(); i++) {
+            HeapPageId pageId = new HeapPageId(getId(), i);
+            // as in HeapFile, probe with an update lock and only take the
+            // exclusive lock on the page we change
+            boolean wasLocked = bufferPool.holdsLock(tid, pageId);
+            PaxPage page = (PaxPage) bufferPool.getPage(tid, pageId, Permissions.UPDATE);
+            if (!page.hasRoomFor(t)) {
+                if (!wasLocked) {
+                    bufferPool.unsafeReleasePage(tid, pageId);
+                }
+                continue;
+            }
+            page = (PaxPage) bufferPool.getPage(tid, pageId, Permissions.READ_WRITE);
+            page.insertTuple(t);
+            page.markDirty(true, tid);
+            return Collections.singletonList(page);
+        }
+
+        HeapPageId pageId = new HeapPageId(getId(), numPages());
+        writePage(new PaxPage(pageId, PaxPage.createEmptyPageData()));
+        PaxPage newPage = (PaxPage) bufferPool.getPage(tid, pageId, Permissions.READ_WRITE);
+        newPage.insertTuple(t);
+        newPage.markDirty(true, tid);
+        return Collections.singletonList(newPage);
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        PageId pageId = t.getRecordId().getPageId();
+        PaxPage page = (PaxPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        page.markDirty(true, tid);
+        return Collections.singletonList(page);
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, Permissions.READ_ONLY);
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid, Permissions perm) {
+        return new PaxFileIterator(tid, perm, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file holding only the
+     * given fields, in the given order, so only their columns are decoded.
+     *
+     * @param fields the fields to return, or null for all of them
+     */
+    public DbFileIterator iterator(TransactionId tid, Permissions perm, int[] fields) {
+        return new PaxFileIterator(tid, perm, fields == null ? null : fields.clone());
+    }
+
+    private class PaxFileIterator extends AbstractDbFileIterator {
+        private final TransactionId tid;
+        private final Permissions permissions;
+        private final int[] fields;
+        private final TupleDesc fieldsTd;
+        private int nextPage;
+        private Iterator<Tuple> iterator;
+
+        PaxFileIterator(TransactionId tid, Permissions permissions, int[] fields) {
+            this.tid = tid;
+            this.permissions = permissions;
+            this.fields = fields;
+            this.fieldsTd = fields == null ? null : tupleDesc.project(fields);
+        }
+
+        @Override
+        public void open() throws DbException, TransactionAbortedException {
+            nextPage = 0;
+            iterator = Collections.emptyIterator();
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (iterator == null) {
+                return null;
+            }
+            while (!iterator.hasNext()) {
+                if (nextPage >= numPages()) {
+                    return null;
+                }
+                PaxPage page = (PaxPage) Database.getBufferPool().getPage(
+                        tid, new HeapPageId(getId(), nextPage++), permissions);
+                iterator = fields == null ? page.iterator() : page.iterator(fields, fieldsTd);
+            }
+            return iterator.next();
+        }
+
+        @Override
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            iterator = null;
+        }
+    }
+}
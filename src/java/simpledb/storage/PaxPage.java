@@ -0,0 +1,399 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.transaction.TransactionId;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * PaxPage is a page of a {@link PaxFile}, which holds as many tuples as a
+ * {@link HeapPage} but lays them out column by column: the slot bitmap is
+ * followed by one minipage per field, holding that field of every slot.
+ * <p>
+ * A page is decoded lazily, one column at a time, so a scan that needs few
+ * of a table's fields parses only their minipages. The first change to a
+ * page decodes all of it.
+ * <p>
+ * The pages of a compressed PaxFile store each minipage with a
+ * {@link ColumnCodec} instead, so they hold as many tuples as fit once
+ * encoded, up to half the page size. Such a page starts with the number of
+ * slots it encodes and their bitmap, followed by each column's block with
+ * its length in front.
+ */
+public class PaxPage implements Page {
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    final byte[] header;
+    final int numSlots;
+    final boolean compressed;
+    // the number of slots a compressed page encodes, past which all are empty
+    private int size;
+    // bounds on the encoded size of each column of a compressed page, null
+    // until an insert needs them
+    private ColumnCodec.Stats[] stats;
+    // the page as read, from which columns are decoded
+    private final byte[] data;
+    // the offset of each column's minipage in data
+    private final int[] offsets;
+    // the decoded columns, null until needed
+    private final Field[][] columns;
+
+    private boolean isDirty;
+    private TransactionId tid;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a PaxPage from a set of bytes of data read from disk. The
+     * number of slots of an uncompressed page is the same as a
+     * {@link HeapPage}'s for the table's TupleDesc.
+     *
+     * @see HeapPage#HeapPage
+     */
+    public PaxPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        DbFile file = Database.getCatalog().getDatabaseFile(id.getTableId());
+        this.compressed = file instanceof PaxFile && ((PaxFile) file).isCompressed();
+        this.data = data;
+        this.offsets = new int[td.numFields()];
+        if (compressed) {
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+            this.numSlots = BufferPool.getPageSize() / 2;
+            this.size = dis.readUnsignedShort();
+            this.header = new byte[(numSlots + 7) / 8];
+            dis.readFully(header, 0, (size + 7) / 8);
+            for (int j = 0; j < offsets.length; j++) {
+                int length = dis.readInt();
+                offsets[j] = data.length - dis.available();
+                dis.skipBytes(length);
+            }
+        } else {
+            this.numSlots = SpillFile.tuplesPerPage(td);
+            this.header = Arrays.copyOf(data, (numSlots + 7) / 8);
+            int offset = header.length;
+            for (int j = 0; j < offsets.length; j++) {
+                offsets[j] = offset;
+                offset += numSlots * td.getFieldType(j).getLen();
+            }
+        }
+        this.columns = new Field[td.numFields()][];
+        setBeforeImage();
+    }
+
+    /** @return the PageId associated with this page */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    // the values of field j of every slot, null for empty slots
+    private synchronized Field[] column(int j) {
+        if (columns[j] == null && compressed) {
+            Field[] column = new Field[numSlots];
+            Field[] values = ColumnCodec.decode(td.getFieldType(j), data, offsets[j], size);
+            for (int i = 0; i < size; i++) {
+                if (isSlotUsed(i)) {
+                    column[i] = values[i];
+                }
+            }
+            columns[j] = column;
+        } else if (columns[j] == null) {
+            Field[] column = new Field[numSlots];
+            int size = td.getFieldType(j).getLen();
+            DataInputStream dis = new DataInputStream(
+                    new ByteArrayInputStream(data, offsets[j], numSlots * size));
+            try {
+                for (int i = 0; i < numSlots; i++) {
+                    if (isSlotUsed(i)) {
+                        column[i] = td.getFieldType(j).parse(dis);
+                    } else {
+                        dis.skipBytes(size);
+                    }
+                }
+            } catch (java.text.ParseException | IOException e) {
+                e.printStackTrace();
+                throw new NoSuchElementException("parsing error!");
+            }
+            columns[j] = column;
+        }
+        return columns[j];
+    }
+
+    // the tuple in slot i holding the given fields, of TupleDesc fieldsTd
+    private Tuple tuple(int i, int[] fields, TupleDesc fieldsTd) {
+        Tuple t = new Tuple(fieldsTd);
+        t.setRecordId(new RecordId(pid, i));
+        for (int k = 0; k < fields.length; k++) {
+            t.setField(k, column(fields[k])[i]);
+        }
+        return t;
+    }
+
+    private int[] allFields() {
+        int[] fields = new int[td.numFields()];
+        for (int j = 0; j < fields.length; j++) {
+            fields[j] = j;
+        }
+        return fields;
+    }
+
+    /** Return a view of this page before it was modified -- used by recovery */
+    public PaxPage getBeforeImage() {
+        try {
+            byte[] oldDataRef;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new PaxPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData().clone();
+        }
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, in
+     * the format the constructor reads.
+     */
+    public synchronized byte[] getPageData() {
+        if (compressed) {
+            return getCompressedPageData();
+        }
+        byte[] page = data.clone();
+        System.arraycopy(header, 0, page, 0, header.length);
+        for (int j = 0; j < columns.length; j++) {
+            if (columns[j] == null) {
+                // never decoded, so its minipage is unchanged
+                continue;
+            }
+            int size = td.getFieldType(j).getLen();
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(numSlots * size);
+            DataOutputStream dos = new DataOutputStream(baos);
+            try {
+                for (int i = 0; i < numSlots; i++) {
+                    if (isSlotUsed(i)) {
+                        columns[j][i].serialize(dos);
+                    } else {
+                        dos.write(new byte[size]);
+                    }
+                }
+                dos.flush();
+            } catch (IOException e) {
+                // this really shouldn't happen
+                e.printStackTrace();
+            }
+            System.arraycopy(baos.toByteArray(), 0, page, offsets[j], numSlots * size);
+        }
+        return page;
+    }
+
+    private byte[] getCompressedPageData() {
+        for (Field[] column : columns) {
+            if (column == null) {
+                // every change decodes all columns, so the page is unchanged
+                return data.clone();
+            }
+        }
+        int n = size;
+        while (n > 0 && !isSlotUsed(n - 1)) {
+            n--;
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeShort(n);
+            dos.write(header, 0, (n + 7) / 8);
+            for (int j = 0; j < columns.length; j++) {
+                byte[] block = ColumnCodec.encode(td.getFieldType(j), columns[j], n);
+                dos.writeInt(block.length);
+                dos.write(block);
+            }
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        if (baos.size() > BufferPool.getPageSize()) {
+            throw new IllegalStateException("compressed page " + pid + " overflows");
+        }
+        return Arrays.copyOf(baos.toByteArray(), BufferPool.getPageSize());
+    }
+
+    /**
+     * Generates a byte array corresponding to an empty PaxPage, to add new,
+     * empty pages to the file.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /**
+     * Delete the specified tuple from the page.
+     *
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     */
+    public synchronized void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        int tupleNo = rid == null ? -1 : rid.getTupleNumber();
+        if (rid == null || !pid.equals(rid.getPageId()) || tupleNo < 0 || tupleNo >= numSlots
+                || !isSlotUsed(tupleNo) || !tuple(tupleNo, allFields(), td).equals(t)) {
+            throw new DbException("Tuple does not exist");
+        }
+        for (int j = 0; j < columns.length; j++) {
+            column(j)[tupleNo] = null;
+        }
+        markSlotUsed(tupleNo, false);
+    }
+
+    /**
+     * Adds the specified tuple to the page, and sets its record id.
+     *
+     * @throws DbException if the page is full (no empty slots) or tupledesc
+     *         is mismatch.
+     */
+    public synchronized void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("Tuple Desc is mismatched");
+        }
+        if (!hasRoomFor(t)) {
+            throw new DbException("Page is full");
+        }
+        int i = firstEmptySlot();
+        for (int j = 0; j < columns.length; j++) {
+            if (stats != null) {
+                stats[j].add(i, t.getField(j), used(j, i, -1), used(j, i, 1));
+            }
+            column(j)[i] = t.getField(j);
+        }
+        size = Math.max(size, i + 1);
+        markSlotUsed(i, true);
+        t.setRecordId(new RecordId(pid, i));
+    }
+
+    /**
+     * Returns true if t can be inserted into this page. An uncompressed page
+     * has room as long as it has an empty slot; a compressed one also needs
+     * t to fit once encoded, which is checked against an upper bound of the
+     * encoded size, so it may turn a tuple away a little early.
+     */
+    public synchronized boolean hasRoomFor(Tuple t) {
+        int i = firstEmptySlot();
+        if (i < 0 || !compressed) {
+            return i >= 0;
+        }
+        if (stats == null) {
+            stats = new ColumnCodec.Stats[columns.length];
+            for (int j = 0; j < columns.length; j++) {
+                stats[j] = new ColumnCodec.Stats(td.getFieldType(j), column(j), size);
+            }
+        }
+        int bytes = 2 + (Math.max(size, i + 1) + 7) / 8;
+        for (int j = 0; j < columns.length; j++) {
+            bytes += 4 + stats[j].sizeWith(i, t.getField(j), used(j, i, -1), used(j, i, 1));
+        }
+        return bytes <= BufferPool.getPageSize();
+    }
+
+    // the value of field j in the closest used slot from slot i in the
+    // given direction, or null if there is none
+    private Field used(int j, int i, int step) {
+        Field[] column = column(j);
+        for (int k = i + step; k >= 0 && k < size; k += step) {
+            if (column[k] != null) {
+                return column[k];
+            }
+        }
+        return null;
+    }
+
+    private int firstEmptySlot() {
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.isDirty = dirty;
+        this.tid = tid;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return isDirty ? tid : null;
+    }
+
+    /**
+     * Returns the number of empty slots on this page. A compressed page may
+     * run out of space before it runs out of slots; see
+     * {@link #hasRoomFor(Tuple)}.
+     */
+    public int getNumEmptySlots() {
+        int count = 0;
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /** Returns true if associated slot on this page is filled. */
+    public boolean isSlotUsed(int i) {
+        return ((header[i >> 3] >> (i & 7)) & 1) == 1;
+    }
+
+    private void markSlotUsed(int i, boolean value) {
+        if (value) {
+            header[i >> 3] |= (1 << (i & 7));
+        } else {
+            header[i >> 3] &= ~(1 << (i & 7));
+        }
+    }
+
+    /** @return an iterator over all tuples on this page */
+    public Iterator<Tuple> iterator() {
+        return iterator(allFields(), td);
+    }
+
+    /**
+     * @param fields the fields of the page's tuples to return, in order
+     * @param fieldsTd the TupleDesc of those fields
+     * @return an iterator over the tuples on this page holding only the
+     *         given fields; the minipages of the others are not decoded
+     */
+    public synchronized Iterator<Tuple> iterator(int[] fields, TupleDesc fieldsTd) {
+        List<Tuple> tupleList = new ArrayList<>();
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i)) {
+                tupleList.add(tuple(i, fields, fieldsTd));
+            }
+        }
+        return tupleList.iterator();
+    }
+}
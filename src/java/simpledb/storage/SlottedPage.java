@@ -0,0 +1,178 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+
+import java.io.*;
+import java.util.NoSuchElementException;
+
+/**
+ * SlottedPage is the variable-length variant of {@link HeapPage}, used by
+ * slotted HeapFiles. Instead of fixed-size slots, the page starts with a
+ * slot directory and stores records back to back from its end:
+ * <pre>
+ *   count(2) count * [offset(2) length(2)] ... free space ... records
+ * </pre>
+ * An offset of 0 marks an empty slot. Records are written with
+ * {@link Field#serializeVariable}, so a STRING field takes only as many
+ * bytes as it has characters, and strings longer than
+ * {@link simpledb.common.Type#STRING_LEN} are kept whole.
+ * <p>
+ * A page holds as many tuples as fit, so it may run out of space before it
+ * runs out of slots; see {@link #hasRoomFor(Tuple)}.
+ */
+public class SlottedPage extends HeapPage {
+
+    // the bytes taken by the records of the used slots
+    private int recordBytes;
+
+    /**
+     * Create a SlottedPage from a set of bytes of data read from disk.
+     *
+     * @see HeapPage#HeapPage
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()));
+    }
+
+    SlottedPage(HeapPageId id, byte[] data, TupleDesc td) throws IOException {
+        super(id, td, getMaxSlots(td));
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        int count = dis.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            int offset = dis.readUnsignedShort();
+            int length = dis.readUnsignedShort();
+            if (offset != 0) {
+                tuples[i] = readTuple(new DataInputStream(
+                        new ByteArrayInputStream(data, offset, length)), i);
+                markSlotUsed(i, true);
+                recordBytes += length;
+            }
+        }
+        dis.close();
+
+        setBeforeImage();
+    }
+
+    // the number of slots the page would have if every record were as
+    // short as can be
+    private static int getMaxSlots(TupleDesc td) {
+        int minRecord = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            minRecord += td.getFieldType(j).getMinLen();
+        }
+        return Math.min((BufferPool.getPageSize() - 2) / (4 + minRecord), 0xffff);
+    }
+
+    private Tuple readTuple(DataInputStream dis, int slotId) {
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        try {
+            for (int j = 0; j < td.numFields(); j++) {
+                t.setField(j, td.getFieldType(j).parseVariable(dis));
+            }
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+        return t;
+    }
+
+    // the number of bytes t takes as a record
+    private static int getRecordLen(Tuple t) {
+        int len = 0;
+        for (int j = 0; j < t.getTupleDesc().numFields(); j++) {
+            len += t.getTupleDesc().getFieldType(j).getLen(t.getField(j));
+        }
+        return len;
+    }
+
+    /**
+     * Returns true if t fits into an empty page. A larger record, or one
+     * whose length does not fit the slot directory's two bytes, never fits
+     * into any page.
+     */
+    public static boolean fitsEmptyPage(Tuple t) {
+        int len = getRecordLen(t);
+        return len <= 0xffff && 2 + 4 + len <= BufferPool.getPageSize();
+    }
+
+    // one more than the last used slot
+    private int getSlotCount() {
+        int count = numSlots;
+        while (count > 0 && !isSlotUsed(count - 1)) {
+            count--;
+        }
+        return count;
+    }
+
+    @Override
+    HeapPage newPage(byte[] data) throws IOException {
+        return new SlottedPage(pid, data, td);
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, in
+     * the format the constructor reads. Records are rewritten back to back,
+     * so the space freed by deletes is reclaimed.
+     */
+    @Override
+    public byte[] getPageData() {
+        int count = getSlotCount();
+        ByteArrayOutputStream records = new ByteArrayOutputStream(recordBytes);
+        DataOutputStream rdos = new DataOutputStream(records);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        int start = BufferPool.getPageSize() - recordBytes;
+        try {
+            dos.writeShort(count);
+            for (int i = 0; i < count; i++) {
+                if (!isSlotUsed(i)) {
+                    dos.writeInt(0);
+                    continue;
+                }
+                int offset = records.size();
+                for (int j = 0; j < td.numFields(); j++) {
+                    tuples[i].getField(j).serializeVariable(rdos);
+                }
+                dos.writeShort(start + offset);
+                dos.writeShort(records.size() - offset);
+            }
+            dos.write(new byte[start - baos.size()]);
+            rdos.flush();
+            records.writeTo(dos);
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Returns true if t fits into this page: its record and, if it goes
+     * into a new slot, the slot's directory entry.
+     */
+    @Override
+    public boolean hasRoomFor(Tuple t) {
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                int count = Math.max(getSlotCount(), i + 1);
+                return 2 + 4 * count + recordBytes + getRecordLen(t) <= BufferPool.getPageSize();
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void insertTuple(Tuple t) throws DbException {
+        super.insertTuple(t);
+        recordBytes += getRecordLen(t);
+    }
+
+    @Override
+    public void deleteTuple(Tuple t) throws DbException {
+        super.deleteTuple(t);
+        recordBytes -= getRecordLen(t);
+    }
+}
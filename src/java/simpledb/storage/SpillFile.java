@@ -0,0 +1,157 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+
+import java.io.*;
+import java.util.Iterator;
+
+/**
+ * SpillFile is a temporary, append-only file of tuples for operators that
+ * run out of memory. Tuples are packed into pages in the HeapPage format and
+ * written a page at a time; the file is not in the catalog and its pages
+ * never go through the BufferPool, so spilling takes no locks and writes no
+ * log records.
+ * <p>
+ * A SpillFile is written with {@link #add} and then read back, any number of
+ * times, with {@link #iterator}. Call {@link #delete} once it is no longer
+ * needed: nothing else removes the file, so the operators that spill delete
+ * their files when they are closed.
+ */
+public class SpillFile {
+
+    private final TupleDesc td;
+    private final File file;
+    private final RandomAccessFile raf;
+    private HeapPage current;
+    private int numPages;
+    private long numTuples;
+
+    /**
+     * Create an empty spill file in the default temporary directory.
+     *
+     * @param td the TupleDesc of the tuples that will be spilled
+     */
+    public SpillFile(TupleDesc td) throws IOException {
+        this.td = td;
+        this.file = File.createTempFile("spill", ".dat");
+        try {
+            this.raf = new RandomAccessFile(file, "rw");
+        } catch (IOException e) {
+            file.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the number of tuples of the given TupleDesc that fit on a page,
+     *         which operators use to turn a memory budget in pages into a
+     *         number of tuples
+     */
+    public static int tuplesPerPage(TupleDesc td) {
+        return Math.floorDiv(BufferPool.getPageSize() * 8, td.getSize() * 8 + 1);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of tuples added so far */
+    public long numTuples() {
+        return numTuples;
+    }
+
+    /** Append a tuple, writing out the current page once it is full */
+    public void add(Tuple t) throws IOException, DbException {
+        if (current == null) {
+            current = new HeapPage(new HeapPageId(-1, numPages), HeapPage.createEmptyPageData(), td);
+        }
+        // copy the fields, so the caller's tuple keeps its record id and
+        // tuples from children with differently named fields are accepted
+        Tuple copy = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++) {
+            copy.setField(i, t.getField(i));
+        }
+        current.insertTuple(copy);
+        numTuples++;
+        if (current.getNumEmptySlots() == 0) {
+            writeCurrent();
+        }
+    }
+
+    private void writeCurrent() throws IOException {
+        raf.seek((long) numPages * BufferPool.getPageSize());
+        raf.write(current.getPageData());
+        numPages++;
+        current = null;
+    }
+
+    /**
+     * @return an iterator over the tuples added so far, in the order they
+     *         were added
+     */
+    public DbFileIterator iterator() {
+        return new SpillFileIterator();
+    }
+
+    /** Close and remove the file */
+    public void delete() {
+        try {
+            raf.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        file.delete();
+    }
+
+    private class SpillFileIterator extends AbstractDbFileIterator {
+        private int pageNo;
+        private Iterator<Tuple> it;
+
+        public void open() throws DbException {
+            if (current != null) {
+                try {
+                    writeCurrent();
+                } catch (IOException e) {
+                    throw new DbException("could not write spill file: " + e.getMessage());
+                }
+            }
+            pageNo = 0;
+            it = null;
+        }
+
+        protected Tuple readNext() throws DbException {
+            if (pageNo < 0) {
+                return null;
+            }
+            while (it == null || !it.hasNext()) {
+                if (pageNo >= numPages) {
+                    return null;
+                }
+                it = readPage(pageNo++).iterator();
+            }
+            return it.next();
+        }
+
+        private HeapPage readPage(int pgNo) throws DbException {
+            byte[] data = new byte[BufferPool.getPageSize()];
+            try {
+                raf.seek((long) pgNo * BufferPool.getPageSize());
+                raf.readFully(data);
+                return new HeapPage(new HeapPageId(-1, pgNo), data, td);
+            } catch (IOException e) {
+                throw new DbException("could not read spill file: " + e.getMessage());
+            }
+        }
+
+        public void rewind() throws DbException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            pageNo = -1;
+            it = null;
+        }
+    }
+}
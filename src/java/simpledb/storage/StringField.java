@@ -36,6 +36,18 @@ public class StringField implements Field {
 			value = s;
 	}
 
+	/**
+	 * Constructor for a string of any length, up to what a
+	 * {@link SlottedPage} can hold. Fixed-width pages store only its first
+	 * {@link Type#STRING_LEN} characters.
+	 * 
+	 * @param s
+	 *            The value of this field.
+	 */
+	public StringField(String s) {
+		this(s, Math.max(s.length(), Type.STRING_LEN));
+	}
+
 	public String toString() {
 		return value;
 	}
@@ -51,17 +63,19 @@ public class StringField implements Field {
 
 	/**
 	 * Write this string to dos. Always writes maxSize + 4 bytes to the passed
-	 * in dos. First four bytes are string length, next bytes are string, with
-	 * remainder padded with 0 to maxSize.
+	 * in dos, with maxSize capped at Type.STRING_LEN. First four bytes are
+	 * string length, next bytes are string, with remainder padded with 0 to
+	 * maxSize.
 	 * 
 	 * @param dos
 	 *            Where the string is written
 	 */
 	public void serialize(DataOutputStream dos) throws IOException {
 		String s = value;
-		int overflow = maxSize - s.length();
+		int size = Math.min(maxSize, Type.STRING_LEN);
+		int overflow = size - s.length();
 		if (overflow < 0) {
-            s = s.substring(0, maxSize);
+            s = s.substring(0, size);
 		}
 		dos.writeInt(s.length());
 		dos.writeBytes(s);
@@ -69,6 +83,28 @@ public class StringField implements Field {
 			dos.write((byte) 0);
 	}
 
+	/**
+	 * Write this string to dos in a variable-length record: two bytes of
+	 * string length followed by the string, without padding.
+	 */
+	public void serializeVariable(DataOutputStream dos) throws IOException {
+		if (value.length() > 0xffff) {
+			throw new IOException("string of length " + value.length()
+					+ " is too long for a variable-length record");
+		}
+		dos.writeShort(value.length());
+		dos.writeBytes(value);
+	}
+
+	/**
+	 * Compare this string to val's, as String.compareTo does. With compact
+	 * strings, which SimpleDB's single-byte characters always are, this
+	 * compares the two byte arrays directly.
+	 */
+	public int compareTo(StringField val) {
+		return value.compareTo(val.value);
+	}
+
 	/**
 	 * Compare the specified field to the value of this Field. Return semantics
 	 * are as specified by Field.compare
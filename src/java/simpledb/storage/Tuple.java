@@ -81,6 +81,46 @@ public class Tuple implements Serializable {
         return fields[i];
     }
 
+    /**
+     * @return the value of the ith field, which must be an INT field that
+     *         has been set; unlike getField, this neither checks the index
+     *         nor needs the caller to cast
+     *
+     * @param i
+     *            field index to return. Must be a valid index.
+     */
+    public int getInt(int i) {
+        return ((IntField) fields[i]).getValue();
+    }
+
+    /**
+     * @return the value of the ith field, which must be a STRING field that
+     *         has been set
+     *
+     * @param i
+     *            field index to return. Must be a valid index.
+     */
+    public String getString(int i) {
+        return ((StringField) fields[i]).getValue();
+    }
+
+    /**
+     * Compares the ith field of this tuple to the jth field of other, which
+     * must be set and of the same type, in a single comparison rather than
+     * one {@link Field#compare} per operator tried.
+     *
+     * @return a negative number, zero or a positive number as this tuple's
+     *         field is less than, equal to or greater than other's
+     */
+    public int compareField(int i, Tuple other, int j) {
+        Field a = fields[i];
+        Field b = other.fields[j];
+        if (a instanceof IntField) {
+            return Integer.compare(((IntField) a).getValue(), ((IntField) b).getValue());
+        }
+        return ((StringField) a).compareTo((StringField) b);
+    }
+
     /**
      * Returns the contents of this Tuple as a string. Note that to pass the
      * system tests, the format needs to be as follows:
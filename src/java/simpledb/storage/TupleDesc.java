@@ -190,6 +190,19 @@ public class TupleDesc implements Serializable {
         return new TupleDesc(merged);
     }
 
+    /**
+     * @param fields
+     *            indexes of fields of this TupleDesc
+     * @return the TupleDesc of the given fields, in the given order
+     */
+    public TupleDesc project(int[] fields) {
+        List<TDItem> items = new ArrayList<>(fields.length);
+        for (int i : fields) {
+            items.add(tdItems.get(i));
+        }
+        return new TupleDesc(items);
+    }
+
     /**
      * Compares the specified object with this TupleDesc for equality. Two
      * TupleDescs are considered equal if they have the same number of items
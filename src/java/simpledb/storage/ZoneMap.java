@@ -0,0 +1,437 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+import simpledb.execution.CompositePredicate;
+import simpledb.execution.Predicate;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * ZoneMap records, for each page of a {@link HeapFile}, the minimum and
+ * maximum value of each INT field of the tuples on the page, so that scans
+ * can skip pages on which no tuple can satisfy a predicate.
+ * <p>
+ * The ranges only ever widen: inserting a tuple widens its page's ranges,
+ * while deleting one leaves them as they are. A range may therefore be
+ * wider than the tuples on the page, which costs a page read, but never
+ * narrower, which would lose tuples. Aborts only remove tuples, so they
+ * keep this.
+ * <p>
+ * The ranges of a page are kept with a checksum of the page's bytes on disk,
+ * and are trusted only while the page still has that checksum. Before the
+ * zone map is first used, and again whenever another HeapFile of the same
+ * file is opened, the heap file is read once, sequentially, and every page
+ * whose bytes changed behind the zone map's back is forgotten. This covers
+ * a heap file replaced underneath its side file, whatever its modification
+ * time, and a crash between writing a page and writing its ranges, since
+ * the ranges are written to the side file after the page itself.
+ * <p>
+ * The side file, named after the heap file with a ".zmap" suffix, starts
+ * with a format number and the number and indexes of the INT fields,
+ * followed by a fixed-size record per page: a byte that is 1 once the
+ * page's ranges are known, the checksum of the page they were taken from,
+ * then the minimum and maximum of each INT field. Pages whose ranges are
+ * not known, such as those of files written before the side file existed,
+ * are always read, and their ranges are recorded when they are.
+ */
+public class ZoneMap {
+
+    // the zone maps of the heap files opened so far, by path, shared by
+    // every HeapFile of the same file so that none misses another's inserts
+    private static final Map<String, ZoneMap> zoneMaps = new HashMap<>();
+    // the first int of a side file in this format
+    private static final int FORMAT = 0x5a4d0002;
+
+    private final File heapFile;
+    private final File file;
+    // the INT fields of the table
+    private final int[] fields;
+    private final int recordSize;
+    // per page, whether the ranges are known, and the ranges of each field
+    private boolean[] known = new boolean[0];
+    private int[][] min = new int[0][];
+    private int[][] max = new int[0][];
+    // per page, the checksum of the page the ranges describe
+    private int[] checksums = new int[0];
+    private boolean loaded;
+    // whether the known pages were checked against the heap file since it
+    // was last opened
+    private boolean verified;
+
+    /**
+     * @return the zone map of the heap file stored in heapFile, holding
+     *         tuples of td
+     */
+    public static synchronized ZoneMap of(File heapFile, TupleDesc td) {
+        String path = heapFile.getAbsolutePath();
+        ZoneMap zoneMap = zoneMaps.get(path);
+        ZoneMap created = new ZoneMap(heapFile, td);
+        if (zoneMap == null || !Arrays.equals(zoneMap.fields, created.fields)) {
+            // a new file, or one now read with a different layout
+            zoneMap = created;
+            zoneMaps.put(path, zoneMap);
+        } else {
+            // the file may have been written since by something other than
+            // its HeapFiles
+            zoneMap.unverify();
+        }
+        return zoneMap;
+    }
+
+    private ZoneMap(File heapFile, TupleDesc td) {
+        this.heapFile = heapFile;
+        this.file = sideFile(heapFile);
+        int n = 0;
+        int[] ints = new int[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                ints[n++] = i;
+            }
+        }
+        this.fields = Arrays.copyOf(ints, n);
+        this.recordSize = 1 + 4 + 8 * n;
+    }
+
+    /** @return the side file of the zone map of the heap file in heapFile */
+    public static File sideFile(File heapFile) {
+        return new File(heapFile.getPath() + ".zmap");
+    }
+
+    /** @return true if the table has no INT fields to keep ranges of */
+    public boolean isEmpty() {
+        return fields.length == 0;
+    }
+
+    /** Forget whether the known pages match the heap file on disk */
+    private synchronized void unverify() {
+        verified = false;
+    }
+
+    /**
+     * Record the tuples of a page read from disk, whose bytes on disk are
+     * data. The page's ranges are set from them if they were not known, and
+     * widened to include them if they were.
+     */
+    public synchronized void pageRead(HeapPage page, byte[] data) {
+        if (isEmpty()) {
+            return;
+        }
+        int pgNo = page.getId().getPageNumber();
+        int checksum = checksum(data);
+        if (covers(pgNo, page) && checksums[pgNo] == checksum) {
+            return;
+        }
+        widen(pgNo, page);
+        checksums[pgNo] = checksum;
+        write(pgNo);
+    }
+
+    /**
+     * Record the tuples of a page that was just written to disk as data,
+     * writing its widened ranges and the checksum of data to the side file.
+     */
+    public synchronized void pageWritten(HeapPage page, byte[] data) throws IOException {
+        if (isEmpty()) {
+            return;
+        }
+        int pgNo = page.getId().getPageNumber();
+        if (!covers(pgNo, page)) {
+            widen(pgNo, page);
+        }
+        checksums[pgNo] = checksum(data);
+        writeOrThrow(pgNo);
+    }
+
+    /**
+     * Widen the ranges of page pgNo to include t, which is being inserted
+     * into it. Nothing is recorded for a page whose ranges are not known,
+     * since its other tuples are not either; they are all recorded when the
+     * page is written.
+     */
+    public synchronized void tupleInserted(int pgNo, Tuple t) {
+        if (isEmpty()) {
+            return;
+        }
+        load();
+        if (pgNo < known.length && known[pgNo]) {
+            include(pgNo, t);
+        }
+    }
+
+    /**
+     * @return false if no tuple on page pgNo can satisfy condition, whose
+     *         fields are those of the table
+     */
+    public synchronized boolean mayMatch(int pgNo, CompositePredicate condition) {
+        if (isEmpty()) {
+            return true;
+        }
+        load();
+        if (pgNo >= known.length || !known[pgNo]) {
+            return true;
+        }
+        return mayMatch(pgNo, condition, true);
+    }
+
+    // whether condition, or its negation if !positive, may hold on a tuple of pgNo
+    private boolean mayMatch(int pgNo, CompositePredicate condition, boolean positive) {
+        switch (condition.getKind()) {
+            case COMPARISON:
+                Predicate p = condition.getPredicate();
+                Predicate.Op op = positive ? p.getOp() : negate(p.getOp());
+                return op == null || mayMatch(pgNo, p.getField(), op, p.getOperand());
+            case NOT:
+                return mayMatch(pgNo, condition.getChildren().get(0), !positive);
+            default:
+                // an AND, or by De Morgan the negation of an OR, fails if any
+                // operand does; an OR, or the negation of an AND, if all do
+                boolean all = (condition.getKind() == CompositePredicate.Kind.AND) == positive;
+                for (CompositePredicate c : condition.getChildren()) {
+                    if (mayMatch(pgNo, c, positive) != all) {
+                        return !all;
+                    }
+                }
+                return all;
+        }
+    }
+
+    // the operator that holds exactly when op does not, or null if none does
+    private static Predicate.Op negate(Predicate.Op op) {
+        switch (op) {
+            case EQUALS:
+                return Predicate.Op.NOT_EQUALS;
+            case NOT_EQUALS:
+                return Predicate.Op.EQUALS;
+            case GREATER_THAN:
+                return Predicate.Op.LESS_THAN_OR_EQ;
+            case GREATER_THAN_OR_EQ:
+                return Predicate.Op.LESS_THAN;
+            case LESS_THAN:
+                return Predicate.Op.GREATER_THAN_OR_EQ;
+            case LESS_THAN_OR_EQ:
+                return Predicate.Op.GREATER_THAN;
+            default:
+                return null;
+        }
+    }
+
+    private boolean mayMatch(int pgNo, int field, Predicate.Op op, Field operand) {
+        int f = Arrays.binarySearch(fields, field);
+        if (f < 0 || !(operand instanceof IntField)) {
+            return true;
+        }
+        int lo = min[pgNo][f];
+        int hi = max[pgNo][f];
+        if (lo > hi) {
+            // no tuple has ever been on the page
+            return false;
+        }
+        int v = ((IntField) operand).getValue();
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return lo <= v && v <= hi;
+            case NOT_EQUALS:
+                return lo != v || hi != v;
+            case GREATER_THAN:
+                return hi > v;
+            case GREATER_THAN_OR_EQ:
+                return hi >= v;
+            case LESS_THAN:
+                return lo < v;
+            case LESS_THAN_OR_EQ:
+                return lo <= v;
+            default:
+                return true;
+        }
+    }
+
+    // whether the known ranges of pgNo already include all tuples of page
+    private boolean covers(int pgNo, HeapPage page) {
+        load();
+        if (pgNo >= known.length || !known[pgNo]) {
+            return false;
+        }
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            for (int f = 0; f < fields.length; f++) {
+                int v = ((IntField) t.getField(fields[f])).getValue();
+                if (v < min[pgNo][f] || v > max[pgNo][f]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void widen(int pgNo, HeapPage page) {
+        ensure(pgNo);
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            include(pgNo, it.next());
+        }
+    }
+
+    private void include(int pgNo, Tuple t) {
+        for (int f = 0; f < fields.length; f++) {
+            int v = ((IntField) t.getField(fields[f])).getValue();
+            if (v < min[pgNo][f]) {
+                min[pgNo][f] = v;
+            }
+            if (v > max[pgNo][f]) {
+                max[pgNo][f] = v;
+            }
+        }
+    }
+
+    // make the ranges of pgNo known, as empty if they were not
+    private void ensure(int pgNo) {
+        if (pgNo >= known.length) {
+            int n = Math.max(pgNo + 1, known.length * 2);
+            known = Arrays.copyOf(known, n);
+            min = Arrays.copyOf(min, n);
+            max = Arrays.copyOf(max, n);
+            checksums = Arrays.copyOf(checksums, n);
+        }
+        if (!known[pgNo]) {
+            known[pgNo] = true;
+            min[pgNo] = new int[fields.length];
+            max[pgNo] = new int[fields.length];
+            Arrays.fill(min[pgNo], Integer.MAX_VALUE);
+            Arrays.fill(max[pgNo], Integer.MIN_VALUE);
+        }
+    }
+
+    private static int checksum(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+
+    private void load() {
+        if (!loaded) {
+            loaded = true;
+            read();
+        }
+        if (!verified) {
+            verified = true;
+            verify();
+        }
+    }
+
+    // forget the ranges of every page whose bytes on disk are not those
+    // they were taken from
+    private void verify() {
+        if (known.length == 0) {
+            return;
+        }
+        int pageSize = BufferPool.getPageSize();
+        byte[] data = new byte[pageSize];
+        int pages = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(heapFile)))) {
+            for (long left = heapFile.length(); left >= pageSize && pages < known.length; left -= pageSize) {
+                in.readFully(data);
+                if (known[pages] && checksums[pages] != checksum(data)) {
+                    forget(pages);
+                }
+                pages++;
+            }
+        } catch (IOException e) {
+            // the pages not checked are forgotten below
+            e.printStackTrace();
+        }
+        for (int pgNo = pages; pgNo < known.length; pgNo++) {
+            forget(pgNo);
+        }
+    }
+
+    private void forget(int pgNo) {
+        known[pgNo] = false;
+        min[pgNo] = null;
+        max[pgNo] = null;
+    }
+
+    private void read() {
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            boolean sameLayout = in.readInt() == FORMAT && in.readInt() == fields.length;
+            for (int f = 0; sameLayout && f < fields.length; f++) {
+                sameLayout = in.readInt() == fields[f];
+            }
+            if (!sameLayout) {
+                // written for a different layout of the heap file
+                in.close();
+                file.delete();
+                return;
+            }
+            int pages = (int) ((file.length() - headerSize()) / recordSize);
+            for (int pgNo = 0; pgNo < pages; pgNo++) {
+                boolean isKnown = in.readBoolean();
+                int checksum = in.readInt();
+                int[] lo = new int[fields.length];
+                int[] hi = new int[fields.length];
+                for (int f = 0; f < fields.length; f++) {
+                    lo[f] = in.readInt();
+                    hi[f] = in.readInt();
+                }
+                if (isKnown) {
+                    ensure(pgNo);
+                    min[pgNo] = lo;
+                    max[pgNo] = hi;
+                    checksums[pgNo] = checksum;
+                }
+            }
+        } catch (IOException e) {
+            // without the side file every page is read, which is correct
+            e.printStackTrace();
+            known = new boolean[0];
+            min = new int[0][];
+            max = new int[0][];
+            checksums = new int[0];
+        }
+    }
+
+    // write the ranges of pgNo to the side file; a failure only means the
+    // page is read next time, when its ranges are recorded again
+    private void write(int pgNo) {
+        try {
+            writeOrThrow(pgNo);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private int headerSize() {
+        return 8 + 4 * fields.length;
+    }
+
+    private void writeOrThrow(int pgNo) throws IOException {
+        ByteArrayOutputStream record = new ByteArrayOutputStream(recordSize);
+        DataOutputStream out = new DataOutputStream(record);
+        out.writeBoolean(true);
+        out.writeInt(checksums[pgNo]);
+        for (int f = 0; f < fields.length; f++) {
+            out.writeInt(min[pgNo][f]);
+            out.writeInt(max[pgNo][f]);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (raf.length() == 0) {
+                raf.writeInt(FORMAT);
+                raf.writeInt(fields.length);
+                for (int field : fields) {
+                    raf.writeInt(field);
+                }
+            }
+            raf.seek(headerSize() + (long) pgNo * recordSize);
+            raf.write(record.toByteArray());
+        }
+    }
+}
@@ -5,10 +5,17 @@ import simpledb.common.Permissions;
 public class Lock {
     private TransactionId transactionId;
     private Permissions permissions;
+    private final long acquiredAt;
 
     public Lock(TransactionId transactionId, Permissions permissions) {
         this.transactionId = transactionId;
         this.permissions = permissions;
+        this.acquiredAt = System.nanoTime();
+    }
+
+    /** @return the System.nanoTime() at which this lock was created */
+    public long getAcquiredAt() {
+        return acquiredAt;
     }
 
     public TransactionId getTransactionId() {
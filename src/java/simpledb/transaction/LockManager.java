@@ -1,5 +1,6 @@
 package simpledb.transaction;
 
+import simpledb.common.DeadlockException;
 import simpledb.common.Permissions;
 import simpledb.storage.PageId;
 
@@ -8,61 +9,142 @@ import java.util.concurrent.ConcurrentHashMap;
 
 import static simpledb.common.Permissions.READ_ONLY;
 import static simpledb.common.Permissions.READ_WRITE;
+import static simpledb.common.Permissions.UPDATE;
 
+/**
+ * LockManager keeps the page-level shared (READ_ONLY), update (UPDATE) and
+ * exclusive (READ_WRITE) locks of all transactions.
+ * <p>
+ * UPDATE locks are compatible with READ_ONLY locks but not with each other,
+ * so a transaction that reads a page intending to write it can announce that
+ * up front; two such transactions then queue up instead of deadlocking on
+ * their upgrades.
+ * <p>
+ * A holder that asks to upgrade to READ_WRITE while others still hold the
+ * page takes the page's pending-upgrade slot. While the slot is taken, new
+ * lock requests from other transactions are refused, so the upgrader only
+ * waits for the current holders to drain. A second holder asking for
+ * READ_WRITE while the slot is taken could never be granted, and gets a
+ * DeadlockException immediately.
+ */
 public class LockManager {
     Map<PageId, List<Lock>> lockTable;
+    /** The holder of each page that is waiting to upgrade to READ_WRITE */
+    private final Map<PageId, TransactionId> pendingUpgrades;
+    private final LockMetrics metrics = new LockMetrics();
 
     public LockManager() {
         lockTable = new ConcurrentHashMap<>();
+        pendingUpgrades = new HashMap<>();
     }
 
-    public synchronized boolean lock(TransactionId transactionId, PageId pageId, Permissions permissions) {
-        Lock lock = new Lock(transactionId, permissions);
-        List<Lock> lockList = lockTable.get(pageId);
-        if (lockList == null || lockList.isEmpty()) {
-            lockList = new ArrayList<>();
-            lockList.add(lock);
-            lockTable.put(pageId, lockList);
-            return true;
+    public LockMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Try to grant a lock without blocking.
+     *
+     * @return true if the lock is held on return, false if the caller has to retry
+     * @throws DeadlockException if the request conflicts with another pending upgrade
+     */
+    public synchronized boolean lock(TransactionId transactionId, PageId pageId, Permissions permissions)
+            throws DeadlockException {
+        boolean granted = grant(transactionId, pageId, permissions);
+        if (granted) {
+            metrics.recordAcquire();
         }
+        return granted;
+    }
 
-        if (lockList.size() == 1) {
-            Lock currLock = lockList.get(0);
-            if (currLock.getTransactionId().equals(lock.getTransactionId())) {
-                // upgrade lock
-                if (currLock.getPermissions().equals(READ_ONLY) && lock.getPermissions().equals(READ_WRITE)) {
-                    currLock.setPermissions(READ_WRITE);
-                }
-                return true;
-            } else {
-                if (currLock.getPermissions().equals(READ_ONLY) && lock.getPermissions().equals(READ_ONLY)) {
-                    lockList.add(lock);
-                    return true;
-                } else {
-                    return false;
-                }
+    private boolean grant(TransactionId transactionId, PageId pageId, Permissions permissions)
+            throws DeadlockException {
+        List<Lock> lockList = lockTable.computeIfAbsent(pageId, k -> new ArrayList<>());
+        Lock mine = null;
+        for (Lock l : lockList) {
+            if (l.getTransactionId().equals(transactionId)) {
+                mine = l;
+                break;
             }
-        } else {
-            // reject exclusive lock
-            if (lock.getPermissions().equals(READ_WRITE)) {
+        }
+        if (mine != null && covers(mine.getPermissions(), permissions)) {
+            return true;
+        }
+
+        TransactionId upgrader = pendingUpgrades.get(pageId);
+        boolean compatible = compatibleWithOthers(lockList, transactionId, permissions);
+        if (mine == null) {
+            // a pending upgrade has priority over new requests
+            if (upgrader != null || !compatible) {
                 return false;
             }
-            // add lock if not exist
-            for (Lock l : lockList) {
-                if (l.getTransactionId().equals(lock.getTransactionId())) {
-                    return true;
-                }
+            lockList.add(new Lock(transactionId, permissions));
+            return true;
+        }
+
+        // upgrade an existing lock
+        if (compatible) {
+            mine.setPermissions(permissions);
+            if (transactionId.equals(upgrader)) {
+                pendingUpgrades.remove(pageId);
             }
-            lockList.add(lock);
+            metrics.recordUpgrade(pageId);
             return true;
         }
+        if (permissions == READ_WRITE) {
+            if (upgrader == null) {
+                pendingUpgrades.put(pageId, transactionId);
+            } else if (!upgrader.equals(transactionId)) {
+                // the pending upgrader waits for us and we would wait for it
+                throw new DeadlockException();
+            }
+        }
+        return false;
+    }
+
+    /** @return true if a lock held with permission held also grants permission requested */
+    private static boolean covers(Permissions held, Permissions requested) {
+        return held == requested || held == READ_WRITE || (held == UPDATE && requested == READ_ONLY);
+    }
+
+    /** @return true if two different transactions may hold these permissions at the same time */
+    private static boolean compatible(Permissions held, Permissions requested) {
+        if (held == READ_WRITE || requested == READ_WRITE) {
+            return false;
+        }
+        return held == READ_ONLY || requested == READ_ONLY;
+    }
+
+    private static boolean compatibleWithOthers(List<Lock> lockList, TransactionId transactionId,
+                                                Permissions permissions) {
+        for (Lock l : lockList) {
+            if (!l.getTransactionId().equals(transactionId) && !compatible(l.getPermissions(), permissions)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Give up the pending-upgrade slot of a page if transactionId holds it,
+     * e.g. because it stopped waiting for the upgrade.
+     */
+    public synchronized void cancelUpgrade(TransactionId transactionId, PageId pageId) {
+        if (transactionId.equals(pendingUpgrades.get(pageId))) {
+            pendingUpgrades.remove(pageId);
+        }
     }
 
     public synchronized boolean unlock(TransactionId transactionId, PageId pageId) {
+        cancelUpgrade(transactionId, pageId);
         List<Lock> lockList = lockTable.get(pageId);
+        if (lockList == null) {
+            return false;
+        }
         for (Lock l : lockList) {
             if (l.getTransactionId().equals(transactionId)) {
                 lockList.remove(l);
+                metrics.recordHold(System.nanoTime() - l.getAcquiredAt());
                 if (lockList.isEmpty()) {
                     lockTable.remove(pageId);
                 }
@@ -73,6 +155,7 @@ public class LockManager {
     }
 
     public synchronized void releaseAllLocks(TransactionId transactionId) {
+        pendingUpgrades.values().removeIf(transactionId::equals);
         for (PageId pageId : lockTable.keySet()) {
             List<Lock> lockList = lockTable.get(pageId);
             Lock toRemove = null;
@@ -83,15 +166,48 @@ public class LockManager {
             }
             if (toRemove != null) {
                 lockList.remove(toRemove);
-                if (lockList.isEmpty()) {
-                    lockTable.remove(pageId);
-                }
+                metrics.recordHold(System.nanoTime() - toRemove.getAcquiredAt());
+            }
+            if (lockList.isEmpty()) {
+                lockTable.remove(pageId);
             }
         }
     }
 
+    /** @return true if transactionId holds a READ_WRITE lock on pageId */
+    public synchronized boolean holdsExclusiveLock(TransactionId transactionId, PageId pageId) {
+        List<Lock> lockList = lockTable.get(pageId);
+        if (lockList == null) {
+            return false;
+        }
+        for (Lock l : lockList) {
+            if (l.getTransactionId().equals(transactionId)) {
+                return l.getPermissions() == READ_WRITE;
+            }
+        }
+        return false;
+    }
+
+    /** @return true if a transaction other than transactionId holds a READ_WRITE lock on pageId */
+    public synchronized boolean isWriteLockedByOther(TransactionId transactionId, PageId pageId) {
+        List<Lock> lockList = lockTable.get(pageId);
+        if (lockList == null) {
+            return false;
+        }
+        for (Lock l : lockList) {
+            if (!l.getTransactionId().equals(transactionId) && l.getPermissions() == READ_WRITE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public synchronized boolean holdsLock(TransactionId transactionId, PageId pageId) {
-        for (Lock l : lockTable.get(pageId)) {
+        List<Lock> lockList = lockTable.get(pageId);
+        if (lockList == null) {
+            return false;
+        }
+        for (Lock l : lockList) {
             if (l.getTransactionId().equals(transactionId)) {
                 return true;
             }
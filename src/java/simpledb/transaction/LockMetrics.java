@@ -0,0 +1,324 @@
+package simpledb.transaction;
+
+import simpledb.storage.PageId;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LockMetrics collects contention statistics for a LockManager: how often and
+ * how long transactions wait for each page, how long locks are held, how many
+ * lock upgrades (e.g. READ_ONLY to READ_WRITE) happen and how many waits end
+ * in an abort.
+ * <p>
+ * Uncontended acquisitions only bump a striped counter, and per-page state is
+ * created the first time a page is waited on, so the metrics can stay enabled.
+ * Per-page state is kept for a bounded number of pages: once twice that many
+ * have been seen, all but the most contended are forgotten, so a page's
+ * statistics may restart from zero if it was among the least contended.
+ *
+ * @Threadsafe
+ */
+public class LockMetrics {
+
+    /**
+     * A histogram of durations with power-of-two microsecond buckets: bucket 0
+     * holds durations below 1us, bucket i holds [2^(i-1), 2^i) us.
+     */
+    public static class Histogram {
+        static final int BUCKETS = 32;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+
+        void record(long nanos) {
+            buckets.incrementAndGet(bucket(nanos));
+            count.increment();
+            totalNanos.add(nanos);
+        }
+
+        static int bucket(long nanos) {
+            long micros = nanos / 1000;
+            if (micros <= 0) {
+                return 0;
+            }
+            return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        }
+
+        /** @return the number of recorded durations */
+        public long getCount() {
+            return count.sum();
+        }
+
+        /** @return the sum of all recorded durations, in nanoseconds */
+        public long getTotalNanos() {
+            return totalNanos.sum();
+        }
+
+        /** @return the number of durations in each bucket */
+        public long[] getBuckets() {
+            long[] res = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                res[i] = buckets.get(i);
+            }
+            return res;
+        }
+
+        /**
+         * @param p a fraction between 0 and 1
+         * @return an upper bound, in microseconds, on the p-th percentile duration
+         */
+        public long percentileMicros(double p) {
+            long[] b = getBuckets();
+            long total = 0;
+            for (long c : b) {
+                total += c;
+            }
+            long rank = (long) Math.ceil(p * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += b[i];
+                if (seen >= rank && seen > 0) {
+                    return 1L << i;
+                }
+            }
+            return 0;
+        }
+    }
+
+    /** Contention statistics for a single page */
+    public static class PageStats {
+        private final PageId pid;
+        private final Histogram waits = new Histogram();
+        private final LongAdder timeouts = new LongAdder();
+        private final LongAdder upgrades = new LongAdder();
+
+        PageStats(PageId pid) {
+            this.pid = pid;
+        }
+
+        public PageId getPageId() {
+            return pid;
+        }
+
+        /** @return the durations of waits for a lock on this page, including those that timed out */
+        public Histogram getWaits() {
+            return waits;
+        }
+
+        public long getTimeouts() {
+            return timeouts.sum();
+        }
+
+        public long getUpgrades() {
+            return upgrades.sum();
+        }
+    }
+
+    /** The default number of pages whose statistics are kept */
+    public static final int DEFAULT_MAX_PAGES = 1024;
+
+    private final int maxPages;
+    private final Map<PageId, PageStats> pages = new ConcurrentHashMap<>();
+    private final Histogram holds = new Histogram();
+    private final LongAdder acquisitions = new LongAdder();
+    private final LongAdder upgrades = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    public LockMetrics() {
+        this(DEFAULT_MAX_PAGES);
+    }
+
+    /**
+     * @param maxPages the number of most contended pages whose statistics
+     *                 are kept; up to twice as many are kept between trims
+     */
+    public LockMetrics(int maxPages) {
+        if (maxPages < 1) {
+            throw new IllegalArgumentException("maxPages must be positive");
+        }
+        this.maxPages = maxPages;
+    }
+
+    private PageStats statsFor(PageId pid) {
+        PageStats stats = pages.get(pid);
+        if (stats == null) {
+            stats = pages.computeIfAbsent(pid, PageStats::new);
+            if (pages.size() > 2 * maxPages) {
+                trim(pid);
+            }
+        }
+        return stats;
+    }
+
+    // forget all but the maxPages most contended pages, always keeping the page
+    // about to be recorded
+    private synchronized void trim(PageId keep) {
+        if (pages.size() <= 2 * maxPages) {
+            return;
+        }
+        List<PageStats> byContention = mostContendedFirst();
+        for (PageStats s : byContention.subList(maxPages, byContention.size())) {
+            if (!s.pid.equals(keep)) {
+                pages.remove(s.pid, s);
+            }
+        }
+    }
+
+    /**
+     * The totals a page is ranked by, read once: the live counters may grow
+     * while a sort compares them, which breaks the sort's contract.
+     */
+    private static final class Contention {
+        final PageStats stats;
+        final long waitNanos;
+        final long waits;
+        final long upgrades;
+
+        Contention(PageStats stats) {
+            this.stats = stats;
+            this.waitNanos = stats.waits.getTotalNanos();
+            this.waits = stats.waits.getCount();
+            this.upgrades = stats.getUpgrades();
+        }
+    }
+
+    private List<PageStats> mostContendedFirst() {
+        List<Contention> ranked = new ArrayList<>();
+        for (PageStats s : pages.values()) {
+            ranked.add(new Contention(s));
+        }
+        ranked.sort(Comparator.comparingLong((Contention c) -> c.waitNanos)
+                .thenComparingLong(c -> c.waits)
+                .thenComparingLong(c -> c.upgrades)
+                .reversed());
+        List<PageStats> res = new ArrayList<>(ranked.size());
+        for (Contention c : ranked) {
+            res.add(c.stats);
+        }
+        return res;
+    }
+
+    void recordAcquire() {
+        acquisitions.increment();
+    }
+
+    void recordUpgrade(PageId pid) {
+        upgrades.increment();
+        statsFor(pid).upgrades.increment();
+    }
+
+    void recordHold(long nanos) {
+        holds.record(nanos);
+    }
+
+    /**
+     * Record that a transaction waited for a lock on a page and eventually got it.
+     *
+     * @param pid the contended page
+     * @param nanos how long the transaction waited
+     */
+    public void recordWait(PageId pid, long nanos) {
+        statsFor(pid).waits.record(nanos);
+    }
+
+    /**
+     * Record that a transaction gave up waiting for a lock on a page and aborted.
+     *
+     * @param pid the contended page
+     * @param nanos how long the transaction waited
+     */
+    public void recordTimeout(PageId pid, long nanos) {
+        timeouts.increment();
+        PageStats stats = statsFor(pid);
+        stats.waits.record(nanos);
+        stats.timeouts.increment();
+    }
+
+    /** @return the number of locks granted, including re-grants to a holder */
+    public long getAcquisitions() {
+        return acquisitions.sum();
+    }
+
+    /** @return the number of lock upgrades, e.g. READ_ONLY to READ_WRITE */
+    public long getUpgrades() {
+        return upgrades.sum();
+    }
+
+    /** @return the number of lock waits that ended in an abort */
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    /** @return how long locks were held, from grant to release */
+    public Histogram getHoldTimes() {
+        return holds;
+    }
+
+    /**
+     * @return the statistics of a page, or null if nobody has waited for or
+     *         upgraded it, or it has been forgotten as one of the least
+     *         contended
+     */
+    public PageStats getPageStats(PageId pid) {
+        return pages.get(pid);
+    }
+
+    /**
+     * @param n the maximum number of pages to return
+     * @return the pages with the most total wait time, most contended first
+     */
+    public List<PageStats> topContended(int n) {
+        List<PageStats> res = mostContendedFirst();
+        return res.size() > n ? new ArrayList<>(res.subList(0, n)) : res;
+    }
+
+    /** Forget everything recorded so far */
+    public void reset() {
+        pages.clear();
+        acquisitions.reset();
+        upgrades.reset();
+        timeouts.reset();
+        for (int i = 0; i < Histogram.BUCKETS; i++) {
+            holds.buckets.set(i, 0);
+        }
+        holds.count.reset();
+        holds.totalNanos.reset();
+    }
+
+    /**
+     * @param n the number of contended pages to list
+     * @return a human readable summary of lock activity
+     */
+    public String report(int n) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("locks granted: %d, upgrades: %d, timeouts: %d%n",
+                getAcquisitions(), getUpgrades(), getTimeouts()));
+        sb.append(String.format("hold time: %d released, mean %.1f us, p50 <= %d us, p99 <= %d us%n",
+                holds.getCount(), meanMicros(holds), holds.percentileMicros(0.5), holds.percentileMicros(0.99)));
+        List<PageStats> top = topContended(n);
+        if (top.isEmpty()) {
+            sb.append("no contended pages\n");
+            return sb.toString();
+        }
+        sb.append(String.format("%-40s %8s %12s %10s %9s %9s%n",
+                "page", "waits", "wait ms", "p99 us", "timeouts", "upgrades"));
+        for (PageStats s : top) {
+            sb.append(String.format("%-40s %8d %12.2f %10d %9d %9d%n",
+                    s.pid, s.waits.getCount(), s.waits.getTotalNanos() / 1e6,
+                    s.waits.percentileMicros(0.99), s.getTimeouts(), s.getUpgrades()));
+        }
+        return sb.toString();
+    }
+
+    private static double meanMicros(Histogram h) {
+        long c = h.getCount();
+        return c == 0 ? 0 : h.getTotalNanos() / 1000.0 / c;
+    }
+}
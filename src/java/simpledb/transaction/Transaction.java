@@ -1,6 +1,7 @@
 package simpledb.transaction;
 
 import simpledb.common.Database;
+import simpledb.common.DbException;
 
 import java.io.*;
 
@@ -14,12 +15,24 @@ public class Transaction {
     volatile boolean started = false;
 
     public Transaction() {
-        tid = new TransactionId();
+        this(false);
+    }
+
+    /**
+     * Create a transaction that is optionally declared read-only. A read-only
+     * transaction takes no locks, writes no log records and has nothing to
+     * flush or roll back when it completes.
+     */
+    public Transaction(boolean readOnly) {
+        tid = new TransactionId(readOnly);
     }
 
     /** Start the transaction running */
     public void start() {
         started = true;
+        if (tid.isReadOnly()) {
+            return;
+        }
         try {
             Database.getLogFile().logXactionBegin(tid);
         } catch (IOException e) {
@@ -31,6 +44,30 @@ public class Transaction {
         return tid;
     }
 
+    /**
+     * Set a savepoint that rollbackToSavepoint can later return to.
+     *
+     * @see simpledb.storage.BufferPool#setSavepoint
+     */
+    public void setSavepoint(String name) throws DbException, IOException {
+        Database.getBufferPool().setSavepoint(tid, name);
+    }
+
+    /**
+     * Undo the changes made since savepoint name was set, keeping the
+     * transaction and its locks.
+     *
+     * @see simpledb.storage.BufferPool#rollbackToSavepoint
+     */
+    public void rollbackToSavepoint(String name) throws DbException, IOException {
+        Database.getBufferPool().rollbackToSavepoint(tid, name);
+    }
+
+    /** Forget savepoint name and any savepoint set after it */
+    public void releaseSavepoint(String name) throws DbException {
+        Database.getBufferPool().releaseSavepoint(tid, name);
+    }
+
     /** Finish the transaction */
     public void commit() throws IOException {
         transactionComplete(false);
@@ -44,7 +81,12 @@ public class Transaction {
     /** Handle the details of transaction commit / abort */
     public void transactionComplete(boolean abort) throws IOException {
 
-        if (started) {
+        if (started && tid.isReadOnly()) {
+            // nothing was locked, logged or dirtied; only the snapshot
+            // of committed pages it read is released
+            Database.getBufferPool().transactionComplete(tid, !abort);
+            started = false;
+        } else if (started) {
             //write abort log record and rollback transaction
             if (abort) {
                 Database.getLogFile().logAbort(tid); //does rollback too
@@ -12,15 +12,31 @@ public class TransactionId implements Serializable {
 
     static final AtomicLong counter = new AtomicLong(0);
     final long myid;
+    private final boolean readOnly;
 
     public TransactionId() {
+        this(false);
+    }
+
+    /**
+     * @param readOnly true if the transaction promises never to modify a page;
+     *                 such transactions read committed page images without
+     *                 taking locks (see {@link simpledb.storage.BufferPool#getPage})
+     */
+    public TransactionId(boolean readOnly) {
         myid = counter.getAndIncrement();
+        this.readOnly = readOnly;
     }
 
     public long getId() {
         return myid;
     }
 
+    /** @return true if this transaction was declared read-only */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
     @Override
 	public boolean equals(Object obj) {
 		if (this == obj)
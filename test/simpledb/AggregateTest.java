@@ -2,7 +2,11 @@ package simpledb;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import java.util.HashMap;
+import java.util.Map;
+
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Before;
@@ -13,6 +17,8 @@ import simpledb.common.Utility;
 import simpledb.execution.Aggregate;
 import simpledb.execution.Aggregator;
 import simpledb.execution.OpIterator;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.systemtest.SimpleDbTestBase;
 
@@ -191,6 +197,38 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /**
+   * Unit test for Aggregate.getNext() with more groups than fit in its
+   * memory budget, so that groups are spilled and aggregated per partition
+   */
+  @Test public void spillingSumAggregate() throws Exception {
+    int groups = 3000;
+    int[] input = new int[groups * 4];
+    for (int g = 0; g < groups; g++) {
+      input[4 * g] = g;
+      input[4 * g + 1] = g;
+      input[4 * g + 2] = g;
+      input[4 * g + 3] = 1;
+    }
+    Aggregate op = new Aggregate(TestUtil.createTupleList(width1, input), 1, 0,
+        Aggregator.Op.SUM, 1);
+    op.open();
+    for (int pass = 0; pass < 2; pass++) {
+      Map<Integer, Integer> sums = new HashMap<>();
+      while (op.hasNext()) {
+        Tuple t = op.next();
+        Integer old = sums.put(((IntField) t.getField(0)).getValue(), ((IntField) t.getField(1)).getValue());
+        assertNull(old);
+      }
+      assertEquals(groups, sums.size());
+      for (int g = 0; g < groups; g++) {
+        assertEquals(Integer.valueOf(g + 1), sums.get(g));
+      }
+      op.rewind();
+    }
+    op.close();
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,202 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.BTreeChecker;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeRootPtrPage;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.IntField;
+import simpledb.storage.PageId;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeConcurrencyTest extends SimpleDbTestBase {
+	private static final int THREADS = 4;
+	private static final int TRANSACTIONS = 20;
+	// enough tuples per transaction to split or merge leaf pages
+	private static final int BATCH = 150;
+	private static final int DELETE_RANGE = 300;
+
+	private BTreeFile bf;
+	// the tuples of the tree as of the last commit, with their counts
+	private final Map<List<Integer>, Integer> committed = new HashMap<>();
+
+	/**
+	 * Set up a B+ tree with two tiers of internal pages.
+	 */
+	@Before public void setUp() throws Exception {
+		BufferPool.setPageSize(1024);
+		List<List<Integer>> tuples = new ArrayList<>();
+		bf = BTreeUtility.createRandomBTreeFile(2, 31000, null, tuples, 0);
+		Database.resetBufferPool(500);
+		for(List<Integer> t : tuples) {
+			committed.merge(t, 1, Integer::sum);
+		}
+	}
+
+	@After public void tearDown() {
+		BufferPool.resetPageSize();
+		Database.reset();
+	}
+
+	/**
+	 * Runs transactions that insert or delete a batch of tuples and then commit or
+	 * abort, and applies the effects of the committed ones to the expected contents.
+	 */
+	private class Writer extends Thread {
+		private final Random rand;
+		private Exception error;
+
+		Writer(long seed) {
+			rand = new Random(seed);
+		}
+
+		public void run() {
+			try {
+				for(int i = 0; i < TRANSACTIONS; i++) {
+					runTransaction();
+				}
+			} catch(Exception e) {
+				error = e;
+			}
+		}
+
+		private void runTransaction() throws Exception {
+			TransactionId tid = new TransactionId();
+			List<List<Integer>> inserted = new ArrayList<>();
+			List<List<Integer>> deleted = new ArrayList<>();
+			try {
+				if(rand.nextBoolean()) {
+					for(int i = 0; i < BATCH; i++) {
+						Tuple t = BTreeUtility.getBTreeTuple(new int[] {
+								rand.nextInt(BTreeUtility.MAX_RAND_VALUE), rand.nextInt(BTreeUtility.MAX_RAND_VALUE)});
+						Database.getBufferPool().insertTuple(tid, bf.getId(), t);
+						inserted.add(SystemTestUtil.tupleToList(t));
+					}
+				} else {
+					// look each tuple up again, since deletes move the tuples of merged pages
+					int lo = rand.nextInt(BTreeUtility.MAX_RAND_VALUE - DELETE_RANGE);
+					IndexPredicate ipred = new IndexPredicate(Op.GREATER_THAN_OR_EQ, new IntField(lo));
+					for(int i = 0; i < BATCH; i++) {
+						DbFileIterator it = bf.indexIterator(tid, ipred);
+						it.open();
+						Tuple t = it.hasNext() ? it.next() : null;
+						it.close();
+						if(t == null || ((IntField) t.getField(bf.keyField())).getValue() >= lo + DELETE_RANGE) {
+							break;
+						}
+						Database.getBufferPool().deleteTuple(tid, t);
+						deleted.add(SystemTestUtil.tupleToList(t));
+					}
+				}
+				if(rand.nextInt(3) == 0) {
+					Database.getBufferPool().transactionComplete(tid, false);
+					return;
+				}
+				Database.getBufferPool().transactionComplete(tid);
+			} catch(TransactionAbortedException e) {
+				Database.getBufferPool().transactionComplete(tid, false);
+				return;
+			}
+			synchronized(committed) {
+				for(List<Integer> t : inserted) {
+					committed.merge(t, 1, Integer::sum);
+				}
+				for(List<Integer> t : deleted) {
+					committed.merge(t, -1, Integer::sum);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Concurrent inserts, deletes and aborts must leave a well-formed tree holding
+	 * exactly the tuples of the committed transactions.
+	 */
+	@Test public void insertDeleteAbort() throws Exception {
+		List<Writer> writers = new ArrayList<>();
+		for(int i = 0; i < THREADS; i++) {
+			Writer w = new Writer(i);
+			w.start();
+			writers.add(w);
+		}
+		for(Writer w : writers) {
+			w.join();
+			if(w.error != null) {
+				throw w.error;
+			}
+		}
+
+		TransactionId tid = new TransactionId();
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), false);
+
+		Map<List<Integer>, Integer> found = new HashMap<>();
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		int prev = Integer.MIN_VALUE;
+		while(it.hasNext()) {
+			Tuple t = it.next();
+			int key = ((IntField) t.getField(bf.keyField())).getValue();
+			assertTrue(key >= prev);
+			prev = key;
+			found.merge(SystemTestUtil.tupleToList(t), 1, Integer::sum);
+		}
+		it.close();
+		Database.getBufferPool().transactionComplete(tid);
+
+		committed.values().removeIf(n -> n == 0);
+		assertEquals(committed, found);
+	}
+
+	/**
+	 * A writer locks only the leaves it reads and changes: the internal pages it
+	 * descends through are latched and released, so they stay free for other
+	 * writers to split.
+	 */
+	@Test public void internalPagesNotLocked() throws Exception {
+		TransactionId tid = new TransactionId();
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
+				tid, BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY);
+		BTreePageId rootId = rootPtr.getRootId();
+		assertEquals(BTreePageId.INTERNAL, rootId.pgcateg());
+		Database.getBufferPool().transactionComplete(tid);
+
+		tid = new TransactionId();
+		DbFileIterator it = bf.indexIterator(tid,
+				new IndexPredicate(Op.GREATER_THAN_OR_EQ, new IntField(BTreeUtility.MAX_RAND_VALUE / 2)));
+		it.open();
+		Tuple t = it.next();
+		it.close();
+		PageId leafId = t.getRecordId().getPageId();
+		// the leaf stays at least half full, so nothing above it changes
+		Database.getBufferPool().deleteTuple(tid, t);
+		assertFalse(Database.getBufferPool().holdsLock(tid, rootId));
+		assertTrue(Database.getBufferPool().holdsLock(tid, leafId));
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeConcurrencyTest.class);
+	}
+}
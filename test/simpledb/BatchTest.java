@@ -0,0 +1,229 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.BatchAggregate;
+import simpledb.execution.BatchFilter;
+import simpledb.execution.BatchHashEquiJoin;
+import simpledb.execution.BatchOpIterator;
+import simpledb.execution.BatchProject;
+import simpledb.execution.BatchSeqScan;
+import simpledb.execution.BatchToRowAdapter;
+import simpledb.execution.Filter;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.execution.RowToBatchAdapter;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class BatchTest extends SimpleDbTestBase {
+
+  // batches smaller than the inputs, so operators see several of them
+  final int batchSize = 7;
+
+  private BatchOpIterator batches(int width, int[] data) {
+    return new RowToBatchAdapter(TestUtil.createTupleList(width, data), batchSize);
+  }
+
+  private static int[] sequence(int n, int width, int mod) {
+    int[] data = new int[n * width];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (i * 31) % mod;
+    }
+    return data;
+  }
+
+  /**
+   * Unit test for BatchFilter with each comparison on an INT column,
+   * against Filter
+   */
+  @Test public void filter() throws Exception {
+    int[] data = sequence(100, 2, 10);
+    for (Predicate.Op op : Predicate.Op.values()) {
+      Predicate p = new Predicate(1, op, new IntField(5));
+      OpIterator expected = new Filter(p, TestUtil.createTupleList(2, data));
+      OpIterator actual = new BatchToRowAdapter(new BatchFilter(p, batches(2, data)));
+      expected.open();
+      actual.open();
+      TestUtil.compareDbIterators(expected, actual);
+      actual.rewind();
+      expected.rewind();
+      TestUtil.compareDbIterators(expected, actual);
+      actual.close();
+    }
+  }
+
+  /**
+   * Unit test for BatchFilter on a STRING column
+   */
+  @Test public void filterStrings() throws Exception {
+    Object[] data = new Object[] { 1, "a",  2, "b",  3, "a",  4, "c" };
+    Predicate p = new Predicate(1, Predicate.Op.EQUALS,
+        new StringField("a", Type.STRING_LEN));
+    OpIterator actual = new BatchToRowAdapter(new BatchFilter(p,
+        new RowToBatchAdapter(TestUtil.createTupleList(2, data), 3)));
+    OpIterator expected = TestUtil.createTupleList(2, new Object[] { 1, "a",  3, "a" });
+    actual.open();
+    TestUtil.compareDbIterators(expected, actual);
+    actual.close();
+  }
+
+  /**
+   * Unit test for a filter, project and grouped aggregate pipeline, against
+   * the same operators over tuples
+   */
+  @Test public void filterProjectAggregate() throws Exception {
+    int[] data = sequence(500, 3, 50);
+    Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(10));
+    List<Integer> cols = Arrays.asList(2, 1);
+    for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.COUNT,
+        Aggregator.Op.SUM, Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.AVG }) {
+      OpIterator expected = new Aggregate(new Project(cols,
+          new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+          new Filter(p, TestUtil.createTupleList(3, data))), 1, 0, op);
+      OpIterator actual = new BatchToRowAdapter(new BatchAggregate(new BatchProject(cols,
+          new BatchFilter(p, batches(3, data))), 1, 0, op));
+      expected.open();
+      actual.open();
+      TestUtil.matchAllTuples(expected, actual);
+      actual.close();
+    }
+
+    OpIterator total = new BatchToRowAdapter(new BatchAggregate(batches(3, data),
+        0, Aggregator.NO_GROUPING, Aggregator.Op.COUNT));
+    total.open();
+    assertEquals(500, ((IntField) total.next().getField(0)).getValue());
+    total.close();
+  }
+
+  /**
+   * Unit test for BatchHashEquiJoin, against HashEquiJoin
+   */
+  @Test public void hashEquiJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+    int[] left = sequence(200, 2, 40);
+    int[] right = sequence(300, 3, 60);
+    OpIterator expected = new HashEquiJoin(pred, TestUtil.createTupleList(2, left),
+        TestUtil.createTupleList(3, right));
+    OpIterator actual = new BatchToRowAdapter(new BatchHashEquiJoin(pred,
+        batches(2, left), batches(3, right), batchSize));
+    expected.open();
+    actual.open();
+    TestUtil.matchAllTuples(expected, actual);
+    actual.rewind();
+    expected.rewind();
+    TestUtil.matchAllTuples(expected, actual);
+    actual.close();
+  }
+
+  /**
+   * Unit test for BatchSeqScan over a heap file
+   */
+  @Test public void seqScan() throws Exception {
+    List<List<Integer>> tuples = new ArrayList<>();
+    HeapFile f = SystemTestUtil.createRandomHeapFile(3, 3000, null, tuples);
+    OpIterator scan = new BatchToRowAdapter(
+        new BatchSeqScan(new TransactionId(), f.getId(), "t"));
+    SystemTestUtil.matchTuples(scan, tuples);
+  }
+
+  private static boolean readsBatches(OpIterator plan) {
+    if (plan instanceof BatchToRowAdapter) {
+      return true;
+    }
+    if (plan instanceof Operator) {
+      for (OpIterator child : ((Operator) plan).getChildren()) {
+        if (readsBatches(child)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Unit test for the batch plans LogicalPlan builds, against the row plans
+   * of the same queries
+   */
+  @Test public void plan() throws Exception {
+    HeapFile f = SystemTestUtil.createRandomHeapFile(3, 3000, 100, null,
+        new ArrayList<>(), "c");
+    Database.getCatalog().addTable(f, "batched");
+    HeapFile small = SystemTestUtil.createRandomHeapFile(2, 200, 100, null,
+        new ArrayList<>(), "d");
+    Database.getCatalog().addTable(small, "small");
+    Map<String, TableStats> stats = new HashMap<>();
+    stats.put("batched", new TableStats(f.getId(), 1));
+    stats.put("small", new TableStats(small.getId(), 1));
+    // drop the locks of the scan that built the stats
+    Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+    String[] batched = {
+        "SELECT t.c2, t.c0 FROM batched t WHERE t.c1 > 30 AND t.c0 <= 70;",
+        "SELECT SUM(t.c2) FROM batched t WHERE t.c0 < 50;",
+        "SELECT * FROM batched t WHERE t.c1 = 7;",
+        "SELECT t.c1, s.d1 FROM batched t, small s WHERE t.c0 = s.d0 AND s.d1 < 50;",
+    };
+    String[] partly = {
+        "SELECT t.c0, COUNT(t.c1) FROM batched t WHERE t.c2 > 10 GROUP BY t.c0;",
+        "SELECT t.c1 FROM batched t WHERE t.c0 > 90 ORDER BY t.c1;",
+        "SELECT s.d0, SUM(t.c2) FROM batched t, small s WHERE t.c0 = s.d0 GROUP BY s.d0;",
+    };
+    String[] rows = {
+        "SELECT t.c1 FROM batched t WHERE t.c0 > 90 OR t.c2 < 10;",
+        "SELECT t.c1, s.d1 FROM batched t, small s WHERE t.c0 = s.d0 AND (s.d1 < 5 OR s.d1 > 95);",
+    };
+    for (String[] queries : new String[][] { batched, partly, rows }) {
+      for (String query : queries) {
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid, query);
+        OpIterator actual = lp.physicalPlan(tid, stats, false);
+        assertEquals(query, queries == batched, actual instanceof BatchToRowAdapter);
+        if (queries == partly) {
+          assertTrue(query, readsBatches(actual));
+        }
+        lp.setScanPermissions(Permissions.READ_WRITE);
+        OpIterator expected = lp.physicalPlan(tid, stats, false);
+        expected.open();
+        actual.open();
+        TestUtil.matchAllTuples(expected, actual);
+        actual.close();
+        expected.close();
+        Database.getBufferPool().transactionComplete(tid);
+      }
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BatchTest.class);
+  }
+}
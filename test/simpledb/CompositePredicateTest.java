@@ -0,0 +1,122 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import simpledb.common.Utility;
+import simpledb.execution.CompositePredicate;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.PredicateCompiler;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class CompositePredicateTest extends SimpleDbTestBase {
+
+  private static CompositePredicate cmp(int field, Predicate.Op op, int value) {
+    return CompositePredicate.of(new Predicate(field, op, new IntField(value)));
+  }
+
+  /**
+   * Unit test for AND, OR and NOT, compiled and not, against the same
+   * condition written in Java
+   */
+  @Test public void semantics() {
+    // (a < 3 OR b = 2) AND NOT (a = 1)
+    CompositePredicate c = CompositePredicate.and(Arrays.asList(
+        CompositePredicate.or(Arrays.asList(
+            cmp(0, Predicate.Op.LESS_THAN, 3), cmp(1, Predicate.Op.EQUALS, 2))),
+        CompositePredicate.not(cmp(0, Predicate.Op.EQUALS, 1))));
+    PredicateCompiler.Test test = c.compile();
+    // enough tuples for the compiled test to reorder its operands
+    for (int n = 0; n < 5000; n++) {
+      int a = n % 5;
+      int b = (n / 5) % 4;
+      Tuple t = Utility.getHeapTuple(new int[] { a, b });
+      boolean expected = (a < 3 || b == 2) && !(a == 1);
+      assertEquals(expected, c.filter(t));
+      assertEquals(expected, test.test(t));
+    }
+  }
+
+  /**
+   * Unit test for flattening nested conjunctions and shifting fields
+   */
+  @Test public void flattenAndShift() {
+    CompositePredicate c = CompositePredicate.and(Arrays.asList(
+        cmp(0, Predicate.Op.GREATER_THAN, 1),
+        CompositePredicate.and(Arrays.asList(
+            cmp(1, Predicate.Op.GREATER_THAN, 2), cmp(2, Predicate.Op.GREATER_THAN, 3)))));
+    assertEquals(CompositePredicate.Kind.AND, c.getKind());
+    assertEquals(3, c.getChildren().size());
+
+    CompositePredicate shifted = c.shift(2);
+    for (int i = 0; i < 3; i++) {
+      assertEquals(i + 2, shifted.getChildren().get(i).getPredicate().getField());
+    }
+    assertTrue(shifted.filter(Utility.getHeapTuple(new int[] { 0, 0, 2, 3, 4 })));
+    assertTrue(!shifted.filter(Utility.getHeapTuple(new int[] { 0, 0, 2, 3, 3 })));
+  }
+
+  private static class CountingTest implements PredicateCompiler.Test {
+    final PredicateCompiler.Test test;
+    int calls;
+
+    CountingTest(PredicateCompiler.Test test) {
+      this.test = test;
+    }
+
+    public boolean test(Tuple t) {
+      calls++;
+      return test.test(t);
+    }
+  }
+
+  /**
+   * Unit test that an adaptive conjunction moves its most selective operand
+   * first, so the others are rarely evaluated
+   */
+  @Test public void adaptiveOrder() {
+    CountingTest loose = new CountingTest(t -> ((IntField) t.getField(0)).getValue() >= 0);
+    CountingTest tight = new CountingTest(t -> ((IntField) t.getField(0)).getValue() % 100 == 0);
+    PredicateCompiler.Test and = PredicateCompiler.adaptive(
+        new PredicateCompiler.Test[] { loose, tight }, new double[] { 1, 1 }, true);
+    int passed = 0;
+    for (int n = 0; n < 100000; n++) {
+      if (and.test(Utility.getHeapTuple(n))) {
+        passed++;
+      }
+    }
+    assertEquals(1000, passed);
+    assertEquals(100000, tight.calls);
+    assertTrue(loose.calls < 10000);
+  }
+
+  /**
+   * Unit test for a Filter over a disjunction
+   */
+  @Test public void filterOr() throws Exception {
+    OpIterator scan = TestUtil.createTupleList(2,
+        new int[] { 1, 10,  2, 20,  3, 30,  4, 40,  5, 50 });
+    Filter f = new Filter(CompositePredicate.or(Arrays.asList(
+        cmp(0, Predicate.Op.EQUALS, 1), cmp(1, Predicate.Op.GREATER_THAN, 35))), scan);
+    f.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(2,
+        new int[] { 1, 10,  4, 40,  5, 50 }), f);
+    f.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(CompositePredicateTest.class);
+  }
+}
@@ -0,0 +1,188 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.Filter;
+import simpledb.execution.Gather;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.Limit;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.ParallelPlanner;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class ExchangeTest extends SimpleDbTestBase {
+
+  final int dop = 4;
+  TransactionId tid;
+  HeapFile left;
+  HeapFile right;
+  final List<List<Integer>> leftTuples = new ArrayList<>();
+
+  @Before public void setUp() throws Exception {
+    tid = new TransactionId();
+    left = SystemTestUtil.createRandomHeapFile(2, 5000, 200, null, leftTuples);
+    right = SystemTestUtil.createRandomHeapFile(3, 800, 200, null, new ArrayList<>());
+  }
+
+  private SeqScan scan(HeapFile f, String alias) {
+    return new SeqScan(tid, f.getId(), alias);
+  }
+
+  // the tuples of op as sorted lists of ints
+  private static List<List<Integer>> contents(OpIterator op) throws Exception {
+    List<List<Integer>> tuples = new ArrayList<>();
+    op.open();
+    while (op.hasNext()) {
+      tuples.add(SystemTestUtil.tupleToList(op.next()));
+    }
+    op.close();
+    tuples.sort((a, b) -> {
+      for (int i = 0; i < a.size(); i++) {
+        int c = Integer.compare(a.get(i), b.get(i));
+        if (c != 0) {
+          return c;
+        }
+      }
+      return 0;
+    });
+    return tuples;
+  }
+
+  /**
+   * Unit test for gathering the partitions of a heap file scan
+   */
+  @Test public void gatherScan() throws Exception {
+    OpIterator[] parts = new OpIterator[dop];
+    for (int i = 0; i < dop; i++) {
+      parts[i] = new SeqScan(tid, left.getId(), "l", i, dop);
+    }
+    Gather gather = new Gather(parts);
+    SystemTestUtil.matchTuples(gather, leftTuples);
+
+    gather.open();
+    gather.rewind();
+    int count = 0;
+    while (gather.hasNext()) {
+      gather.next();
+      count++;
+    }
+    assertEquals(leftTuples.size(), count);
+    gather.close();
+  }
+
+  /**
+   * Unit test for closing a Gather before its producers are done
+   */
+  @Test public void closeEarly() throws Exception {
+    OpIterator gather = ParallelPlanner.parallelize(scan(left, "l"), dop);
+    assertTrue(gather instanceof Gather);
+    gather.open();
+    assertTrue(gather.hasNext());
+    gather.next();
+    gather.close();
+  }
+
+  /**
+   * Unit test for a LIMIT over a parallel join whose matches all fall in one
+   * partition, which closes that partition while the repartitioning
+   * producers still have tuples for it and the other partitions still wait
+   */
+  @Test(timeout = 60000) public void limitRepartitionJoin() throws Exception {
+    HeapFile skewedLeft = SystemTestUtil.createRandomHeapFile(2, 5000,
+        Collections.singletonMap(0, 7), new ArrayList<>());
+    HeapFile skewedRight = SystemTestUtil.createRandomHeapFile(2, 5000,
+        Collections.singletonMap(0, 7), new ArrayList<>());
+    JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    for (int i = 0; i < 3; i++) {
+      OpIterator parallel = ParallelPlanner.parallelize(
+          new HashEquiJoin(p, scan(skewedLeft, "l"), scan(skewedRight, "r")), dop);
+      assertTrue(parallel instanceof Gather);
+      assertEquals(10, contents(new Limit(10, 0, parallel)).size());
+    }
+  }
+
+  /**
+   * Unit test for a parallel filter and hash join with both inputs
+   * repartitioned, against the serial plan
+   */
+  @Test public void repartitionJoin() throws Exception {
+    JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+    Predicate filter = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(100));
+    OpIterator serial = new HashEquiJoin(p, new Filter(filter, scan(left, "l")), scan(right, "r"));
+    OpIterator parallel = ParallelPlanner.parallelize(serial, dop);
+    assertTrue(parallel instanceof Gather);
+    List<List<Integer>> expected = contents(serial);
+    assertTrue(expected.size() > 0);
+    assertEquals(expected, contents(parallel));
+  }
+
+  /**
+   * Unit test for a parallel hash join whose build input cannot be split,
+   * and is broadcast to every partition of the probe input
+   */
+  @Test public void broadcastJoin() throws Exception {
+    JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    int[] data = new int[200];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = i;
+    }
+    OpIterator serial = new HashEquiJoin(p, TestUtil.createTupleList(1, data), scan(left, "l"));
+    OpIterator parallel = ParallelPlanner.parallelize(
+        new HashEquiJoin(p, TestUtil.createTupleList(1, data), scan(left, "l")), dop);
+    assertTrue(parallel instanceof Gather);
+    assertEquals(contents(serial), contents(parallel));
+  }
+
+  /**
+   * Unit test for two-phase parallel aggregation, with and without
+   * grouping, against the serial aggregates
+   */
+  @Test public void aggregate() throws Exception {
+    for (Aggregator.Op op : Aggregator.Op.values()) {
+      if (op == Aggregator.Op.SUM_COUNT || op == Aggregator.Op.SC_AVG) {
+        continue;
+      }
+      for (int gfield : new int[] { 0, Aggregator.NO_GROUPING }) {
+        OpIterator serial = new Aggregate(scan(left, "l"), 1, gfield, op);
+        OpIterator parallel = ParallelPlanner.parallelize(
+            new Aggregate(scan(left, "l"), 1, gfield, op), dop);
+        assertEquals(op + " grouped on " + gfield, contents(serial), contents(parallel));
+      }
+    }
+  }
+
+  /**
+   * Unit test for plans that cannot be split, which are left serial
+   */
+  @Test public void serialFallback() throws Exception {
+    OpIterator list = TestUtil.createTupleList(1, new int[] { 1, 2, 3 });
+    assertTrue(ParallelPlanner.parallelize(list, dop) == list);
+    OpIterator scan = scan(left, "l");
+    assertTrue(ParallelPlanner.parallelize(scan, 1) == scan);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ExchangeTest.class);
+  }
+}
@@ -71,6 +71,18 @@ public class FilterTest extends SimpleDbTestBase {
     op.close();
   }
 
+  /**
+   * Filter produces its first match without reading all of its input
+   */
+  @Test public void streamsFirstTuple() throws Exception {
+    Predicate pred = new Predicate(0, Predicate.Op.GREATER_THAN, TestUtil.getField(2));
+    Filter op = new Filter(pred, new TestUtil.MockScan(0, Integer.MAX_VALUE, testWidth));
+    op.open();
+    assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(3, testWidth), op.next()));
+    assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(4, testWidth), op.next()));
+    op.close();
+  }
+
   /**
    * Unit test for Filter.getNext() using a &lt; predicate that filters
    * everything
@@ -0,0 +1,106 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+  final int width1 = 2;
+  final int width2 = 3;
+  final JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+
+  private static int value(Tuple t, int field) {
+    return ((IntField) t.getField(field)).getValue();
+  }
+
+  // count the tuples of op, checking that the join fields are equal
+  private int countMatches(OpIterator op) throws Exception {
+    int count = 0;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      assertEquals(value(t, 0), value(t, width1));
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * Unit test for a join that fits in memory
+   */
+  @Test public void inMemory() throws Exception {
+    OpIterator scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,  3, 4,  5, 6,  7, 8 });
+    OpIterator scan2 = TestUtil.createTupleList(width2,
+        new int[] { 1, 2, 3,  2, 3, 4,  3, 4, 5,  4, 5, 6,  5, 6, 7 });
+    OpIterator expected = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,  3, 4, 3, 4, 5,  5, 6, 5, 6, 7 });
+    HashEquiJoin op = new HashEquiJoin(pred, scan1, scan2);
+    op.open();
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+    op.close();
+  }
+
+  /**
+   * Unit test for a join whose build side is larger than the memory budget,
+   * so that partitions of both sides are spilled and joined afterwards
+   */
+  @Test public void spilling() throws Exception {
+    int n = 10000;
+    int keys = 2000;
+    int[] left = new int[n * width1];
+    for (int i = 0; i < n; i++) {
+      left[i * width1] = i % keys;
+    }
+    int[] right = new int[3000 * width2];
+    for (int i = 0; i < 3000; i++) {
+      right[i * width2] = i;
+    }
+    HashEquiJoin op = new HashEquiJoin(pred, TestUtil.createTupleList(width1, left),
+        TestUtil.createTupleList(width2, right), 1);
+    op.open();
+    assertEquals(n, countMatches(op));
+    op.rewind();
+    assertEquals(n, countMatches(op));
+    op.close();
+  }
+
+  /**
+   * Unit test for a join on a single value larger than the memory budget,
+   * which cannot be split by partitioning and is joined in chunks
+   */
+  @Test public void skewed() throws Exception {
+    int n = 2000;
+    int[] left = new int[n * width1];
+    for (int i = 0; i < n; i++) {
+      left[i * width1] = 7;
+      left[i * width1 + 1] = i;
+    }
+    int[] right = new int[20 * width2];
+    for (int i = 0; i < 20; i++) {
+      right[i * width2] = i % 2 == 0 ? 7 : 100 + i;
+    }
+    HashEquiJoin op = new HashEquiJoin(pred, TestUtil.createTupleList(width1, left),
+        TestUtil.createTupleList(width2, right), 1);
+    op.open();
+    assertEquals(n * 10, countMatches(op));
+    op.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashEquiJoinTest.class);
+  }
+}
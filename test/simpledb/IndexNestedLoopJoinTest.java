@@ -0,0 +1,119 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.IndexNestedLoopJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+  final int width1 = 2;
+  final int outerTuples = 1200;
+
+  BTreeFile index;
+  List<List<Integer>> indexTuples;
+  int[] outer;
+  TransactionId tid;
+
+  /**
+   * Create a B+ tree keyed on its first field, and an outer input with
+   * repeated join values in no particular order
+   */
+  @Before public void setUp() throws Exception {
+    indexTuples = new ArrayList<>();
+    index = BTreeUtility.createRandomBTreeFile(2, 2000, 300, null, indexTuples, 0);
+    Database.getCatalog().addTable(index, "idx");
+    outer = new int[outerTuples * width1];
+    for (int i = 0; i < outerTuples; i++) {
+      outer[i * width1] = (i * 7919) % 350;
+      outer[i * width1 + 1] = i;
+    }
+    tid = new TransactionId();
+  }
+
+  @After public void tearDown() {
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  private static int value(Tuple t, int field) {
+    return ((IntField) t.getField(field)).getValue();
+  }
+
+  // join with op, one page of outer tuples at a time, and check the number
+  // of results against a nested loops count over the generated tuples
+  private void checkCount(Predicate.Op op) throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, op, 0);
+    IndexNestedLoopJoin join = new IndexNestedLoopJoin(pred,
+        TestUtil.createTupleList(width1, outer), new SeqScan(tid, index.getId(), "idx"), 1);
+    long expected = 0;
+    for (int i = 0; i < outerTuples; i++) {
+      IntField key = new IntField(outer[i * width1]);
+      for (List<Integer> t : indexTuples) {
+        if (key.compare(op, new IntField(t.get(0)))) {
+          expected++;
+        }
+      }
+    }
+    join.open();
+    for (int pass = 0; pass < 2; pass++) {
+      long count = 0;
+      while (join.hasNext()) {
+        Tuple t = join.next();
+        assertEquals(true, new IntField(value(t, 0)).compare(op, t.getField(width1)));
+        count++;
+      }
+      assertEquals(expected, count);
+      join.rewind();
+    }
+    join.close();
+  }
+
+  /**
+   * Unit test for an equality index join
+   */
+  @Test public void equals() throws Exception {
+    checkCount(Predicate.Op.EQUALS);
+  }
+
+  /**
+   * Unit test for range index joins
+   */
+  @Test public void ranges() throws Exception {
+    checkCount(Predicate.Op.LESS_THAN);
+    checkCount(Predicate.Op.GREATER_THAN_OR_EQ);
+  }
+
+  /**
+   * Unit test that a scan of a table not keyed on the join field is rejected
+   */
+  @Test(expected = IllegalArgumentException.class) public void notIndexed() {
+    OpIterator scan = TestUtil.createTupleList(width1, outer);
+    new IndexNestedLoopJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 1), scan,
+        new SeqScan(tid, index.getId(), "idx"));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+  }
+}
@@ -10,9 +10,11 @@ import org.junit.Before;
 import org.junit.Test;
 
 import simpledb.common.Type;
+import simpledb.common.Utility;
 import simpledb.execution.Aggregator;
 import simpledb.execution.IntegerAggregator;
 import simpledb.execution.OpIterator;
+import simpledb.storage.IntField;
 import simpledb.systemtest.SimpleDbTestBase;
 
 public class IntegerAggregatorTest extends SimpleDbTestBase {
@@ -182,6 +184,25 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test IntegerAggregator with enough groups to grow its group table,
+   * including negative group values
+   */
+  @Test public void manyGroups() throws Exception {
+    IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.COUNT);
+    for (int i = 0; i < 3000; i++) {
+      agg.mergeTupleIntoGroup(Utility.getHeapTuple(new int[] { i % 1000 - 500, i }));
+    }
+    OpIterator it = agg.iterator();
+    it.open();
+    int groups = 0;
+    while (it.hasNext()) {
+      assertEquals(3, ((IntField) it.next().getField(1)).getValue());
+      groups++;
+    }
+    assertEquals(1000, groups);
+  }
+
   /**
    * JUnit suite target
    */
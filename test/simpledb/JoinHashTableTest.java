@@ -0,0 +1,73 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.Iterator;
+
+import org.junit.Test;
+
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.JoinHashTable;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class JoinHashTableTest extends SimpleDbTestBase {
+
+  /**
+   * Unit test for a table over INT join values that grows past its initial
+   * capacity, with several tuples per value
+   */
+  @Test public void intValues() {
+    JoinHashTable table = JoinHashTable.create(Type.INT_TYPE, Type.INT_TYPE);
+    int n = 5000;
+    Tuple[] tuples = new Tuple[n];
+    for (int i = 0; i < n; i++) {
+      tuples[i] = Utility.getHeapTuple(i % 1000, 2);
+      table.add(new IntField(i % 1000), tuples[i]);
+    }
+    assertEquals(n, table.size());
+    for (int key = 0; key < 1000; key += 37) {
+      Iterator<Tuple> it = table.get(new IntField(key));
+      for (int i = key; i < n; i += 1000) {
+        assertSame(tuples[i], it.next());
+      }
+      assertFalse(it.hasNext());
+    }
+    assertNull(table.get(new IntField(-1)));
+    assertNull(table.get(new IntField(1000)));
+
+    table.clear();
+    assertEquals(0, table.size());
+    assertNull(table.get(new IntField(0)));
+  }
+
+  /**
+   * Unit test for a table over STRING join values
+   */
+  @Test public void stringValues() {
+    JoinHashTable table = JoinHashTable.create(Type.STRING_TYPE, Type.STRING_TYPE);
+    Tuple a = Utility.getHeapTuple(1, 1);
+    Tuple b = Utility.getHeapTuple(2, 1);
+    table.add(new StringField("x", Type.STRING_LEN), a);
+    table.add(new StringField("x", Type.STRING_LEN), b);
+    Iterator<Tuple> it = table.get(new StringField("x", Type.STRING_LEN));
+    assertSame(a, it.next());
+    assertSame(b, it.next());
+    assertFalse(it.hasNext());
+    assertNull(table.get(new StringField("y", Type.STRING_LEN)));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(JoinHashTableTest.class);
+  }
+}
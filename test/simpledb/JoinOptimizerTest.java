@@ -11,13 +11,20 @@ import org.junit.Test;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Utility;
+import simpledb.execution.IndexNestedLoopJoin;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
 import simpledb.execution.Predicate;
+import simpledb.execution.SortMergeJoin;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
 import simpledb.optimizer.JoinOptimizer;
 import simpledb.optimizer.LogicalJoinNode;
 import simpledb.optimizer.TableStats;
 import simpledb.storage.BufferPool;
 import simpledb.storage.HeapFile;
 import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.ZoneMap;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 import simpledb.transaction.TransactionAbortedException;
@@ -47,6 +54,7 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
             throws IOException {
         File temp = File.createTempFile("table", ".dat");
         temp.deleteOnExit();
+        ZoneMap.sideFile(temp).deleteOnExit();
         HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), columns);
         return Utility.openHeapFile(columns, colPrefix, temp);
     }
@@ -629,4 +637,86 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
         Assert.assertTrue(result.get(result.size() - 1).t2Alias.equals("a")
                 || result.get(result.size() - 1).t1Alias.equals("a"));
     }
+
+    /**
+     * Create a B+ tree table keyed on its first column, with the given name
+     * and columns named c0, c1, ...
+     */
+    private static BTreeFile createNamedBTreeFile(String name, int rows, int maxValue,
+            List<List<Integer>> tuples) throws Exception {
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, rows, maxValue, null, tuples, 0);
+        BTreeFile named = new BTreeFile(bf.getFile(), 0, Utility.getTupleDesc(2, "c"));
+        Database.getCatalog().addTable(named, name);
+        TableStats.setTableStats(name, new TableStats(named.getId(), 1000));
+        return named;
+    }
+
+    // the number of pairs of tuples whose first columns are equal
+    private static int countEquiJoin(List<List<Integer>> tuples1, List<List<Integer>> tuples2) {
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (List<Integer> t : tuples2) {
+            counts.merge(t.get(0), 1, Integer::sum);
+        }
+        int n = 0;
+        for (List<Integer> t : tuples1) {
+            n += counts.getOrDefault(t.get(0), 0);
+        }
+        return n;
+    }
+
+    // true if plan has an operator of class c
+    private static boolean contains(OpIterator plan, Class<?> c) {
+        if (c.isInstance(plan)) {
+            return true;
+        }
+        if (plan instanceof Operator) {
+            for (OpIterator child : ((Operator) plan).getChildren()) {
+                if (child != null && contains(child, c)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // plan and run query, checking that it uses a join of class c and
+    // returns expected tuples
+    private static void checkPlannedJoin(String query, Class<?> c, int expected) throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator plan = new Parser().generateLogicalPlan(tid, query)
+                .physicalPlan(tid, TableStats.getStatsMap(), false);
+        Assert.assertTrue(query, contains(plan, c));
+        int n = 0;
+        plan.open();
+        while (plan.hasNext()) {
+            plan.next();
+            n++;
+        }
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        Assert.assertEquals(query, expected, n);
+    }
+
+    /**
+     * Verify that the optimizer plans index and merge joins over B+ tree
+     * tables when their estimated costs are lowest, and that the plans run
+     */
+    @Test
+    public void planBTreeJoins() throws Exception {
+        List<List<Integer>> small = new ArrayList<>();
+        HeapFile hp = SystemTestUtil.createRandomHeapFile(2, 50, 5000, null, small, "c");
+        Database.getCatalog().addTable(hp, "hp");
+        TableStats.setTableStats("hp", new TableStats(hp.getId(), 1000));
+        List<List<Integer>> large = new ArrayList<>();
+        createNamedBTreeFile("bt", 20000, 5000, large);
+        List<List<Integer>> medium = new ArrayList<>();
+        createNamedBTreeFile("bt2", 3000, 5000, medium);
+
+        // a few probes of the large tree are cheaper than scanning it
+        checkPlannedJoin("SELECT * FROM hp, bt WHERE hp.c0 = bt.c0;",
+                IndexNestedLoopJoin.class, countEquiJoin(small, large));
+        // two trees keyed on the join field are merged in one pass each
+        checkPlannedJoin("SELECT * FROM bt, bt2 WHERE bt.c0 = bt2.c0;",
+                SortMergeJoin.class, countEquiJoin(large, medium));
+    }
 }
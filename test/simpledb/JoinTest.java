@@ -13,6 +13,7 @@ import simpledb.execution.Join;
 import simpledb.execution.JoinPredicate;
 import simpledb.execution.OpIterator;
 import simpledb.execution.Predicate;
+import simpledb.storage.SpillFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.systemtest.SimpleDbTestBase;
@@ -112,6 +113,45 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * Join produces its first match without reading all of its outer input
+   */
+  @Test public void streamsFirstTuple() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    Join op = new Join(pred, new TestUtil.MockScan(0, Integer.MAX_VALUE, width1), scan2);
+    op.open();
+    Tuple first = op.next();
+    assertEquals(TestUtil.getField(1), first.getField(0));
+    assertEquals(TestUtil.getField(1), first.getField(width1));
+    op.close();
+  }
+
+  /**
+   * Join scans child2 once per block of child1 tuples, not once per tuple
+   */
+  @Test public void blockNestedLoops() throws Exception {
+    final int[] rewinds = { 0 };
+    OpIterator inner = new TestUtil.MockScan(0, 10, width2) {
+      @Override public void rewind() {
+        rewinds[0]++;
+        super.rewind();
+      }
+    };
+    // 1 page of outer tuples per block, so 3 blocks
+    int outerTuples = 2 * SpillFile.tuplesPerPage(Utility.getTupleDesc(width1)) + 1;
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.LESS_THAN, 0);
+    Join op = new Join(pred, new TestUtil.MockScan(-outerTuples, 0, width1), inner, 1);
+    op.open();
+    int count = 0;
+    while (op.hasNext()) {
+      op.next();
+      count++;
+    }
+    assertEquals(outerTuples * 10, count);
+    assertEquals(2, rewinds[0]);
+    op.close();
+  }
+
   /**
    * JUnit suite target
    */
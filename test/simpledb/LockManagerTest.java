@@ -0,0 +1,93 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.DeadlockException;
+import simpledb.common.Permissions;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.LockManager;
+import simpledb.transaction.TransactionId;
+
+public class LockManagerTest extends SimpleDbTestBase {
+    private LockManager lm;
+    private PageId p0;
+    private TransactionId tid1, tid2, tid3;
+
+    @Before public void setUp() {
+        lm = new LockManager();
+        p0 = new HeapPageId(1, 0);
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+        tid3 = new TransactionId();
+    }
+
+    /**
+     * Update locks coexist with shared locks but not with each other.
+     */
+    @Test public void updateLockCompatibility() throws Exception {
+        assertTrue(lm.lock(tid1, p0, Permissions.UPDATE));
+        assertTrue(lm.lock(tid2, p0, Permissions.READ_ONLY));
+        assertFalse(lm.lock(tid3, p0, Permissions.UPDATE));
+        assertFalse(lm.lock(tid3, p0, Permissions.READ_WRITE));
+    }
+
+    /**
+     * An update lock is upgraded once the shared holders are gone.
+     */
+    @Test public void updateLockUpgrade() throws Exception {
+        assertTrue(lm.lock(tid1, p0, Permissions.UPDATE));
+        assertTrue(lm.lock(tid2, p0, Permissions.READ_ONLY));
+        assertFalse(lm.lock(tid1, p0, Permissions.READ_WRITE));
+        lm.releaseAllLocks(tid2);
+        assertTrue(lm.lock(tid1, p0, Permissions.READ_WRITE));
+    }
+
+    /**
+     * A pending upgrade is not starved by a stream of new shared requests.
+     */
+    @Test public void pendingUpgradeBlocksNewReaders() throws Exception {
+        assertTrue(lm.lock(tid1, p0, Permissions.READ_ONLY));
+        assertTrue(lm.lock(tid2, p0, Permissions.READ_ONLY));
+        assertFalse(lm.lock(tid1, p0, Permissions.READ_WRITE));
+        assertFalse(lm.lock(tid3, p0, Permissions.READ_ONLY));
+
+        lm.releaseAllLocks(tid2);
+        assertTrue(lm.lock(tid1, p0, Permissions.READ_WRITE));
+        lm.releaseAllLocks(tid1);
+        assertTrue(lm.lock(tid3, p0, Permissions.READ_ONLY));
+    }
+
+    /**
+     * Cancelling a pending upgrade lets new readers in again.
+     */
+    @Test public void cancelUpgrade() throws Exception {
+        assertTrue(lm.lock(tid1, p0, Permissions.READ_ONLY));
+        assertTrue(lm.lock(tid2, p0, Permissions.READ_ONLY));
+        assertFalse(lm.lock(tid1, p0, Permissions.READ_WRITE));
+        lm.cancelUpgrade(tid1, p0);
+        assertTrue(lm.lock(tid3, p0, Permissions.READ_ONLY));
+    }
+
+    /**
+     * Two shared holders that both want to upgrade can never both succeed;
+     * the second one is told so immediately.
+     */
+    @Test(expected = DeadlockException.class) public void doubleUpgradeDeadlocks() throws Exception {
+        assertTrue(lm.lock(tid1, p0, Permissions.READ_ONLY));
+        assertTrue(lm.lock(tid2, p0, Permissions.READ_ONLY));
+        assertFalse(lm.lock(tid1, p0, Permissions.READ_WRITE));
+        lm.lock(tid2, p0, Permissions.READ_WRITE);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
@@ -0,0 +1,158 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.transaction.LockManager;
+import simpledb.transaction.LockMetrics;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class LockMetricsTest extends TestUtil.CreateHeapFile {
+    private PageId p0;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        empty.insertTuple(tid, Utility.getHeapTuple(1, 2));
+        p0 = new HeapPageId(empty.getId(), 0);
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /**
+     * Upgrades, grants and hold times are counted by the lock manager itself.
+     */
+    @Test public void countsUpgradesAndHolds() throws Exception {
+        LockManager lm = new LockManager();
+        TransactionId tid = new TransactionId();
+        lm.lock(tid, p0, Permissions.READ_ONLY);
+        lm.lock(tid, p0, Permissions.READ_WRITE);
+        lm.releaseAllLocks(tid);
+
+        LockMetrics m = lm.getMetrics();
+        assertEquals(2, m.getAcquisitions());
+        assertEquals(1, m.getUpgrades());
+        assertEquals(1, m.getPageStats(p0).getUpgrades());
+        assertEquals(1, m.getHoldTimes().getCount());
+    }
+
+    /**
+     * A lock wait that times out in BufferPool.getPage is reported against
+     * the contended page.
+     */
+    @Test public void reportsTimeouts() throws Exception {
+        bp.getPage(new TransactionId(), p0, Permissions.READ_WRITE);
+        try {
+            bp.getPage(new TransactionId(), p0, Permissions.READ_WRITE);
+            fail("expected the second writer to time out");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+
+        LockMetrics m = bp.getLockMetrics();
+        assertEquals(1, m.getTimeouts());
+        List<LockMetrics.PageStats> top = m.topContended(5);
+        assertEquals(1, top.size());
+        assertEquals(p0, top.get(0).getPageId());
+        assertEquals(1, top.get(0).getWaits().getCount());
+        assertTrue(m.report(5).contains(p0.toString()));
+
+        m.reset();
+        assertNull(m.getPageStats(p0));
+        assertEquals(0, m.getTimeouts());
+    }
+
+    /**
+     * Percentiles are reported as the upper bound of a power-of-two bucket.
+     */
+    @Test public void histogramBuckets() {
+        LockMetrics m = new LockMetrics();
+        PageId pid = new HeapPageId(1, 1);
+        m.recordWait(pid, 500);          // < 1us
+        m.recordWait(pid, 3000);         // [2, 4) us
+        m.recordWait(pid, 3000);
+        m.recordWait(pid, 100000);       // [64, 128) us
+
+        LockMetrics.Histogram h = m.getPageStats(pid).getWaits();
+        assertEquals(4, h.getCount());
+        assertEquals(1, h.percentileMicros(0.25));
+        assertEquals(4, h.percentileMicros(0.5));
+        assertEquals(128, h.percentileMicros(1.0));
+    }
+
+    /**
+     * Only the most contended pages are kept once many pages were waited on.
+     */
+    @Test public void boundedPages() {
+        LockMetrics m = new LockMetrics(4);
+        for (int i = 1; i <= 100; i++) {
+            m.recordWait(new HeapPageId(1, i), i * 1000L);
+        }
+        assertTrue(m.topContended(100).size() <= 8);
+        List<LockMetrics.PageStats> top = m.topContended(4);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(new HeapPageId(1, 100 - i), top.get(i).getPageId());
+        }
+        assertNull(m.getPageStats(new HeapPageId(1, 1)));
+        // the most contended page kept its whole history
+        assertEquals(1, m.getPageStats(new HeapPageId(1, 100)).getWaits().getCount());
+    }
+
+    /**
+     * Ranking pages while other threads keep recording waits on them never
+     * fails, although the totals change during the sort.
+     */
+    @Test public void ranksWhileRecording() throws Exception {
+        LockMetrics m = new LockMetrics(1000);
+        int pages = 500;
+        for (int i = 0; i < pages; i++) {
+            m.recordWait(new HeapPageId(1, i), 1000);
+        }
+        AtomicBoolean done = new AtomicBoolean();
+        List<Thread> recorders = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Random rand = new Random(t);
+            Thread recorder = new Thread(() -> {
+                while (!done.get()) {
+                    m.recordWait(new HeapPageId(1, rand.nextInt(pages)), rand.nextInt(100000));
+                }
+            });
+            recorder.start();
+            recorders.add(recorder);
+        }
+        try {
+            for (int i = 0; i < 2000; i++) {
+                assertEquals(10, m.topContended(10).size());
+            }
+        } finally {
+            done.set(true);
+            for (Thread recorder : recorders) {
+                recorder.join();
+            }
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockMetricsTest.class);
+    }
+}
@@ -0,0 +1,92 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+  final int width = 2;
+
+  private static int value(Tuple t, int field) {
+    return ((IntField) t.getField(field)).getValue();
+  }
+
+  /**
+   * Unit test for OrderBy on a single descending field
+   */
+  @Test public void singleFieldDesc() throws Exception {
+    OpIterator scan = TestUtil.createTupleList(width,
+        new int[] { 3, 1,  1, 2,  2, 3 });
+    OrderBy op = new OrderBy(0, false, scan);
+    op.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(width,
+        new int[] { 3, 1,  2, 3,  1, 2 }), op);
+    op.close();
+  }
+
+  /**
+   * Unit test for OrderBy on two fields in opposite directions
+   */
+  @Test public void mixedDirections() throws Exception {
+    OpIterator scan = TestUtil.createTupleList(width,
+        new int[] { 2, 1,  1, 1,  2, 5,  1, 3,  2, 3 });
+    OrderBy op = new OrderBy(new int[] { 0, 1 }, new boolean[] { true, false }, scan);
+    op.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(width,
+        new int[] { 1, 3,  1, 1,  2, 5,  2, 3,  2, 1 }), op);
+
+    op.rewind();
+    assertEquals(1, value(op.next(), 0));
+    op.close();
+  }
+
+  /**
+   * Unit test for OrderBy with more input than its memory budget, so that
+   * sorted runs are spilled and merged in more than one pass
+   */
+  @Test public void externalSort() throws Exception {
+    int n = 10000;
+    int[] data = new int[n * width];
+    for (int i = 0; i < n; i++) {
+      data[i * width] = (i * 7919) % 1000;
+      data[i * width + 1] = i;
+    }
+    OrderBy op = new OrderBy(new int[] { 0, 1 }, new boolean[] { true, false },
+        TestUtil.createTupleList(width, data), 3);
+    op.open();
+    for (int pass = 0; pass < 2; pass++) {
+      Tuple prev = null;
+      int count = 0;
+      while (op.hasNext()) {
+        Tuple t = op.next();
+        if (prev != null) {
+          assertTrue(value(prev, 0) < value(t, 0)
+              || (value(prev, 0) == value(t, 0) && value(prev, 1) > value(t, 1)));
+        }
+        prev = t;
+        count++;
+      }
+      assertEquals(n, count);
+      assertFalse(op.hasNext());
+      op.rewind();
+    }
+    op.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(OrderByTest.class);
+  }
+}
@@ -0,0 +1,245 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.PaxFile;
+import simpledb.storage.PaxPage;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class PaxFileTest extends SimpleDbTestBase {
+
+  private static final int ROWS = 1500; // spans several pages
+
+  private PaxFile table;
+
+  /** Set up an empty three-column PAX table and fill it through the BufferPool */
+  @Before public void setUp() throws Exception {
+    File f = File.createTempFile("pax", ".dat");
+    f.deleteOnExit();
+    table = new PaxFile(f, Utility.getTupleDesc(3));
+    Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < ROWS; i++) {
+      Tuple t = new Tuple(table.getTupleDesc());
+      t.setField(0, new IntField(i));
+      t.setField(1, new IntField(i % 7));
+      t.setField(2, new IntField(-i));
+      Database.getBufferPool().insertTuple(tid, table.getId(), t);
+    }
+    Database.getBufferPool().transactionComplete(tid);
+    Database.resetBufferPool(50);
+  }
+
+  private static final String[] STATUS = {"active", "suspended", "closed"};
+
+  /**
+   * Create a compressed table of an ascending INT, a small INT and a
+   * low-cardinality STRING, filled through the BufferPool
+   */
+  private PaxFile compressedTable(int rows) throws Exception {
+    File f = File.createTempFile("paxz", ".dat");
+    f.deleteOnExit();
+    TupleDesc td = new TupleDesc(new Type[] {Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE});
+    PaxFile file = new PaxFile(f, td, true);
+    Database.getCatalog().addTable(file, SystemTestUtil.getUUID());
+
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < rows; i++) {
+      Database.getBufferPool().insertTuple(tid, file.getId(), row(td, i));
+    }
+    Database.getBufferPool().transactionComplete(tid);
+    Database.resetBufferPool(50);
+    return file;
+  }
+
+  private static Tuple row(TupleDesc td, int i) {
+    Tuple t = new Tuple(td);
+    t.setField(0, new IntField(1000000 + i));
+    t.setField(1, new IntField(i % 7));
+    t.setField(2, new StringField(STATUS[i / 100 % STATUS.length], Type.STRING_LEN));
+    return t;
+  }
+
+  private static void assertRow(int i, Tuple t) {
+    Tuple expected = row(t.getTupleDesc(), i);
+    for (int j = 0; j < 3; j++) {
+      assertEquals(expected.getField(j), t.getField(j));
+    }
+  }
+
+  private List<Tuple> scan(int[] columns) throws Exception {
+    return scan(table, columns);
+  }
+
+  private static List<Tuple> scan(PaxFile table, int[] columns) throws Exception {
+    TransactionId tid = new TransactionId();
+    SeqScan scan = new SeqScan(tid, table.getId(), "t", Permissions.READ_ONLY, columns);
+    List<Tuple> result = new ArrayList<>();
+    scan.open();
+    while (scan.hasNext()) {
+      result.add(scan.next());
+    }
+    scan.close();
+    Database.getBufferPool().transactionComplete(tid);
+    return result;
+  }
+
+  /**
+   * Unit test for scanning a PaxFile, with and without column pruning
+   */
+  @Test public void scan() throws Exception {
+    assertTrue(table.numPages() > 1);
+
+    List<Tuple> all = scan(null);
+    assertEquals(ROWS, all.size());
+    long sum = 0;
+    for (Tuple t : all) {
+      int a = ((IntField) t.getField(0)).getValue();
+      assertEquals(a % 7, ((IntField) t.getField(1)).getValue());
+      assertEquals(-a, ((IntField) t.getField(2)).getValue());
+      sum += a;
+    }
+    assertEquals((long) ROWS * (ROWS - 1) / 2, sum);
+
+    List<Tuple> pruned = scan(new int[] {2});
+    assertEquals(ROWS, pruned.size());
+    assertEquals(1, pruned.get(0).getTupleDesc().numFields());
+    for (int i = 0; i < ROWS; i++) {
+      assertEquals(all.get(i).getField(2), pruned.get(i).getField(0));
+      assertEquals(all.get(i).getRecordId(), pruned.get(i).getRecordId());
+    }
+  }
+
+  /**
+   * Unit test for deleting tuples from a PaxFile
+   */
+  @Test public void delete() throws Exception {
+    TransactionId tid = new TransactionId();
+    SeqScan scan = new SeqScan(tid, table.getId(), "t", Permissions.READ_WRITE, null);
+    scan.open();
+    int deleted = 0;
+    while (scan.hasNext()) {
+      Tuple t = scan.next();
+      if (((IntField) t.getField(1)).getValue() == 0) {
+        Database.getBufferPool().deleteTuple(tid, t);
+        deleted++;
+      }
+    }
+    scan.close();
+    Database.getBufferPool().transactionComplete(tid);
+    Database.resetBufferPool(50);
+
+    List<Tuple> rest = scan(new int[] {1});
+    assertEquals(ROWS - deleted, rest.size());
+    for (Tuple t : rest) {
+      assertTrue(((IntField) t.getField(0)).getValue() != 0);
+    }
+  }
+
+  /**
+   * Unit test for PaxPage.getPageData() after a partial decode
+   */
+  @Test public void pageData() throws Exception {
+    HeapPageId pid = new HeapPageId(table.getId(), 0);
+    byte[] data = table.readPage(pid).getPageData();
+    PaxPage page = new PaxPage(pid, data);
+    page.iterator(new int[] {1}, table.getTupleDesc().project(new int[] {1})).next();
+    assertArrayEquals(data, page.getPageData());
+
+    Tuple t = page.iterator().next();
+    page.deleteTuple(t);
+    assertFalse(page.isSlotUsed(t.getRecordId().getTupleNumber()));
+    PaxPage reread = new PaxPage(pid, page.getPageData());
+    assertEquals(page.getNumEmptySlots(), reread.getNumEmptySlots());
+  }
+
+  /**
+   * Unit test for the size and contents of a compressed PaxFile
+   */
+  @Test public void compressed() throws Exception {
+    PaxFile file = compressedTable(ROWS);
+    // an uncompressed page holds 30 tuples of this schema
+    assertEquals(1, file.numPages());
+
+    List<Tuple> all = scan(file, null);
+    assertEquals(ROWS, all.size());
+    for (int i = 0; i < ROWS; i++) {
+      assertRow(i, all.get(i));
+    }
+    List<Tuple> pruned = scan(file, new int[] {2, 1});
+    for (int i = 0; i < ROWS; i++) {
+      assertEquals(all.get(i).getField(2), pruned.get(i).getField(0));
+      assertEquals(all.get(i).getField(1), pruned.get(i).getField(1));
+    }
+  }
+
+  /**
+   * Unit test for filling a compressed PaxFile, deleting from it and
+   * reusing the freed slots
+   */
+  @Test public void compressedDeleteAndInsert() throws Exception {
+    int rows = 6000;
+    PaxFile file = compressedTable(rows);
+    int pages = file.numPages();
+    assertTrue(pages > 1);
+    assertEquals(rows, scan(file, new int[] {0}).size());
+
+    TransactionId tid = new TransactionId();
+    SeqScan scan = new SeqScan(tid, file.getId(), "t", Permissions.READ_WRITE, null);
+    scan.open();
+    List<Integer> deleted = new ArrayList<>();
+    while (scan.hasNext()) {
+      Tuple t = scan.next();
+      if (((IntField) t.getField(1)).getValue() == 3) {
+        Database.getBufferPool().deleteTuple(tid, t);
+        deleted.add(((IntField) t.getField(0)).getValue() - 1000000);
+      }
+    }
+    scan.close();
+    // the rows fit back into the slots they were deleted from
+    for (int i : deleted) {
+      Database.getBufferPool().insertTuple(tid, file.getId(), row(file.getTupleDesc(), i));
+    }
+    Database.getBufferPool().transactionComplete(tid);
+    Database.resetBufferPool(50);
+
+    assertEquals(pages, file.numPages());
+    List<Tuple> all = scan(file, null);
+    assertEquals(rows, all.size());
+    for (int i = 0; i < rows; i++) {
+      assertRow(i, all.get(i));
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(PaxFileTest.class);
+  }
+}
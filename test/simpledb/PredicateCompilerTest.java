@@ -0,0 +1,90 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.Filter;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.PredicateCompiler;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class PredicateCompilerTest extends SimpleDbTestBase {
+
+  private static Tuple tuple(Field f) {
+    Tuple t = new Tuple(new TupleDesc(new Type[] { f.getType() }));
+    t.setField(0, f);
+    return t;
+  }
+
+  /**
+   * Unit test for compiled predicates over INT and STRING fields, against
+   * Field.compare
+   */
+  @Test public void compile() {
+    Field[] ints = { new IntField(-1), new IntField(0), new IntField(1) };
+    Field[] strings = { new StringField("ab", Type.STRING_LEN),
+        new StringField("b", Type.STRING_LEN), new StringField("abc", Type.STRING_LEN) };
+    for (Field[] values : new Field[][] { ints, strings }) {
+      for (Predicate.Op op : Predicate.Op.values()) {
+        for (Field operand : values) {
+          PredicateCompiler.Test test = PredicateCompiler.compile(new Predicate(0, op, operand));
+          for (Field value : values) {
+            assertEquals(value + " " + op + " " + operand,
+                value.compare(op, operand), test.test(tuple(value)));
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Unit test for compiled join predicates, against Field.compare
+   */
+  @Test public void compileJoin() {
+    for (Predicate.Op op : Predicate.Op.values()) {
+      PredicateCompiler.JoinTest test = PredicateCompiler.compile(
+          new JoinPredicate(1, op, 0), Type.INT_TYPE, Type.INT_TYPE);
+      for (int i = -1; i <= 1; i++) {
+        Tuple t1 = Utility.getHeapTuple(new int[] { 5, 0 });
+        Tuple t2 = Utility.getHeapTuple(i);
+        assertEquals(t1.getField(1).compare(op, t2.getField(0)), test.test(t1, t2));
+      }
+    }
+  }
+
+  /**
+   * Unit test for a chain of Filters, which the topmost one evaluates
+   */
+  @Test public void filterChain() throws Exception {
+    OpIterator scan = TestUtil.createTupleList(2,
+        new int[] { 1, 10,  2, 20,  3, 30,  4, 40,  5, 50 });
+    OpIterator chain = new Filter(new Predicate(1, Predicate.Op.NOT_EQUALS, new IntField(30)),
+        new Filter(new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(1)),
+            new Filter(new Predicate(0, Predicate.Op.LESS_THAN_OR_EQ, new IntField(4)), scan)));
+    chain.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(2,
+        new int[] { 2, 20,  4, 40 }), chain);
+    chain.rewind();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(2,
+        new int[] { 2, 20,  4, 40 }), chain);
+    chain.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(PredicateCompilerTest.class);
+  }
+}
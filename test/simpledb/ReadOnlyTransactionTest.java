@@ -0,0 +1,167 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.storage.Tuple;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+import java.util.Iterator;
+
+public class ReadOnlyTransactionTest extends TestUtil.CreateHeapFile {
+    private PageId p0;
+    private BufferPool bp;
+
+    /** Time to wait before checking the state of lock contention, in ms */
+    private static final int TIMEOUT = 100;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 10; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        p0 = new HeapPageId(empty.getId(), 0);
+        bp.getPage(tid, p0, Permissions.READ_WRITE).markDirty(true, tid);
+        bp.flushAllPages();
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /**
+     * A read-only transaction is not blocked by another transaction's
+     * exclusive lock.
+     */
+    @Test public void ignoresExclusiveLock() throws Exception {
+        bp.getPage(new TransactionId(), p0, Permissions.READ_WRITE);
+
+        TestUtil.LockGrabber t = new TestUtil.LockGrabber(new TransactionId(true), p0, Permissions.READ_ONLY);
+        t.start();
+        Thread.sleep(TIMEOUT);
+        assertTrue(t.acquired());
+        t.stop();
+    }
+
+    /**
+     * A read-only transaction sees the committed image of a page another
+     * transaction has dirtied, and never takes a lock on it.
+     */
+    @Test public void seesCommittedImage() throws Exception {
+        TransactionId writer = new TransactionId();
+        HeapPage dirty = (HeapPage) bp.getPage(writer, p0, Permissions.READ_WRITE);
+        Tuple victim = dirty.iterator().next();
+        dirty.deleteTuple(victim);
+        dirty.markDirty(true, writer);
+
+        TransactionId reader = new TransactionId(true);
+        HeapPage seen = (HeapPage) bp.getPage(reader, p0, Permissions.READ_ONLY);
+        assertEquals(dirty.getNumEmptySlots() - 1, seen.getNumEmptySlots());
+        assertFalse(bp.holdsLock(reader, p0));
+    }
+
+    private static int count(HeapPage page) {
+        int n = 0;
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); it.next()) {
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * A writer's change stays invisible to read-only transactions until it
+     * commits: while the writer is changing the cached page and has not yet
+     * marked it dirty, once it has, and on a page a reader fetched before
+     * the change but scans after it.
+     */
+    @Test public void readsCommitted() throws Exception {
+        HeapPage earlier = (HeapPage) bp.getPage(new TransactionId(true), p0, Permissions.READ_ONLY);
+
+        TransactionId writer = new TransactionId();
+        HeapPage live = (HeapPage) bp.getPage(writer, p0, Permissions.READ_WRITE);
+        live.insertTuple(Utility.getHeapTuple(100, 2));
+        HeapPage during = (HeapPage) bp.getPage(new TransactionId(true), p0, Permissions.READ_ONLY);
+        assertEquals(10, count(during));
+
+        live.markDirty(true, writer);
+        HeapPage dirty = (HeapPage) bp.getPage(new TransactionId(true), p0, Permissions.READ_ONLY);
+        assertEquals(10, count(dirty));
+        assertEquals(10, count(earlier));
+
+        bp.transactionComplete(writer);
+        HeapPage after = (HeapPage) bp.getPage(new TransactionId(true), p0, Permissions.READ_ONLY);
+        assertEquals(11, count(after));
+    }
+
+    /**
+     * A read-only transaction sees a commit that changed several pages
+     * either entirely or not at all, even when it first reads some of the
+     * pages after the commit.
+     */
+    @Test public void seesWholeCommits() throws Exception {
+        PageId p1 = new HeapPageId(empty.getId(), 1);
+        empty.writePage(new HeapPage((HeapPageId) p1, HeapPage.createEmptyPageData()));
+
+        TransactionId reader = new TransactionId(true);
+        assertEquals(10, count((HeapPage) bp.getPage(reader, p0, Permissions.READ_ONLY)));
+
+        TransactionId writer = new TransactionId();
+        for (PageId pid : new PageId[] { p0, p1 }) {
+            HeapPage page = (HeapPage) bp.getPage(writer, pid, Permissions.READ_WRITE);
+            page.insertTuple(Utility.getHeapTuple(100, 2));
+            page.markDirty(true, writer);
+        }
+        bp.transactionComplete(writer);
+
+        assertEquals(0, count((HeapPage) bp.getPage(reader, p1, Permissions.READ_ONLY)));
+        assertEquals(10, count((HeapPage) bp.getPage(reader, p0, Permissions.READ_ONLY)));
+        bp.transactionComplete(reader);
+
+        TransactionId later = new TransactionId(true);
+        assertEquals(11, count((HeapPage) bp.getPage(later, p0, Permissions.READ_ONLY)));
+        assertEquals(1, count((HeapPage) bp.getPage(later, p1, Permissions.READ_ONLY)));
+        bp.transactionComplete(later);
+    }
+
+    /**
+     * Read-only transactions cannot ask for write permission or modify tuples.
+     */
+    @Test(expected = DbException.class) public void rejectsWritePermission() throws Exception {
+        bp.getPage(new TransactionId(true), p0, Permissions.READ_WRITE);
+    }
+
+    @Test(expected = DbException.class) public void rejectsInsert() throws Exception {
+        bp.insertTuple(new TransactionId(true), empty.getId(), Utility.getHeapTuple(1, 2));
+    }
+
+    /**
+     * Starting and committing a read-only transaction writes no log records.
+     */
+    @Test public void writesNoLogRecords() throws Exception {
+        int before = Database.getLogFile().getTotalRecords();
+        Transaction t = new Transaction(true);
+        t.start();
+        bp.getPage(t.getId(), p0, Permissions.READ_ONLY);
+        t.commit();
+        assertEquals(before, Database.getLogFile().getTotalRecords());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadOnlyTransactionTest.class);
+    }
+}
@@ -0,0 +1,176 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Tuple;
+import simpledb.transaction.Transaction;
+
+public class SavepointTest extends TestUtil.CreateHeapFile {
+    private BufferPool bp;
+    private Transaction t;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        t = new Transaction();
+        t.start();
+    }
+
+    private void insert(int from, int to) throws Exception {
+        for (int i = from; i < to; ++i) {
+            bp.insertTuple(t.getId(), empty.getId(), Utility.getHeapTuple(i, 2));
+        }
+    }
+
+    private int count() throws Exception {
+        DbFileIterator it = empty.iterator(t.getId());
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * Rolling back to a savepoint undoes only the work done after it.
+     */
+    @Test public void rollbackKeepsEarlierWork() throws Exception {
+        insert(0, 5);
+        t.setSavepoint("a");
+        insert(5, 600);
+        assertEquals(600, count());
+
+        t.rollbackToSavepoint("a");
+        assertEquals(5, count());
+
+        // the savepoint survives the rollback
+        insert(5, 8);
+        t.rollbackToSavepoint("a");
+        assertEquals(5, count());
+
+        t.commit();
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        t = new Transaction();
+        t.start();
+        assertEquals(5, count());
+    }
+
+    /**
+     * Deletes are undone as well as inserts.
+     */
+    @Test public void rollbackUndoesDelete() throws Exception {
+        insert(0, 5);
+        t.setSavepoint("a");
+        DbFileIterator it = empty.iterator(t.getId());
+        it.open();
+        Tuple victim = it.next();
+        it.close();
+        bp.deleteTuple(t.getId(), victim);
+        assertEquals(4, count());
+
+        t.rollbackToSavepoint("a");
+        assertEquals(5, count());
+    }
+
+    /**
+     * A page that was clean at the savepoint is written back on commit,
+     * even if the changes made to it since were already flushed.
+     */
+    @Test public void rollbackReachesDisk() throws Exception {
+        insert(0, 5);
+        t.commit();
+        t = new Transaction();
+        t.start();
+
+        t.setSavepoint("a");
+        insert(5, 8);
+        bp.flushPages(t.getId());
+        t.rollbackToSavepoint("a");
+        assertEquals(5, count());
+        t.commit();
+
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        t = new Transaction();
+        t.start();
+        assertEquals(5, count());
+    }
+
+    /**
+     * Rolling back to a savepoint discards the savepoints set after it.
+     */
+    @Test public void nestedSavepoints() throws Exception {
+        t.setSavepoint("a");
+        insert(0, 3);
+        t.setSavepoint("b");
+        insert(3, 6);
+        t.rollbackToSavepoint("b");
+        assertEquals(3, count());
+
+        t.rollbackToSavepoint("a");
+        assertEquals(0, count());
+        try {
+            t.rollbackToSavepoint("b");
+            fail("savepoint b should have been discarded");
+        } catch (DbException expected) {
+        }
+    }
+
+    /**
+     * Releasing a savepoint keeps its work but an earlier savepoint still
+     * undoes it.
+     */
+    @Test public void releaseSavepoint() throws Exception {
+        t.setSavepoint("a");
+        insert(0, 3);
+        t.setSavepoint("b");
+        insert(3, 6);
+        t.releaseSavepoint("b");
+        assertEquals(6, count());
+
+        t.rollbackToSavepoint("a");
+        assertEquals(0, count());
+    }
+
+    /**
+     * Aborting after a partial rollback still undoes everything.
+     */
+    @Test public void abortAfterRollback() throws Exception {
+        insert(0, 5);
+        t.setSavepoint("a");
+        insert(5, 10);
+        t.rollbackToSavepoint("a");
+        t.abort();
+
+        t = new Transaction();
+        t.start();
+        assertEquals(0, count());
+    }
+
+    /**
+     * Setting and rolling back to a savepoint each write a log record.
+     */
+    @Test public void writesLogRecords() throws Exception {
+        int before = Database.getLogFile().getTotalRecords();
+        t.setSavepoint("a");
+        t.rollbackToSavepoint("a");
+        assertEquals(before + 2, Database.getLogFile().getTotalRecords());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SavepointTest.class);
+    }
+}
@@ -0,0 +1,208 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.SlottedPage;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.ZoneMap;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class SlottedPageTest extends SimpleDbTestBase {
+
+  private static final int ROWS = 1000;
+
+  private HeapFile table;
+
+  /** Set up an empty slotted (INT, STRING) table and fill it through the BufferPool */
+  @Before public void setUp() throws Exception {
+    File f = File.createTempFile("slotted", ".dat");
+    f.deleteOnExit();
+    ZoneMap.sideFile(f).deleteOnExit();
+    TupleDesc td = new TupleDesc(new Type[] {Type.INT_TYPE, Type.STRING_TYPE});
+    table = new HeapFile(f, td, true);
+    Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < ROWS; i++) {
+      Database.getBufferPool().insertTuple(tid, table.getId(), row(i));
+    }
+    Database.getBufferPool().transactionComplete(tid);
+    Database.resetBufferPool(50);
+  }
+
+  // every tenth row has a string longer than Type.STRING_LEN, which must
+  // come back whole
+  private Tuple row(int i) {
+    StringBuilder s = new StringBuilder("row" + i);
+    if (i % 10 == 0) {
+      while (s.length() < 2 * Type.STRING_LEN) {
+        s.append('-').append(i);
+      }
+    }
+    Tuple t = new Tuple(table.getTupleDesc());
+    t.setField(0, new IntField(i));
+    t.setField(1, new StringField(s.toString()));
+    return t;
+  }
+
+  // a row whose record is larger than a page
+  private Tuple hugeRow() {
+    StringBuilder s = new StringBuilder();
+    while (s.length() < BufferPool.getPageSize()) {
+      s.append("too long ");
+    }
+    Tuple t = new Tuple(table.getTupleDesc());
+    t.setField(0, new IntField(-1));
+    t.setField(1, new StringField(s.toString()));
+    return t;
+  }
+
+  private List<Tuple> scan() throws Exception {
+    TransactionId tid = new TransactionId();
+    SeqScan scan = new SeqScan(tid, table.getId(), "t");
+    List<Tuple> result = new ArrayList<>();
+    scan.open();
+    while (scan.hasNext()) {
+      result.add(scan.next());
+    }
+    scan.close();
+    Database.getBufferPool().transactionComplete(tid);
+    return result;
+  }
+
+  // short rows fill the room left by long ones on earlier pages, so the
+  // rows come back in no particular order
+  private void assertRows(List<Tuple> all) {
+    assertEquals(ROWS, all.size());
+    boolean[] seen = new boolean[ROWS];
+    for (Tuple t : all) {
+      int i = ((IntField) t.getField(0)).getValue();
+      assertFalse(seen[i]);
+      seen[i] = true;
+      assertEquals(row(i).getField(1), t.getField(1));
+    }
+  }
+
+  /**
+   * Unit test for the size and contents of a slotted HeapFile
+   */
+  @Test public void readBack() throws Exception {
+    // a fixed-width page holds 30 tuples of this schema, so 34 pages, but
+    // the records here take 41KB
+    assertEquals(11, table.numPages());
+    assertRows(scan());
+  }
+
+  /**
+   * Unit test for reclaiming the space of deleted tuples
+   */
+  @Test public void deleteAndInsert() throws Exception {
+    int pages = table.numPages();
+    TransactionId tid = new TransactionId();
+    SeqScan scan = new SeqScan(tid, table.getId(), "t", Permissions.READ_WRITE, null);
+    scan.open();
+    List<Integer> deleted = new ArrayList<>();
+    while (scan.hasNext()) {
+      Tuple t = scan.next();
+      int i = ((IntField) t.getField(0)).getValue();
+      if (i % 3 == 0) {
+        Database.getBufferPool().deleteTuple(tid, t);
+        deleted.add(i);
+      }
+    }
+    scan.close();
+    Database.getBufferPool().transactionComplete(tid);
+    Database.resetBufferPool(50);
+    assertEquals(ROWS - deleted.size(), scan().size());
+
+    tid = new TransactionId();
+    for (int i : deleted) {
+      Database.getBufferPool().insertTuple(tid, table.getId(), row(i));
+    }
+    Database.getBufferPool().transactionComplete(tid);
+    Database.resetBufferPool(50);
+
+    assertEquals(pages, table.numPages());
+    assertRows(scan());
+  }
+
+  /**
+   * Unit test for SlottedPage.getPageData() and a full page
+   */
+  @Test public void pageData() throws Exception {
+    HeapPageId pid = new HeapPageId(table.getId(), 0);
+    byte[] data = table.readPage(pid).getPageData();
+    SlottedPage page = new SlottedPage(pid, data);
+    assertArrayEquals(data, page.getPageData());
+
+    Iterator<Tuple> it = page.iterator();
+    Tuple first = it.next();
+    page.deleteTuple(first);
+    SlottedPage reread = new SlottedPage(pid, page.getPageData());
+    assertFalse(reread.isSlotUsed(first.getRecordId().getTupleNumber()));
+    assertEquals(page.getNumEmptySlots(), reread.getNumEmptySlots());
+    assertTrue(reread.hasRoomFor(first));
+    reread.insertTuple(first);
+    assertArrayEquals(data, reread.getPageData());
+
+    // a tuple larger than the page never fits
+    Tuple huge = hugeRow();
+    assertFalse(new SlottedPage(pid, SlottedPage.createEmptyPageData()).hasRoomFor(huge));
+    try {
+      reread.insertTuple(huge);
+      throw new AssertionError("insert should have failed");
+    } catch (DbException e) {
+      // expected
+    }
+  }
+
+  /**
+   * Unit test for inserting a tuple too large for any page
+   */
+  @Test public void tooLarge() throws Exception {
+    int pages = table.numPages();
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < 3; i++) {
+      try {
+        Database.getBufferPool().insertTuple(tid, table.getId(), hugeRow());
+        throw new AssertionError("insert should have failed");
+      } catch (DbException e) {
+        // expected
+      }
+    }
+    Database.getBufferPool().transactionComplete(tid);
+    assertEquals(pages, table.numPages());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SlottedPageTest.class);
+  }
+}
@@ -0,0 +1,85 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.execution.Join;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SortMergeJoin;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+  final int width1 = 2;
+  final int width2 = 3;
+
+  // both sorted on their first field, with repeated join values
+  final int[] left = { 1, 0,  2, 1,  2, 2,  4, 3,  5, 4,  5, 5,  9, 6 };
+  final int[] right = { 0, 0, 0,  2, 1, 1,  2, 2, 2,  3, 3, 3,  5, 4, 4,  6, 5, 5 };
+
+  // check that the merge join returns the same tuples as a nested loops join
+  private void checkAgainstNestedLoops(Predicate.Op op) throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, op, 0);
+    Join expected = new Join(pred, TestUtil.createTupleList(width1, left),
+        TestUtil.createTupleList(width2, right));
+    SortMergeJoin actual = new SortMergeJoin(pred, TestUtil.createTupleList(width1, left),
+        TestUtil.createTupleList(width2, right));
+    expected.open();
+    actual.open();
+    TestUtil.matchAllTuples(expected, actual);
+    actual.rewind();
+    expected.rewind();
+    TestUtil.matchAllTuples(actual, expected);
+    actual.close();
+    expected.close();
+  }
+
+  /**
+   * Unit test for an equality merge join with duplicates on both sides
+   */
+  @Test public void equals() throws Exception {
+    checkAgainstNestedLoops(Predicate.Op.EQUALS);
+  }
+
+  /**
+   * Unit test for band merge joins in each direction
+   */
+  @Test public void bands() throws Exception {
+    checkAgainstNestedLoops(Predicate.Op.LESS_THAN);
+    checkAgainstNestedLoops(Predicate.Op.LESS_THAN_OR_EQ);
+    checkAgainstNestedLoops(Predicate.Op.GREATER_THAN);
+    checkAgainstNestedLoops(Predicate.Op.GREATER_THAN_OR_EQ);
+  }
+
+  /**
+   * Unit test that an equality merge join stops once either input runs out,
+   * so it finishes even when the other input is too large to read
+   */
+  @Test public void stopsEarly() throws Exception {
+    OpIterator small = TestUtil.createTupleList(width1, new int[] { 3, 0,  4, 1 });
+    OpIterator huge = new TestUtil.MockScan(0, Integer.MAX_VALUE, width2);
+    SortMergeJoin op = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), huge, small);
+    op.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(width2 + width1,
+        new int[] { 3, 3, 3, 3, 0,  4, 4, 4, 4, 1 }), op);
+    op.close();
+  }
+
+  /**
+   * Unit test that predicates a merge join cannot evaluate are rejected
+   */
+  @Test(expected = IllegalArgumentException.class) public void notEquals() {
+    new SortMergeJoin(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0),
+        TestUtil.createTupleList(width1, left), TestUtil.createTupleList(width2, right));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortMergeJoinTest.class);
+  }
+}
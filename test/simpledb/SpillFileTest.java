@@ -0,0 +1,79 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Utility;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.SpillFile;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SpillFileTest extends SimpleDbTestBase {
+
+  final int width = 3;
+  SpillFile file;
+
+  @Before public void setUp() throws Exception {
+    file = new SpillFile(Utility.getTupleDesc(width));
+  }
+
+  @After public void tearDown() {
+    file.delete();
+  }
+
+  /**
+   * Tuples come back in the order they were added, across several pages,
+   * including a partially filled last page.
+   */
+  @Test public void readBack() throws Exception {
+    int n = SpillFile.tuplesPerPage(file.getTupleDesc()) * 3 + 7;
+    for (int i = 0; i < n; i++) {
+      file.add(Utility.getHeapTuple(i, width));
+    }
+    assertEquals(n, file.numTuples());
+
+    DbFileIterator it = file.iterator();
+    it.open();
+    for (int i = 0; i < n; i++) {
+      assertTrue(it.hasNext());
+      Tuple t = it.next();
+      assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(i, width), t));
+    }
+    assertFalse(it.hasNext());
+
+    it.rewind();
+    assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(0, width), it.next()));
+    it.close();
+  }
+
+  /**
+   * Tuples added after reading started are seen by the next scan.
+   */
+  @Test public void appendAfterRead() throws Exception {
+    file.add(Utility.getHeapTuple(1, width));
+    DbFileIterator it = file.iterator();
+    it.open();
+    assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(1, width), it.next()));
+    assertFalse(it.hasNext());
+
+    file.add(Utility.getHeapTuple(2, width));
+    it.rewind();
+    it.next();
+    assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(2, width), it.next()));
+    it.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SpillFileTest.class);
+  }
+}
@@ -11,6 +11,8 @@ import org.junit.Assert;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.execution.Predicate;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
 import simpledb.optimizer.TableStats;
 import simpledb.storage.Field;
 import simpledb.storage.HeapFile;
@@ -95,6 +97,18 @@ public class TableStatsTest extends SimpleDbTestBase {
 		
 	}
 	
+	/**
+	 * Verify the statistics of a table stored in a B+ tree file
+	 */
+	@Test public void btreeFileTest() throws Exception {
+		BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 5000, 32, null, new ArrayList<>(), 0);
+		String tableName = SystemTestUtil.getUUID();
+		Database.getCatalog().addTable(bf, tableName);
+		TableStats s = new TableStats(Database.getCatalog().getTableId(tableName), IO_COST);
+		Assert.assertEquals(bf.numPages() * IO_COST, s.estimateScanCost(), 0.001);
+		Assert.assertEquals(5000, s.estimateTableCardinality(1.0));
+	}
+
 	/**
 	 * Verify the table-cardinality estimates based on a selectivity estimate
 	 */
@@ -0,0 +1,97 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.execution.Limit;
+import simpledb.execution.OpIterator;
+import simpledb.execution.TopN;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TopNTest extends SimpleDbTestBase {
+
+  final int width = 2;
+
+  /**
+   * Unit test for TopN keeping the smallest tuples, with ties in input order
+   */
+  @Test public void smallestWithTies() throws Exception {
+    OpIterator scan = TestUtil.createTupleList(width,
+        new int[] { 5, 1,  2, 2,  9, 3,  2, 4,  1, 5,  7, 6 });
+    TopN op = new TopN(new int[] { 0 }, new boolean[] { true }, 3, scan);
+    op.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(width,
+        new int[] { 1, 5,  2, 2,  2, 4 }), op);
+
+    op.rewind();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(width,
+        new int[] { 1, 5,  2, 2,  2, 4 }), op);
+    op.close();
+  }
+
+  /**
+   * Unit test for TopN in descending order with a limit larger than the input
+   */
+  @Test public void limitLargerThanInput() throws Exception {
+    OpIterator scan = TestUtil.createTupleList(width,
+        new int[] { 3, 1,  1, 2,  2, 3 });
+    TopN op = new TopN(new int[] { 0 }, new boolean[] { false }, 10, scan);
+    op.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(width,
+        new int[] { 3, 1,  2, 3,  1, 2 }), op);
+    op.close();
+  }
+
+  /**
+   * Unit test for TopN with a limit of zero
+   */
+  @Test public void zeroLimit() throws Exception {
+    TopN op = new TopN(new int[] { 0 }, new boolean[] { true }, 0,
+        TestUtil.createTupleList(width, new int[] { 3, 1,  1, 2 }));
+    op.open();
+    assertFalse(op.hasNext());
+    op.close();
+  }
+
+  /**
+   * Unit test for Limit skipping an offset
+   */
+  @Test public void limitOffset() throws Exception {
+    OpIterator scan = TestUtil.createTupleList(width,
+        new int[] { 1, 1,  2, 2,  3, 3,  4, 4,  5, 5 });
+    Limit op = new Limit(2, 1, scan);
+    op.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(width,
+        new int[] { 2, 2,  3, 3 }), op);
+
+    op.rewind();
+    assertEquals(2, ((IntField) op.next().getField(0)).getValue());
+    op.close();
+  }
+
+  /**
+   * Unit test that Limit stops reading its child once it has enough tuples,
+   * so it returns even on an input that is too large to read
+   */
+  @Test public void limitStopsEarly() throws Exception {
+    OpIterator scan = new TestUtil.MockScan(0, Integer.MAX_VALUE, width);
+    Limit op = new Limit(3, 2, scan);
+    op.open();
+    for (int i = 2; i < 5; i++) {
+      assertEquals(i, ((IntField) op.next().getField(0)).getValue());
+    }
+    assertFalse(op.hasNext());
+    op.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TopNTest.class);
+  }
+}
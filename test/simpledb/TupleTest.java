@@ -1,10 +1,13 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Test;
 
+import simpledb.common.Type;
 import simpledb.common.Utility;
 import simpledb.storage.*;
 import simpledb.systemtest.SimpleDbTestBase;
@@ -59,6 +62,40 @@ public class TupleTest extends SimpleDbTestBase {
 	}
     }
 
+    /**
+     * Unit test for Tuple.getInt(), Tuple.getString() and Tuple.compareField()
+     */
+    @Test public void typedAccess() {
+        TupleDesc td = new TupleDesc(new Type[] {Type.INT_TYPE, Type.STRING_TYPE});
+        Tuple a = new Tuple(td);
+        a.setField(0, new IntField(-5));
+        a.setField(1, new StringField("apple", Type.STRING_LEN));
+        Tuple b = new Tuple(td);
+        b.setField(0, new IntField(3));
+        b.setField(1, new StringField("apples", Type.STRING_LEN));
+
+        assertEquals(-5, a.getInt(0));
+        assertEquals("apples", b.getString(1));
+        assertTrue(a.compareField(0, b, 0) < 0);
+        assertTrue(b.compareField(0, a, 0) > 0);
+        assertEquals(0, a.compareField(0, a, 0));
+        assertTrue(a.compareField(1, b, 1) < 0);
+        assertTrue(b.compareField(1, a, 1) > 0);
+        assertEquals(0, b.compareField(1, b, 1));
+    }
+
+    /**
+     * Unit test for IntField.valueOf()
+     */
+    @Test public void intFieldValueOf() {
+        assertSame(IntField.valueOf(7), IntField.valueOf(7));
+        assertSame(IntField.valueOf(-128), IntField.valueOf(-128));
+        assertEquals(new IntField(1 << 20), IntField.valueOf(1 << 20));
+        assertEquals(-129, IntField.valueOf(-129).getValue());
+        assertEquals(1023, IntField.valueOf(1023).getValue());
+        assertEquals(1024, IntField.valueOf(1024).getValue());
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,240 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.CompositePredicate;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.IntField;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+import simpledb.storage.Tuple;
+import simpledb.storage.ZoneMap;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+
+  private static final int PAGES = 10;
+  private static final int PER_PAGE = 504; // two INT fields per tuple
+
+  /** Counts the pages read from disk */
+  private static class InstrumentedHeapFile extends HeapFile {
+    int readCount;
+
+    InstrumentedHeapFile(File f) {
+      super(f, Utility.getTupleDesc(2));
+    }
+
+    @Override
+    public Page readPage(PageId pid) throws NoSuchElementException {
+      readCount++;
+      return super.readPage(pid);
+    }
+  }
+
+  private InstrumentedHeapFile table;
+  private List<List<Integer>> tuples;
+  private File file;
+
+  /**
+   * Set up a table whose first field ascends, so each page holds a
+   * distinct range of it, and whose second field repeats 0..9
+   */
+  @Before public void setUp() throws IOException {
+    tuples = new ArrayList<>();
+    for (int i = 0; i < PAGES * PER_PAGE; i++) {
+      tuples.add(Arrays.asList(i, i % 10));
+    }
+    file = File.createTempFile("zonemap", ".dat");
+    file.deleteOnExit();
+    ZoneMap.sideFile(file).deleteOnExit();
+    HeapFileEncoder.convert(tuples, file, BufferPool.getPageSize(), 2);
+    open(file);
+  }
+
+  private void open(File f) {
+    table = new InstrumentedHeapFile(f);
+    Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+  }
+
+  // write tuples to f, dated before f's side file
+  private static void replace(File f, List<List<Integer>> tuples) throws IOException {
+    File replacement = File.createTempFile("zonemap", ".dat");
+    replacement.deleteOnExit();
+    HeapFileEncoder.convert(tuples, replacement, BufferPool.getPageSize(), 2);
+    Files.copy(replacement.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    assertTrue(f.setLastModified(ZoneMap.sideFile(f).lastModified() - 60000));
+  }
+
+  private static CompositePredicate cmp(int field, Predicate.Op op, int value) {
+    return CompositePredicate.of(new Predicate(field, op, new IntField(value)));
+  }
+
+  // scan the table through a filter, from disk, checking the result
+  private void scan(CompositePredicate condition, List<List<Integer>> expected) throws Exception {
+    Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    table.readCount = 0;
+    TransactionId tid = new TransactionId();
+    OpIterator it = new Filter(condition, new SeqScan(tid, table.getId(), "t"));
+    SystemTestUtil.matchTuples(it, expected);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  private List<List<Integer>> matching(CompositePredicate condition) {
+    List<List<Integer>> result = new ArrayList<>();
+    for (List<Integer> t : tuples) {
+      if (condition.filter(Utility.getHeapTuple(new int[] { t.get(0), t.get(1) }))) {
+        result.add(t);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Unit test that pages are skipped once their ranges are known, and that
+   * AND, OR and NOT of comparisons are used to skip them
+   */
+  @Test public void skipPages() throws Exception {
+    CompositePredicate first = cmp(0, Predicate.Op.LESS_THAN, 10);
+    // the ranges are unknown until every page has been read once
+    scan(first, matching(first));
+    assertEquals(PAGES, table.readCount);
+    scan(first, matching(first));
+    assertEquals(1, table.readCount);
+
+    CompositePredicate ends = CompositePredicate.or(Arrays.asList(
+        cmp(0, Predicate.Op.LESS_THAN, PER_PAGE),
+        cmp(0, Predicate.Op.GREATER_THAN_OR_EQ, (PAGES - 1) * PER_PAGE)));
+    scan(ends, matching(ends));
+    assertEquals(2, table.readCount);
+
+    CompositePredicate notMiddle = CompositePredicate.not(CompositePredicate.and(Arrays.asList(
+        cmp(0, Predicate.Op.GREATER_THAN_OR_EQ, PER_PAGE),
+        cmp(0, Predicate.Op.LESS_THAN, (PAGES - 1) * PER_PAGE))));
+    scan(notMiddle, matching(notMiddle));
+    assertEquals(2, table.readCount);
+
+    // the second field spans every page
+    CompositePredicate second = cmp(1, Predicate.Op.EQUALS, 3);
+    scan(second, matching(second));
+    assertEquals(PAGES, table.readCount);
+  }
+
+  /**
+   * Unit test that inserting a tuple widens its page's ranges, and deleting
+   * one does not narrow them
+   */
+  @Test public void insertAndDelete() throws Exception {
+    CompositePredicate big = cmp(0, Predicate.Op.GREATER_THAN, 100000);
+    scan(big, matching(big));
+
+    // free a slot on the first page, and put a tuple matching big there
+    TransactionId tid = new TransactionId();
+    SeqScan all = new SeqScan(tid, table.getId(), "t");
+    all.open();
+    Tuple first = all.next();
+    all.close();
+    Database.getBufferPool().deleteTuple(tid, first);
+    Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[] { 200000, 0 }));
+    Database.getBufferPool().transactionComplete(tid);
+    Database.getBufferPool().flushAllPages();
+
+    scan(big, Arrays.asList(Arrays.asList(200000, 0)));
+    assertTrue(table.readCount >= 1);
+
+    CompositePredicate zero = cmp(0, Predicate.Op.EQUALS, 0);
+    scan(zero, new ArrayList<>());
+    assertEquals(1, table.readCount);
+  }
+
+  /**
+   * Unit test that a page restored by a savepoint rollback still widens its
+   * ranges on insert, so the same transaction's filtered scan finds the
+   * tuple
+   */
+  @Test public void insertAfterRollback() throws Exception {
+    CompositePredicate big = cmp(0, Predicate.Op.GREATER_THAN, 100000);
+    scan(big, matching(big));
+
+    TransactionId tid = new TransactionId();
+    SeqScan all = new SeqScan(tid, table.getId(), "t");
+    all.open();
+    Tuple first = all.next();
+    all.close();
+    Database.getBufferPool().deleteTuple(tid, first);
+    Database.getBufferPool().setSavepoint(tid, "s");
+    Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[] { 1, 1 }));
+    Database.getBufferPool().rollbackToSavepoint(tid, "s");
+    Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[] { 200000, 0 }));
+
+    OpIterator it = new Filter(big, new SeqScan(tid, table.getId(), "t"));
+    SystemTestUtil.matchTuples(it, Arrays.asList(Arrays.asList(200000, 0)));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Unit test that a heap file replaced underneath its side file, though
+   * dated before it, is scanned by its own contents, both by the zone map
+   * already open and by one read from the side file
+   */
+  @Test public void replacedHeapFile() throws Exception {
+    CompositePredicate first = cmp(0, Predicate.Op.LESS_THAN, 10);
+    scan(first, matching(first));
+    scan(first, matching(first));
+    assertEquals(1, table.readCount);
+
+    // the same tuples in reverse, so the first ones are on the last page
+    List<List<Integer>> reversed = new ArrayList<>(tuples);
+    Collections.reverse(reversed);
+
+    // a copy of the heap file and its side file, opened afresh
+    File copy = File.createTempFile("zonemap", ".dat");
+    copy.deleteOnExit();
+    ZoneMap.sideFile(copy).deleteOnExit();
+    Files.copy(ZoneMap.sideFile(file).toPath(), ZoneMap.sideFile(copy).toPath(),
+        StandardCopyOption.REPLACE_EXISTING);
+    replace(copy, reversed);
+    open(copy);
+    scan(first, matching(first));
+    assertEquals(PAGES, table.readCount);
+
+    // the original file, replaced while its zone map is open
+    replace(file, reversed);
+    open(file);
+    scan(first, matching(first));
+    assertEquals(PAGES, table.readCount);
+    scan(first, matching(first));
+    assertEquals(1, table.readCount);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ZoneMapTest.class);
+  }
+}
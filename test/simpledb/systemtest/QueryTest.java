@@ -12,6 +12,7 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.storage.HeapFile;
 import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.ZoneMap;
 import simpledb.Parser;
 import simpledb.optimizer.TableStats;
 import simpledb.transaction.Transaction;
@@ -31,6 +32,7 @@ public class QueryTest {
 	public static HeapFile createDuplicateHeapFile(List<List<Integer>> tuples, int columns, String colPrefix) throws IOException {
         File temp = File.createTempFile("table", ".dat");
         temp.deleteOnExit();
+        ZoneMap.sideFile(temp).deleteOnExit();
         HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), columns);
         return Utility.openHeapFile(columns, colPrefix, temp);
 	}
@@ -2,6 +2,7 @@ package simpledb.systemtest;
 
 import simpledb.common.Database;
 import simpledb.common.DbException;
+import simpledb.common.Permissions;
 import simpledb.common.Utility;
 import simpledb.execution.SeqScan;
 import simpledb.storage.*;
@@ -11,6 +12,7 @@ import static org.junit.Assert.*;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Random;
@@ -73,6 +75,46 @@ public class ScanTest extends SimpleDbTestBase {
         Database.getBufferPool().transactionComplete(tid);
     }
 
+    /** Test a scan that returns only some columns, in a given order. */
+    @Test public void testColumns() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(4, 1000, null, tuples);
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId(), "table", Permissions.READ_ONLY, new int[]{3, 1});
+        assertEquals(2, scan.getTupleDesc().numFields());
+        assertEquals("table." + f.getTupleDesc().getFieldName(3), scan.getTupleDesc().getFieldName(0));
+        assertEquals(1, scan.getTableField(1));
+        scan.open();
+        for (List<Integer> tuple : tuples) {
+            assertTrue(scan.hasNext());
+            Tuple t = scan.next();
+            assertEquals(2, t.getTupleDesc().numFields());
+            assertEquals(tuple.get(3), SystemTestUtil.tupleToList(t).get(0));
+            assertEquals(tuple.get(1), SystemTestUtil.tupleToList(t).get(1));
+            assertNotNull(t.getRecordId());
+        }
+        assertFalse(scan.hasNext());
+        scan.close();
+
+        // the partitions of a parallel scan are restricted the same way
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> tuple : tuples) {
+            expected.add(Arrays.asList(tuple.get(3), tuple.get(1)));
+        }
+        List<List<Integer>> found = new ArrayList<>();
+        for (int p = 0; p < 3; p++) {
+            SeqScan part = new SeqScan(tid, f.getId(), "table", p, 3, new int[]{3, 1});
+            part.open();
+            while (part.hasNext()) {
+                found.add(SystemTestUtil.tupleToList(part.next()));
+            }
+            part.close();
+        }
+        assertEquals(expected, found);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
     /** Verifies that the buffer pool is actually caching data.
      * @throws TransactionAbortedException
      * @throws DbException */